@@ -0,0 +1,119 @@
+package org.tantama.anchoco.springcrib.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.univapay.sdk.models.common.ChargeId;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Set;
+import java.util.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.tantama.anchoco.springcrib.helper.JsonHelper;
+import org.tantama.anchoco.springcrib.univapay.Univapay;
+
+/**
+ * Univapayのwebhookの受信<br>
+ * 課金状態の通知を受け、確認待ちの課金を即時に確認する。
+ * 通知の内容で課金を完了させず、課金を取得し直して確認するため、偽の通知で課金が完了することはない<br>
+ * tips. Univapayの管理画面でwebhookの送信先に{@code <context-path>/univapay/webhook}を、
+ * 認証トークンに{@code univapay.webhook.token}の値を設定する
+ */
+@Slf4j
+@RestController
+public class UnivapayWebhookController {
+
+    /** webhookの受信先 */
+    public static final String PATH = "/univapay/webhook";
+
+    /** 課金状態の通知のイベント */
+    private static final Set<String> CHARGE_EVENTS = Set.of("charge_finished", "charge_updated");
+
+    /** 認証ヘッダの接頭辞 */
+    private static final String BEARER = "Bearer ";
+
+    /** Univapayへの接続 */
+    private final Univapay univapay;
+
+    /** webhookの認証トークン。設定しない場合は全ての通知を拒否する */
+    private final byte[] token;
+
+    /**
+     * コンストラクタ
+     *
+     * @param univapay Univapayへの接続
+     * @param token    webhookの認証トークン
+     */
+    public UnivapayWebhookController(Univapay univapay, @Value("${univapay.webhook.token:}") String token) {
+        this.univapay = univapay;
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * webhookの受信<br>
+     * 確認待ちでない課金や、課金以外のイベントの通知は無視する。
+     * Univapayは200以外の応答で再送するため、無視した通知も200を返す
+     *
+     * @param authorization 認証ヘッダ
+     * @param body          通知内容(json)
+     * @return 認証できない場合は401、通知内容が不正な場合は400、それ以外は200
+     */
+    @PostMapping(path = PATH, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Void> receive(
+            @RequestHeader(name = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+            @RequestBody String body) {
+
+        if (!authorized(authorization)) {
+            log.warn("univapay webhook is unauthorized.");
+            return ResponseEntity.status(401).build();
+        }
+
+        final JsonNode node;
+        try {
+            node = JsonHelper.toNode(body);
+        } catch (UncheckedIOException e) {
+            log.warn("univapay webhook body is not json. {}", e.toString());
+            return ResponseEntity.badRequest().build();
+        }
+
+        final String event = node.path("event").asText();
+        if (!CHARGE_EVENTS.contains(event)) {
+            log.debug("univapay webhook event {} is ignored.", event);
+            return ResponseEntity.ok().build();
+        }
+
+        final ChargeId chargeId;
+        try {
+            chargeId = new ChargeId(UUID.fromString(node.path("data").path("id").asText()));
+        } catch (IllegalArgumentException e) {
+            log.warn("univapay webhook charge id is invalid. {}", e.toString());
+            return ResponseEntity.badRequest().build();
+        }
+
+        final boolean pending = univapay.notifyChargeStatus(chargeId);
+        log.debug("univapay webhook {} : charge id {}, pending {}", event, chargeId, pending);
+        return ResponseEntity.ok().build();
+    }
+
+    /**
+     * 認証トークンの確認<br>
+     * 処理時間で一致した長さがわからないよう、固定時間で比較する
+     *
+     * @param authorization 認証ヘッダ
+     * @return 認証トークンが一致する場合true
+     */
+    private boolean authorized(String authorization) {
+        if (token.length == 0 || authorization == null) {
+            return false;
+        }
+        final String value = authorization.startsWith(BEARER) ? authorization.substring(BEARER.length()) : authorization;
+        return MessageDigest.isEqual(token, value.getBytes(StandardCharsets.UTF_8));
+    }
+}
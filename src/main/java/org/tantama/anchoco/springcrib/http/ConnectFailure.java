@@ -0,0 +1,34 @@
+package org.tantama.anchoco.springcrib.http;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.util.function.Predicate;
+
+/**
+ * 接続の確立前の通信エラーの判定<br>
+ * 名前解決の失敗、接続の拒否、接続タイムアウトを対象とする。
+ * リクエストを送信していないことが確実なため、冪等でないpostでもリトライできる。
+ * 読み取りタイムアウトなど、送信後のエラーは接続先で処理済みの可能性があるため対象としない。
+ * リトライ設定の{@code exception-predicate}に指定する
+ */
+public class ConnectFailure implements Predicate<Throwable> {
+
+    /**
+     * 接続の確立前の通信エラーかどうか<br>
+     * 発生したエラーの原因(cause)も対象とする
+     *
+     * @param error 発生したエラー
+     * @return 接続の確立前の通信エラーの場合true
+     */
+    @Override
+    public boolean test(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause() == e ? null : e.getCause()) {
+            if (e instanceof ConnectException || e instanceof HttpConnectTimeoutException
+                    || e instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
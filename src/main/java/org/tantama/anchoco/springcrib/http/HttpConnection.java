@@ -1,6 +1,7 @@
 package org.tantama.anchoco.springcrib.http;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
@@ -13,15 +14,22 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
 import org.tantama.anchoco.springcrib.helper.JsonHelper;
+import org.tantama.anchoco.springcrib.resilience4j.ResilienceRetry;
+import org.tantama.anchoco.springcrib.resilience4j.RetryAfter;
 
 /**
  * {@link java.net.http.HttpClient}を利用した
  * Http接続サンプル
  */
 @Slf4j
+@Component
 public class HttpConnection {
 
+    /** 冪等キーのヘッダー名 */
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
     // notice. 本質はテストのスタブサーバーの利用方法
 
     // tips. 通信にrest templateではなくhttp clientを利用する理由の一つとして
@@ -34,21 +42,56 @@ public class HttpConnection {
     @Value("${rest.read.timeout-second:5}")
     private long readTimeout;
 
+    /**
+     * リトライ処理<br>
+     * 設定されていない場合はリトライしない
+     */
+    private final ResilienceRetry retry;
+
+    /**
+     * リトライ設定の名前<br>
+     * 流量制限(429)などのレスポンスでリトライする場合は、
+     * リトライ設定の{@code result-predicate}に{@link RetryableHttpStatus}を指定する
+     */
+    @Value("${rest.retry-policy:http}")
+    private String retryPolicy = "http";
+
+    /**
+     * 冪等キーのないpostのリトライ設定の名前<br>
+     * 接続先で処理済みの可能性がある場合はリトライしないよう、
+     * {@code exception-predicate}に{@link ConnectFailure}、{@code result-predicate}に{@link RetryAfterHttpStatus}を指定する
+     */
+    @Value("${rest.post-retry-policy:http-post}")
+    private String postRetryPolicy = "http-post";
+
+    /**
+     * コンストラクタ<br>
+     * パラメータの初期設定を行う。リトライは行わない
+     *
+     * @param connectionTimeout 接続タイムアウト値(秒)
+     */
+    public HttpConnection(long connectionTimeout) {
+        this(connectionTimeout, null);
+    }
+
     /**
      * コンストラクタ<br>
      * パラメータの初期設定を行う
      *
      * @param connectionTimeout 接続タイムアウト値(秒)
+     * @param retry             リトライ処理(nullの場合はリトライしない)
      */
     @Autowired
-    public HttpConnection(@Value("${rest.connection.timeout-second:5}") long connectionTimeout) {
+    public HttpConnection(@Value("${rest.connection.timeout-second:5}") long connectionTimeout, ResilienceRetry retry) {
         HttpClient.Builder builder = HttpClient.newBuilder();
         builder.connectTimeout(Duration.ofSeconds(connectionTimeout));
         this.httpClient = builder.build();
+        this.retry = retry;
     }
 
     /**
-     * postによるjson接続を行う
+     * postによるjson接続を行う<br>
+     * 冪等キーがないため、接続の確立前の通信エラーと、Retry-Afterを持つ429, 503のレスポンスのみリトライする
      *
      * @param <RequestDto>  リクエストの型
      * @param <ResponseDto> レスポンスの型
@@ -58,47 +101,92 @@ public class HttpConnection {
      * @return レスポンス情報
      */
     public <RequestDto, ResponseDto> ResponseDto postJson(URI url, RequestDto requestDto, Class<ResponseDto> responseClass) {
+        return postJson(url, requestDto, responseClass, null);
+    }
+
+    /**
+     * 冪等キーを指定したpostによるjson接続を行う<br>
+     * 冪等キーを{@value #IDEMPOTENCY_KEY}ヘッダーで送信し、接続先で重複した処理を防げるため、
+     * 通信エラーや一時的なエラーのレスポンスでもリトライする<br>
+     * notice. 冪等キーは業務上の1回の処理ごとに一意とし、リトライでは同じ値を送信する
+     *
+     * @param <RequestDto>   リクエストの型
+     * @param <ResponseDto>  レスポンスの型
+     * @param url            接続先url
+     * @param requestDto     リクエスト情報
+     * @param responseClass  レスポンスの型
+     * @param idempotencyKey 冪等キー(nullの場合は送信しない)
+     * @return レスポンス情報
+     */
+    public <RequestDto, ResponseDto> ResponseDto postJson(URI url, RequestDto requestDto, Class<ResponseDto> responseClass,
+            String idempotencyKey) {
 
         // http requestの作成
-        HttpRequest httpRequest = HttpRequest.newBuilder()
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
                 .timeout(Duration.ofSeconds(readTimeout))
                 .uri(url)
                 .headers("Content-Type", MediaType.APPLICATION_JSON_VALUE)
-                .POST(BodyPublishers.ofString(JsonHelper.toJson(requestDto)))
-                .build();
+                .POST(BodyPublishers.ofString(JsonHelper.toJson(requestDto)));
+        if (idempotencyKey != null) {
+            builder.header(IDEMPOTENCY_KEY, idempotencyKey);
+        }
+        HttpRequest httpRequest = builder.build();
+
+        // tips. リトライ設定でレスポンスのhttpステータスを判定し、Retry-Afterの時間を待ってリトライする
+        // notice. 冪等キーがない場合、送信後のエラーは接続先で処理済みの可能性があるため、二重登録を避けてリトライしない
+        HttpResponse<String> response = retry == null
+                ? send(httpRequest)
+                : retry.excuteRetry(idempotencyKey == null ? postRetryPolicy : retryPolicy, () -> send(httpRequest));
+
+        if (RetryableHttpStatus.isRetryable(response.statusCode())) {
+            log.warn("retryable response status {} is returned. retry-after : {}", response.statusCode(),
+                    response.headers().firstValue(RetryAfter.HEADER).orElse("-"));
+        }
+
+        // httpstatus handling.
+        switch (HttpStatus.resolve(response.statusCode())) {
+            case OK:
+                log.info("ok.");
+                break;
+            case CREATED:
+                // ok
+                log.info("created.");
+                break;
+            case CONFLICT:
+                // user already exists.
+                log.error("keycloak user already exists, exist username is {}.");
+                // throw new InternalServerException("user already exists.");
+                break;
+            case UNAUTHORIZED:
+                // 認証トークンの有効切れ
+                // time out error.
+                // throw new ConnectionTimeoutException("unauthorized.");
+                break;
+            default:
+                // それ以外の想定外のステータス
+                // server error
+                // throw new InternalServerException("response status is illegal " +
+                // response.statusCode() + ". ");
+                break;
+        }
+        return JsonHelper.toDto(response.body(), responseClass);
+    }
 
+    /**
+     * リクエストの送信
+     *
+     * @param httpRequest リクエスト
+     * @return レスポンス
+     * @throws UncheckedIOException 通信エラーの場合
+     */
+    private HttpResponse<String> send(HttpRequest httpRequest) {
         try {
-            HttpResponse<String> response = httpClient.send(httpRequest, BodyHandlers.ofString());
-
-            // httpstatus handling.
-            switch (HttpStatus.resolve(response.statusCode())) {
-                case OK:
-                    log.info("ok.");
-                    break;
-                case CREATED:
-                    // ok
-                    log.info("created.");
-                    break;
-                case CONFLICT:
-                    // user already exists.
-                    log.error("keycloak user already exists, exist username is {}.");
-                    // throw new InternalServerException("user already exists.");
-                    break;
-                case UNAUTHORIZED:
-                    // 認証トークンの有効切れ
-                    // time out error.
-                    // throw new ConnectionTimeoutException("unauthorized.");
-                    break;
-                default:
-                    // それ以外の想定外のステータス
-                    // server error
-                    // throw new InternalServerException("response status is illegal " +
-                    // response.statusCode() + ". ");
-                    break;
-            }
-            return JsonHelper.toDto(response.body(), responseClass);
-        } catch (IOException | InterruptedException e) {
-            // tips. 実際に利用する場合は適当なクラスにwrapする
+            return httpClient.send(httpRequest, BodyHandlers.ofString());
+        } catch (IOException e) {
+            // tips. リトライ設定でリトライ対象とできるよう、UncheckedIOExceptionにwrapする
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
         }
     }
@@ -117,4 +205,20 @@ public class HttpConnection {
         return postJson(URI.create(url), requestDto, responseClass);
     }
 
+    /**
+     * 冪等キーを指定したpostによるjson接続を行う
+     *
+     * @param <RequestDto>   リクエストの型
+     * @param <ResponseDto>  レスポンスの型
+     * @param url            接続先url
+     * @param requestDto     リクエスト情報
+     * @param responseClass  レスポンスの型
+     * @param idempotencyKey 冪等キー(nullの場合は送信しない)
+     * @return レスポンス情報
+     */
+    public <RequestDto, ResponseDto> ResponseDto postJson(String url, RequestDto requestDto, Class<ResponseDto> responseClass,
+            String idempotencyKey) {
+        return postJson(URI.create(url), requestDto, responseClass, idempotencyKey);
+    }
+
 }
@@ -0,0 +1,29 @@
+package org.tantama.anchoco.springcrib.http;
+
+import java.net.http.HttpResponse;
+import java.util.function.Predicate;
+import org.springframework.http.HttpStatus;
+import org.tantama.anchoco.springcrib.resilience4j.RetryAfter;
+
+/**
+ * 再送を指示されたhttpステータスの判定<br>
+ * Retry-Afterを持つ流量制限(429)とメンテナンス中(503)の{@link HttpResponse}をリトライ対象とする。
+ * 接続先がリクエストを処理していないことを示すため、冪等でないpostでもリトライできる。
+ * リトライ設定の{@code result-predicate}に指定する
+ */
+public class RetryAfterHttpStatus implements Predicate<Object> {
+
+    /**
+     * リトライするレスポンスかどうか
+     *
+     * @param result レスポンス
+     * @return Retry-Afterを持つ429, 503の{@link HttpResponse}の場合true
+     */
+    @Override
+    public boolean test(Object result) {
+        return result instanceof HttpResponse<?> response
+                && (response.statusCode() == HttpStatus.TOO_MANY_REQUESTS.value()
+                        || response.statusCode() == HttpStatus.SERVICE_UNAVAILABLE.value())
+                && response.headers().firstValue(RetryAfter.HEADER).isPresent();
+    }
+}
@@ -0,0 +1,42 @@
+package org.tantama.anchoco.springcrib.http;
+
+import java.net.http.HttpResponse;
+import java.util.Set;
+import java.util.function.Predicate;
+import org.springframework.http.HttpStatus;
+
+/**
+ * リトライするhttpステータスの判定<br>
+ * 流量制限(429)と、接続先や中継サーバーの一時的な停止(502, 503, 504)の{@link HttpResponse}をリトライ対象とする。
+ * リトライ設定の{@code result-predicate}に指定する
+ */
+public class RetryableHttpStatus implements Predicate<Object> {
+
+    /** リトライするhttpステータス */
+    private static final Set<Integer> RETRYABLE = Set.of(
+            HttpStatus.TOO_MANY_REQUESTS.value(),
+            HttpStatus.BAD_GATEWAY.value(),
+            HttpStatus.SERVICE_UNAVAILABLE.value(),
+            HttpStatus.GATEWAY_TIMEOUT.value());
+
+    /**
+     * リトライするレスポンスかどうか
+     *
+     * @param result レスポンス
+     * @return リトライするhttpステータスの{@link HttpResponse}の場合true
+     */
+    @Override
+    public boolean test(Object result) {
+        return result instanceof HttpResponse<?> response && isRetryable(response.statusCode());
+    }
+
+    /**
+     * リトライするhttpステータスかどうか
+     *
+     * @param statusCode httpステータス
+     * @return リトライするhttpステータスの場合true
+     */
+    public static boolean isRetryable(int statusCode) {
+        return RETRYABLE.contains(statusCode);
+    }
+}
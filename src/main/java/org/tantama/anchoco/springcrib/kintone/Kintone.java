@@ -1,19 +1,27 @@
 package org.tantama.anchoco.springcrib.kintone;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import com.kintone.client.KintoneClient;
 import com.kintone.client.KintoneClientBuilder;
 import com.kintone.client.api.common.BulkRequestsRequest;
+import com.kintone.client.api.record.GetRecordsRequest;
 import com.kintone.client.api.record.UpdateRecordRequest;
 import com.kintone.client.model.record.Record;
 import com.kintone.client.model.record.RecordForUpdate;
-import com.kintone.client.model.record.SingleLineTextFieldValue;
 
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
+import org.tantama.anchoco.springcrib.kintone.KintoneRequestScheduler.Priority;
+import org.tantama.anchoco.springcrib.resilience4j.ResilienceRetry;
 
 /**
  * kintone cybozuの操作
@@ -22,6 +30,9 @@ import lombok.extern.slf4j.Slf4j;
 @Component
 public class Kintone {
 
+    /** kintoneのレコードとDtoの変換 */
+    private static final KintoneRecordMapper<KintonePojo> MAPPER = KintoneRecordMapper.of(KintonePojo.class);
+
     /** ログインID */
     private final String user = "キントーンのログインユーザー名";
     /** パスワード */
@@ -40,8 +51,70 @@ public class Kintone {
      */
     private final int appId = 46;
 
-    /** kintone API のURL */
-    private final String url = "https://" + domain + ".cybozu.com";
+    /**
+     * kintone API のURL<br>
+     * 未設定の場合はドメインから作成する。ローカルのスタブなどに接続する場合に設定する
+     */
+    @Value("${kintone.url:}")
+    private String url;
+
+    /** レコードキャッシュの件数上限 */
+    @Value("${kintone.cache.max-size:1000}")
+    private int cacheMaxSize;
+
+    /** レコードキャッシュの有効期間(s) */
+    @Value("${kintone.cache.ttl-seconds:60}")
+    private long cacheTtlSeconds;
+
+    /** レコードキャッシュ */
+    private KintoneRecordCache recordCache;
+
+    /** リクエストの実行制御 */
+    private final KintoneRequestScheduler scheduler;
+
+    /**
+     * リトライ処理<br>
+     * レコードの取得をリトライする。更新は二重に反映しないよう、リトライしない。
+     * 設定されていない場合はリトライしない
+     */
+    @Autowired(required = false)
+    private ResilienceRetry retry;
+
+    /** リトライ設定の名前 */
+    @Value("${kintone.retry-policy:kintone}")
+    private String retryPolicy = "kintone";
+
+    /**
+     * コンストラクタ
+     *
+     * @param scheduler リクエストの実行制御
+     */
+    public Kintone(KintoneRequestScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 初期化処理<br>
+     * 接続先の決定とレコードキャッシュの作成を行う
+     */
+    @PostConstruct
+    public void init() {
+        if (url == null || url.isEmpty()) {
+            url = "https://" + domain + ".cybozu.com";
+        }
+        recordCache = new KintoneRecordCache(cacheMaxSize, Duration.ofSeconds(cacheTtlSeconds),
+                this::fetchRecord, this::fetchRevision);
+    }
+
+    /**
+     * キントーンAPI実行部品の作成<br>
+     * 利用後は呼び出し側でcloseすること
+     *
+     * @return キントーンAPI実行部品
+     */
+    KintoneClient createClient() {
+        return KintoneClientBuilder.create(url).authByPassword(user, password).build();
+    }
 
     /**
      * 取得処理のサンプル<br>
@@ -52,7 +125,7 @@ public class Kintone {
      */
     public List<KintonePojo> getRecord() throws IOException {
 
-        try (KintoneClient client = KintoneClientBuilder.create(url).authByPassword(user, password).build()) {
+        try (KintoneClient client = createClient()) {
 
             // 指定条件無しで全レコード取得
             // List<Record> allRecords = client.record().getRecords(appId);
@@ -62,31 +135,108 @@ public class Kintone {
             // Record oneRecord = client.record().getRecord(appId, recordId);
 
             // 取得フィールドを制限して取得
+            // 取得フィールドはDtoの@KintoneFieldから作成する
             final int limit = 10;
             final int offset = 0;
-            List<String> fields = List.of("$id", "レコード番号", "会社名", "郵便番号", "更新日時");
-            List<Record> anyColumnRecords = client.record().getRecords(appId, fields, limit, offset);
+            List<String> fields = new ArrayList<>(MAPPER.fieldCodes());
+            fields.add("$id");
+            List<Record> anyColumnRecords = read(() -> scheduler.execute(appId, Priority.INTERACTIVE,
+                    () -> client.record().getRecords(appId, fields, limit, offset)));
 
             // 整形
             return anyColumnRecords.stream().map(record -> {
-                KintonePojo dto = new KintonePojo();
-
-                // キントーン側のフィールド形式に合わせてgetXXXXXメソッドで取得する
-                dto.setCompanyName(record.getSingleLineTextFieldValue("会社名"));
-                dto.setCompanyName(record.getSingleLineTextFieldValue("郵便番号"));
-                dto.setUpdateDatetime(record.getDateTimeFieldValue("更新日時"));
-
-                // レコードIDフィールドは指定は以下で取得(フィールド指定は「レコード番号」）できる
-                // IDフィールドとは違う
-                dto.setRecordId(Integer.parseInt(record.getRecordNumberFieldValue()));
+                // キントーン側のフィールド形式に合わせた取得はマッパーで行う
+                // notice. DtoのレコードID(フィールド指定は「レコード番号」）はIDフィールドとは違う
                 // f.g. id(フィールド指定は「$id」)
                 log.info("id is {}", record.getId());
 
-                return dto;
+                return MAPPER.toDto(record);
             }).toList();
         }
     }
 
+    /**
+     * レコードIDを指定して取得する<br>
+     * キャッシュを利用するため、返却したレコードは変更しないこと
+     *
+     * @param appId    アプリID
+     * @param recordId レコードID
+     * @return レコード
+     */
+    public Record getRecord(long appId, long recordId) {
+        return recordCache.get(appId, recordId);
+    }
+
+    /**
+     * レコードのキャッシュを無効化する<br>
+     * このクラスを経由せずにキントーンへ更新した場合に呼び出すこと
+     *
+     * @param appId    アプリID
+     * @param recordId レコードID
+     */
+    public void invalidateCache(long appId, long recordId) {
+        recordCache.invalidate(appId, recordId);
+    }
+
+    /**
+     * レコードキャッシュの取得<br>
+     * ヒット数などの参照用
+     *
+     * @return レコードキャッシュ
+     */
+    public KintoneRecordCache getRecordCache() {
+        return recordCache;
+    }
+
+    /**
+     * キントーンからレコードを取得する<br>
+     * リトライしても失敗した場合、リトライ設定の{@code stale-if-error}の範囲内であれば最後に取得したレコードを返す
+     *
+     * @param appId    アプリID
+     * @param recordId レコードID
+     * @return レコード
+     */
+    private Record fetchRecord(long appId, long recordId) {
+        Supplier<Record> call = () -> {
+            try (KintoneClient client = createClient()) {
+                return scheduler.execute(appId, Priority.INTERACTIVE, () -> client.record().getRecord(appId, recordId));
+            }
+        };
+        return retry == null ? call.get() : retry.excuteRetry(retryPolicy, List.of(appId, recordId), call);
+    }
+
+    /**
+     * キントーンからレコードのリビジョンのみを取得する
+     *
+     * @param appId    アプリID
+     * @param recordId レコードID
+     * @return リビジョン。レコードが存在しない場合null
+     */
+    private Long fetchRevision(long appId, long recordId) {
+        try (KintoneClient client = createClient()) {
+            GetRecordsRequest request = new GetRecordsRequest()
+                    .setApp(appId)
+                    .setFields(List.of("$id", "$revision"))
+                    .setQuery("$id = " + recordId);
+            return read(() -> scheduler.execute(appId, Priority.INTERACTIVE, () -> client.record().getRecords(request)))
+                    .getRecords().stream()
+                    .findFirst()
+                    .map(Record::getRevision)
+                    .orElse(null);
+        }
+    }
+
+    /**
+     * 取得処理をリトライ設定に基づいて行う
+     *
+     * @param <T>  レスポンスの型
+     * @param call 取得処理
+     * @return レスポンス
+     */
+    private <T> T read(Supplier<T> call) {
+        return retry == null ? call.get() : retry.excuteRetry(retryPolicy, call);
+    }
+
     /**
      * 更新処理のサンプル
      *
@@ -95,7 +245,7 @@ public class Kintone {
      */
     public void updateRecords(List<KintonePojo> dtoList) throws IOException {
 
-        try (KintoneClient client = KintoneClientBuilder.create(url).authByPassword(user, password).build()) {
+        try (KintoneClient client = createClient()) {
 
             // 単一の更新
             updateOneRecord(client, dtoList.get(0));
@@ -114,12 +264,15 @@ public class Kintone {
     private void updateOneRecord(KintoneClient client, KintonePojo dto) {
 
         // 更新したいフィールドの設定
-        Record record = new Record();
-        // 取得とは逆に、Fieldを指定して作成する
-        record.putField("会社名", new SingleLineTextFieldValue(dto.getCompanyName()));
-        record.putField("郵便番号", new SingleLineTextFieldValue(dto.getZipCode()));
+        // 取得とは逆に、Dtoの@KintoneFieldからFieldを作成する
+        Record record = MAPPER.toRecord(dto);
         // appId, recordIdを指定して更新
-        client.record().updateRecord(appId, dto.getRecordId(), record);
+        try {
+            scheduler.execute(appId, Priority.INTERACTIVE, () -> client.record().updateRecord(appId, dto.getRecordId(), record));
+        } finally {
+            // タイムアウトなどで失敗した場合も更新されている可能性を考慮して無効化する
+            recordCache.invalidate(appId, dto.getRecordId());
+        }
     }
 
     /**
@@ -131,18 +284,21 @@ public class Kintone {
     private void updateListRecord(KintoneClient client, List<KintonePojo> dtoList) {
 
         List<RecordForUpdate> updateList = dtoList.stream().map(dto -> {
-            // 更新したいフィールドの設定
-            Record record = new Record();
-            // 取得とは逆に、Fieldを指定して作成する
-            record.putField("会社名", new SingleLineTextFieldValue(dto.getCompanyName()));
-            record.putField("郵便番号", new SingleLineTextFieldValue(dto.getZipCode()));
             // 更新内容とrecordIdを紐付けたクラスRecordForUpdateを作成する
-            RecordForUpdate recordForUpdate = new RecordForUpdate(dto.getRecordId(), record);
-            return recordForUpdate;
+            return new RecordForUpdate(dto.getRecordId(), MAPPER.toRecord(dto));
         }).toList();
 
         // appId, 更新リストを指定して更新
-        client.record().updateRecords(appId, updateList);
+        // notice. 1リクエストで更新できるのは100件までのため分割して更新する
+        // 件数が多い場合は KintoneBulkWriter を利用すること
+        for (List<RecordForUpdate> chunk : KintoneBulkWriter.chunk(updateList, KintoneBulkWriter.MAX_RECORDS_PER_REQUEST)) {
+            try {
+                scheduler.execute(appId, Priority.INTERACTIVE, () -> client.record().updateRecords(appId, chunk));
+            } finally {
+                // 途中の分割で失敗した場合も、更新済みの分割と更新されている可能性がある分割を無効化する
+                chunk.forEach(update -> recordCache.invalidate(appId, update.getId()));
+            }
+        }
     }
 
 
@@ -161,7 +317,7 @@ public class Kintone {
     public void updateBulkRecord(long appId01, long recordId01,  Record updateRecord01,
             long appId02, long recordId02,  Record updateRecord02) throws IOException {
 
-         try (KintoneClient client = KintoneClientBuilder.create(url).authByPassword(user, password).build()) {
+         try (KintoneClient client = createClient()) {
 
              // 更新するデータを作成
              UpdateRecordRequest updateRequest01 = new UpdateRecordRequest()
@@ -176,7 +332,12 @@ public class Kintone {
              bulkRequest.registerUpdateRecord(updateRequest02);
 
              // キントーンへ更新処理を行う
-             client.bulkRequests(bulkRequest);
+             // notice. リクエスト数は1つ目のアプリに計上する
+             scheduler.execute(appId01, Priority.INTERACTIVE, () -> client.bulkRequests(bulkRequest));
+         } finally {
+             // 失敗した場合も一部が更新されている可能性を考慮して無効化する
+             recordCache.invalidate(appId01, recordId01);
+             recordCache.invalidate(appId02, recordId02);
          }
 
 
@@ -0,0 +1,37 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * キントーンへの一括更新のレコード単位の結果
+ */
+@Getter
+@AllArgsConstructor
+public class KintoneBulkResult {
+
+    /** 更新依頼リスト上の位置 */
+    private final int index;
+
+    /** レコードID。更新キーで更新し失敗した場合null */
+    private final Long recordId;
+
+    /** 更新後のリビジョン。失敗した場合null */
+    private final Long revision;
+
+    /**
+     * 失敗時のエラー。成功した場合null<br>
+     * notice. bulk requestはまとめて実行した全操作がロールバックされるため、
+     * 同じbulk requestで送信したレコードは同じエラーになる
+     */
+    private final RuntimeException error;
+
+    /**
+     * 成功判定
+     *
+     * @return 成功した場合true
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
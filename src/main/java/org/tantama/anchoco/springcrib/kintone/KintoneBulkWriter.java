@@ -0,0 +1,221 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import com.kintone.client.KintoneClient;
+import com.kintone.client.api.common.BulkRequestsRequest;
+import com.kintone.client.api.common.BulkRequestsResponseBody;
+import com.kintone.client.api.record.AddRecordsRequest;
+import com.kintone.client.api.record.AddRecordsResponseBody;
+import com.kintone.client.api.record.UpdateRecordsRequest;
+import com.kintone.client.api.record.UpdateRecordsResponseBody;
+import com.kintone.client.model.record.Record;
+import com.kintone.client.model.record.RecordForUpdate;
+import com.kintone.client.model.record.RecordRevision;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.tantama.anchoco.springcrib.kintone.KintoneRequestScheduler.Priority;
+
+/**
+ * キントーンへの一括更新/一括追加<br>
+ * 件数に関わらず、100件ごとの更新/追加リクエストに分割し、
+ * 20リクエストごとのbulk requestにまとめて並列に送信する
+ */
+@Slf4j
+@Component
+public class KintoneBulkWriter {
+
+    /** 1リクエストで更新できる最大件数(kintoneの上限) */
+    static final int MAX_RECORDS_PER_REQUEST = 100;
+
+    /** 1回のbulk requestにまとめられる最大リクエスト数(kintoneの上限) */
+    static final int MAX_REQUESTS_PER_BULK = 20;
+
+    /** キントーン操作 */
+    private final Kintone kintone;
+
+    /** リクエストの実行制御 */
+    private final KintoneRequestScheduler scheduler;
+
+    /** bulk requestの送信スレッド */
+    private final ExecutorService executor;
+
+    /**
+     * コンストラクタ
+     *
+     * @param kintone     キントーン操作
+     * @param scheduler   リクエストの実行制御
+     * @param concurrency bulk requestの同時送信数
+     */
+    public KintoneBulkWriter(Kintone kintone, KintoneRequestScheduler scheduler,
+            @Value("${kintone.bulk.concurrency:4}") int concurrency) {
+        this.kintone = kintone;
+        this.scheduler = scheduler;
+        this.executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "kintone-bulk-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 終了処理<br>
+     * 送信スレッドを停止する
+     */
+    @PreDestroy
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    /**
+     * レコードを一括更新する
+     *
+     * @param appId   アプリID
+     * @param records 更新内容
+     * @return レコード単位の結果。更新内容と同じ順序
+     */
+    public List<KintoneBulkResult> updateAll(long appId, List<RecordForUpdate> records) {
+        return writeAll(appId, records, List.of());
+    }
+
+    /**
+     * レコードを一括追加する
+     *
+     * @param appId   アプリID
+     * @param records 追加内容
+     * @return レコード単位の結果。追加内容と同じ順序
+     */
+    public List<KintoneBulkResult> addAll(long appId, List<Record> records) {
+        return writeAll(appId, List.of(), records);
+    }
+
+    /**
+     * レコードの一括更新と一括追加を、同じbulk requestにまとめて行う
+     *
+     * @param appId   アプリID
+     * @param updates 更新内容
+     * @param adds    追加内容
+     * @return レコード単位の結果。更新内容、追加内容の順
+     */
+    public List<KintoneBulkResult> writeAll(long appId, List<RecordForUpdate> updates, List<Record> adds) {
+
+        KintoneBulkResult[] results = new KintoneBulkResult[updates.size() + adds.size()];
+
+        List<Request> requests = new ArrayList<>();
+        int offset = 0;
+        for (List<RecordForUpdate> records : chunk(updates, MAX_RECORDS_PER_REQUEST)) {
+            requests.add(new Request(offset, records, List.of()));
+            offset += records.size();
+        }
+        for (List<Record> records : chunk(adds, MAX_RECORDS_PER_REQUEST)) {
+            requests.add(new Request(offset, List.of(), records));
+            offset += records.size();
+        }
+        List<List<Request>> bulks = chunk(requests, MAX_REQUESTS_PER_BULK);
+        log.debug("update {} records and add {} records by {} requests in {} bulk requests.",
+                updates.size(), adds.size(), requests.size(), bulks.size());
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (List<Request> bulk : bulks) {
+            futures.add(CompletableFuture.runAsync(() -> dispatch(appId, bulk, results), executor));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+
+        // 更新したレコードのキャッシュを無効化する
+        for (KintoneBulkResult result : results) {
+            if (result.getRecordId() != null) {
+                kintone.invalidateCache(appId, result.getRecordId());
+            }
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * bulk requestを送信し、結果を格納する
+     *
+     * @param appId   アプリID
+     * @param bulk    bulk requestにまとめるリクエスト
+     * @param results 結果の格納先
+     */
+    private void dispatch(long appId, List<Request> bulk, KintoneBulkResult[] results) {
+
+        BulkRequestsRequest bulkRequest = new BulkRequestsRequest();
+        for (Request request : bulk) {
+            if (request.adds().isEmpty()) {
+                bulkRequest.registerUpdateRecords(new UpdateRecordsRequest().setApp(appId).setRecords(request.updates()));
+            } else {
+                bulkRequest.registerAddRecords(new AddRecordsRequest().setApp(appId).setRecords(request.adds()));
+            }
+        }
+
+        try (KintoneClient client = kintone.createClient()) {
+            BulkRequestsResponseBody response = scheduler.execute(appId, Priority.BATCH, () -> client.bulkRequests(bulkRequest));
+
+            // 結果はbulk requestに登録した順に返却される
+            for (int i = 0; i < bulk.size(); i++) {
+                int index = bulk.get(i).offset();
+                Object result = response.getResults().get(i);
+                if (result instanceof UpdateRecordsResponseBody updated) {
+                    for (RecordRevision revision : updated.getRecords()) {
+                        results[index] = new KintoneBulkResult(index, revision.getId(), revision.getRevision(), null);
+                        index++;
+                    }
+                } else {
+                    AddRecordsResponseBody added = (AddRecordsResponseBody) result;
+                    for (int j = 0; j < added.getIds().size(); j++) {
+                        results[index] = new KintoneBulkResult(index, added.getIds().get(j), added.getRevisions().get(j), null);
+                        index++;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // bulk requestは全て成功するか全て失敗するため、含まれる全てのレコードを失敗とする
+            log.error("bulk request failed. {}", e.toString());
+            for (Request request : bulk) {
+                int index = request.offset();
+                for (RecordForUpdate record : request.updates()) {
+                    results[index] = new KintoneBulkResult(index, record.getId(), null, e);
+                    index++;
+                }
+                for (int j = 0; j < request.adds().size(); j++) {
+                    results[index] = new KintoneBulkResult(index, null, null, e);
+                    index++;
+                }
+            }
+        }
+    }
+
+    /**
+     * リストを指定件数ごとに分割する
+     *
+     * @param <T>  要素の型
+     * @param list 分割するリスト
+     * @param size 1つあたりの最大件数
+     * @return 分割したリスト
+     */
+    static <T> List<List<T>> chunk(List<T> list, int size) {
+
+        List<List<T>> chunks = new ArrayList<>();
+        for (int from = 0; from < list.size(); from += size) {
+            chunks.add(list.subList(from, Math.min(from + size, list.size())));
+        }
+        return chunks;
+    }
+
+    /**
+     * bulk requestにまとめる1リクエスト(更新または追加の一方のみ)
+     *
+     * @param offset  先頭レコードの結果の位置
+     * @param updates 更新内容
+     * @param adds    追加内容
+     */
+    private record Request(int offset, List<RecordForUpdate> updates, List<Record> adds) {
+    }
+}
@@ -0,0 +1,188 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import com.kintone.client.KintoneClient;
+import com.kintone.client.api.record.CreateCursorRequest;
+import com.kintone.client.api.record.GetRecordsRequest;
+import com.kintone.client.api.record.GetRecordsByCursorResponseBody;
+import com.kintone.client.model.record.Record;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.tantama.anchoco.springcrib.kintone.KintoneRequestScheduler.Priority;
+
+/**
+ * 更新日時を基準としたキントーンのレコードの差分同期<br>
+ * 前回同期した更新日時以降に更新されたレコードのみをカーソルで取得し、受け取り先へ渡す
+ */
+@Slf4j
+@Component
+public class KintoneDeltaSync {
+
+    /** 更新日時のフィールドコード */
+    static final String UPDATED_TIME_FIELD = "更新日時";
+
+    /** カーソルの1回の取得件数(kintoneの上限) */
+    private static final long CURSOR_SIZE = 500;
+
+    /** キントーン操作 */
+    private final Kintone kintone;
+
+    /** 取得済み位置の保存 */
+    private final KintoneWatermarkStore watermarkStore;
+
+    /** リクエストの実行制御 */
+    private final KintoneRequestScheduler scheduler;
+
+    /**
+     * コンストラクタ
+     *
+     * @param kintone        キントーン操作
+     * @param watermarkStore 取得済み位置の保存
+     * @param scheduler      リクエストの実行制御
+     */
+    public KintoneDeltaSync(Kintone kintone, KintoneWatermarkStore watermarkStore, KintoneRequestScheduler scheduler) {
+        this.kintone = kintone;
+        this.watermarkStore = watermarkStore;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 前回同期以降に更新されたレコードを受け取り先へ渡す<br>
+     * 受け取り先はupsert(同じレコードを複数回受け取っても問題ない)こと<br>
+     * notice. 更新日時の精度より短い間隔の更新を取りこぼさないよう、前回の更新日時と同時刻のレコードも再取得する
+     *
+     * @param appId  アプリID
+     * @param fields 取得フィールド
+     * @param sink   レコードの受け取り先
+     * @return 受け取り先へ渡した件数
+     */
+    public long sync(long appId, List<String> fields, Consumer<Record> sink) {
+        // 更新日時の昇順のため、ページの末尾まで受け渡し済みであれば次回はそこから再開できる
+        return read(appId, fields, watermarkStore.load(appId), sink, latest -> watermarkStore.save(appId, latest));
+    }
+
+    /**
+     * 指定した更新日時以降に更新されたレコードを受け取り先へ渡す<br>
+     * 取得済み位置は保存しないため、受け取り先の反映が完了してから呼び出し側で保存すること
+     *
+     * @param appId  アプリID
+     * @param fields 取得フィールド
+     * @param since  取得済み位置。emptyの場合全件
+     * @param sink   レコードの受け取り先
+     * @return 最後に受け取り先へ渡したレコードの更新日時。1件も無い場合since
+     */
+    public Optional<Instant> syncSince(long appId, List<String> fields, Optional<Instant> since, Consumer<Record> sink) {
+
+        AtomicReference<Optional<Instant>> watermark = new AtomicReference<>(since);
+        read(appId, fields, since, sink, latest -> watermark.set(Optional.of(latest)));
+        return watermark.get();
+    }
+
+    /**
+     * 現在の更新日時の最大値の取得<br>
+     * 全件取得の前に取得しておくと、全件取得の途中で更新されたレコードも次の差分同期で取得できる
+     *
+     * @param appId アプリID
+     * @return 更新日時の最大値。レコードが無い場合empty
+     */
+    public Optional<Instant> latest(long appId) {
+
+        try (KintoneClient client = kintone.createClient()) {
+            GetRecordsRequest request = new GetRecordsRequest()
+                    .setApp(appId)
+                    .setFields(List.of(UPDATED_TIME_FIELD))
+                    .setQuery("order by " + UPDATED_TIME_FIELD + " desc limit 1");
+            List<Record> records = scheduler.execute(appId, Priority.BATCH, () -> client.record().getRecords(request))
+                    .getRecords();
+            return records.stream().findFirst().map(record -> record.getUpdatedTimeFieldValue(UPDATED_TIME_FIELD).toInstant());
+        }
+    }
+
+    /**
+     * 指定した更新日時以降に更新されたレコードをカーソルで取得し、受け取り先へ渡す
+     *
+     * @param appId   アプリID
+     * @param fields  取得フィールド
+     * @param since   取得済み位置。emptyの場合全件
+     * @param sink    レコードの受け取り先
+     * @param pageEnd ページの受け渡し完了時の処理。ページの最後のレコードの更新日時を受け取る
+     * @return 受け取り先へ渡した件数
+     */
+    private long read(long appId, List<String> fields, Optional<Instant> since, Consumer<Record> sink,
+            Consumer<Instant> pageEnd) {
+
+        List<String> fetchFields = new ArrayList<>(fields);
+        if (!fetchFields.contains(UPDATED_TIME_FIELD)) {
+            fetchFields.add(UPDATED_TIME_FIELD);
+        }
+
+        String query = since
+                .map(instant -> UPDATED_TIME_FIELD + " >= \"" + instant.truncatedTo(ChronoUnit.SECONDS) + "\" ")
+                .orElse("")
+                + "order by " + UPDATED_TIME_FIELD + " asc, $id asc";
+        log.debug("delta sync app {} query : {}", appId, query);
+
+        long count = 0;
+        try (KintoneClient client = kintone.createClient()) {
+            CreateCursorRequest request = new CreateCursorRequest()
+                    .setApp(appId)
+                    .setFields(fetchFields)
+                    .setQuery(query)
+                    .setSize(CURSOR_SIZE);
+            String cursorId = scheduler.execute(appId, Priority.BATCH, () -> client.record().createCursor(request)).getId();
+
+            boolean hasNext = true;
+            try {
+                while (hasNext) {
+                    GetRecordsByCursorResponseBody page = scheduler.execute(appId, Priority.BATCH,
+                            () -> client.record().getRecordsByCursor(cursorId));
+                    Instant latest = null;
+                    for (Record record : page.getRecords()) {
+                        sink.accept(record);
+                        ZonedDateTime updated = record.getUpdatedTimeFieldValue(UPDATED_TIME_FIELD);
+                        latest = updated.toInstant();
+                        count++;
+                    }
+                    if (latest != null) {
+                        pageEnd.accept(latest);
+                    }
+                    hasNext = page.hasNext();
+                }
+            } finally {
+                if (hasNext) {
+                    // 途中で失敗した場合はカーソルが残るため削除する(ドメインあたりのカーソル数に上限がある)
+                    deleteCursorQuietly(client, appId, cursorId);
+                }
+            }
+        }
+
+        log.debug("delta sync app {} finished. {} records.", appId, count);
+        return count;
+    }
+
+    /**
+     * カーソルの削除<br>
+     * 削除の失敗で元のエラーが隠れないよう、失敗はログのみ出力する
+     *
+     * @param client   キントーンAPI実行部品
+     * @param appId    アプリID
+     * @param cursorId カーソルID
+     */
+    private void deleteCursorQuietly(KintoneClient client, long appId, String cursorId) {
+        try {
+            scheduler.execute(appId, Priority.BATCH, () -> {
+                client.record().deleteCursor(cursorId);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            log.warn("delete cursor failed. {}", e.toString());
+        }
+    }
+}
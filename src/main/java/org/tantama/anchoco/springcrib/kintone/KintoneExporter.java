@@ -0,0 +1,277 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.tantama.anchoco.springcrib.kintone.KintoneParallelReader.PartitionKey;
+
+/**
+ * キントーンのアプリのファイル出力<br>
+ * 取得したページを1行ずつファイルへ書き出し、全件をメモリに保持しない。
+ * 保持するのは並列取得の読み出し待ちのページと書き込みバッファのみのため、件数が増えてもメモリ使用量は変わらない
+ */
+@Slf4j
+@Component
+public class KintoneExporter {
+
+    /** 出力形式 */
+    public enum Format {
+
+        /** 1行1レコードのjson */
+        NDJSON,
+
+        /** 先頭行をフィールドコードとしたcsv(RFC 4180) */
+        CSV
+    }
+
+    /** 書き込みバッファのサイズ */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** 進捗を通知する件数の間隔 */
+    private static final long PROGRESS_INTERVAL = 10_000;
+
+    /** json出力 */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /** 並列取得 */
+    private final KintoneParallelReader reader;
+
+    /**
+     * コンストラクタ
+     *
+     * @param reader 並列取得
+     */
+    public KintoneExporter(KintoneParallelReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * アプリの全レコードをファイルへ出力する<br>
+     * 出力するフィールドは{@link KintoneField}を付与したDtoで指定する。
+     * 一時ファイルに書き込んでから置き換えるため、途中で失敗しても出力先に書き込み途中のファイルは残らない
+     *
+     * @param <T>      Dtoの型
+     * @param appId    アプリID
+     * @param type     Dtoの型
+     * @param file     出力先
+     * @param format   出力形式
+     * @param gzip     trueの場合gzip圧縮する
+     * @param progress 進捗(出力済みの件数)の通知先
+     * @return 出力した件数
+     */
+    public <T> long export(long appId, Class<T> type, Path file, Format format, boolean gzip, LongConsumer progress) {
+
+        KintoneRecordMapper<T> mapper = KintoneRecordMapper.of(type);
+        // notice. 出力順はレコード番号順にならない(順序を保証すると全件をメモリに保持するため)
+        try (Stream<T> dtos = reader.fetch(appId, mapper.fieldCodes(), "", PartitionKey.ID, false).map(mapper::toDto)) {
+            final long count = write(dtos, mapper, file, format, gzip, progress);
+            log.info("kintone app {} exported. {} records to {}", appId, count, file);
+            return count;
+        }
+    }
+
+    /**
+     * Dtoをファイルへ出力する
+     *
+     * @param <T>      Dtoの型
+     * @param dtos     Dto
+     * @param mapper   レコードとDtoの変換
+     * @param file     出力先
+     * @param format   出力形式
+     * @param gzip     trueの場合gzip圧縮する
+     * @param progress 進捗(出力済みの件数)の通知先
+     * @return 出力した件数
+     */
+    static <T> long write(Stream<T> dtos, KintoneRecordMapper<T> mapper, Path file, Format format, boolean gzip,
+            LongConsumer progress) {
+
+        try {
+            Path directory = file.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try {
+                long count;
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                        OutputStream out = open(channel, gzip)) {
+                    count = format == Format.NDJSON
+                            ? writeNdjson(dtos.iterator(), mapper, out, progress)
+                            : writeCsv(dtos.iterator(), mapper, out, progress);
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                progress.accept(count);
+                return count;
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 出力先を開く
+     *
+     * @param channel 出力先のファイル
+     * @param gzip    trueの場合gzip圧縮する
+     * @return 出力先
+     * @throws IOException 開けなかった場合
+     */
+    private static OutputStream open(FileChannel channel, boolean gzip) throws IOException {
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+        return gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : out;
+    }
+
+    /**
+     * NDJSONの出力
+     *
+     * @param <T>      Dtoの型
+     * @param dtos     Dto
+     * @param mapper   レコードとDtoの変換
+     * @param out      出力先
+     * @param progress 進捗の通知先
+     * @return 出力した件数
+     * @throws IOException 書き込みに失敗した場合
+     */
+    private static <T> long writeNdjson(Iterator<T> dtos, KintoneRecordMapper<T> mapper, OutputStream out,
+            LongConsumer progress) throws IOException {
+
+        final List<String> codes = mapper.fieldCodes();
+        long count = 0;
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            // 出力先のcloseは呼び出し元で行う
+            json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // レコードの区切りは改行のみとする(既定では空白が入る)
+            json.setRootValueSeparator(null);
+            while (dtos.hasNext()) {
+                List<Object> values = mapper.values(dtos.next());
+                json.writeStartObject();
+                for (int i = 0; i < codes.size(); i++) {
+                    writeJsonValue(json, codes.get(i), values.get(i));
+                }
+                json.writeEndObject();
+                json.writeRaw('\n');
+                reportProgress(++count, progress);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * jsonの項目の出力
+     *
+     * @param json  出力先
+     * @param code  フィールドコード
+     * @param value 値
+     * @throws IOException 書き込みに失敗した場合
+     */
+    private static void writeJsonValue(JsonGenerator json, String code, Object value) throws IOException {
+        json.writeFieldName(code);
+        if (value == null) {
+            json.writeNull();
+        } else if (value instanceof BigDecimal number) {
+            json.writeNumber(number);
+        } else if (value instanceof Integer number) {
+            json.writeNumber(number);
+        } else if (value instanceof Long number) {
+            json.writeNumber(number);
+        } else {
+            // 日時はISO-8601の文字列とする
+            json.writeString(value.toString());
+        }
+    }
+
+    /**
+     * CSVの出力
+     *
+     * @param <T>      Dtoの型
+     * @param dtos     Dto
+     * @param mapper   レコードとDtoの変換
+     * @param out      出力先
+     * @param progress 進捗の通知先
+     * @return 出力した件数
+     * @throws IOException 書き込みに失敗した場合
+     */
+    private static <T> long writeCsv(Iterator<T> dtos, KintoneRecordMapper<T> mapper, OutputStream out,
+            LongConsumer progress) throws IOException {
+
+        // 出力先のcloseは呼び出し元で行うため、flushのみ行う
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        writeCsvLine(writer, mapper.fieldCodes());
+        long count = 0;
+        while (dtos.hasNext()) {
+            writeCsvLine(writer, mapper.values(dtos.next()));
+            reportProgress(++count, progress);
+        }
+        writer.flush();
+        return count;
+    }
+
+    /**
+     * CSVの1行の出力
+     *
+     * @param writer 出力先
+     * @param values 値
+     * @throws IOException 書き込みに失敗した場合
+     */
+    private static void writeCsvLine(Writer writer, List<?> values) throws IOException {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            Object value = values.get(i);
+            if (value != null) {
+                writer.write(escapeCsv(value.toString()));
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    /**
+     * CSVの項目のエスケープ<br>
+     * カンマ、ダブルクォート、改行を含む場合のみダブルクォートで囲む
+     *
+     * @param value 値
+     * @return エスケープした値
+     */
+    static String escapeCsv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * 一定件数ごとに進捗を通知する
+     *
+     * @param count    出力済みの件数
+     * @param progress 進捗の通知先
+     */
+    private static void reportProgress(long count, LongConsumer progress) {
+        if (count % PROGRESS_INTERVAL == 0) {
+            progress.accept(count);
+            log.debug("kintone export progress : {}", count);
+        }
+    }
+}
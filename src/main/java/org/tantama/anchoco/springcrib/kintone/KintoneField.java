@@ -0,0 +1,32 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import com.kintone.client.model.record.FieldType;
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * キントーンのフィールドとDtoのフィールドの対応付け<br>
+ * {@link KintoneRecordMapper}で変換する
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface KintoneField {
+
+    /**
+     * フィールドコード
+     *
+     * @return フィールドコード
+     */
+    String code();
+
+    /**
+     * キントーン側のフィールド形式
+     *
+     * @return フィールド形式
+     */
+    FieldType type();
+}
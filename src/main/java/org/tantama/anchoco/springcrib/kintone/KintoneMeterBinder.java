@@ -0,0 +1,113 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+import org.springframework.stereotype.Component;
+
+/**
+ * キントーン操作のメトリクスの登録<br>
+ * Spring Boot Actuatorの{@link MeterRegistry}へ登録し、{@code /actuator/metrics}から参照できるようにする。
+ * レコードキャッシュのヒット率({@code kintone.cache.*})と、
+ * リクエストの実行枠の空き待ち、アプリ単位の残りリクエスト数({@code kintone.scheduler.*})を登録する<br>
+ * tips. 値は参照時に集計値から読み取るため、実行処理の中でメトリクスへの書き込みは行わない
+ */
+@Component
+public class KintoneMeterBinder implements MeterBinder {
+
+    /** キントーン操作 */
+    private final Kintone kintone;
+
+    /** リクエストの実行制御 */
+    private final KintoneRequestScheduler scheduler;
+
+    /**
+     * コンストラクタ
+     *
+     * @param kintone   キントーン操作
+     * @param scheduler リクエストの実行制御
+     */
+    public KintoneMeterBinder(Kintone kintone, KintoneRequestScheduler scheduler) {
+        this.kintone = kintone;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * メトリクスの登録
+     *
+     * @param registry 登録先
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bindCache(registry);
+        bindScheduler(registry);
+    }
+
+    /**
+     * レコードキャッシュの取得結果、件数の登録<br>
+     * tips. ヒット率は {@code (hit + revalidated) / (hit + revalidated + miss)} で求める
+     *
+     * @param registry 登録先
+     */
+    private void bindCache(MeterRegistry registry) {
+
+        cacheGets(registry, "hit", KintoneRecordCache::getHitCount, "records returned within the ttl");
+        cacheGets(registry, "revalidated", KintoneRecordCache::getRevalidatedCount,
+                "expired records returned because the revision was unchanged");
+        cacheGets(registry, "miss", KintoneRecordCache::getMissCount, "records fetched from kintone");
+        FunctionCounter.builder("kintone.cache.evictions", kintone, k -> k.getRecordCache().getEvictionCount())
+                .description("records evicted by the size limit")
+                .register(registry);
+        Gauge.builder("kintone.cache.size", kintone, k -> k.getRecordCache().size())
+                .description("cached records")
+                .register(registry);
+    }
+
+    /**
+     * リクエストの実行枠の空き待ち、拒否した数、アプリ単位の残りリクエスト数の登録<br>
+     * アプリはリクエストするまでわからないため、残りリクエスト数は初めてリクエストした時点で登録する
+     *
+     * @param registry 登録先
+     */
+    private void bindScheduler(MeterRegistry registry) {
+
+        FunctionTimer.builder("kintone.scheduler.wait", scheduler,
+                KintoneRequestScheduler::getAcquiredCount, KintoneRequestScheduler::getTotalWaitNanos,
+                TimeUnit.NANOSECONDS)
+                .description("time spent waiting for a request slot")
+                .register(registry);
+        FunctionCounter.builder("kintone.scheduler.rejected", scheduler, KintoneRequestScheduler::getRejectedCount)
+                .description("requests rejected by the daily quota")
+                .register(registry);
+        Gauge.builder("kintone.scheduler.running", scheduler, KintoneRequestScheduler::getRunning)
+                .register(registry);
+        Gauge.builder("kintone.scheduler.waiting", scheduler, KintoneRequestScheduler::getWaiting)
+                .register(registry);
+        scheduler.addAppListener(appId -> Gauge.builder("kintone.scheduler.quota.remaining", scheduler,
+                s -> s.getRemainingQuota(appId))
+                .tag("app", String.valueOf(appId))
+                .description("requests left for the app until midnight JST")
+                .register(registry));
+    }
+
+    /**
+     * レコードキャッシュの取得結果ごとの累計値の登録
+     *
+     * @param registry    登録先
+     * @param result      取得結果
+     * @param value       累計値の取得処理
+     * @param description 説明
+     */
+    private void cacheGets(MeterRegistry registry, String result, ToDoubleFunction<KintoneRecordCache> value,
+            String description) {
+        // notice. キャッシュはKintoneの初期処理で作成されるため、参照時にKintoneから取得する
+        FunctionCounter.builder("kintone.cache.gets", kintone, k -> value.applyAsDouble(k.getRecordCache()))
+                .tag("result", result)
+                .description(description)
+                .register(registry);
+    }
+}
@@ -0,0 +1,355 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import com.kintone.client.KintoneClient;
+import com.kintone.client.api.record.GetRecordsRequest;
+import com.kintone.client.model.record.Record;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.tantama.anchoco.springcrib.kintone.KintoneRequestScheduler.Priority;
+
+/**
+ * キントーンのレコードを範囲分割して並列に取得する<br>
+ * {@code $id}または{@code レコード番号}の範囲でアプリを分割し、
+ * 分割ごとに{@code キー > 前回の最終値}で読み進める(offsetを使わないため件数が多くても劣化しない)
+ */
+@Slf4j
+@Component
+public class KintoneParallelReader {
+
+    /** 1リクエストで取得できる最大件数(kintoneの上限) */
+    private static final int MAX_LIMIT = 500;
+
+    /** 分割キー */
+    public enum PartitionKey {
+
+        /** レコードID */
+        ID("$id"),
+
+        /** レコード番号 */
+        RECORD_NUMBER("レコード番号");
+
+        /** フィールドコード */
+        private final String fieldCode;
+
+        /**
+         * コンストラクタ
+         *
+         * @param fieldCode フィールドコード
+         */
+        PartitionKey(String fieldCode) {
+            this.fieldCode = fieldCode;
+        }
+
+        /**
+         * レコードからキーの値を取得する
+         *
+         * @param record レコード
+         * @return キーの値
+         */
+        long valueOf(Record record) {
+            return this == ID ? record.getId() : Long.parseLong(record.getRecordNumberFieldValue());
+        }
+    }
+
+    /** キントーン操作 */
+    private final Kintone kintone;
+
+    /** リクエストの実行制御 */
+    private final KintoneRequestScheduler scheduler;
+
+    /**
+     * 同時実行数<br>
+     * kintoneのドメイン単位の同時接続数上限(100)より十分小さくすること
+     */
+    @Value("${kintone.parallel.concurrency:4}")
+    private int concurrency;
+
+    /** 分割数 */
+    @Value("${kintone.parallel.partitions:8}")
+    private int partitions;
+
+    /** 読み出し待ちで保持するページ数の上限(順序を保証する場合は分割ごとに等分する) */
+    @Value("${kintone.parallel.buffer-pages:16}")
+    private int bufferPages;
+
+    /**
+     * コンストラクタ
+     *
+     * @param kintone   キントーン操作
+     * @param scheduler リクエストの実行制御
+     */
+    public KintoneParallelReader(Kintone kintone, KintoneRequestScheduler scheduler) {
+        this.kintone = kintone;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * レコードを並列に取得する<br>
+     * 返却したStreamは利用後にcloseすること(取得途中のスレッドを停止する)
+     *
+     * @param appId     アプリID
+     * @param fields    取得フィールド
+     * @param condition 絞り込み条件(order by, limitは指定しないこと)。条件無しの場合空文字
+     * @param key       分割キー
+     * @param ordered   trueの場合キーの昇順で返却する。falseの場合取得できた順に返却する
+     * @return 取得したレコード
+     */
+    public Stream<Record> fetch(long appId, List<String> fields, String condition, PartitionKey key, boolean ordered) {
+
+        List<String> fetchFields = new ArrayList<>(fields);
+        if (!fetchFields.contains(key.fieldCode)) {
+            // 読み進めるためにキーは必ず取得する
+            fetchFields.add(key.fieldCode);
+        }
+        final String where = condition == null || condition.isBlank() ? "" : "(" + condition + ") and ";
+
+        Optional<Long> min = findEdge(appId, key, where, "asc");
+        Optional<Long> max = findEdge(appId, key, where, "desc");
+        if (min.isEmpty() || max.isEmpty()) {
+            return Stream.empty();
+        }
+
+        List<long[]> ranges = split(min.get(), max.get(), partitions);
+        log.debug("app {} split into {} partitions.", appId, ranges.size());
+
+        // 順序を保証する場合は分割ごとのキュー、保証しない場合は全分割で共有するキュー
+        // 読み出し側が遅い場合は取得側を待たせ、メモリ上のページ数を制限する
+        List<BlockingQueue<Page>> queues = new ArrayList<>();
+        if (ordered) {
+            final int capacity = Math.max(1, bufferPages / ranges.size());
+            ranges.forEach(range -> queues.add(new ArrayBlockingQueue<>(capacity)));
+        } else {
+            queues.add(new ArrayBlockingQueue<>(Math.max(bufferPages, ranges.size())));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, ranges.size()),
+                new ReaderThreadFactory());
+        for (int i = 0; i < ranges.size(); i++) {
+            final long[] range = ranges.get(i);
+            final BlockingQueue<Page> queue = queues.get(ordered ? i : 0);
+            // notice. 分割は昇順に登録する。順序を保証する場合、読み出し中の分割より前の分割は読み終わっているため、
+            // 読み出し中の分割は必ず実行中になる(後続の分割のキューが満杯でも止まらない)
+            executor.execute(() -> {
+                try {
+                    readRange(appId, fetchFields, where, key, range, records -> put(queue, new Page(records, null)));
+                    put(queue, Page.END);
+                } catch (RuntimeException e) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        // closeによる中断のため、読み出し側は既にいない
+                        return;
+                    }
+                    put(queue, new Page(List.of(), e));
+                }
+            });
+        }
+        // 全分割を読み終えたスレッドは終了させる(closeされなかった場合もスレッドを残さない)
+        executor.shutdown();
+
+        Iterator<List<Record>> pages = new PageIterator(queues, ranges.size());
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages, Spliterator.NONNULL), false)
+                .flatMap(List::stream)
+                .onClose(executor::shutdownNow);
+    }
+
+    /**
+     * 範囲内のレコードをキーの昇順にページ単位で読み進める
+     *
+     * @param appId  アプリID
+     * @param fields 取得フィールド
+     * @param where  絞り込み条件
+     * @param key    分割キー
+     * @param range  分割範囲(下限を含む、上限を含む)
+     * @param sink   取得したページの受け取り先
+     */
+    private void readRange(long appId, List<String> fields, String where, PartitionKey key, long[] range,
+            Consumer<List<Record>> sink) {
+
+        long last = range[0] - 1;
+        try (KintoneClient client = kintone.createClient()) {
+            while (true) {
+                String query = where + key.fieldCode + " > " + last
+                        + " and " + key.fieldCode + " <= " + range[1]
+                        + " order by " + key.fieldCode + " asc limit " + MAX_LIMIT;
+                GetRecordsRequest request = new GetRecordsRequest().setApp(appId).setFields(fields).setQuery(query);
+                List<Record> records = scheduler.execute(appId, Priority.BATCH, () -> client.record().getRecords(request))
+                        .getRecords();
+                if (records.isEmpty()) {
+                    return;
+                }
+                sink.accept(records);
+                if (records.size() < MAX_LIMIT) {
+                    return;
+                }
+                last = key.valueOf(records.get(records.size() - 1));
+            }
+        }
+    }
+
+    /**
+     * キーの最小値または最大値を取得する
+     *
+     * @param appId アプリID
+     * @param key   分割キー
+     * @param where 絞り込み条件
+     * @param order asc(最小値)/desc(最大値)
+     * @return キーの値。対象レコードが無い場合empty
+     */
+    private Optional<Long> findEdge(long appId, PartitionKey key, String where, String order) {
+
+        // 条件が無い場合も where句を成立させる
+        String query = (where.isEmpty() ? "" : where.substring(0, where.length() - " and ".length()))
+                + " order by " + key.fieldCode + " " + order + " limit 1";
+        try (KintoneClient client = kintone.createClient()) {
+            GetRecordsRequest request = new GetRecordsRequest().setApp(appId).setFields(List.of(key.fieldCode)).setQuery(query);
+            List<Record> records = scheduler.execute(appId, Priority.BATCH, () -> client.record().getRecords(request))
+                    .getRecords();
+            return records.stream().findFirst().map(key::valueOf);
+        }
+    }
+
+    /**
+     * キーの範囲を分割する
+     *
+     * @param min        キーの最小値
+     * @param max        キーの最大値
+     * @param partitions 分割数
+     * @return 分割範囲(下限を含む、上限を含む)のリスト。キーの昇順
+     */
+    static List<long[]> split(long min, long max, int partitions) {
+
+        final long span = max - min + 1;
+        final long count = Math.max(1, Math.min(partitions, span));
+        final long size = (span + count - 1) / count;
+
+        List<long[]> ranges = new ArrayList<>();
+        for (long lower = min; lower <= max; lower += size) {
+            ranges.add(new long[] {lower, Math.min(lower + size - 1, max) });
+        }
+        return ranges;
+    }
+
+    /**
+     * キューへの登録<br>
+     * 読み出し側がcloseした場合は割り込みで中断する
+     *
+     * @param queue キュー
+     * @param page  ページ
+     */
+    private static void put(BlockingQueue<Page> queue, Page page) {
+        try {
+            queue.put(page);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("parallel fetch interrupted.", e);
+        }
+    }
+
+    /**
+     * 取得したページ
+     *
+     * @param records レコード
+     * @param error   取得時のエラー
+     */
+    private record Page(List<Record> records, RuntimeException error) {
+
+        /** 分割の読み終わりを表す */
+        private static final Page END = new Page(List.of(), null);
+    }
+
+    /**
+     * キューからページを読み出すイテレータ<br>
+     * 全ての分割が読み終わるまでページを返却する。
+     * キューが分割ごとにある場合は、分割を読み終わるごとに次の分割のキューに進む
+     */
+    private static final class PageIterator implements Iterator<List<Record>> {
+
+        /** キュー(分割ごと、または全分割で共有する1つ) */
+        private final List<BlockingQueue<Page>> queues;
+
+        /** 分割数 */
+        private final int partitions;
+
+        /** 読み終わった分割の数 */
+        private int finished;
+
+        /** 次に返却するページ */
+        private List<Record> next;
+
+        /**
+         * コンストラクタ
+         *
+         * @param queues     キュー
+         * @param partitions 分割数
+         */
+        PageIterator(List<BlockingQueue<Page>> queues, int partitions) {
+            this.queues = queues;
+            this.partitions = partitions;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && finished < partitions) {
+                Page page;
+                try {
+                    page = queues.get(Math.min(finished, queues.size() - 1)).take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("parallel fetch interrupted.", e);
+                }
+                if (page.error() != null) {
+                    throw page.error();
+                }
+                if (page == Page.END) {
+                    finished++;
+                } else {
+                    next = page.records();
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public List<Record> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            List<Record> page = next;
+            next = null;
+            return page;
+        }
+    }
+
+    /**
+     * 取得スレッドの作成<br>
+     * Streamがcloseされずに破棄された場合もアプリケーションの終了を妨げないよう、デーモンスレッドにする
+     */
+    private static final class ReaderThreadFactory implements ThreadFactory {
+
+        /** スレッド番号 */
+        private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "kintone-parallel-reader-" + SEQUENCE.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
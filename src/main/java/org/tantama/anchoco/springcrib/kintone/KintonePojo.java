@@ -2,23 +2,31 @@ package org.tantama.anchoco.springcrib.kintone;
 
 import java.time.ZonedDateTime;
 
+import com.kintone.client.model.record.FieldType;
+
 import lombok.Getter;
 import lombok.Setter;
 
 /**
- * Kintonneから取得したjsonのDto
+ * Kintonneから取得したjsonのDto<br>
+ * キントーンのフィールドとの対応は{@link KintoneField}で定義する
  */
 @Getter
 @Setter
 public class KintonePojo {
 
 	/** レコードID */
+	@KintoneField(code = "レコード番号", type = FieldType.RECORD_NUMBER)
 	private int recordId;
 	/** 会社名 */
+	@KintoneField(code = "会社名", type = FieldType.SINGLE_LINE_TEXT)
 	private String companyName;
 
 	/** 郵便番号 */
+	@KintoneField(code = "郵便番号", type = FieldType.SINGLE_LINE_TEXT)
 	private String zipCode;
 
+	/** 更新日時 */
+	@KintoneField(code = "更新日時", type = FieldType.UPDATED_TIME)
 	private ZonedDateTime updateDatetime;
 }
@@ -0,0 +1,20 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+/**
+ * キントーンのアプリごとの1日あたりのリクエスト数の上限を超えた場合のエラー<br>
+ * キントーンへ送信する前に{@link KintoneRequestScheduler}が判定する
+ */
+public class KintoneQuotaExceededException extends RuntimeException {
+
+    /** serialVersionUID */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * コンストラクタ
+     *
+     * @param appId アプリID
+     */
+    public KintoneQuotaExceededException(long appId) {
+        super("kintone daily request quota exceeded. app id : " + appId);
+    }
+}
@@ -0,0 +1,241 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import com.kintone.client.model.record.Record;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.LongSupplier;
+
+/**
+ * キントーンのレコードの読み込みキャッシュ<br>
+ * 件数上限(LRU)と有効期間を持ち、有効期間の切れたレコードはリビジョンのみを取得して
+ * 変わっていなければそのまま有効期間を延長する(レコード全体は再取得しない)<br>
+ * notice. 返却したレコードはキャッシュと共有しているため、呼び出し側で変更しないこと
+ */
+public class KintoneRecordCache {
+
+    /** 件数上限 */
+    private final int maxSize;
+
+    /** 有効期間(ns) */
+    private final long ttlNanos;
+
+    /** レコードの取得処理(アプリID, レコードID) */
+    private final BiFunction<Long, Long, Record> loader;
+
+    /** リビジョンの取得処理(アプリID, レコードID)。レコードが存在しない場合null */
+    private final BiFunction<Long, Long, Long> revisionLoader;
+
+    /** 現在時刻(ns) */
+    private final LongSupplier nanoTime;
+
+    /** キャッシュ本体。アクセス順 */
+    private final LinkedHashMap<CacheKey, Entry> entries;
+
+    /**
+     * 無効化の回数<br>
+     * 取得中に無効化された場合、取得結果をキャッシュしないために利用する
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /** 有効期間内のヒット数 */
+    private final LongAdder hitCount = new LongAdder();
+
+    /** 有効期間切れでリビジョンが変わっていなかった数 */
+    private final LongAdder revalidatedCount = new LongAdder();
+
+    /** ミス数(レコード全体を取得した数) */
+    private final LongAdder missCount = new LongAdder();
+
+    /** 件数上限による追い出し数 */
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * コンストラクタ
+     *
+     * @param maxSize        件数上限
+     * @param ttl            有効期間
+     * @param loader         レコードの取得処理
+     * @param revisionLoader リビジョンの取得処理
+     */
+    public KintoneRecordCache(int maxSize, Duration ttl, BiFunction<Long, Long, Record> loader,
+            BiFunction<Long, Long, Long> revisionLoader) {
+        this(maxSize, ttl, loader, revisionLoader, System::nanoTime);
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param maxSize        件数上限
+     * @param ttl            有効期間
+     * @param loader         レコードの取得処理
+     * @param revisionLoader リビジョンの取得処理
+     * @param nanoTime       現在時刻(ns)
+     */
+    KintoneRecordCache(int maxSize, Duration ttl, BiFunction<Long, Long, Record> loader,
+            BiFunction<Long, Long, Long> revisionLoader, LongSupplier nanoTime) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.loader = loader;
+        this.revisionLoader = revisionLoader;
+        this.nanoTime = nanoTime;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+
+            /** serialVersionUID */
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, Entry> eldest) {
+                boolean evict = size() > KintoneRecordCache.this.maxSize;
+                if (evict) {
+                    evictionCount.increment();
+                }
+                return evict;
+            }
+        };
+    }
+
+    /**
+     * レコードを取得する
+     *
+     * @param appId    アプリID
+     * @param recordId レコードID
+     * @return レコード
+     */
+    public Record get(long appId, long recordId) {
+
+        final CacheKey key = new CacheKey(appId, recordId);
+        final long generation = invalidations.get();
+        final Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+
+        if (entry != null) {
+            if (nanoTime.getAsLong() - entry.expiresAt() < 0) {
+                hitCount.increment();
+                return entry.record();
+            }
+            // 有効期間切れ。リビジョンが同じであれば有効期間のみ延長する
+            if (entry.revision() != null && entry.revision().equals(revisionLoader.apply(appId, recordId))) {
+                revalidatedCount.increment();
+                put(key, new Entry(entry.record(), entry.revision(), nanoTime.getAsLong() + ttlNanos), generation);
+                return entry.record();
+            }
+        }
+
+        missCount.increment();
+        Record record = loader.apply(appId, recordId);
+        put(key, new Entry(record, record.getRevision(), nanoTime.getAsLong() + ttlNanos), generation);
+        return record;
+    }
+
+    /**
+     * レコードを無効化する<br>
+     * キントーンへ更新した場合に呼び出すこと
+     *
+     * @param appId    アプリID
+     * @param recordId レコードID
+     */
+    public void invalidate(long appId, long recordId) {
+        invalidations.incrementAndGet();
+        synchronized (entries) {
+            entries.remove(new CacheKey(appId, recordId));
+        }
+    }
+
+    /**
+     * 全てのレコードを無効化する
+     */
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * キャッシュ件数
+     *
+     * @return キャッシュ件数
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * 有効期間内のヒット数
+     *
+     * @return ヒット数
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * 有効期間切れでリビジョンが変わっていなかった数
+     *
+     * @return 再検証によるヒット数
+     */
+    public long getRevalidatedCount() {
+        return revalidatedCount.sum();
+    }
+
+    /**
+     * ミス数
+     *
+     * @return ミス数
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * 件数上限による追い出し数
+     *
+     * @return 追い出し数
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * キャッシュへの登録<br>
+     * 取得を始めてから無効化が行われていた場合は、古い内容の可能性があるため登録しない
+     *
+     * @param key        キー
+     * @param entry      登録内容
+     * @param generation 取得開始時の無効化の回数
+     */
+    private void put(CacheKey key, Entry entry, long generation) {
+        synchronized (entries) {
+            if (invalidations.get() == generation) {
+                entries.put(key, entry);
+            }
+        }
+    }
+
+    /**
+     * キャッシュのキー
+     *
+     * @param appId    アプリID
+     * @param recordId レコードID
+     */
+    private record CacheKey(long appId, long recordId) {
+    }
+
+    /**
+     * キャッシュの登録内容
+     *
+     * @param record    レコード
+     * @param revision  リビジョン
+     * @param expiresAt 有効期限(ns)
+     */
+    private record Entry(Record record, Long revision, long expiresAt) {
+    }
+}
@@ -0,0 +1,330 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import com.kintone.client.model.record.DateFieldValue;
+import com.kintone.client.model.record.DateTimeFieldValue;
+import com.kintone.client.model.record.FieldType;
+import com.kintone.client.model.record.FieldValue;
+import com.kintone.client.model.record.MultiLineTextFieldValue;
+import com.kintone.client.model.record.NumberFieldValue;
+import com.kintone.client.model.record.Record;
+import com.kintone.client.model.record.SingleLineTextFieldValue;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * キントーンの{@link Record}とDtoの変換<br>
+ * Dtoのフィールドに付与した{@link KintoneField}を初回のみ解析し、
+ * フィールドごとの取得/設定処理({@link MethodHandle})を作成しておく。
+ * 解析時にフィールド形式とDtoの型の整合性を検査するため、対応付けの誤りは初回利用時にエラーになる
+ *
+ * @param <T> Dtoの型
+ */
+public final class KintoneRecordMapper<T> {
+
+    /** 解析済みの変換処理 */
+    private static final ClassValue<KintoneRecordMapper<?>> MAPPERS = new ClassValue<>() {
+        @Override
+        protected KintoneRecordMapper<?> computeValue(Class<?> type) {
+            return new KintoneRecordMapper<>(type);
+        }
+    };
+
+    /** 更新時にRecordへ設定できないフィールド形式(キントーン側で自動設定される) */
+    private static final Set<FieldType> READ_ONLY_TYPES = Set.of(
+            FieldType.RECORD_NUMBER, FieldType.UPDATED_TIME, FieldType.CREATED_TIME,
+            FieldType.__ID__, FieldType.__REVISION__);
+
+    /** Dtoの生成処理 */
+    private final MethodHandle constructor;
+
+    /** フィールドの対応付け */
+    private final List<Mapping> mappings;
+
+    /** 取得時に指定するフィールドコード */
+    private final List<String> fieldCodes;
+
+    /**
+     * コンストラクタ<br>
+     * Dtoを解析し、変換処理を作成する
+     *
+     * @param type Dtoの型
+     */
+    private KintoneRecordMapper(Class<T> type) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            this.constructor = lookup.findConstructor(type, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+
+            List<Mapping> list = new ArrayList<>();
+            for (Field field : type.getDeclaredFields()) {
+                KintoneField annotation = field.getAnnotation(KintoneField.class);
+                if (annotation == null || Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                list.add(new Mapping(field, annotation, lookup));
+            }
+            this.mappings = List.copyOf(list);
+            this.fieldCodes = mappings.stream().map(Mapping::code).toList();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(type.getName() + " is not mappable kintone dto.", e);
+        }
+    }
+
+    /**
+     * 変換処理の取得
+     *
+     * @param <T>  Dtoの型
+     * @param type Dtoの型
+     * @return 変換処理
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> KintoneRecordMapper<T> of(Class<T> type) {
+        return (KintoneRecordMapper<T>) MAPPERS.get(type);
+    }
+
+    /**
+     * 取得時に指定するフィールドコード
+     *
+     * @return フィールドコード
+     */
+    public List<String> fieldCodes() {
+        return fieldCodes;
+    }
+
+    /**
+     * Dtoの値を{@link #fieldCodes()}の順に取得する
+     *
+     * @param dto Dto
+     * @return 値
+     */
+    public List<Object> values(T dto) {
+        List<Object> values = new ArrayList<>(mappings.size());
+        for (Mapping mapping : mappings) {
+            values.add(mapping.get(dto));
+        }
+        return values;
+    }
+
+    /**
+     * {@link Record}をDtoに変換する
+     *
+     * @param record レコード
+     * @return Dto
+     */
+    @SuppressWarnings("unchecked")
+    public T toDto(Record record) {
+        try {
+            Object dto = (Object) constructor.invokeExact();
+            for (Mapping mapping : mappings) {
+                mapping.read(record, dto);
+            }
+            return (T) dto;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Dtoを更新用の{@link Record}に変換する<br>
+     * キントーン側で自動設定されるフィールド(レコード番号、更新日時など)は含めない
+     *
+     * @param dto Dto
+     * @return 更新用のレコード
+     */
+    public Record toRecord(T dto) {
+        Record record = new Record();
+        for (Mapping mapping : mappings) {
+            mapping.write(dto, record);
+        }
+        return record;
+    }
+
+    /**
+     * 1フィールドの対応付け
+     */
+    private static final class Mapping {
+
+        /** フィールドコード */
+        private final String code;
+
+        /** Recordからの取得処理 */
+        private final Function<Record, Object> reader;
+
+        /** 更新用のフィールド値の作成処理。更新できないフィールドはnull */
+        private final Function<Object, FieldValue> writer;
+
+        /** Dtoの値の取得処理 (Object)Object */
+        private final MethodHandle getter;
+
+        /** Dtoの値の設定処理 (Object, Object)void */
+        private final MethodHandle setter;
+
+        /** Dtoのフィールドがプリミティブ型かどうか */
+        private final boolean primitive;
+
+        /**
+         * コンストラクタ<br>
+         * フィールド形式とDtoの型の整合性を検査する
+         *
+         * @param field      Dtoのフィールド
+         * @param annotation 対応付け
+         * @param lookup     Dtoへのアクセス権
+         * @throws IllegalAccessException Dtoのフィールドにアクセスできない場合
+         */
+        Mapping(Field field, KintoneField annotation, MethodHandles.Lookup lookup) throws IllegalAccessException {
+
+            this.code = annotation.code();
+            final Class<?> javaType = field.getType();
+            this.primitive = javaType.isPrimitive();
+            this.reader = readerOf(annotation.type(), javaType);
+            if (reader == null) {
+                throw new IllegalStateException("field " + field.getName() + " : " + javaType.getName()
+                        + " is not assignable from kintone " + annotation.type() + " (" + code + ").");
+            }
+            this.writer = READ_ONLY_TYPES.contains(annotation.type()) ? null : writerOf(annotation.type());
+            this.getter = lookup.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class));
+            this.setter = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class));
+        }
+
+        /**
+         * フィールドコード
+         *
+         * @return フィールドコード
+         */
+        String code() {
+            return code;
+        }
+
+        /**
+         * Recordから取得してDtoに設定する
+         *
+         * @param record レコード
+         * @param dto    Dto
+         * @throws Throwable 設定処理のエラー
+         */
+        void read(Record record, Object dto) throws Throwable {
+            Object value = reader.apply(record);
+            if (value == null && primitive) {
+                // プリミティブ型は初期値のままとする
+                return;
+            }
+            setter.invokeExact(dto, value);
+        }
+
+        /**
+         * Dtoから取得してRecordに設定する
+         *
+         * @param dto    Dto
+         * @param record レコード
+         */
+        void write(Object dto, Record record) {
+            if (writer != null) {
+                record.putField(code, writer.apply(get(dto)));
+            }
+        }
+
+        /**
+         * Dtoの値の取得
+         *
+         * @param dto Dto
+         * @return 値
+         */
+        Object get(Object dto) {
+            try {
+                return (Object) getter.invokeExact(dto);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Recordからの取得処理の作成
+         *
+         * @param type     フィールド形式
+         * @param javaType Dtoの型
+         * @return 取得処理。Dtoの型に設定できない場合null
+         */
+        private Function<Record, Object> readerOf(FieldType type, Class<?> javaType) {
+            return switch (type) {
+                case SINGLE_LINE_TEXT -> javaType == String.class ? record -> record.getSingleLineTextFieldValue(code) : null;
+                case MULTI_LINE_TEXT -> javaType == String.class ? record -> record.getMultiLineTextFieldValue(code) : null;
+                case NUMBER -> javaType == BigDecimal.class ? record -> record.getNumberFieldValue(code) : null;
+                case DATE -> javaType == LocalDate.class ? record -> record.getDateFieldValue(code) : null;
+                case DATETIME -> javaType == ZonedDateTime.class ? record -> record.getDateTimeFieldValue(code) : null;
+                case UPDATED_TIME -> javaType == ZonedDateTime.class ? record -> record.getUpdatedTimeFieldValue(code) : null;
+                case CREATED_TIME -> javaType == ZonedDateTime.class ? record -> record.getCreatedTimeFieldValue(code) : null;
+                case RECORD_NUMBER -> recordNumberReader(javaType);
+                case __ID__ -> isLong(javaType) ? Record::getId : null;
+                case __REVISION__ -> isLong(javaType) ? Record::getRevision : null;
+                default -> null;
+            };
+        }
+
+        /**
+         * レコード番号の取得処理の作成<br>
+         * レコード番号はアプリコードを含む場合があるため文字列が基本だが、数値のみの場合は数値型にも変換する
+         *
+         * @param javaType Dtoの型
+         * @return 取得処理。Dtoの型に設定できない場合null
+         */
+        private static Function<Record, Object> recordNumberReader(Class<?> javaType) {
+            if (javaType == String.class) {
+                return Record::getRecordNumberFieldValue;
+            }
+            if (javaType == int.class || javaType == Integer.class) {
+                return record -> {
+                    String value = record.getRecordNumberFieldValue();
+                    return value == null ? null : Integer.valueOf(value);
+                };
+            }
+            if (isLong(javaType)) {
+                return record -> {
+                    String value = record.getRecordNumberFieldValue();
+                    return value == null ? null : Long.valueOf(value);
+                };
+            }
+            return null;
+        }
+
+        /**
+         * 更新用のフィールド値の作成処理の作成
+         *
+         * @param type フィールド形式
+         * @return 作成処理
+         */
+        private static Function<Object, FieldValue> writerOf(FieldType type) {
+            return switch (type) {
+                case SINGLE_LINE_TEXT -> value -> new SingleLineTextFieldValue((String) value);
+                case MULTI_LINE_TEXT -> value -> new MultiLineTextFieldValue((String) value);
+                case NUMBER -> value -> new NumberFieldValue((BigDecimal) value);
+                case DATE -> value -> new DateFieldValue((LocalDate) value);
+                case DATETIME -> value -> new DateTimeFieldValue((ZonedDateTime) value);
+                default -> throw new IllegalStateException("kintone " + type + " is not supported.");
+            };
+        }
+
+        /**
+         * long型かどうか
+         *
+         * @param javaType Dtoの型
+         * @return long, Longの場合true
+         */
+        private static boolean isLong(Class<?> javaType) {
+            return javaType == long.class || javaType == Long.class;
+        }
+    }
+}
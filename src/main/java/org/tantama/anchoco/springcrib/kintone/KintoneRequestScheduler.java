@@ -0,0 +1,382 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * キントーンへのリクエストの実行制御<br>
+ * キントーンの制限に合わせて、ドメイン単位の同時実行数とアプリ単位の1日あたりのリクエスト数を管理する。
+ * 1日あたりのリクエスト数は、日本時間の0時に上限値に戻る(kintoneの集計単位に合わせる)。
+ * 画面操作などの対話的なリクエストは、一括処理のリクエストより優先して実行する
+ */
+@Slf4j
+@Component
+public class KintoneRequestScheduler {
+
+    /** リクエスト数を集計する日の区切りのタイムゾーン */
+    private static final ZoneId QUOTA_ZONE = ZoneId.of("Asia/Tokyo");
+
+    /** リクエストの優先度 */
+    public enum Priority {
+
+        /** 対話的なリクエスト(画面操作など) */
+        INTERACTIVE,
+
+        /** 一括処理のリクエスト */
+        BATCH
+    }
+
+    /** 同時実行数の上限 */
+    private final int maxConcurrency;
+
+    /** アプリ単位の1日あたりのリクエスト数の上限 */
+    private final long dailyLimit;
+
+    /** 一括処理が利用できない、対話的なリクエストのために残しておくリクエスト数 */
+    private final long interactiveReserve;
+
+    /** 現在時刻(ns)。空き待ち時間の計測に利用する */
+    private final LongSupplier nanoTime;
+
+    /** 現在日時(epoch ms)。1日の区切りの判定に利用する */
+    private final LongSupplier currentTimeMillis;
+
+    /** 同時実行数の排他 */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** 実行枠の空き待ち */
+    private final Condition available = lock.newCondition();
+
+    /** 実行中の数 */
+    private int running;
+
+    /** 実行枠の空き待ちをしている対話的なリクエストの数 */
+    private int waitingInteractive;
+
+    /** 実行枠の空き待ちをしている一括処理のリクエストの数 */
+    private int waitingBatch;
+
+    /** アプリ単位の残りリクエスト数 */
+    private final Map<Long, QuotaWindow> quotas = new ConcurrentHashMap<>();
+
+    /** 初めてリクエストしたアプリの通知先 */
+    private final List<LongConsumer> appListeners = new CopyOnWriteArrayList<>();
+
+    /** 実行したリクエスト数 */
+    private final LongAdder acquiredCount = new LongAdder();
+
+    /** 実行枠の空き待ち時間の合計(ns) */
+    private final LongAdder totalWaitNanos = new LongAdder();
+
+    /** 上限超過で拒否したリクエスト数 */
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * コンストラクタ
+     *
+     * @param maxConcurrency         同時実行数の上限
+     * @param dailyLimit             アプリ単位の1日あたりのリクエスト数の上限
+     * @param interactiveReserveRate 対話的なリクエストのために残しておくリクエスト数の割合
+     */
+    @Autowired
+    public KintoneRequestScheduler(@Value("${kintone.scheduler.max-concurrency:10}") int maxConcurrency,
+            @Value("${kintone.scheduler.daily-limit:10000}") long dailyLimit,
+            @Value("${kintone.scheduler.interactive-reserve-rate:0.1}") double interactiveReserveRate) {
+        this(maxConcurrency, dailyLimit, interactiveReserveRate, System::nanoTime, System::currentTimeMillis);
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param maxConcurrency         同時実行数の上限
+     * @param dailyLimit             アプリ単位の1日あたりのリクエスト数の上限
+     * @param interactiveReserveRate 対話的なリクエストのために残しておくリクエスト数の割合
+     * @param nanoTime               現在時刻(ns)
+     * @param currentTimeMillis      現在日時(epoch ms)
+     */
+    KintoneRequestScheduler(int maxConcurrency, long dailyLimit, double interactiveReserveRate, LongSupplier nanoTime,
+            LongSupplier currentTimeMillis) {
+        this.maxConcurrency = maxConcurrency;
+        this.dailyLimit = dailyLimit;
+        this.interactiveReserve = (long) (dailyLimit * interactiveReserveRate);
+        this.nanoTime = nanoTime;
+        this.currentTimeMillis = currentTimeMillis;
+    }
+
+    /**
+     * リクエストを実行する<br>
+     * 実行枠が空くまで待ち、アプリの残りリクエスト数を1消費してから実行する
+     *
+     * @param <T>      実行結果の型
+     * @param appId    リクエスト数を計上するアプリID
+     * @param priority 優先度
+     * @param request  キントーンへのリクエスト
+     * @return 実行結果
+     * @throws KintoneQuotaExceededException 1日あたりのリクエスト数の上限を超える場合
+     */
+    public <T> T execute(long appId, Priority priority, Supplier<T> request) {
+
+        QuotaWindow quota = quotaOf(appId);
+        // 一括処理は予約分を残す
+        final long reserve = priority == Priority.BATCH ? interactiveReserve : 0;
+        if (!quota.tryConsume(reserve)) {
+            rejectedCount.increment();
+            log.warn("kintone daily request quota exceeded. app id : {}, priority : {}", appId, priority);
+            throw new KintoneQuotaExceededException(appId);
+        }
+
+        acquire(priority);
+        try {
+            return request.get();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * 初めてリクエストしたアプリの通知先を登録する<br>
+     * 登録済みのアプリは登録時に通知する(アプリごとのメトリクスの登録に利用する)
+     *
+     * @param listener 通知先(アプリID)
+     */
+    public void addAppListener(LongConsumer listener) {
+        appListeners.add(listener);
+        quotas.keySet().forEach(listener::accept);
+    }
+
+    /**
+     * アプリの残りリクエスト数の取得<br>
+     * 初めてリクエストするアプリの場合は作成し、通知先へ通知する
+     *
+     * @param appId アプリID
+     * @return 残りリクエスト数
+     */
+    private QuotaWindow quotaOf(long appId) {
+        QuotaWindow quota = quotas.get(appId);
+        if (quota != null) {
+            return quota;
+        }
+        QuotaWindow created = new QuotaWindow(today());
+        quota = quotas.putIfAbsent(appId, created);
+        if (quota != null) {
+            return quota;
+        }
+        appListeners.forEach(listener -> listener.accept(appId));
+        return created;
+    }
+
+    /**
+     * リクエスト数を集計する日
+     *
+     * @return 日本時間の今日
+     */
+    private LocalDate today() {
+        return LocalDate.ofInstant(Instant.ofEpochMilli(currentTimeMillis.getAsLong()), QUOTA_ZONE);
+    }
+
+    /**
+     * 実行枠の取得<br>
+     * 一括処理は、対話的なリクエストが待っている間は取得しない
+     *
+     * @param priority 優先度
+     */
+    private void acquire(Priority priority) {
+
+        final long start = nanoTime.getAsLong();
+        lock.lock();
+        try {
+            if (priority == Priority.INTERACTIVE) {
+                waitingInteractive++;
+                try {
+                    while (running >= maxConcurrency) {
+                        available.await();
+                    }
+                } finally {
+                    waitingInteractive--;
+                }
+            } else {
+                waitingBatch++;
+                try {
+                    while (running >= maxConcurrency || waitingInteractive > 0) {
+                        available.await();
+                    }
+                } finally {
+                    waitingBatch--;
+                }
+            }
+            running++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("waiting kintone request slot interrupted.", e);
+        } finally {
+            lock.unlock();
+        }
+
+        acquiredCount.increment();
+        totalWaitNanos.add(nanoTime.getAsLong() - start);
+    }
+
+    /**
+     * 実行枠の返却
+     */
+    private void release() {
+        lock.lock();
+        try {
+            running--;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 実行中の数
+     *
+     * @return 実行中の数
+     */
+    public int getRunning() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 実行枠の空き待ちをしている数
+     *
+     * @return 空き待ちの数
+     */
+    public int getWaiting() {
+        lock.lock();
+        try {
+            return waitingInteractive + waitingBatch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 実行したリクエスト数
+     *
+     * @return リクエスト数
+     */
+    public long getAcquiredCount() {
+        return acquiredCount.sum();
+    }
+
+    /**
+     * 実行枠の空き待ち時間の合計(ns)
+     *
+     * @return 空き待ち時間の合計(ns)
+     */
+    public long getTotalWaitNanos() {
+        return totalWaitNanos.sum();
+    }
+
+    /**
+     * 上限超過で拒否したリクエスト数
+     *
+     * @return 拒否したリクエスト数
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * アプリの残りリクエスト数
+     *
+     * @param appId アプリID
+     * @return 残りリクエスト数。まだリクエストしていないアプリの場合は上限値
+     */
+    public long getRemainingQuota(long appId) {
+        QuotaWindow quota = quotas.get(appId);
+        return quota == null ? dailyLimit : quota.remaining();
+    }
+
+    /**
+     * リクエストしたアプリの残りリクエスト数
+     *
+     * @return アプリIDと残りリクエスト数
+     */
+    public Map<Long, Long> getRemainingQuotas() {
+        Map<Long, Long> remaining = new ConcurrentHashMap<>();
+        quotas.forEach((appId, quota) -> remaining.put(appId, quota.remaining()));
+        return remaining;
+    }
+
+    /**
+     * アプリ単位の残りリクエスト数(日単位の固定ウィンドウ)<br>
+     * 日本時間の日付が変わった時点で上限値に戻る。日中は回復しない
+     * (連続的に回復させると、24時間以内に上限値の2倍近く実行できてしまう)
+     */
+    private final class QuotaWindow {
+
+        /** 集計中の日 */
+        private LocalDate day;
+
+        /** 集計中の日に消費したリクエスト数 */
+        private long used;
+
+        /**
+         * コンストラクタ
+         *
+         * @param day 集計を始める日
+         */
+        QuotaWindow(LocalDate day) {
+            this.day = day;
+        }
+
+        /**
+         * 1リクエスト分を消費する
+         *
+         * @param reserve 消費せずに残しておく数
+         * @return 消費できた場合true
+         */
+        synchronized boolean tryConsume(long reserve) {
+            roll();
+            if (dailyLimit - used - 1 < reserve) {
+                return false;
+            }
+            used++;
+            return true;
+        }
+
+        /**
+         * 残りリクエスト数
+         *
+         * @return 残りリクエスト数
+         */
+        synchronized long remaining() {
+            roll();
+            return dailyLimit - used;
+        }
+
+        /**
+         * 日付が変わっていれば集計を始め直す
+         */
+        private void roll() {
+            final LocalDate today = today();
+            if (!today.equals(day)) {
+                day = today;
+                used = 0;
+            }
+        }
+    }
+}
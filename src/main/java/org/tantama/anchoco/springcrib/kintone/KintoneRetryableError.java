@@ -0,0 +1,46 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import com.kintone.client.exception.KintoneApiRuntimeException;
+import java.io.IOException;
+import java.util.function.Predicate;
+import org.springframework.http.HttpStatus;
+
+/**
+ * 一時的なキントーンのエラーの判定<br>
+ * 流量制限(429)とサーバーエラー(5xx)の{@link KintoneApiRuntimeException}、通信エラー(タイムアウトを含む)を対象とする。
+ * 入力誤り(400)や権限エラー(403)など、繰り返しても成功しないエラーは対象としない。
+ * リトライ設定の{@code exception-predicate}、サーキットブレイカー設定の{@code record-exception-predicate}に指定する
+ */
+public class KintoneRetryableError implements Predicate<Throwable> {
+
+    /**
+     * 一時的なエラーかどうか<br>
+     * 発生したエラーの原因(cause)も対象とする
+     *
+     * @param error 発生したエラー
+     * @return 一時的なエラーの場合true
+     */
+    @Override
+    public boolean test(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause() == e ? null : e.getCause()) {
+            if (e instanceof KintoneApiRuntimeException api) {
+                return isRetryable(api.getStatusCode());
+            }
+            if (e instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 一時的なエラーのhttpステータスかどうか
+     *
+     * @param statusCode httpステータス
+     * @return 429または5xxの場合true
+     */
+    public static boolean isRetryable(int statusCode) {
+        return statusCode == HttpStatus.TOO_MANY_REQUESTS.value()
+                || statusCode / 100 == 5;
+    }
+}
@@ -0,0 +1,25 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import com.kintone.client.exception.KintoneApiRuntimeException;
+import org.tantama.anchoco.springcrib.resilience4j.ServerErrorOrTimeout;
+
+/**
+ * キントーンの障害によるエラーの判定<br>
+ * {@link ServerErrorOrTimeout}に加え、サーバーエラー(5xx)の{@link KintoneApiRuntimeException}を対象とする。
+ * 流量制限(429)は障害ではないため対象としない。
+ * リトライ設定の{@code stale-if-error-predicate}に指定する
+ */
+public class KintoneServerError extends ServerErrorOrTimeout {
+
+    /**
+     * 1つのエラーの判定
+     *
+     * @param e エラー(原因(cause)は含まない)
+     * @return サーバーエラー、またはタイムアウトの場合true
+     */
+    @Override
+    protected boolean isServerErrorOrTimeout(Throwable e) {
+        return super.isServerErrorOrTimeout(e)
+                || e instanceof KintoneApiRuntimeException api && api.getStatusCode() / 100 == 5;
+    }
+}
@@ -0,0 +1,291 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * キントーンのアプリのスナップショット({@link KintonePojo}の固定長ファイル)<br>
+ * ファイルをメモリマップし、キントーンへアクセスせずに絞り込み/射影を行う。
+ * 文字列は参照するまでデコードしないため、数値項目での絞り込みではオブジェクトを生成しない
+ *
+ * <pre>
+ * ヘッダ(16byte) : マジックナンバー(int), バージョン(int), 件数(int), 予備(int)
+ * 行(28byte)     : レコード番号(int), 更新日時のエポックミリ秒(long),
+ *                  会社名の位置(int), 会社名の長さ(int), 郵便番号の位置(int), 郵便番号の長さ(int)
+ * 文字列領域     : UTF-8のバイト列(位置はファイル先頭から。nullの場合長さ-1)
+ * </pre>
+ *
+ * 行はレコード番号の昇順に並ぶ
+ */
+public final class KintoneSnapshot {
+
+    /** マジックナンバー */
+    static final int MAGIC = 0x4B534E50;
+
+    /** フォーマットのバージョン */
+    static final int VERSION = 1;
+
+    /** ヘッダのサイズ */
+    static final int HEADER_SIZE = 16;
+
+    /** 1行のサイズ */
+    static final int ROW_SIZE = 28;
+
+    /** 更新日時がnullの場合の値 */
+    static final long NULL_DATETIME = Long.MIN_VALUE;
+
+    /** nullの文字列の長さ */
+    static final int NULL_LENGTH = -1;
+
+    /** 行内の更新日時の位置 */
+    private static final int UPDATED_OFFSET = 4;
+
+    /** 行内の会社名の位置 */
+    static final int COMPANY_NAME_OFFSET = 12;
+
+    /** 行内の郵便番号の位置 */
+    static final int ZIP_CODE_OFFSET = 20;
+
+    /** 件数の位置 */
+    static final int COUNT_OFFSET = 8;
+
+    /** マップしたファイル */
+    private final ByteBuffer buffer;
+
+    /** 件数 */
+    private final int size;
+
+    /**
+     * コンストラクタ
+     *
+     * @param buffer マップしたファイル
+     */
+    private KintoneSnapshot(ByteBuffer buffer) {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION) {
+            throw new IllegalStateException("not a kintone snapshot file.");
+        }
+        this.buffer = buffer;
+        this.size = buffer.getInt(COUNT_OFFSET);
+    }
+
+    /**
+     * スナップショットファイルを開く<br>
+     * 読み取り専用でメモリマップする。マップ後はファイルが置き換えられても開いた時点の内容を参照する
+     *
+     * @param file スナップショットファイル
+     * @return スナップショット
+     */
+    static KintoneSnapshot open(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new KintoneSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 件数
+     *
+     * @return 件数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * レコード番号で検索する(二分探索)
+     *
+     * @param recordId レコード番号
+     * @return レコード。存在しない場合empty
+     */
+    public Optional<KintonePojo> find(int recordId) {
+
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int value = buffer.getInt(rowOffset(mid));
+            if (value < recordId) {
+                low = mid + 1;
+            } else if (value > recordId) {
+                high = mid - 1;
+            } else {
+                return Optional.of(new Row(buffer, mid).toPojo());
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * 絞り込む
+     *
+     * @param filter 絞り込み条件
+     * @return 条件に一致したレコード。レコード番号の昇順
+     */
+    public Stream<KintonePojo> query(Predicate<Row> filter) {
+        return query(filter, Row::toPojo);
+    }
+
+    /**
+     * 絞り込みと射影<br>
+     * notice. 条件と射影に渡す{@link Row}は行ごとに使いまわすため、保持しないこと
+     *
+     * @param <R>        射影結果の型
+     * @param filter     絞り込み条件
+     * @param projection 射影
+     * @return 射影結果。レコード番号の昇順
+     */
+    public <R> Stream<R> query(Predicate<Row> filter, Function<Row, R> projection) {
+
+        // 位置を持つ行はStreamごとに作成する(ファイルは読み取り専用のため共有できる)
+        final Row row = new Row(buffer, -1);
+        Spliterator<R> spliterator = new Spliterators.AbstractSpliterator<>(size,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+
+            /** 次に読む行 */
+            private int next;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super R> action) {
+                while (next < size) {
+                    row.index = next++;
+                    if (filter.test(row)) {
+                        action.accept(projection.apply(row));
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    /**
+     * 行の位置
+     *
+     * @param index 行番号
+     * @return ファイル先頭からの位置
+     */
+    private static int rowOffset(int index) {
+        return HEADER_SIZE + index * ROW_SIZE;
+    }
+
+    /**
+     * スナップショットの1行への参照<br>
+     * 項目は参照したときにファイルから読み出す
+     */
+    public static final class Row {
+
+        /** マップしたファイル */
+        private final ByteBuffer buffer;
+
+        /** 行番号 */
+        private int index;
+
+        /**
+         * コンストラクタ
+         *
+         * @param buffer マップしたファイル
+         * @param index  行番号
+         */
+        private Row(ByteBuffer buffer, int index) {
+            this.buffer = buffer;
+            this.index = index;
+        }
+
+        /**
+         * レコード番号
+         *
+         * @return レコード番号
+         */
+        public int getRecordId() {
+            return buffer.getInt(rowOffset(index));
+        }
+
+        /**
+         * 更新日時のエポックミリ秒<br>
+         * 日時オブジェクトを生成せずに比較する場合に利用する
+         *
+         * @return エポックミリ秒。更新日時がnullの場合{@link Long#MIN_VALUE}
+         */
+        public long getUpdateEpochMilli() {
+            return buffer.getLong(rowOffset(index) + UPDATED_OFFSET);
+        }
+
+        /**
+         * 更新日時
+         *
+         * @return 更新日時(UTC)
+         */
+        public ZonedDateTime getUpdateDatetime() {
+            final long epochMilli = getUpdateEpochMilli();
+            return epochMilli == NULL_DATETIME ? null : Instant.ofEpochMilli(epochMilli).atZone(ZoneOffset.UTC);
+        }
+
+        /**
+         * 会社名
+         *
+         * @return 会社名
+         */
+        public String getCompanyName() {
+            return string(COMPANY_NAME_OFFSET);
+        }
+
+        /**
+         * 郵便番号
+         *
+         * @return 郵便番号
+         */
+        public String getZipCode() {
+            return string(ZIP_CODE_OFFSET);
+        }
+
+        /**
+         * Dtoへの変換
+         *
+         * @return Dto
+         */
+        public KintonePojo toPojo() {
+            KintonePojo pojo = new KintonePojo();
+            pojo.setRecordId(getRecordId());
+            pojo.setUpdateDatetime(getUpdateDatetime());
+            pojo.setCompanyName(getCompanyName());
+            pojo.setZipCode(getZipCode());
+            return pojo;
+        }
+
+        /**
+         * 文字列の読み出し
+         *
+         * @param offset 行内の文字列の位置
+         * @return 文字列
+         */
+        private String string(int offset) {
+            final int row = rowOffset(index);
+            final int position = buffer.getInt(row + offset);
+            final int length = buffer.getInt(row + offset + Integer.BYTES);
+            if (length == NULL_LENGTH) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(position, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
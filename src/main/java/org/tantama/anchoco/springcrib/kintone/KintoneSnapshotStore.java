@@ -0,0 +1,424 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.tantama.anchoco.springcrib.kintone.KintoneParallelReader.PartitionKey;
+
+/**
+ * キントーンのアプリのスナップショットの作成と保持<br>
+ * 全件取得または差分同期の結果を{@link KintoneSnapshot}の形式でローカルファイルに保存し、
+ * 同じアプリを何度も集計する処理がキントーンへアクセスせず(リクエスト数を消費せず)に参照できるようにする<br>
+ * 差分同期の取得済み位置はスナップショットごとに保存し、{@link KintoneDeltaSync#sync(long, List, java.util.function.Consumer)}
+ * を利用する他の処理とは共有しない
+ */
+@Slf4j
+@Component
+public class KintoneSnapshotStore {
+
+    /** 行内の文字列の位置(位置、長さの順) */
+    private static final int[] STRING_OFFSETS = {KintoneSnapshot.COMPANY_NAME_OFFSET, KintoneSnapshot.ZIP_CODE_OFFSET};
+
+    /** レコードとDtoの変換 */
+    private static final KintoneRecordMapper<KintonePojo> MAPPER = KintoneRecordMapper.of(KintonePojo.class);
+
+    /** 保存先ディレクトリ */
+    private final Path directory;
+
+    /** 並列取得 */
+    private final KintoneParallelReader reader;
+
+    /** 差分同期 */
+    private final KintoneDeltaSync deltaSync;
+
+    /** スナップショットに反映済みの位置(更新日時)の保存 */
+    private final KintoneWatermarkStore watermarkStore;
+
+    /** 開いているスナップショット */
+    private final Map<Long, KintoneSnapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * コンストラクタ
+     *
+     * @param directory 保存先ディレクトリ
+     * @param reader    並列取得
+     * @param deltaSync 差分同期
+     */
+    public KintoneSnapshotStore(@Value("${kintone.snapshot.dir:./kintone-snapshot}") Path directory,
+            KintoneParallelReader reader, KintoneDeltaSync deltaSync) {
+        this.directory = directory;
+        this.reader = reader;
+        this.deltaSync = deltaSync;
+        this.watermarkStore = new KintoneWatermarkStore(directory.resolve("watermark"));
+    }
+
+    /**
+     * スナップショットの取得<br>
+     * 起動後に初めて参照する場合は保存済みのファイルを開く
+     *
+     * @param appId アプリID
+     * @return スナップショット。未作成の場合empty
+     */
+    public Optional<KintoneSnapshot> get(long appId) {
+
+        KintoneSnapshot snapshot = snapshots.computeIfAbsent(appId, id -> {
+            Path file = fileOf(id);
+            return Files.exists(file) ? KintoneSnapshot.open(file) : null;
+        });
+        return Optional.ofNullable(snapshot);
+    }
+
+    /**
+     * 全件取得してスナップショットを作り直す<br>
+     * 削除されたレコードも反映されるため、差分同期とは別に定期的に実行すること。
+     * レコードはレコード番号の昇順に受け取りながら書き込むため、全件をメモリ上に保持しない
+     *
+     * @param appId アプリID
+     * @return スナップショット
+     */
+    public KintoneSnapshot refreshAll(long appId) {
+
+        // notice. 取得前の最大値を反映済みの位置とし、取得中に更新されたレコードは次の差分同期で取得する
+        Optional<Instant> watermark = deltaSync.latest(appId);
+
+        KintoneSnapshot snapshot;
+        try (Stream<KintonePojo> records = reader.fetch(appId, MAPPER.fieldCodes(), "", PartitionKey.RECORD_NUMBER, true)
+                .map(MAPPER::toDto)) {
+            snapshot = writeSorted(appId, records.iterator());
+        }
+        log.debug("snapshot app {} exported {} records.", appId, snapshot.size());
+
+        // スナップショットの保存後に置き換える(保存前に停止した場合は前回の位置から差分同期する)
+        watermark.ifPresentOrElse(instant -> watermarkStore.save(appId, instant), () -> watermarkStore.delete(appId));
+        return snapshot;
+    }
+
+    /**
+     * 差分同期した内容を反映する<br>
+     * スナップショットが未作成の場合は全件取得する<br>
+     * notice. 差分同期では削除されたレコードを検知できないため、削除は{@link #refreshAll(long)}で反映する
+     *
+     * @param appId アプリID
+     * @return スナップショット
+     */
+    public KintoneSnapshot refreshDelta(long appId) {
+
+        if (get(appId).isEmpty()) {
+            return refreshAll(appId);
+        }
+
+        List<KintonePojo> changes = new ArrayList<>();
+        Optional<Instant> watermark = deltaSync.syncSince(appId, MAPPER.fieldCodes(), watermarkStore.load(appId),
+                record -> changes.add(MAPPER.toDto(record)));
+        log.debug("snapshot app {} received {} changes.", appId, changes.size());
+        KintoneSnapshot snapshot = merge(appId, changes);
+
+        // スナップショットの保存後に進める(保存前に停止した場合は同じ変更を再取得する)
+        watermark.ifPresent(instant -> watermarkStore.save(appId, instant));
+        return snapshot;
+    }
+
+    /**
+     * 現在のスナップショットに変更分を反映して保存する<br>
+     * 変更分のみをレコード番号の順に並べ、レコード番号の昇順のスナップショットの行と突き合わせながら書き込むため、
+     * スナップショットの全件をメモリ上に保持しない
+     *
+     * @param appId   アプリID
+     * @param changes 変更されたレコード
+     * @return スナップショット
+     */
+    KintoneSnapshot merge(long appId, Collection<KintonePojo> changes) {
+
+        Optional<KintoneSnapshot> current = get(appId);
+        if (changes.isEmpty() && current.isPresent()) {
+            return current.get();
+        }
+
+        // 同じレコードの変更が複数ある場合は後の変更を優先する
+        Map<Integer, KintonePojo> sorted = new TreeMap<>();
+        changes.forEach(pojo -> sorted.put(pojo.getRecordId(), pojo));
+        Iterator<KintonePojo> rows = current.map(snapshot -> snapshot.query(row -> true).iterator())
+                .orElseGet(Collections::emptyIterator);
+        return writeSorted(appId, mergeSorted(rows, sorted.values().iterator()));
+    }
+
+    /**
+     * レコード番号の昇順の2つのレコードの突き合わせ<br>
+     * 同じレコード番号の場合は変更分のレコードに置き換える
+     *
+     * @param rows    スナップショットの行。レコード番号の昇順
+     * @param changes 変更分のレコード。レコード番号の昇順
+     * @return 反映後のレコード。レコード番号の昇順
+     */
+    private static Iterator<KintonePojo> mergeSorted(Iterator<KintonePojo> rows, Iterator<KintonePojo> changes) {
+        return new Iterator<>() {
+
+            /** 次のスナップショットの行 */
+            private KintonePojo row = nextOrNull(rows);
+
+            /** 次の変更分のレコード */
+            private KintonePojo change = nextOrNull(changes);
+
+            @Override
+            public boolean hasNext() {
+                return row != null || change != null;
+            }
+
+            @Override
+            public KintonePojo next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final int order = row == null ? 1
+                        : change == null ? -1
+                        : Integer.compare(row.getRecordId(), change.getRecordId());
+                if (order < 0) {
+                    final KintonePojo next = row;
+                    row = nextOrNull(rows);
+                    return next;
+                }
+                if (order == 0) {
+                    // 変更前の行は読み飛ばす
+                    row = nextOrNull(rows);
+                }
+                final KintonePojo next = change;
+                change = nextOrNull(changes);
+                return next;
+            }
+        };
+    }
+
+    /**
+     * 次の要素
+     *
+     * @param iterator 要素
+     * @return 次の要素。無い場合null
+     */
+    private static KintonePojo nextOrNull(Iterator<KintonePojo> iterator) {
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    /**
+     * スナップショットを保存する
+     *
+     * @param appId アプリID
+     * @param pojos レコード
+     * @return 保存したスナップショット
+     */
+    KintoneSnapshot write(long appId, Collection<KintonePojo> pojos) {
+        return writeSorted(appId, pojos.stream().sorted(Comparator.comparingInt(KintonePojo::getRecordId)).iterator());
+    }
+
+    /**
+     * レコード番号の昇順のレコードを、受け取りながらスナップショットに保存する<br>
+     * 一時ファイルに書き込んでから置き換えるため、参照中のスナップショットは書き込み途中の内容を参照しない
+     *
+     * @param appId アプリID
+     * @param rows  レコード。レコード番号の昇順
+     * @return 保存したスナップショット
+     */
+    private KintoneSnapshot writeSorted(long appId, Iterator<KintonePojo> rows) {
+
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, "app-" + appId, ".tmp");
+            Path strings = Files.createTempFile(directory, "app-" + appId, ".strings.tmp");
+            try {
+                writeFile(temp, strings, rows);
+                Files.move(temp, fileOf(appId), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(strings);
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        KintoneSnapshot snapshot = KintoneSnapshot.open(fileOf(appId));
+        snapshots.put(appId, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * ファイルへの書き込み<br>
+     * 文字列は行の後ろにまとめて配置するが、行数は読み終えるまでわからないため、
+     * 行には文字列領域内の位置を書き込み、文字列は別ファイルに書き出しておく。
+     * 読み終えた後に行の位置を文字列領域の開始位置だけずらし、文字列を連結する。
+     * 置き換え(rename)の後に停止しても内容が欠けないよう、最後にディスクへ書き出す(fsync)
+     *
+     * @param file    書き込み先
+     * @param strings 文字列の一時ファイル
+     * @param rows    レコード。レコード番号の昇順
+     * @throws IOException 書き込みに失敗した場合
+     */
+    private static void writeFile(Path file, Path strings, Iterator<KintonePojo> rows) throws IOException {
+
+        int count = 0;
+        long stringsSize = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+                DataOutputStream stringOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(strings)))) {
+            out.writeInt(KintoneSnapshot.MAGIC);
+            out.writeInt(KintoneSnapshot.VERSION);
+            // 行数は読み終えた後に書き込む
+            out.writeInt(0);
+            out.writeInt(0);
+
+            int previous = Integer.MIN_VALUE;
+            while (rows.hasNext()) {
+                KintonePojo pojo = rows.next();
+                if (pojo.getRecordId() <= previous) {
+                    // 検索はレコード番号の二分探索のため、昇順でない場合は保存しない
+                    throw new IllegalStateException("kintone snapshot rows are not sorted by record id. "
+                            + previous + " -> " + pojo.getRecordId());
+                }
+                previous = pojo.getRecordId();
+
+                out.writeInt(pojo.getRecordId());
+                out.writeLong(pojo.getUpdateDatetime() == null
+                        ? KintoneSnapshot.NULL_DATETIME
+                        : pojo.getUpdateDatetime().toInstant().toEpochMilli());
+                stringsSize = writeReference(out, stringOut, stringsSize, bytesOf(pojo.getCompanyName()));
+                stringsSize = writeReference(out, stringOut, stringsSize, bytesOf(pojo.getZipCode()));
+                count++;
+            }
+        }
+
+        final long base = KintoneSnapshot.HEADER_SIZE + (long) count * KintoneSnapshot.ROW_SIZE;
+        if (base + stringsSize > Integer.MAX_VALUE) {
+            // メモリマップできるのは2GBまで
+            throw new IllegalStateException("kintone snapshot exceeds 2GB.");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                FileChannel stringChannel = FileChannel.open(strings, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES).putInt(0, count);
+            writeFully(channel, header, KintoneSnapshot.COUNT_OFFSET);
+            relocate(channel, count, (int) base);
+            long position = base;
+            while (position < base + stringsSize) {
+                position += channel.transferFrom(stringChannel, position, base + stringsSize - position);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * 行の文字列の位置を、文字列領域内の位置からファイル内の位置に置き換える
+     *
+     * @param channel 書き込み先
+     * @param count   行数
+     * @param base    文字列領域の開始位置
+     * @throws IOException 書き込みに失敗した場合
+     */
+    private static void relocate(FileChannel channel, int count, int base) throws IOException {
+
+        // 1回の読み書きの行数
+        final int chunkRows = 1024;
+        ByteBuffer buffer = ByteBuffer.allocate(chunkRows * KintoneSnapshot.ROW_SIZE);
+        for (int start = 0; start < count; start += chunkRows) {
+            final int rows = Math.min(chunkRows, count - start);
+            final long position = KintoneSnapshot.HEADER_SIZE + (long) start * KintoneSnapshot.ROW_SIZE;
+            buffer.clear().limit(rows * KintoneSnapshot.ROW_SIZE);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("unexpected end of kintone snapshot.");
+                }
+            }
+            for (int i = 0; i < rows; i++) {
+                final int row = i * KintoneSnapshot.ROW_SIZE;
+                for (int offset : STRING_OFFSETS) {
+                    if (buffer.getInt(row + offset + Integer.BYTES) != KintoneSnapshot.NULL_LENGTH) {
+                        buffer.putInt(row + offset, buffer.getInt(row + offset) + base);
+                    }
+                }
+            }
+            buffer.flip();
+            writeFully(channel, buffer, position);
+        }
+    }
+
+    /**
+     * 指定位置への書き込み
+     *
+     * @param channel  書き込み先
+     * @param buffer   書き込む内容
+     * @param position 書き込み位置
+     * @throws IOException 書き込みに失敗した場合
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * 文字列の位置と長さの書き込み
+     *
+     * @param out       行の書き込み先
+     * @param stringOut 文字列の書き込み先
+     * @param position  文字列領域内の位置
+     * @param bytes     文字列のバイト列
+     * @return 次の文字列の位置
+     * @throws IOException 書き込みに失敗した場合
+     */
+    private static long writeReference(DataOutputStream out, DataOutputStream stringOut, long position, byte[] bytes)
+            throws IOException {
+
+        if (bytes == null) {
+            out.writeInt(0);
+            out.writeInt(KintoneSnapshot.NULL_LENGTH);
+            return position;
+        }
+        if (position + bytes.length > Integer.MAX_VALUE) {
+            // メモリマップできるのは2GBまで
+            throw new IllegalStateException("kintone snapshot exceeds 2GB.");
+        }
+        out.writeInt((int) position);
+        out.writeInt(bytes.length);
+        stringOut.write(bytes);
+        return position + bytes.length;
+    }
+
+    /**
+     * 文字列のバイト列
+     *
+     * @param value 文字列
+     * @return UTF-8のバイト列。nullの場合null
+     */
+    private static byte[] bytesOf(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 保存ファイル
+     *
+     * @param appId アプリID
+     * @return 保存ファイルのパス
+     */
+    private Path fileOf(long appId) {
+        return directory.resolve("app-" + appId + ".snapshot");
+    }
+}
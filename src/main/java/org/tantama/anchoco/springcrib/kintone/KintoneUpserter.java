@@ -0,0 +1,184 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import com.kintone.client.KintoneClient;
+import com.kintone.client.api.record.GetRecordsRequest;
+import com.kintone.client.model.record.FieldType;
+import com.kintone.client.model.record.Record;
+import com.kintone.client.model.record.RecordForUpdate;
+import com.kintone.client.model.record.UpdateKey;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.tantama.anchoco.springcrib.kintone.KintoneRequestScheduler.Priority;
+
+/**
+ * 重複禁止フィールド(updateKey)をキーとしたキントーンへの一括upsert<br>
+ * キーの存在確認は100件ごとの{@code in}条件でまとめて行い、
+ * 存在するレコードはupdateKeyで更新、存在しないレコードは追加として{@link KintoneBulkWriter}でまとめて送信する
+ */
+@Slf4j
+@Component
+public class KintoneUpserter {
+
+    /** 1回の存在確認で問い合わせるキーの数(クエリ長の上限を超えないようにする) */
+    static final int LOOKUP_KEYS_PER_REQUEST = 100;
+
+    /** キントーン操作 */
+    private final Kintone kintone;
+
+    /** 一括更新 */
+    private final KintoneBulkWriter bulkWriter;
+
+    /** リクエストの実行制御 */
+    private final KintoneRequestScheduler scheduler;
+
+    /**
+     * コンストラクタ
+     *
+     * @param kintone    キントーン操作
+     * @param bulkWriter 一括更新
+     * @param scheduler  リクエストの実行制御
+     */
+    public KintoneUpserter(Kintone kintone, KintoneBulkWriter bulkWriter, KintoneRequestScheduler scheduler) {
+        this.kintone = kintone;
+        this.bulkWriter = bulkWriter;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * レコードを一括upsertする<br>
+     * notice. 存在確認から追加までの間に他から同じキーのレコードが追加された場合、
+     * そのレコードの追加は重複エラーとして結果に格納される
+     *
+     * @param appId    アプリID
+     * @param keyField キーとする重複禁止フィールドのフィールドコード(文字列(1行)または数値)
+     * @param records  upsertする内容。キーとするフィールドを含むこと
+     * @return レコード単位の結果。upsertする内容と同じ順序
+     * @throws IllegalArgumentException キーが無い、または重複している場合
+     */
+    public List<KintoneBulkResult> upsert(long appId, String keyField, List<Record> records) {
+
+        List<String> keys = new ArrayList<>(records.size());
+        Set<String> unique = new HashSet<>();
+        for (Record record : records) {
+            String key = keyOf(record, keyField);
+            if (!unique.add(key)) {
+                throw new IllegalArgumentException("duplicate update key. " + keyField + " : " + key);
+            }
+            keys.add(key);
+        }
+
+        Set<String> existing = lookup(appId, keyField, keys);
+
+        // 更新、追加に振り分け、結果を元の順序に戻すための位置を保持する
+        List<RecordForUpdate> updates = new ArrayList<>();
+        List<Record> adds = new ArrayList<>();
+        List<Integer> updateIndexes = new ArrayList<>();
+        List<Integer> addIndexes = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            if (existing.contains(keys.get(i))) {
+                updates.add(new RecordForUpdate(new UpdateKey(keyField, keys.get(i)), withoutField(records.get(i), keyField)));
+                updateIndexes.add(i);
+            } else {
+                adds.add(records.get(i));
+                addIndexes.add(i);
+            }
+        }
+        log.debug("upsert app {} : {} updates, {} adds.", appId, updates.size(), adds.size());
+
+        List<KintoneBulkResult> written = bulkWriter.writeAll(appId, updates, adds);
+
+        KintoneBulkResult[] results = new KintoneBulkResult[records.size()];
+        for (int i = 0; i < written.size(); i++) {
+            final int index = i < updates.size() ? updateIndexes.get(i) : addIndexes.get(i - updates.size());
+            KintoneBulkResult result = written.get(i);
+            results[index] = new KintoneBulkResult(index, result.getRecordId(), result.getRevision(), result.getError());
+        }
+        return List.of(results);
+    }
+
+    /**
+     * キントーンに存在するキーを取得する
+     *
+     * @param appId    アプリID
+     * @param keyField キーとするフィールドのフィールドコード
+     * @param keys     キー
+     * @return 存在するキー
+     */
+    private Set<String> lookup(long appId, String keyField, List<String> keys) {
+
+        Set<String> existing = new HashSet<>();
+        try (KintoneClient client = kintone.createClient()) {
+            for (List<String> chunk : KintoneBulkWriter.chunk(keys, LOOKUP_KEYS_PER_REQUEST)) {
+                GetRecordsRequest request = new GetRecordsRequest()
+                        .setApp(appId)
+                        .setFields(List.of(keyField))
+                        .setQuery(inQuery(keyField, chunk));
+                List<Record> found = scheduler.execute(appId, Priority.BATCH, () -> client.record().getRecords(request))
+                        .getRecords();
+                found.forEach(record -> existing.add(keyOf(record, keyField)));
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * キーの存在確認のクエリ
+     *
+     * @param keyField キーとするフィールドのフィールドコード
+     * @param keys     キー
+     * @return クエリ
+     */
+    static String inQuery(String keyField, List<String> keys) {
+        return keys.stream()
+                .map(key -> "\"" + key.replace("\\", "\\\\").replace("\"", "\\\"") + "\"")
+                .collect(Collectors.joining(", ", keyField + " in (", ") limit " + keys.size()));
+    }
+
+    /**
+     * レコードのキーの値
+     *
+     * @param record   レコード
+     * @param keyField キーとするフィールドのフィールドコード
+     * @return キーの値。数値の場合は末尾の0を除いた指数表記でない文字列
+     * @throws IllegalArgumentException キーが無い場合
+     */
+    static String keyOf(Record record, String keyField) {
+
+        String key;
+        if (record.getFieldType(keyField) == FieldType.NUMBER) {
+            BigDecimal number = record.getNumberFieldValue(keyField);
+            // notice. キントーンは小数部の0を省略して返すため、送信側の"1.0"と取得側の"1"を同じキーとする
+            key = number == null ? null : number.stripTrailingZeros().toPlainString();
+        } else {
+            key = record.getSingleLineTextFieldValue(keyField);
+        }
+        if (key == null || key.isEmpty()) {
+            throw new IllegalArgumentException("update key " + keyField + " is empty.");
+        }
+        return key;
+    }
+
+    /**
+     * 指定したフィールドを除いたレコード<br>
+     * updateKeyで更新する場合、キーとしたフィールドは更新内容に含められない
+     *
+     * @param record レコード
+     * @param field  除くフィールドのフィールドコード
+     * @return 指定したフィールドを除いたレコード
+     */
+    private static Record withoutField(Record record, String field) {
+        Record copy = new Record();
+        for (String code : record.getFieldCodes(true)) {
+            if (!code.equals(field)) {
+                copy.putField(code, record.getFieldValue(code));
+            }
+        }
+        return copy;
+    }
+}
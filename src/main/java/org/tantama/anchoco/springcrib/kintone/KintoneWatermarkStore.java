@@ -0,0 +1,117 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Optional;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 差分同期の取得済み位置(更新日時の最大値)をローカルファイルに保存する<br>
+ * アプリごとに1ファイルとし、再起動後も前回の続きから同期できるようにする
+ */
+@Component
+public class KintoneWatermarkStore {
+
+    /** 保存先ディレクトリ */
+    private final Path directory;
+
+    /**
+     * コンストラクタ
+     *
+     * @param directory 保存先ディレクトリ
+     */
+    public KintoneWatermarkStore(@Value("${kintone.delta-sync.watermark-dir:./kintone-watermark}") Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * 取得済み位置を読み込む
+     *
+     * @param appId アプリID
+     * @return 取得済み位置。未同期の場合empty
+     */
+    public Optional<Instant> load(long appId) {
+
+        Path file = fileOf(appId);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Instant.parse(Files.readString(file, StandardCharsets.UTF_8).trim()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 取得済み位置を保存する<br>
+     * 一時ファイルに書き込んでディスクへ同期してから置き換えるため、書き込み途中で停止(電源断を含む)しても前回の値が残る
+     *
+     * @param appId     アプリID
+     * @param watermark 取得済み位置
+     */
+    public void save(long appId, Instant watermark) {
+
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, "app-" + appId, ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(watermark.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                // notice. 同期せずに置き換えると、電源断の後に中身が空のファイルが残る場合がある
+                channel.force(true);
+            }
+            Files.move(temp, fileOf(appId), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 取得済み位置を削除する<br>
+     * 次の同期は全件が対象になる
+     *
+     * @param appId アプリID
+     */
+    public void delete(long appId) {
+        try {
+            Files.deleteIfExists(fileOf(appId));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 置き換えをディスクへ同期する<br>
+     * tips. ディレクトリを開けないOS(Windows)では同期しない
+     */
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // 置き換え自体は完了しているため、同期できない場合も続行する
+        }
+    }
+
+    /**
+     * 保存ファイル
+     *
+     * @param appId アプリID
+     * @return 保存ファイルのパス
+     */
+    private Path fileOf(long appId) {
+        return directory.resolve("app-" + appId + ".watermark");
+    }
+}
@@ -0,0 +1,237 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import com.kintone.client.model.record.Record;
+import com.kintone.client.model.record.RecordForUpdate;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * キントーンへの更新の書き込みバッファ(write-behind)<br>
+ * 同じレコードへの更新はフィールド単位でまとめ、件数または時間の契機で一括更新する。
+ * APIの呼び出し回数は更新の回数ではなく、更新されたレコードの数に比例する。
+ * 書き込みに失敗した更新内容はバッファに戻し、次の書き込みで再送する(上限回数まで)
+ */
+@Slf4j
+@Component
+public class KintoneWriteBuffer implements AutoCloseable {
+
+    /** 一括更新 */
+    private final KintoneBulkWriter bulkWriter;
+
+    /** 書き込みを行うレコード数の閾値 */
+    private final int maxRecords;
+
+    /** 1レコードあたりの書き込みの最大試行回数。超えた場合は更新内容を破棄する */
+    private final int maxAttempts;
+
+    /** 書き込み待ちの更新内容 */
+    private final Map<RecordKey, Record> pending = new ConcurrentHashMap<>();
+
+    /** 書き込みに連続して失敗した回数(再送待ちのレコードのみ) */
+    private final Map<RecordKey, Integer> failures = new ConcurrentHashMap<>();
+
+    /**
+     * 書き込みの排他<br>
+     * 同じレコードの古い更新内容が新しい更新内容を上書きしないよう、書き込みは直列に行う
+     */
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    /** 件数契機の書き込みが予約済みかどうか */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /** 定期書き込みのスレッド */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * コンストラクタ
+     *
+     * @param bulkWriter      一括更新
+     * @param maxRecords      書き込みを行うレコード数の閾値
+     * @param flushIntervalMs 定期書き込みの間隔(ms)
+     * @param maxAttempts     1レコードあたりの書き込みの最大試行回数
+     */
+    public KintoneWriteBuffer(KintoneBulkWriter bulkWriter,
+            @Value("${kintone.write-buffer.max-records:500}") int maxRecords,
+            @Value("${kintone.write-buffer.flush-interval-ms:3000}") long flushIntervalMs,
+            @Value("${kintone.write-buffer.max-attempts:5}") int maxAttempts) {
+        this.bulkWriter = bulkWriter;
+        this.maxRecords = maxRecords;
+        this.maxAttempts = maxAttempts;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "kintone-write-buffer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 更新内容をバッファに追加する<br>
+     * 書き込み前の同じレコードへの更新とフィールド単位でまとめる(同じフィールドは後の更新を優先する)
+     *
+     * @param appId    アプリID
+     * @param recordId レコードID
+     * @param fields   更新するフィールド
+     */
+    public void update(long appId, long recordId, Record fields) {
+
+        pending.compute(new RecordKey(appId, recordId), (key, current) -> merge(current == null ? new Record() : current, fields));
+
+        if (pending.size() >= maxRecords && !scheduler.isShutdown() && flushScheduled.compareAndSet(false, true)) {
+            // 呼び出し元を待たせないよう、書き込みは別スレッドで行う
+            scheduler.execute(() -> {
+                flushScheduled.set(false);
+                flushQuietly();
+            });
+        }
+    }
+
+    /**
+     * バッファ内の更新内容を書き込む<br>
+     * 失敗したレコードの更新内容はバッファに戻す。
+     * 書き込み中に同じレコードへの更新が追加されていた場合は、追加された更新を優先してまとめる
+     *
+     * @return レコード単位の結果(失敗したレコードを含む)
+     */
+    public List<KintoneBulkResult> flush() {
+
+        flushLock.lock();
+        try {
+            Map<Long, List<RecordForUpdate>> byApp = new LinkedHashMap<>();
+            for (RecordKey key : pending.keySet()) {
+                Record record = pending.remove(key);
+                if (record != null) {
+                    byApp.computeIfAbsent(key.appId(), appId -> new ArrayList<>())
+                            .add(new RecordForUpdate(key.recordId(), record));
+                }
+            }
+
+            List<KintoneBulkResult> results = new ArrayList<>();
+            List<Long> appIds = new ArrayList<>(byApp.keySet());
+            for (int i = 0; i < appIds.size(); i++) {
+                final long appId = appIds.get(i);
+                List<RecordForUpdate> records = byApp.get(appId);
+                log.debug("flush {} records of app {}.", records.size(), appId);
+
+                List<KintoneBulkResult> appResults;
+                try {
+                    appResults = bulkWriter.updateAll(appId, records);
+                } catch (RuntimeException e) {
+                    // 書き込めなかったアプリの更新内容を全て戻す(未着手のアプリは失敗回数に数えない)
+                    records.forEach(record -> requeue(appId, record, e));
+                    appIds.subList(i + 1, appIds.size()).forEach(
+                            rest -> byApp.get(rest).forEach(record -> requeue(rest, record, null)));
+                    throw e;
+                }
+
+                for (KintoneBulkResult result : appResults) {
+                    RecordForUpdate record = records.get(result.getIndex());
+                    if (result.isSuccess()) {
+                        failures.remove(new RecordKey(appId, record.getId()));
+                    } else {
+                        requeue(appId, record, result.getError());
+                    }
+                }
+                results.addAll(appResults);
+            }
+            return results;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 書き込み待ちのレコード数
+     *
+     * @return レコード数(再送待ちを含む)
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * 終了処理<br>
+     * 定期書き込みを停止し、残っている更新内容を書き込む
+     */
+    @Override
+    @PreDestroy
+    public void close() {
+        scheduler.shutdown();
+        flush();
+        if (!pending.isEmpty()) {
+            // notice. 終了時は再送できないため、書き込めなかった更新内容は失われる
+            log.error("write behind lost {} records on close. {}", pending.size(), pending.keySet());
+        }
+    }
+
+    /**
+     * 書き込めなかった更新内容をバッファに戻す<br>
+     * 最大試行回数に達したレコードは破棄する
+     *
+     * @param appId  アプリID
+     * @param record 書き込めなかった更新内容
+     * @param error  書き込み時のエラー。書き込みを試みていない場合null
+     */
+    private void requeue(long appId, RecordForUpdate record, RuntimeException error) {
+
+        RecordKey key = new RecordKey(appId, record.getId());
+        if (error != null && failures.merge(key, 1, Integer::sum) >= maxAttempts) {
+            failures.remove(key);
+            log.error("write behind gave up after {} attempts. app id : {}, record id : {}, {}", maxAttempts, appId,
+                    record.getId(), error.toString());
+            return;
+        }
+        // 失敗した更新内容の上に、書き込み中に追加された更新内容を重ねる
+        pending.compute(key, (k, newer) -> newer == null ? record.getRecord() : merge(record.getRecord(), newer));
+    }
+
+    /**
+     * 定期書き込み<br>
+     * 失敗はログのみ出力する(定期実行を止めないため)。失敗したレコードは次の書き込みで再送する
+     */
+    private void flushQuietly() {
+        try {
+            flush().stream()
+                    .filter(result -> !result.isSuccess())
+                    .forEach(result -> log.warn("write behind failed. record id : {}, {}", result.getRecordId(),
+                            result.getError().toString()));
+        } catch (RuntimeException e) {
+            log.error("write behind failed. {}", e.toString());
+        }
+    }
+
+    /**
+     * フィールドをまとめる
+     *
+     * @param into 書き込み先
+     * @param from 追加するフィールド
+     * @return 書き込み先
+     */
+    static Record merge(Record into, Record from) {
+        for (String fieldCode : from.getFieldCodes(true)) {
+            into.putField(fieldCode, from.getFieldValue(fieldCode));
+        }
+        return into;
+    }
+
+    /**
+     * 更新内容をまとめる単位
+     *
+     * @param appId    アプリID
+     * @param recordId レコードID
+     */
+    private record RecordKey(long appId, long recordId) {
+    }
+}
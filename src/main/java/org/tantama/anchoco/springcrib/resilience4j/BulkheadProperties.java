@@ -0,0 +1,60 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 名前付きのバルクヘッド設定<br>
+ * {@code bulkhead.instances.<名前>}に同時実行数を制限するバルクヘッド、
+ * {@code bulkhead.thread-pool-instances.<名前>}に専用のスレッドで実行するバルクヘッドを定義する
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "bulkhead")
+public class BulkheadProperties {
+
+    /** 名前ごとの同時実行数を制限するバルクヘッド設定 */
+    private Map<String, Instance> instances = new LinkedHashMap<>();
+
+    /** 名前ごとの専用のスレッドで実行するバルクヘッド設定 */
+    private Map<String, ThreadPoolInstance> threadPoolInstances = new LinkedHashMap<>();
+
+    /**
+     * 1つの名前の同時実行数を制限するバルクヘッド設定
+     */
+    @Getter
+    @Setter
+    public static class Instance {
+
+        /** 同時実行数の上限 */
+        private int maxConcurrentCalls = 25;
+
+        /** 実行枠の空きを待つ時間の上限(ms)。0の場合は待たずに拒否する */
+        private long maxWaitMs;
+    }
+
+    /**
+     * 1つの名前の専用のスレッドで実行するバルクヘッド設定
+     */
+    @Getter
+    @Setter
+    public static class ThreadPoolInstance {
+
+        /** 常駐するスレッド数 */
+        private int coreThreadPoolSize = 1;
+
+        /** スレッド数の上限 */
+        private int maxThreadPoolSize = Runtime.getRuntime().availableProcessors();
+
+        /** 実行待ちの上限数。超えた場合は拒否する */
+        private int queueCapacity = 100;
+
+        /** 常駐するスレッド数を超えたスレッドを停止するまでの待機時間(ms) */
+        private long keepAliveMs = 20;
+    }
+}
@@ -0,0 +1,74 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 名前付きのサーキットブレイカー設定<br>
+ * {@code circuit-breaker.instances.<名前>}に呼び出し先ごとのサーキットブレイカー設定を定義する。
+ * {@link RetryPolicyProperties}と同じ名前の場合、リトライの内側でサーキットブレイカーを利用する
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "circuit-breaker")
+public class CircuitBreakerProperties {
+
+    /** 名前ごとのサーキットブレイカー設定 */
+    private Map<String, Instance> instances = new LinkedHashMap<>();
+
+    /**
+     * 1つの名前のサーキットブレイカー設定
+     */
+    @Getter
+    @Setter
+    public static class Instance {
+
+        /** 失敗率(%)がこの値以上の場合にopen(遮断)にする */
+        private float failureRateThreshold = 50;
+
+        /** 遅い呼び出しの割合(%)がこの値以上の場合にopen(遮断)にする */
+        private float slowCallRateThreshold = 100;
+
+        /** 遅い呼び出しとみなす時間(s) */
+        private long slowCallDurationThreshold = 60;
+
+        /** 失敗率を集計する直近の呼び出し数 */
+        private int slidingWindowSize = 100;
+
+        /** 失敗率を判定する最低の呼び出し数 */
+        private int minimumNumberOfCalls = 100;
+
+        /** open(遮断)からhalf-open(試行)にするまでの時間(s) */
+        private long waitDurationInOpenState = 60;
+
+        /** half-open(試行)で許可する呼び出し数。この呼び出しの失敗率でclose(復旧)またはopen(遮断)にする */
+        private int permittedNumberOfCallsInHalfOpenState = 10;
+
+        /**
+         * open(遮断)から時間経過で自動的にhalf-open(試行)にする<br>
+         * falseの場合は、時間経過後の最初の呼び出しでhalf-open(試行)にする
+         */
+        private boolean automaticTransitionFromOpenToHalfOpen;
+
+        /**
+         * 失敗とみなすエラー<br>
+         * 発生したエラーの原因(cause)も対象とする。指定しない場合は全てのエラーを失敗とみなす
+         */
+        private List<Class<? extends Throwable>> recordExceptions = new ArrayList<>();
+
+        /**
+         * 失敗とみなすエラーの判定処理<br>
+         * 引数なしのコンストラクタを持つ{@link Predicate}の実装クラスを指定する。
+         * 失敗とみなすエラーのうち、判定がtrueのエラーのみ失敗とみなす(httpステータスなどで絞り込む場合に利用する)
+         */
+        private Class<? extends Predicate<Throwable>> recordExceptionPredicate;
+    }
+}
@@ -0,0 +1,39 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 名前付きのレートリミッター設定<br>
+ * {@code rate-limiter.instances.<名前>}に呼び出し先ごとの呼び出し頻度の上限を定義する
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "rate-limiter")
+public class RateLimiterProperties {
+
+    /** 名前ごとのレートリミッター設定 */
+    private Map<String, Instance> instances = new LinkedHashMap<>();
+
+    /**
+     * 1つの名前のレートリミッター設定
+     */
+    @Getter
+    @Setter
+    public static class Instance {
+
+        /** 期間あたりの呼び出し数の上限 */
+        private int limitForPeriod = 50;
+
+        /** 呼び出し数を数える期間(ms) */
+        private long limitRefreshPeriodMs = 500;
+
+        /** 呼び出しの許可を待つ時間の上限(ms)。0の場合は待たずに拒否する */
+        private long timeoutMs = 5000;
+    }
+}
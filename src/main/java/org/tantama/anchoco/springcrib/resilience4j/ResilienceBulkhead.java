@@ -0,0 +1,327 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.bulkhead.ThreadPoolBulkhead;
+import io.github.resilience4j.bulkhead.ThreadPoolBulkheadConfig;
+import io.github.resilience4j.bulkhead.ThreadPoolBulkheadRegistry;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * 呼び出し先ごとのバルクヘッドの提供<br>
+ * 1つの呼び出し先が遅くなった場合に、その呼び出しでリクエスト処理のスレッドを使い切り、
+ * 関係のない処理まで止まらないように、呼び出し先ごとに同時実行数を制限する。
+ * 同時実行数の制限(semaphore)と、専用のスレッドでの実行(thread pool)の2種類を提供する
+ */
+@Slf4j
+@Component
+public class ResilienceBulkhead {
+
+    /** 同時実行数を制限するバルクヘッドの保存先 */
+    private final BulkheadRegistry registry;
+
+    /** 専用のスレッドで実行するバルクヘッドの保存先 */
+    private final ThreadPoolBulkheadRegistry threadPoolRegistry;
+
+    /** 名前ごとの同時実行数を制限するバルクヘッド */
+    private final Map<String, Bulkhead> bulkheads;
+
+    /** 名前ごとの専用のスレッドで実行するバルクヘッド */
+    private final Map<String, ThreadPoolBulkhead> threadPools;
+
+    /** 名前ごとの同時実行数を制限するバルクヘッドの空き待ち */
+    private final Map<String, WaitMetrics> waits;
+
+    /** 名前ごとの専用のスレッドで実行するバルクヘッドの実行待ち */
+    private final Map<String, WaitMetrics> threadPoolWaits;
+
+    /** 名前ごとの専用のスレッドで実行中の数 */
+    private final Map<String, AtomicInteger> threadPoolActives;
+
+    /**
+     * コンストラクタ
+     *
+     * @param properties 名前付きのバルクヘッド設定
+     */
+    public ResilienceBulkhead(BulkheadProperties properties) {
+
+        this.registry = BulkheadRegistry.ofDefaults();
+        Map<String, Bulkhead> bulkheadMap = new LinkedHashMap<>();
+        Map<String, WaitMetrics> waitMap = new LinkedHashMap<>();
+        properties.getInstances().forEach((name, instance) -> {
+            BulkheadConfig config = BulkheadConfig.custom()
+                    .maxConcurrentCalls(instance.getMaxConcurrentCalls())
+                    .maxWaitDuration(Duration.ofMillis(instance.getMaxWaitMs()))
+                    .build();
+            bulkheadMap.put(name, registry.bulkhead(name, config));
+            waitMap.put(name, new WaitMetrics());
+        });
+
+        this.threadPoolRegistry = ThreadPoolBulkheadRegistry.ofDefaults();
+        Map<String, ThreadPoolBulkhead> threadPoolMap = new LinkedHashMap<>();
+        Map<String, WaitMetrics> threadPoolWaitMap = new LinkedHashMap<>();
+        Map<String, AtomicInteger> activeMap = new LinkedHashMap<>();
+        properties.getThreadPoolInstances().forEach((name, instance) -> {
+            ThreadPoolBulkheadConfig config = ThreadPoolBulkheadConfig.custom()
+                    .coreThreadPoolSize(instance.getCoreThreadPoolSize())
+                    .maxThreadPoolSize(instance.getMaxThreadPoolSize())
+                    .queueCapacity(instance.getQueueCapacity())
+                    .keepAliveDuration(Duration.ofMillis(instance.getKeepAliveMs()))
+                    .build();
+            threadPoolMap.put(name, threadPoolRegistry.bulkhead(name, config));
+            threadPoolWaitMap.put(name, new WaitMetrics());
+            activeMap.put(name, new AtomicInteger());
+        });
+
+        this.bulkheads = Collections.unmodifiableMap(bulkheadMap);
+        this.waits = Collections.unmodifiableMap(waitMap);
+        this.threadPools = Collections.unmodifiableMap(threadPoolMap);
+        this.threadPoolWaits = Collections.unmodifiableMap(threadPoolWaitMap);
+        this.threadPoolActives = Collections.unmodifiableMap(activeMap);
+        log.debug("bulkheads : {}, thread pool bulkheads : {}", bulkheads.keySet(), threadPools.keySet());
+    }
+
+    /**
+     * 終了処理<br>
+     * 専用のスレッドを停止する
+     */
+    @PreDestroy
+    public void destroy() {
+        threadPools.forEach((name, threadPool) -> {
+            try {
+                threadPool.close();
+            } catch (Exception e) {
+                log.warn("thread pool bulkhead " + name + " close failed.", e);
+            }
+        });
+    }
+
+    /**
+     * 同時実行数を制限する処理の作成<br>
+     * バルクヘッド設定が無い場合は、実行処理をそのまま返す
+     *
+     * @param <T>  実行処理のレスポンス
+     * @param name バルクヘッド設定の名前
+     * @param sup  実行処理
+     * @return 同時実行数を制限する処理。実行枠が無い場合は{@link BulkheadFullException}
+     */
+    public <T> Supplier<T> decorateSupplier(String name, Supplier<T> sup) {
+
+        Bulkhead bulkhead = bulkheads.get(name);
+        if (bulkhead == null) {
+            return sup;
+        }
+        WaitMetrics wait = waits.get(name);
+        return () -> {
+            final long start = System.nanoTime();
+            try {
+                return bulkhead.executeSupplier(() -> {
+                    wait.recordPermitted(System.nanoTime() - start);
+                    return sup.get();
+                });
+            } catch (BulkheadFullException e) {
+                wait.recordRejected();
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * 同時実行数を制限する非同期処理の作成<br>
+     * 非同期処理が完了するまで実行枠を使用する。バルクヘッド設定が無い場合は、実行処理をそのまま返す<br>
+     * notice. 実行枠の空き待ち({@code max-wait-ms}まで)は呼び出し元のスレッドで行う。
+     * {@link ResilienceRetry#executeAsync(String, Supplier)}は許可待ち用のスレッドから呼び出すため、
+     * 呼び出し元のスレッドと待機用スレッドは止めない
+     *
+     * @param <T>  実行処理のレスポンス
+     * @param name バルクヘッド設定の名前
+     * @param sup  実行処理
+     * @return 同時実行数を制限する処理。実行枠が無い場合は{@link BulkheadFullException}で失敗する
+     */
+    public <T> Supplier<CompletionStage<T>> decorateCompletionStage(String name, Supplier<CompletionStage<T>> sup) {
+
+        Bulkhead bulkhead = bulkheads.get(name);
+        if (bulkhead == null) {
+            return sup;
+        }
+        WaitMetrics wait = waits.get(name);
+        return () -> {
+            final long start = System.nanoTime();
+            return bulkhead.<T>executeCompletionStage(() -> {
+                wait.recordPermitted(System.nanoTime() - start);
+                return sup.get();
+            }).whenComplete((result, e) -> {
+                if (e instanceof BulkheadFullException) {
+                    wait.recordRejected();
+                }
+            });
+        };
+    }
+
+    /**
+     * 専用のスレッドで実行する処理の作成<br>
+     * ブロックする処理を呼び出し元のスレッドから切り離し、呼び出し先ごとのスレッド数と実行待ちの数を制限する
+     *
+     * @param <T>  実行処理のレスポンス
+     * @param name バルクヘッド設定の名前
+     * @param sup  実行処理
+     * @return 専用のスレッドで実行する処理。実行待ちが上限の場合は{@link BulkheadFullException}で失敗する
+     * @throws IllegalArgumentException バルクヘッド設定が無い場合
+     */
+    public <T> Supplier<CompletionStage<T>> isolate(String name, Supplier<T> sup) {
+
+        ThreadPoolBulkhead threadPool = threadPoolBulkhead(name);
+        WaitMetrics wait = threadPoolWaits.get(name);
+        AtomicInteger active = threadPoolActives.get(name);
+        return () -> {
+            final long start = System.nanoTime();
+            try {
+                return threadPool.executeSupplier(() -> {
+                    wait.recordPermitted(System.nanoTime() - start);
+                    active.incrementAndGet();
+                    try {
+                        return sup.get();
+                    } finally {
+                        active.decrementAndGet();
+                    }
+                });
+            } catch (BulkheadFullException e) {
+                wait.recordRejected();
+                return CompletableFuture.failedFuture(e);
+            }
+        };
+    }
+
+    /**
+     * 名前ごとの同時実行数を制限するバルクヘッド<br>
+     * 状態のメトリクスの参照用
+     *
+     * @param name バルクヘッド設定の名前
+     * @return バルクヘッド
+     * @throws IllegalArgumentException バルクヘッド設定が無い場合
+     */
+    public Bulkhead bulkhead(String name) {
+        Bulkhead bulkhead = bulkheads.get(name);
+        if (bulkhead == null) {
+            throw new IllegalArgumentException("bulkhead " + name + " is not defined.");
+        }
+        return bulkhead;
+    }
+
+    /**
+     * 名前ごとの専用のスレッドで実行するバルクヘッド<br>
+     * 状態のメトリクスの参照用
+     *
+     * @param name バルクヘッド設定の名前
+     * @return バルクヘッド
+     * @throws IllegalArgumentException バルクヘッド設定が無い場合
+     */
+    public ThreadPoolBulkhead threadPoolBulkhead(String name) {
+        ThreadPoolBulkhead threadPool = threadPools.get(name);
+        if (threadPool == null) {
+            throw new IllegalArgumentException("thread pool bulkhead " + name + " is not defined.");
+        }
+        return threadPool;
+    }
+
+    /**
+     * 同時実行数を制限するバルクヘッドの使用率
+     *
+     * @param name バルクヘッド設定の名前
+     * @return 使用中の実行枠の割合(0から1)
+     * @throws IllegalArgumentException バルクヘッド設定が無い場合
+     */
+    public double getSaturation(String name) {
+        Bulkhead.Metrics metrics = bulkhead(name).getMetrics();
+        final int max = metrics.getMaxAllowedConcurrentCalls();
+        return max == 0 ? 1 : (double) (max - metrics.getAvailableConcurrentCalls()) / max;
+    }
+
+    /**
+     * 専用のスレッドで実行するバルクヘッドの使用率
+     *
+     * @param name バルクヘッド設定の名前
+     * @return 実行中と実行待ちの数の、スレッド数の上限と実行待ちの上限数の合計に対する割合(0から1)
+     * @throws IllegalArgumentException バルクヘッド設定が無い場合
+     */
+    public double getThreadPoolSaturation(String name) {
+        ThreadPoolBulkhead.Metrics metrics = threadPoolBulkhead(name).getMetrics();
+        final int capacity = metrics.getMaximumThreadPoolSize() + metrics.getQueueCapacity();
+        return (double) (threadPoolActives.get(name).get() + metrics.getQueueDepth()) / capacity;
+    }
+
+    /**
+     * 同時実行数を制限するバルクヘッドの空き待ちの集計
+     *
+     * @param name バルクヘッド設定の名前
+     * @return 空き待ちの集計
+     * @throws IllegalArgumentException バルクヘッド設定が無い場合
+     */
+    public WaitMetrics getWaitMetrics(String name) {
+        bulkhead(name);
+        return waits.get(name);
+    }
+
+    /**
+     * 専用のスレッドで実行するバルクヘッドの実行待ちの集計
+     *
+     * @param name バルクヘッド設定の名前
+     * @return 実行待ちの集計
+     * @throws IllegalArgumentException バルクヘッド設定が無い場合
+     */
+    public WaitMetrics getThreadPoolWaitMetrics(String name) {
+        threadPoolBulkhead(name);
+        return threadPoolWaits.get(name);
+    }
+
+    /**
+     * 同時実行数を制限するバルクヘッドの名前
+     *
+     * @return バルクヘッド設定の名前
+     */
+    public Set<String> getNames() {
+        return bulkheads.keySet();
+    }
+
+    /**
+     * 専用のスレッドで実行するバルクヘッドの名前
+     *
+     * @return バルクヘッド設定の名前
+     */
+    public Set<String> getThreadPoolNames() {
+        return threadPools.keySet();
+    }
+
+    /**
+     * 同時実行数を制限するバルクヘッドの保存先<br>
+     * 全ての名前のバルクヘッドをメトリクスへ登録する場合に利用する
+     *
+     * @return バルクヘッドの保存先
+     */
+    public BulkheadRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * 専用のスレッドで実行するバルクヘッドの保存先<br>
+     * 全ての名前のバルクヘッドをメトリクスへ登録する場合に利用する
+     *
+     * @return バルクヘッドの保存先
+     */
+    public ThreadPoolBulkheadRegistry getThreadPoolRegistry() {
+        return threadPoolRegistry;
+    }
+}
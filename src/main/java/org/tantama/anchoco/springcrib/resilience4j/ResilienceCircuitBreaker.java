@@ -0,0 +1,184 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker.StateTransition;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.stereotype.Component;
+import org.tantama.anchoco.springcrib.resilience4j.CircuitBreakerProperties.Instance;
+
+/**
+ * 呼び出し先ごとのサーキットブレイカーの提供<br>
+ * 呼び出し先が停止している間は呼び出しを遮断し、リトライの待機や接続タイムアウトを待たずに
+ * {@link io.github.resilience4j.circuitbreaker.CallNotPermittedException}で即時に失敗させる。
+ * 状態遷移の回数と、名前ごとの呼び出し結果({@link CircuitBreaker#getMetrics()})をダッシュボード向けに参照できる
+ */
+@Slf4j
+@Component
+public class ResilienceCircuitBreaker {
+
+    /** サーキットブレイカーの保存先 */
+    private final CircuitBreakerRegistry registry;
+
+    /** 名前ごとのサーキットブレイカー */
+    private final Map<String, CircuitBreaker> breakers;
+
+    /** 名前ごとの状態遷移の回数 */
+    private final Map<String, Map<StateTransition, LongAdder>> transitions;
+
+    /**
+     * コンストラクタ
+     *
+     * @param properties 名前付きのサーキットブレイカー設定
+     */
+    public ResilienceCircuitBreaker(CircuitBreakerProperties properties) {
+
+        this.registry = CircuitBreakerRegistry.ofDefaults();
+        Map<String, CircuitBreaker> map = new LinkedHashMap<>();
+        Map<String, Map<StateTransition, LongAdder>> counts = new LinkedHashMap<>();
+        properties.getInstances().forEach((name, instance) -> {
+            CircuitBreaker breaker = registry.circuitBreaker(name, config(instance));
+
+            Map<StateTransition, LongAdder> count = new EnumMap<>(StateTransition.class);
+            for (StateTransition transition : StateTransition.values()) {
+                count.put(transition, new LongAdder());
+            }
+            // 状態遷移はログ出力し、回数を集計する
+            // 遮断した呼び出しは数が多くなるためdebugのみとする
+            breaker.getEventPublisher()
+                    .onStateTransition(event -> {
+                        count.get(event.getStateTransition()).increment();
+                        log.warn("circuit breaker {} : {}", event.getCircuitBreakerName(), event.getStateTransition());
+                    })
+                    .onCallNotPermitted(event -> log.debug("circuit breaker {} : call not permitted.",
+                            event.getCircuitBreakerName()));
+
+            map.put(name, breaker);
+            counts.put(name, Collections.unmodifiableMap(count));
+        });
+        this.breakers = Collections.unmodifiableMap(map);
+        this.transitions = Collections.unmodifiableMap(counts);
+        log.debug("circuit breakers : {}", breakers.keySet());
+    }
+
+    /**
+     * サーキットブレイカーの設定の作成
+     *
+     * @param instance サーキットブレイカー設定
+     * @return サーキットブレイカーの設定
+     */
+    static CircuitBreakerConfig config(Instance instance) {
+
+        final List<Class<? extends Throwable>> recordExceptions = List.copyOf(instance.getRecordExceptions());
+        final Predicate<Throwable> recordPredicate = instance.getRecordExceptionPredicate() == null
+                ? e -> true
+                : BeanUtils.instantiateClass(instance.getRecordExceptionPredicate());
+        return CircuitBreakerConfig.custom()
+                .failureRateThreshold(instance.getFailureRateThreshold())
+                .slowCallRateThreshold(instance.getSlowCallRateThreshold())
+                .slowCallDurationThreshold(Duration.ofSeconds(instance.getSlowCallDurationThreshold()))
+                .slidingWindowSize(instance.getSlidingWindowSize())
+                .minimumNumberOfCalls(instance.getMinimumNumberOfCalls())
+                .waitDurationInOpenState(Duration.ofSeconds(instance.getWaitDurationInOpenState()))
+                .permittedNumberOfCallsInHalfOpenState(instance.getPermittedNumberOfCallsInHalfOpenState())
+                .automaticTransitionFromOpenToHalfOpenEnabled(instance.isAutomaticTransitionFromOpenToHalfOpen())
+                // tips. 入力誤りなど呼び出し先の停止ではないエラーで遮断しないよう、失敗とみなすエラーを限定する
+                .recordException(e -> (recordExceptions.isEmpty() || ResilienceRetry.causedBy(e, recordExceptions))
+                        && recordPredicate.test(e))
+                .build();
+    }
+
+    /**
+     * サーキットブレイカーを利用する処理の作成<br>
+     * サーキットブレイカー設定が無い場合は、実行処理をそのまま返す
+     *
+     * @param <T>  実行処理のレスポンス
+     * @param name サーキットブレイカー設定の名前
+     * @param sup  実行処理
+     * @return サーキットブレイカーを利用する処理
+     */
+    public <T> Supplier<T> decorateSupplier(String name, Supplier<T> sup) {
+        return find(name).map(breaker -> CircuitBreaker.decorateSupplier(breaker, sup)).orElse(sup);
+    }
+
+    /**
+     * サーキットブレイカーを利用する非同期処理の作成<br>
+     * サーキットブレイカー設定が無い場合は、実行処理をそのまま返す
+     *
+     * @param <T>  実行処理のレスポンス
+     * @param name サーキットブレイカー設定の名前
+     * @param sup  実行処理
+     * @return サーキットブレイカーを利用する処理
+     */
+    public <T> Supplier<CompletionStage<T>> decorateCompletionStage(String name, Supplier<CompletionStage<T>> sup) {
+        return find(name).map(breaker -> CircuitBreaker.decorateCompletionStage(breaker, sup)).orElse(sup);
+    }
+
+    /**
+     * 名前ごとのサーキットブレイカー
+     *
+     * @param name サーキットブレイカー設定の名前
+     * @return サーキットブレイカー。設定が無い場合はempty
+     */
+    public Optional<CircuitBreaker> find(String name) {
+        return Optional.ofNullable(breakers.get(name));
+    }
+
+    /**
+     * 名前ごとのサーキットブレイカー<br>
+     * 状態と呼び出し結果のメトリクスの参照用
+     *
+     * @param name サーキットブレイカー設定の名前
+     * @return サーキットブレイカー
+     * @throws IllegalArgumentException サーキットブレイカー設定が無い場合
+     */
+    public CircuitBreaker circuitBreaker(String name) {
+        return find(name).orElseThrow(() -> new IllegalArgumentException("circuit breaker " + name + " is not defined."));
+    }
+
+    /**
+     * 状態遷移の回数(起動後の累計)
+     *
+     * @param name       サーキットブレイカー設定の名前
+     * @param transition 状態遷移
+     * @return 回数
+     * @throws IllegalArgumentException サーキットブレイカー設定が無い場合
+     */
+    public long getTransitionCount(String name, StateTransition transition) {
+        circuitBreaker(name);
+        return transitions.get(name).get(transition).sum();
+    }
+
+    /**
+     * サーキットブレイカーの名前
+     *
+     * @return サーキットブレイカー設定の名前
+     */
+    public Set<String> getNames() {
+        return breakers.keySet();
+    }
+
+    /**
+     * サーキットブレイカーの保存先<br>
+     * 全ての名前のサーキットブレイカーをメトリクスへ登録する場合に利用する
+     *
+     * @return サーキットブレイカーの保存先
+     */
+    public CircuitBreakerRegistry getRegistry() {
+        return registry;
+    }
+}
@@ -0,0 +1,196 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker.StateTransition;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedRateLimiterMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedRetryMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedThreadPoolBulkheadMetrics;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+import org.springframework.stereotype.Component;
+
+/**
+ * リトライ、サーキットブレイカー、バルクヘッド、レートリミッターのメトリクスの登録<br>
+ * Spring Boot Actuatorの{@link MeterRegistry}へ登録し、{@code /actuator/metrics}から参照できるようにする。
+ * resilience4jの標準のメトリクス({@code resilience4j.*})に加え、
+ * リトライの集計、リトライ予算、代替値のキャッシュ、実行枠の空き待ち({@code resilience.*})を登録する<br>
+ * tips. リトライの実行時間以外の値は参照時に集計値から読み取るため、実行処理の中でメトリクスへの書き込みは行わない
+ */
+@Component
+public class ResilienceMeterBinder implements MeterBinder {
+
+    /** タグ : 設定の名前 */
+    private static final String TAG_NAME = "name";
+
+    /** リトライ処理 */
+    private final ResilienceRetry retry;
+
+    /** 呼び出し先ごとのサーキットブレイカー */
+    private final ResilienceCircuitBreaker circuitBreaker;
+
+    /** 呼び出し先ごとのバルクヘッド */
+    private final ResilienceBulkhead bulkhead;
+
+    /** 呼び出し先ごとのレートリミッター */
+    private final ResilienceRateLimiter rateLimiter;
+
+    /**
+     * コンストラクタ
+     *
+     * @param retry          リトライ処理
+     * @param circuitBreaker 呼び出し先ごとのサーキットブレイカー
+     * @param bulkhead       呼び出し先ごとのバルクヘッド
+     * @param rateLimiter    呼び出し先ごとのレートリミッター
+     */
+    public ResilienceMeterBinder(ResilienceRetry retry, ResilienceCircuitBreaker circuitBreaker,
+            ResilienceBulkhead bulkhead, ResilienceRateLimiter rateLimiter) {
+        this.retry = retry;
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * メトリクスの登録
+     *
+     * @param registry 登録先
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+
+        // resilience4jの標準のメトリクス(呼び出し結果、状態など)
+        TaggedRetryMetrics.ofRetryRegistry(retry.getRegistry()).bindTo(registry);
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(circuitBreaker.getRegistry()).bindTo(registry);
+        TaggedBulkheadMetrics.ofBulkheadRegistry(bulkhead.getRegistry()).bindTo(registry);
+        TaggedThreadPoolBulkheadMetrics.ofThreadPoolBulkheadRegistry(bulkhead.getThreadPoolRegistry()).bindTo(registry);
+        TaggedRateLimiterMetrics.ofRateLimiterRegistry(rateLimiter.getRegistry()).bindTo(registry);
+
+        bindRetry(registry);
+        bindCircuitBreaker(registry);
+        bindWait(registry);
+    }
+
+    /**
+     * リトライの集計、リトライ予算、代替値のキャッシュの登録
+     *
+     * @param registry 登録先
+     */
+    private void bindRetry(MeterRegistry registry) {
+
+        for (String name : retry.getNames()) {
+            RetryEventMetrics metrics = retry.getEventMetrics(name);
+            counter(registry, "resilience.retry.retries", name, metrics, RetryEventMetrics::getRetryCount,
+                    "number of retries (attempts after the first)");
+            counter(registry, "resilience.retry.success.without.retry", name, metrics,
+                    RetryEventMetrics::getSuccessWithoutRetryCount, "calls succeeded on the first attempt");
+            counter(registry, "resilience.retry.success.with.retry", name, metrics,
+                    RetryEventMetrics::getSuccessWithRetryCount, "calls succeeded after retrying");
+            counter(registry, "resilience.retry.exhausted", name, metrics, RetryEventMetrics::getExhaustedCount,
+                    "calls failed after all attempts");
+            counter(registry, "resilience.retry.ignored.errors", name, metrics,
+                    RetryEventMetrics::getIgnoredErrorCount, "calls failed with a non-retryable error");
+            counter(registry, "resilience.retry.budget.rejected.calls", name, metrics,
+                    RetryEventMetrics::getBudgetRejectedCount, "calls failed without retrying because the budget was exhausted");
+            // 1回ごとの実行時間(resilience.retry.attempt)。最大値は一定時間ごとに減衰する
+            metrics.bindTo(registry);
+            counter(registry, "resilience.retry.stale.hits", name, retry.getFallbackCache(),
+                    cache -> cache.getStaleHitCount(name), "stale values returned instead of an error");
+        }
+
+        RetryBudget budget = retry.getBudget();
+        Gauge.builder("resilience.retry.budget.available", budget, RetryBudget::getAvailableRetries)
+                .description("retries left in the current budget window")
+                .register(registry);
+        FunctionCounter.builder("resilience.retry.budget.rejected", budget, RetryBudget::getRejectedCount)
+                .description("retries skipped because the budget was exhausted")
+                .register(registry);
+
+        StaleIfErrorCache cache = retry.getFallbackCache();
+        Gauge.builder("resilience.retry.stale.size", cache, StaleIfErrorCache::size).register(registry);
+        FunctionCounter.builder("resilience.retry.stale.misses", cache, StaleIfErrorCache::getStaleMissCount)
+                .register(registry);
+        FunctionCounter.builder("resilience.retry.stale.evictions", cache, StaleIfErrorCache::getEvictionCount)
+                .register(registry);
+    }
+
+    /**
+     * サーキットブレイカーの状態遷移の回数の登録
+     *
+     * @param registry 登録先
+     */
+    private void bindCircuitBreaker(MeterRegistry registry) {
+        for (String name : circuitBreaker.getNames()) {
+            for (StateTransition transition : StateTransition.values()) {
+                FunctionCounter.builder("resilience.circuitbreaker.transitions", circuitBreaker,
+                        cb -> cb.getTransitionCount(name, transition))
+                        .tag(TAG_NAME, name)
+                        .tag("transition", transition.name())
+                        .register(registry);
+            }
+        }
+    }
+
+    /**
+     * バルクヘッド、レートリミッターの実行枠の空き待ちの登録
+     *
+     * @param registry 登録先
+     */
+    private void bindWait(MeterRegistry registry) {
+        for (String name : bulkhead.getNames()) {
+            wait(registry, "resilience.bulkhead.wait", name, bulkhead.getWaitMetrics(name));
+            Gauge.builder("resilience.bulkhead.saturation", bulkhead, b -> b.getSaturation(name))
+                    .tag(TAG_NAME, name)
+                    .register(registry);
+        }
+        for (String name : bulkhead.getThreadPoolNames()) {
+            wait(registry, "resilience.thread.pool.bulkhead.wait", name, bulkhead.getThreadPoolWaitMetrics(name));
+            Gauge.builder("resilience.thread.pool.bulkhead.saturation", bulkhead, b -> b.getThreadPoolSaturation(name))
+                    .tag(TAG_NAME, name)
+                    .register(registry);
+        }
+        for (String name : rateLimiter.getNames()) {
+            wait(registry, "resilience.ratelimiter.wait", name, rateLimiter.getWaitMetrics(name));
+        }
+    }
+
+    /**
+     * 空き待ちの時間と拒否した数の登録
+     *
+     * @param registry 登録先
+     * @param prefix   メトリクス名
+     * @param name     設定の名前
+     * @param metrics  空き待ちの集計
+     */
+    private static void wait(MeterRegistry registry, String prefix, String name, WaitMetrics metrics) {
+        FunctionTimer.builder(prefix, metrics,
+                WaitMetrics::getPermittedCount, WaitMetrics::getTotalWaitNanos, TimeUnit.NANOSECONDS)
+                .tag(TAG_NAME, name)
+                .register(registry);
+        counter(registry, prefix + ".rejected", name, metrics, WaitMetrics::getRejectedCount, null);
+    }
+
+    /**
+     * 名前ごとの累計値の登録
+     *
+     * @param <T>         集計の型
+     * @param registry    登録先
+     * @param meter       メトリクス名
+     * @param name        設定の名前
+     * @param obj         集計
+     * @param value       累計値の取得処理
+     * @param description 説明
+     */
+    private static <T> void counter(MeterRegistry registry, String meter, String name, T obj,
+            ToDoubleFunction<T> value, String description) {
+        FunctionCounter.builder(meter, obj, value)
+                .tag(TAG_NAME, name)
+                .description(description)
+                .register(registry);
+    }
+}
@@ -0,0 +1,166 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import io.github.resilience4j.ratelimiter.RateLimiter;
+import io.github.resilience4j.ratelimiter.RateLimiterConfig;
+import io.github.resilience4j.ratelimiter.RateLimiterRegistry;
+import io.github.resilience4j.ratelimiter.RequestNotPermitted;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * 呼び出し先ごとのレートリミッターの提供<br>
+ * 呼び出し先の流量制限を超えないよう、送信する前に呼び出し頻度を制限する
+ */
+@Slf4j
+@Component
+public class ResilienceRateLimiter {
+
+    /** レートリミッターの保存先 */
+    private final RateLimiterRegistry registry;
+
+    /** 名前ごとのレートリミッター */
+    private final Map<String, RateLimiter> rateLimiters;
+
+    /** 名前ごとの呼び出しの許可待ち */
+    private final Map<String, WaitMetrics> waits;
+
+    /**
+     * コンストラクタ
+     *
+     * @param properties 名前付きのレートリミッター設定
+     */
+    public ResilienceRateLimiter(RateLimiterProperties properties) {
+
+        this.registry = RateLimiterRegistry.ofDefaults();
+        Map<String, RateLimiter> rateLimiterMap = new LinkedHashMap<>();
+        Map<String, WaitMetrics> waitMap = new LinkedHashMap<>();
+        properties.getInstances().forEach((name, instance) -> {
+            RateLimiterConfig config = RateLimiterConfig.custom()
+                    .limitForPeriod(instance.getLimitForPeriod())
+                    .limitRefreshPeriod(Duration.ofMillis(instance.getLimitRefreshPeriodMs()))
+                    .timeoutDuration(Duration.ofMillis(instance.getTimeoutMs()))
+                    .build();
+            rateLimiterMap.put(name, registry.rateLimiter(name, config));
+            waitMap.put(name, new WaitMetrics());
+        });
+        this.rateLimiters = Collections.unmodifiableMap(rateLimiterMap);
+        this.waits = Collections.unmodifiableMap(waitMap);
+        log.debug("rate limiters : {}", rateLimiters.keySet());
+    }
+
+    /**
+     * 呼び出し頻度を制限する処理の作成<br>
+     * レートリミッター設定が無い場合は、実行処理をそのまま返す
+     *
+     * @param <T>  実行処理のレスポンス
+     * @param name レートリミッター設定の名前
+     * @param sup  実行処理
+     * @return 呼び出し頻度を制限する処理。上限を超えた場合は{@link RequestNotPermitted}
+     */
+    public <T> Supplier<T> decorateSupplier(String name, Supplier<T> sup) {
+
+        RateLimiter rateLimiter = rateLimiters.get(name);
+        if (rateLimiter == null) {
+            return sup;
+        }
+        WaitMetrics wait = waits.get(name);
+        return () -> {
+            final long start = System.nanoTime();
+            try {
+                return rateLimiter.executeSupplier(() -> {
+                    wait.recordPermitted(System.nanoTime() - start);
+                    return sup.get();
+                });
+            } catch (RequestNotPermitted e) {
+                wait.recordRejected();
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * 呼び出し頻度を制限する非同期処理の作成<br>
+     * レートリミッター設定が無い場合は、実行処理をそのまま返す<br>
+     * notice. 呼び出しの許可待ち({@code timeout-ms}まで)は呼び出し元のスレッドで行う。
+     * {@link ResilienceRetry#executeAsync(String, Supplier)}は許可待ち用のスレッドから呼び出すため、
+     * 呼び出し元のスレッドと待機用スレッドは止めない
+     *
+     * @param <T>  実行処理のレスポンス
+     * @param name レートリミッター設定の名前
+     * @param sup  実行処理
+     * @return 呼び出し頻度を制限する処理。上限を超えた場合は{@link RequestNotPermitted}で失敗する
+     */
+    public <T> Supplier<CompletionStage<T>> decorateCompletionStage(String name, Supplier<CompletionStage<T>> sup) {
+
+        RateLimiter rateLimiter = rateLimiters.get(name);
+        if (rateLimiter == null) {
+            return sup;
+        }
+        WaitMetrics wait = waits.get(name);
+        return () -> {
+            final long start = System.nanoTime();
+            return rateLimiter.<T>executeCompletionStage(() -> {
+                wait.recordPermitted(System.nanoTime() - start);
+                return sup.get();
+            }).whenComplete((result, e) -> {
+                if (e instanceof RequestNotPermitted) {
+                    wait.recordRejected();
+                }
+            });
+        };
+    }
+
+    /**
+     * 名前ごとのレートリミッター<br>
+     * 状態のメトリクスの参照用
+     *
+     * @param name レートリミッター設定の名前
+     * @return レートリミッター
+     * @throws IllegalArgumentException レートリミッター設定が無い場合
+     */
+    public RateLimiter rateLimiter(String name) {
+        RateLimiter rateLimiter = rateLimiters.get(name);
+        if (rateLimiter == null) {
+            throw new IllegalArgumentException("rate limiter " + name + " is not defined.");
+        }
+        return rateLimiter;
+    }
+
+    /**
+     * 呼び出しの許可待ちの集計
+     *
+     * @param name レートリミッター設定の名前
+     * @return 許可待ちの集計
+     * @throws IllegalArgumentException レートリミッター設定が無い場合
+     */
+    public WaitMetrics getWaitMetrics(String name) {
+        rateLimiter(name);
+        return waits.get(name);
+    }
+
+    /**
+     * レートリミッターの名前
+     *
+     * @return レートリミッター設定の名前
+     */
+    public Set<String> getNames() {
+        return rateLimiters.keySet();
+    }
+
+    /**
+     * レートリミッターの保存先<br>
+     * 全ての名前のレートリミッターをメトリクスへ登録する場合に利用する
+     *
+     * @return レートリミッターの保存先
+     */
+    public RateLimiterRegistry getRegistry() {
+        return registry;
+    }
+}
@@ -1,36 +1,184 @@
 package org.tantama.anchoco.springcrib.resilience4j;
 
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.core.IntervalBiFunction;
+import io.github.resilience4j.core.IntervalFunction;
 import io.github.resilience4j.retry.Retry;
 import io.github.resilience4j.retry.RetryConfig;
 import io.github.resilience4j.retry.RetryRegistry;
 import java.time.Duration;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.HttpServerErrorException;
+import org.tantama.anchoco.springcrib.resilience4j.RetryPolicyProperties.Policy;
 
 /**
- * リトライ処理の設定などの提供
+ * リトライ処理の設定などの提供<br>
+ * {@code retry.*}の既定のリトライ設定に加え、{@code retry.policies.<名前>}の名前付きのリトライ設定を
+ * 呼び出し先ごとに利用できる。メトリクスは名前ごとの{@link Retry}に集計する。
+ * 同じ名前のサーキットブレイカー、レートリミッター、バルクヘッドの設定がある場合は、
+ * リトライ(サーキットブレイカー(レートリミッター(バルクヘッド(実行処理))))の順に組み合わせて利用する。
+ * サーキットブレイカーが遮断中の場合は、リトライせずに即時に失敗させる。
+ * リトライ数や1回ごとの実行時間は名前ごとの{@link RetryEventMetrics}に集計する
  */
 @Slf4j
 @Component
 public class ResilienceRetry {
 
-    /** メモリ上に保存するリトライ設定のキー値 */
-    private static final String RETRY_REG_KEY = "reg_key";
+    /** 既定のリトライ設定の名前 */
+    public static final String DEFAULT_POLICY = "default";
+
+    /** 既定のリトライ対象のエラー */
+    private static final List<Class<? extends Throwable>> DEFAULT_RETRY_EXCEPTIONS = List.of(HttpServerErrorException.class);
 
     /** 最大実行回数(リトライなしの場合1) */
     @Value("${retry.max-attempts:1}")
-    private int maxAttempts;
+    private int maxAttempts = 1;
 
     /** リトライ時のインターバル(s) */
     @Value("${retry.wait-duration:1}")
-    private long retryInterval;
+    private long retryInterval = 1;
+
+    /** リトライごとのインターバルの倍率(1の場合は固定のインターバル) */
+    @Value("${retry.backoff.multiplier:1}")
+    private double backoffMultiplier = 1;
 
-    /** {@link Retry} */
-    private Retry retry;
+    /** インターバルの上限(s) */
+    @Value("${retry.backoff.max-wait-duration:30}")
+    private long maxRetryInterval = 30;
+
+    /**
+     * インターバルを0から算出したインターバルまでの乱数にする(full jitter)<br>
+     * 複数の呼び出し元が同時に失敗した場合に、同じタイミングでリトライしないようにする
+     */
+    @Value("${retry.backoff.jitter:false}")
+    private boolean jitter;
+
+    /** リトライ予算 : リクエスト数に対するリトライ数の上限の割合 */
+    @Value("${retry.budget.ratio:0.1}")
+    private double budgetRatio = 0.1;
+
+    /** リトライ予算 : ウィンドウあたりのリトライ数の最低保証 */
+    @Value("${retry.budget.min-retries:10}")
+    private int budgetMinRetries = 10;
+
+    /** リトライ予算 : ウィンドウの時間(s) */
+    @Value("${retry.budget.window:10}")
+    private long budgetWindow = 10;
+
+    /** リトライ失敗時の代替値のキャッシュの件数上限 */
+    @Value("${retry.fallback.max-size:1000}")
+    private int fallbackMaxSize = 1000;
+
+    /** 非同期リトライの待機に利用するスレッド数 */
+    @Value("${retry.scheduler-threads:1}")
+    private int schedulerThreads = 1;
+
+    /** 名前付きのリトライ設定 */
+    private final RetryPolicyProperties properties;
+
+    /** 呼び出し先ごとのサーキットブレイカー */
+    private final ResilienceCircuitBreaker circuitBreaker;
+
+    /** 呼び出し先ごとのバルクヘッド */
+    private final ResilienceBulkhead bulkhead;
+
+    /** 呼び出し先ごとのレートリミッター */
+    private final ResilienceRateLimiter rateLimiter;
+
+    /** リトライ設定の保存先 */
+    private RetryRegistry registry;
+
+    /** 名前ごとの{@link Retry} */
+    private Map<String, Retry> retries;
+
+    /** 名前ごとのリトライの集計 */
+    private Map<String, RetryEventMetrics> eventMetrics;
+
+    /** 名前ごとの代替値の利用設定。代替値を返さない名前は含まない */
+    private Map<String, Fallback> fallbacks;
+
+    /** リトライ失敗時の代替値のキャッシュ */
+    private StaleIfErrorCache fallbackCache;
+
+    /** リトライ予算 */
+    private RetryBudget budget;
+
+    /**
+     * 最後の実行で発生したエラー、レスポンス(同一性で比較する)<br>
+     * リトライの判定は実行回数の確認より前に行われるため、最後の実行ではリトライ予算を確保しないよう、
+     * 実行ごとの実行回数から判定時に最後の実行かどうかを判別する。判定時に取り除く
+     */
+    private final Set<Object> lastAttempts = Collections.synchronizedSet(
+            Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    /** レスポンスによるリトライを行うリトライ設定の名前 */
+    private final Set<String> resultPolicies = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 非同期リトライの待機用スレッド<br>
+     * 待機中はスレッドを占有せず、次の実行時刻にのみ利用する
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 非同期処理の実行枠、呼び出しの許可を待つスレッド<br>
+     * 許可待ちで呼び出し元のスレッドと待機用スレッドを止めないよう、許可待ちと実行の開始のみをこのスレッドで行う。
+     * 待つ時間はバルクヘッド({@code max-wait-ms})とレートリミッター({@code timeout-ms})の設定までのため、
+     * スレッドは許可待ちの間のみ利用する
+     */
+    private ExecutorService permitExecutor;
+
+    /**
+     * コンストラクタ<br>
+     * 名前付きのリトライ設定、サーキットブレイカー設定などなし
+     */
+    public ResilienceRetry() {
+        this(new RetryPolicyProperties(), new ResilienceCircuitBreaker(new CircuitBreakerProperties()),
+                new ResilienceBulkhead(new BulkheadProperties()), new ResilienceRateLimiter(new RateLimiterProperties()));
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param properties     名前付きのリトライ設定
+     * @param circuitBreaker 呼び出し先ごとのサーキットブレイカー
+     * @param bulkhead       呼び出し先ごとのバルクヘッド
+     * @param rateLimiter    呼び出し先ごとのレートリミッター
+     */
+    @Autowired
+    public ResilienceRetry(RetryPolicyProperties properties, ResilienceCircuitBreaker circuitBreaker,
+            ResilienceBulkhead bulkhead, ResilienceRateLimiter rateLimiter) {
+        this.properties = properties;
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+        this.rateLimiter = rateLimiter;
+    }
 
     /**
      * 初期化処理<br>
@@ -41,31 +189,567 @@ public class ResilienceRetry {
 
         log.debug("retry setteings start.");
 
-        // リトライ設定
-        RetryConfig config = RetryConfig.custom()
-                .maxAttempts(maxAttempts)
-                .waitDuration(Duration.ofSeconds(retryInterval))
-                // 通信タイムアウトの場合にリトライを行う
+        budget = new RetryBudget(budgetRatio, budgetMinRetries, Duration.ofSeconds(budgetWindow));
+
+        registry = RetryRegistry.ofDefaults();
+        Map<String, Retry> map = new LinkedHashMap<>();
+        map.put(DEFAULT_POLICY, create(DEFAULT_POLICY, new Policy()));
+        properties.getPolicies().forEach((name, policy) -> map.put(name, create(name, policy)));
+        retries = Collections.unmodifiableMap(map);
+
+        Map<String, RetryEventMetrics> metricsMap = new LinkedHashMap<>();
+        retries.forEach((name, retry) -> metricsMap.put(name, new RetryEventMetrics(retry)));
+        eventMetrics = Collections.unmodifiableMap(metricsMap);
+
+        Map<String, Fallback> fallbackMap = new LinkedHashMap<>();
+        properties.getPolicies().forEach((name, policy) -> {
+            if (policy.getStaleIfError() != null) {
+                fallbackMap.put(name, new Fallback(Duration.ofSeconds(policy.getStaleIfError()),
+                        policy.getStaleIfErrorPredicate() == null
+                                ? new ServerErrorOrTimeout()
+                                : BeanUtils.instantiateClass(policy.getStaleIfErrorPredicate())));
+            }
+        });
+        fallbacks = Collections.unmodifiableMap(fallbackMap);
+        fallbackCache = new StaleIfErrorCache(fallbackMaxSize);
+        log.debug("retry policies : {}", retries.keySet());
+
+        scheduler = Executors.newScheduledThreadPool(schedulerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "resilience-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        permitExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "resilience-permit");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 終了処理<br>
+     * 非同期リトライの待機用スレッドを停止する
+     */
+    @PreDestroy
+    public void destroy() {
+        scheduler.shutdown();
+        permitExecutor.shutdown();
+    }
+
+    /**
+     * リトライ設定の作成<br>
+     * 設定していない項目は既定のリトライ設定とする
+     *
+     * @param name   リトライ設定の名前
+     * @param policy リトライ設定
+     * @return {@link Retry}
+     */
+    private Retry create(String name, Policy policy) {
+
+        final List<Class<? extends Throwable>> retryExceptions = retryExceptionsOf(policy);
+        final Predicate<Throwable> exceptionPredicate = policy.getExceptionPredicate() == null
+                ? e -> true
+                : BeanUtils.instantiateClass(policy.getExceptionPredicate());
+
+        final Duration maxWait = Duration.ofSeconds(
+                Optional.ofNullable(policy.getMaxWaitDuration()).orElse(maxRetryInterval));
+
+        RetryConfig.Builder<Object> builder = RetryConfig.custom()
+                .maxAttempts(Optional.ofNullable(policy.getMaxAttempts()).orElse(maxAttempts))
+                .intervalBiFunction(retryAfterOrBackoff(backoff(
+                        Duration.ofSeconds(Optional.ofNullable(policy.getWaitDuration()).orElse(retryInterval)),
+                        Optional.ofNullable(policy.getMultiplier()).orElse(backoffMultiplier),
+                        maxWait,
+                        Optional.ofNullable(policy.getJitter()).orElse(jitter))))
+                // 既定では通信タイムアウトの場合にリトライを行う
                 // tips. ここの定義は通信部品(今回の場合はspring rest template)が投げるexceptionなどに依存する
                 // 実行時にthrowするエラーを定義することで、独自exceptionでも対応可能
-                .retryExceptions(HttpServerErrorException.class)
-                .build();
+                // notice. リトライ予算を超えている場合、サーキットブレイカーが遮断中の場合はリトライせずにエラーとする
+                .retryOnException(e -> {
+                    final boolean lastAttempt = lastAttempts.remove(e);
+                    return !(e instanceof CallNotPermittedException)
+                            && causedBy(e, retryExceptions) && exceptionPredicate.test(e)
+                            && isRetryAfterWithin(e, maxWait) && (lastAttempt || acquireRetry(name, e));
+                });
+
+        if (policy.getResultPredicate() != null) {
+            Predicate<Object> predicate = BeanUtils.instantiateClass(policy.getResultPredicate());
+            builder.retryOnResult(result -> {
+                final boolean lastAttempt = lastAttempts.remove(result);
+                return predicate.test(result)
+                        && isRetryAfterWithin(result, maxWait) && (lastAttempt || acquireRetry(name, null));
+            });
+            resultPolicies.add(name);
+        }
 
-        retry = RetryRegistry.of(config).retry(RETRY_REG_KEY);
+        Retry retry = registry.retry(name, builder.build());
 
-        // リトライ時にログ出力
+        // リトライ数などの集計は名前ごとのRetryEventMetricsで行う
+        // notice. イベントの文字列化は負荷が高いため、デバッグログが有効な場合のみ行う
         Retry.EventPublisher publisher = retry.getEventPublisher();
-        publisher.onRetry(event -> log.warn(event.toString()));
+        publisher.onRetry(event -> {
+            if (log.isDebugEnabled()) {
+                log.debug(event.toString());
+            }
+        });
+        return retry;
     }
 
     /**
-     * リトライ設定に基づいた処理の実行を行う
+     * リトライ予算の確保<br>
+     * もう一度実行する場合(最後の実行でない場合)のみ呼び出す。
+     * 確保できない場合は、リトライ対象でないエラーと区別して名前ごとに集計する
+     *
+     * @param name  リトライ設定の名前
+     * @param error 発生したエラー。レスポンスによるリトライの場合null
+     * @return 確保できた場合true
+     */
+    private boolean acquireRetry(String name, Throwable error) {
+        if (budget.tryAcquireRetry()) {
+            return true;
+        }
+        eventMetrics.get(name).recordBudgetRejected(error);
+        return false;
+    }
+
+    /**
+     * 最後の実行のエラー、レスポンスを記録する処理の作成<br>
+     * 呼び出しごとに作成し、実行回数を数える
+     *
+     * @param <T>  実行処理のレスポンス
+     * @param name リトライ設定の名前
+     * @param call 実行処理
+     * @return 最後の実行のエラー、レスポンスを記録する処理
+     */
+    private <T> Supplier<T> markLastAttempt(String name, Supplier<T> call) {
+        final int max = retry(name).getRetryConfig().getMaxAttempts();
+        final boolean markResult = resultPolicies.contains(name);
+        final AtomicInteger attempts = new AtomicInteger();
+        return () -> {
+            final boolean last = attempts.incrementAndGet() >= max;
+            final T value;
+            try {
+                value = call.get();
+            } catch (RuntimeException e) {
+                if (last) {
+                    lastAttempts.add(e);
+                }
+                throw e;
+            }
+            if (last && markResult && value != null) {
+                lastAttempts.add(value);
+            }
+            return value;
+        };
+    }
+
+    /**
+     * 非同期処理の最後の実行のエラー、レスポンスを記録する処理の作成<br>
+     * 呼び出しごとに作成し、実行回数を数える
+     *
+     * @param <T>  実行処理のレスポンス
+     * @param name リトライ設定の名前
+     * @param call 実行処理
+     * @return 最後の実行のエラー、レスポンスを記録する処理
+     */
+    private <T> Supplier<CompletionStage<T>> markLastAttemptAsync(String name, Supplier<CompletionStage<T>> call) {
+        final int max = retry(name).getRetryConfig().getMaxAttempts();
+        final boolean markResult = resultPolicies.contains(name);
+        final AtomicInteger attempts = new AtomicInteger();
+        return () -> {
+            final boolean last = attempts.incrementAndGet() >= max;
+            final CompletionStage<T> stage;
+            try {
+                stage = call.get();
+            } catch (RuntimeException e) {
+                if (last) {
+                    lastAttempts.add(e);
+                }
+                throw e;
+            }
+            if (!last) {
+                return stage;
+            }
+            return stage.whenComplete((value, e) -> {
+                if (e instanceof Exception) {
+                    // Retryと同様に、CompletionException, ExecutionExceptionは原因のエラーで判定する
+                    final Throwable error = e instanceof CompletionException || e instanceof ExecutionException
+                            ? e.getCause() : e;
+                    if (error != null) {
+                        lastAttempts.add(error);
+                    }
+                } else if (e == null && markResult && value != null) {
+                    lastAttempts.add(value);
+                }
+            });
+        };
+    }
+
+    /**
+     * リトライ対象のエラー
+     *
+     * @param policy リトライ設定
+     * @return リトライ対象のエラー。設定していない場合は既定のリトライ対象のエラー
+     */
+    private static List<Class<? extends Throwable>> retryExceptionsOf(Policy policy) {
+        return policy.getRetryExceptions().isEmpty()
+                ? DEFAULT_RETRY_EXCEPTIONS
+                : List.copyOf(policy.getRetryExceptions());
+    }
+
+    /**
+     * {@code Retry-After}を優先するインターバル<br>
+     * レスポンスまたはエラーに{@code Retry-After}がある場合はその時間、無い場合は指数バックオフのインターバルとする
+     *
+     * @param backoff 指数バックオフのインターバル
+     * @return インターバル(ms)の算出処理
+     */
+    static IntervalBiFunction<Object> retryAfterOrBackoff(IntervalFunction backoff) {
+        return (attempt, resultOrError) -> RetryAfter.of(resultOrError.isLeft() ? resultOrError.getLeft() : resultOrError.get())
+                .map(Duration::toMillis)
+                .orElseGet(() -> backoff.apply(attempt));
+    }
+
+    /**
+     * {@code Retry-After}がインターバルの上限以内かどうか<br>
+     * 上限より長い場合は、上限まで待ってリトライしても拒否されることが確実なため、リトライしない
+     *
+     * @param resultOrError レスポンスまたはエラー
+     * @param maxWait       インターバルの上限
+     * @return {@code Retry-After}が無い、または上限以内の場合true
+     */
+    private static boolean isRetryAfterWithin(Object resultOrError, Duration maxWait) {
+        return RetryAfter.of(resultOrError).map(wait -> wait.compareTo(maxWait) <= 0).orElse(true);
+    }
+
+    /**
+     * 指定したエラーかどうか<br>
+     * 発生したエラーの原因(cause)が指定したエラーの場合も対象とする
+     *
+     * @param error 発生したエラー
+     * @param types 指定したエラー
+     * @return 指定したエラーの場合true
+     */
+    static boolean causedBy(Throwable error, List<Class<? extends Throwable>> types) {
+        for (Throwable e = error; e != null; e = e.getCause() == e ? null : e.getCause()) {
+            for (Class<? extends Throwable> type : types) {
+                if (type.isInstance(e)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 既定のリトライ設定に基づいた処理の実行を行う
      *
      * @param <T> 実行処理のレスポンス
      * @param sup 実行処理
      * @return レスポンス
      */
     public <T> T excuteRetry(Supplier<T> sup) {
-        return retry.executeSupplier(sup);
+        return excuteRetry(DEFAULT_POLICY, sup);
+    }
+
+    /**
+     * 名前付きのリトライ設定に基づいた処理の実行を行う
+     *
+     * @param <T>  実行処理のレスポンス
+     * @param name リトライ設定の名前
+     * @param sup  実行処理
+     * @return レスポンス
+     * @throws IllegalArgumentException リトライ設定が無い場合
+     */
+    public <T> T excuteRetry(String name, Supplier<T> sup) {
+        Retry retry = retry(name);
+        // 内側からバルクヘッド、レートリミッター、サーキットブレイカーの順に組み合わせ、1回ごとの実行時間を計測する
+        Supplier<T> call = bulkhead.decorateSupplier(name, sup);
+        call = rateLimiter.decorateSupplier(name, call);
+        call = circuitBreaker.decorateSupplier(name, call);
+        call = eventMetrics.get(name).decorateSupplier(call);
+        call = markLastAttempt(name, call);
+        budget.recordRequest();
+        return retry.executeSupplier(call);
+    }
+
+    /**
+     * 名前付きのリトライ設定に基づいた処理の実行を行う<br>
+     * リトライしても失敗した場合、リトライ設定の{@code stale-if-error}の範囲内であれば、
+     * 同じ引数で最後に成功した値をエラーの代わりに返す。
+     * 代替値を返すのは、サーバーエラー(5xx)、タイムアウト(リトライ設定の{@code stale-if-error-predicate}で変更できる)と、
+     * サーキットブレイカーの遮断中の場合のみとする
+     *
+     * @param <T>  実行処理のレスポンス
+     * @param name リトライ設定の名前
+     * @param key  引数(代替値のキー。equals, hashCodeを実装すること)
+     * @param sup  実行処理
+     * @return レスポンス、または最後に成功した値
+     * @throws IllegalArgumentException リトライ設定が無い場合
+     */
+    public <T> T excuteRetry(String name, Object key, Supplier<T> sup) {
+        final T value;
+        try {
+            value = excuteRetry(name, sup);
+        } catch (RuntimeException e) {
+            return this.<T>fallback(name, key, e).orElseThrow(() -> e);
+        }
+        if (fallbacks.containsKey(name)) {
+            fallbackCache.put(name, key, value);
+        }
+        return value;
+    }
+
+    /**
+     * リトライ設定に基づいた非同期処理の実行を行う<br>
+     * {@link #excuteRetry(Supplier)}と異なり、リトライまでの待機中に呼び出し元のスレッドを止めない。
+     * 待機は共有の{@link ScheduledExecutorService}で予約し、待機中はスレッドを占有しない。
+     * 同じ名前のバルクヘッド、レートリミッターの許可待ちは、許可待ち用のスレッドで行う<br>
+     * notice. 実行処理の中でブロックする処理を行うと、待機用スレッドを止めるため行わないこと
+     *
+     * @param <T> 実行処理のレスポンス
+     * @param sup 実行処理(呼び出すごとに新しい非同期処理を開始すること)
+     * @return レスポンス。リトライ回数を超えた場合は最後のエラーで失敗する
+     */
+    public <T> CompletionStage<T> executeAsync(Supplier<CompletionStage<T>> sup) {
+        return executeAsync(DEFAULT_POLICY, sup);
+    }
+
+    /**
+     * 名前付きのリトライ設定に基づいた非同期処理の実行を行う
+     *
+     * @param <T>  実行処理のレスポンス
+     * @param name リトライ設定の名前
+     * @param sup  実行処理(呼び出すごとに新しい非同期処理を開始すること)
+     * @return レスポンス。リトライ回数を超えた場合は最後のエラーで失敗する
+     * @throws IllegalArgumentException リトライ設定が無い場合
+     * @see #executeAsync(Supplier)
+     */
+    public <T> CompletionStage<T> executeAsync(String name, Supplier<CompletionStage<T>> sup) {
+        Retry retry = retry(name);
+        Supplier<CompletionStage<T>> call = bulkhead.decorateCompletionStage(name, sup);
+        call = rateLimiter.decorateCompletionStage(name, call);
+        call = acquireOffThread(name, call);
+        call = circuitBreaker.decorateCompletionStage(name, call);
+        call = eventMetrics.get(name).decorateCompletionStage(call);
+        call = markLastAttemptAsync(name, call);
+        budget.recordRequest();
+        return retry.executeCompletionStage(scheduler, call);
+    }
+
+    /**
+     * 名前付きのリトライ設定に基づいた非同期処理の実行を行う<br>
+     * リトライしても失敗した場合は、{@link #excuteRetry(String, Object, Supplier)}と同様に最後に成功した値を返す
+     *
+     * @param <T>  実行処理のレスポンス
+     * @param name リトライ設定の名前
+     * @param key  引数(代替値のキー。equals, hashCodeを実装すること)
+     * @param sup  実行処理(呼び出すごとに新しい非同期処理を開始すること)
+     * @return レスポンス、または最後に成功した値
+     * @throws IllegalArgumentException リトライ設定が無い場合
+     */
+    public <T> CompletionStage<T> executeAsync(String name, Object key, Supplier<CompletionStage<T>> sup) {
+        return executeAsync(name, sup).handle((value, e) -> {
+            if (e == null) {
+                if (fallbacks.containsKey(name)) {
+                    fallbackCache.put(name, key, value);
+                }
+                return value;
+            }
+            final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            return this.<T>fallback(name, key, cause).orElseThrow(() -> new CompletionException(cause));
+        });
+    }
+
+    /**
+     * 代替値の取得
+     *
+     * @param <T>   値の型
+     * @param name  リトライ設定の名前
+     * @param key   引数
+     * @param error 発生したエラー
+     * @return 代替値。代替値を返さない設定、エラー、または代替値が無い場合はempty
+     */
+    private <T> Optional<T> fallback(String name, Object key, Throwable error) {
+
+        Fallback fallback = fallbacks.get(name);
+        if (fallback == null) {
+            return Optional.empty();
+        }
+        // notice. 入力誤りやバルクヘッド、レートリミッターによる拒否(呼び出し側の過負荷)では古い値を返さない
+        final boolean circuitOpen = causedBy(error, List.of(CallNotPermittedException.class));
+        if (!circuitOpen && !fallback.staleOn().test(error)) {
+            return Optional.empty();
+        }
+        Optional<T> stale = fallbackCache.getStale(name, key, fallback.maxStaleness());
+        if (stale.isPresent()) {
+            log.warn("retry {} failed, returns stale value. key : {}, error : {}", name, key, error.toString());
+        }
+        return stale;
+    }
+
+    /**
+     * 名前付きのリトライ設定に基づいて、ブロックする処理を専用のスレッドで実行する<br>
+     * 同じ名前の専用のスレッドで実行するバルクヘッド設定({@code bulkhead.thread-pool-instances.<名前>})を利用する。
+     * 遅い呼び出し先の処理で、呼び出し元のスレッドを使い切らないようにする
+     *
+     * @param <T>  実行処理のレスポンス
+     * @param name リトライ設定とバルクヘッド設定の名前
+     * @param sup  実行処理(ブロックする処理)
+     * @return レスポンス。リトライ回数を超えた場合は最後のエラーで失敗する
+     * @throws IllegalArgumentException リトライ設定、バルクヘッド設定が無い場合
+     */
+    public <T> CompletionStage<T> executeIsolated(String name, Supplier<T> sup) {
+        Retry retry = retry(name);
+        Supplier<CompletionStage<T>> call = bulkhead.isolate(name, sup);
+        call = rateLimiter.decorateCompletionStage(name, call);
+        call = acquireOffThread(name, call);
+        call = circuitBreaker.decorateCompletionStage(name, call);
+        call = eventMetrics.get(name).decorateCompletionStage(call);
+        call = markLastAttemptAsync(name, call);
+        budget.recordRequest();
+        return retry.executeCompletionStage(scheduler, call);
+    }
+
+    /**
+     * 許可待ちを許可待ち用のスレッドで行う非同期処理の作成<br>
+     * 同じ名前のバルクヘッド、レートリミッター設定が無い場合は、許可待ちが無いため実行処理をそのまま返す
+     *
+     * @param <T>  実行処理のレスポンス
+     * @param name リトライ設定の名前
+     * @param call バルクヘッド、レートリミッターを組み合わせた実行処理
+     * @return 許可待ち用のスレッドで開始する実行処理
+     */
+    private <T> Supplier<CompletionStage<T>> acquireOffThread(String name, Supplier<CompletionStage<T>> call) {
+        if (!bulkhead.getNames().contains(name) && !rateLimiter.getNames().contains(name)) {
+            return call;
+        }
+        return () -> {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            try {
+                permitExecutor.execute(() -> {
+                    try {
+                        call.get().whenComplete((value, e) -> {
+                            if (e == null) {
+                                result.complete(value);
+                            } else {
+                                result.completeExceptionally(e);
+                            }
+                        });
+                    } catch (RuntimeException e) {
+                        result.completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // 終了処理の後
+                result.completeExceptionally(e);
+            }
+            return result;
+        };
+    }
+
+    /**
+     * 名前ごとの{@link Retry}<br>
+     * 名前ごとのメトリクス({@link Retry#getMetrics()})の参照用
+     *
+     * @param name リトライ設定の名前
+     * @return {@link Retry}
+     * @throws IllegalArgumentException リトライ設定が無い場合
+     */
+    public Retry retry(String name) {
+        Retry retry = retries.get(name);
+        if (retry == null) {
+            throw new IllegalArgumentException("retry policy " + name + " is not defined.");
+        }
+        return retry;
+    }
+
+    /**
+     * 名前ごとのリトライの集計
+     *
+     * @param name リトライ設定の名前
+     * @return リトライの集計
+     * @throws IllegalArgumentException リトライ設定が無い場合
+     */
+    public RetryEventMetrics getEventMetrics(String name) {
+        retry(name);
+        return eventMetrics.get(name);
+    }
+
+    /**
+     * リトライ設定の名前
+     *
+     * @return 既定のリトライ設定を含む、全てのリトライ設定の名前
+     */
+    public Set<String> getNames() {
+        return retries.keySet();
+    }
+
+    /**
+     * リトライ設定の保存先<br>
+     * 全ての名前の{@link Retry}をメトリクスへ登録する場合に利用する
+     *
+     * @return リトライ設定の保存先
+     */
+    public RetryRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * リトライ予算<br>
+     * 予算の状態の参照用
+     *
+     * @return リトライ予算
+     */
+    public RetryBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * リトライ失敗時の代替値のキャッシュ<br>
+     * 代替値を返した数などの参照用
+     *
+     * @return 代替値のキャッシュ
+     */
+    public StaleIfErrorCache getFallbackCache() {
+        return fallbackCache;
+    }
+
+    /**
+     * 指数バックオフのインターバル<br>
+     * n回目のリトライのインターバルは min(上限, 初回 * 倍率^(n-1))。
+     * full jitterの場合は、0からそのインターバルまでの乱数とする
+     *
+     * @param initial    初回のインターバル
+     * @param multiplier 倍率
+     * @param max        インターバルの上限
+     * @param jitter     trueの場合full jitter
+     * @return インターバル(ms)の算出処理
+     */
+    static IntervalFunction backoff(Duration initial, double multiplier, Duration max, boolean jitter) {
+        return attempt -> {
+            final double exponential = initial.toMillis() * Math.pow(multiplier, attempt - 1.0);
+            final long interval = (long) Math.min(max.toMillis(), exponential);
+            return jitter ? ThreadLocalRandom.current().nextLong(interval + 1) : interval;
+        };
+    }
+
+    /**
+     * 非同期リトライの待機用スレッド<br>
+     * 他の部品で時間指定の非同期処理を行う場合に共有する
+     *
+     * @return 待機用スレッド
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * 代替値の利用設定
+     *
+     * @param maxStaleness 許容する古さ
+     * @param staleOn      代替値を返すエラーの判定
+     */
+    private record Fallback(Duration maxStaleness, Predicate<Throwable> staleOn) {
     }
-}
\ No newline at end of file
+}
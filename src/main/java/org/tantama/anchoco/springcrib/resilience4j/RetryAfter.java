@@ -0,0 +1,91 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import java.net.http.HttpResponse;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.client.RestClientResponseException;
+
+/**
+ * {@code Retry-After}ヘッダの解析<br>
+ * 流量制限(429)やメンテナンス(503)のレスポンスで接続先が指定した待ち時間を取得する。
+ * 指定された時間より前のリトライは拒否されることが確実なため、リトライの待ち時間に利用する
+ */
+public final class RetryAfter {
+
+    /** ヘッダ名 */
+    public static final String HEADER = HttpHeaders.RETRY_AFTER;
+
+    /**
+     * コンストラクタ<br>
+     * インスタンス化しない
+     */
+    private RetryAfter() {
+    }
+
+    /**
+     * レスポンスまたはエラーから待ち時間を取得する<br>
+     * {@link HttpResponse}と{@link RestClientResponseException}(原因(cause)を含む)に対応する
+     *
+     * @param resultOrError レスポンスまたはエラー
+     * @return 待ち時間。ヘッダが無い、または解析できない場合はempty
+     */
+    public static Optional<Duration> of(Object resultOrError) {
+        return of(resultOrError, Clock.systemUTC());
+    }
+
+    /**
+     * レスポンスまたはエラーから待ち時間を取得する
+     *
+     * @param resultOrError レスポンスまたはエラー
+     * @param clock         現在時刻
+     * @return 待ち時間。ヘッダが無い、または解析できない場合はempty
+     */
+    static Optional<Duration> of(Object resultOrError, Clock clock) {
+
+        if (resultOrError instanceof HttpResponse<?> response) {
+            return response.headers().firstValue(HEADER).flatMap(value -> parse(value, clock));
+        }
+        if (resultOrError instanceof Throwable error) {
+            for (Throwable e = error; e != null; e = e.getCause() == e ? null : e.getCause()) {
+                if (e instanceof RestClientResponseException response && response.getResponseHeaders() != null) {
+                    return Optional.ofNullable(response.getResponseHeaders().getFirst(HEADER))
+                            .flatMap(value -> parse(value, clock));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * ヘッダの値の解析<br>
+     * 秒数(delta-seconds)と日時(HTTP-date)の両方の形式に対応する。過去の日時の場合は0とする
+     *
+     * @param value ヘッダの値
+     * @param clock 現在時刻
+     * @return 待ち時間。解析できない場合はempty
+     */
+    static Optional<Duration> parse(String value, Clock clock) {
+
+        final String trimmed = value.trim();
+        if (!trimmed.isEmpty() && trimmed.chars().allMatch(Character::isDigit)) {
+            try {
+                return Optional.of(Duration.ofSeconds(Long.parseLong(trimmed)));
+            } catch (NumberFormatException e) {
+                // 桁あふれは解析できない値とする
+                return Optional.empty();
+            }
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME);
+            Duration duration = Duration.between(ZonedDateTime.now(clock), date);
+            return Optional.of(duration.isNegative() ? Duration.ZERO : duration);
+        } catch (DateTimeParseException e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * プロセス全体のリトライ予算<br>
+ * 直近の一定時間(スライディングウィンドウ)のリトライ数を、リクエスト数の一定割合までに制限する。
+ * 障害が長引いた場合に、リトライで接続先への負荷が何倍にもならないようにする
+ */
+public class RetryBudget {
+
+    /** ウィンドウの分割数 */
+    private static final int BUCKETS = 10;
+
+    /** リクエスト数に対するリトライ数の上限の割合 */
+    private final double ratio;
+
+    /** ウィンドウあたりのリトライ数の最低保証(リクエストが少ない場合もリトライできるようにする) */
+    private final int minRetries;
+
+    /** 分割したウィンドウ1つあたりの時間(ns) */
+    private final long bucketNanos;
+
+    /** 現在時刻(ns) */
+    private final LongSupplier nanoTime;
+
+    /** 分割したウィンドウごとのリクエスト数 */
+    private final long[] requests = new long[BUCKETS];
+
+    /** 分割したウィンドウごとのリトライ数 */
+    private final long[] retries = new long[BUCKETS];
+
+    /** 分割したウィンドウごとの時間の通し番号 */
+    private final long[] epochs = new long[BUCKETS];
+
+    /** 予算超過でリトライしなかった数 */
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * コンストラクタ
+     *
+     * @param ratio      リクエスト数に対するリトライ数の上限の割合
+     * @param minRetries ウィンドウあたりのリトライ数の最低保証
+     * @param window     ウィンドウの時間
+     */
+    public RetryBudget(double ratio, int minRetries, Duration window) {
+        this(ratio, minRetries, window, System::nanoTime);
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param ratio      リクエスト数に対するリトライ数の上限の割合
+     * @param minRetries ウィンドウあたりのリトライ数の最低保証
+     * @param window     ウィンドウの時間
+     * @param nanoTime   現在時刻(ns)
+     */
+    RetryBudget(double ratio, int minRetries, Duration window, LongSupplier nanoTime) {
+        this.ratio = ratio;
+        this.minRetries = minRetries;
+        this.bucketNanos = Math.max(1, window.toNanos() / BUCKETS);
+        this.nanoTime = nanoTime;
+        final long epoch = nanoTime.getAsLong() / bucketNanos;
+        for (int i = 0; i < BUCKETS; i++) {
+            epochs[i] = epoch;
+        }
+    }
+
+    /**
+     * リクエスト(初回の実行)を記録する
+     */
+    public synchronized void recordRequest() {
+        requests[current()]++;
+    }
+
+    /**
+     * リトライの予算を確保する<br>
+     * 予算内かどうかの確認とリトライ数の計上を1回のロックで行い、同時に確認した複数のリトライが予算を超えないようにする。
+     * 確保できない場合は、予算超過でリトライしなかった数に計上する<br>
+     * notice. 実際にもう一度実行する場合のみ呼び出すこと(最後の実行の失敗では呼び出さない)
+     *
+     * @return 予算内で確保できた場合true
+     */
+    public synchronized boolean tryAcquireRetry() {
+        final int index = current();
+        if (sum(retries) < limit()) {
+            retries[index]++;
+            return true;
+        }
+        rejectedCount.increment();
+        return false;
+    }
+
+    /**
+     * ウィンドウ内のリクエスト数
+     *
+     * @return リクエスト数
+     */
+    public synchronized long getRequests() {
+        current();
+        return sum(requests);
+    }
+
+    /**
+     * ウィンドウ内のリトライ数
+     *
+     * @return リトライ数
+     */
+    public synchronized long getRetries() {
+        current();
+        return sum(retries);
+    }
+
+    /**
+     * ウィンドウ内で残っているリトライ数
+     *
+     * @return 残りのリトライ数
+     */
+    public synchronized long getAvailableRetries() {
+        current();
+        return Math.max(0, limit() - sum(retries));
+    }
+
+    /**
+     * 予算超過でリトライしなかった数(起動後の累計)
+     *
+     * @return リトライしなかった数
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * ウィンドウ内のリトライ数の上限
+     *
+     * @return リトライ数の上限
+     */
+    private long limit() {
+        return Math.max(minRetries, (long) (sum(requests) * ratio));
+    }
+
+    /**
+     * 現在の分割したウィンドウの位置<br>
+     * ウィンドウから外れた古い値は初期化する
+     *
+     * @return 配列の位置
+     */
+    private int current() {
+        final long epoch = nanoTime.getAsLong() / bucketNanos;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (epoch - epochs[i] >= BUCKETS) {
+                requests[i] = 0;
+                retries[i] = 0;
+                epochs[i] = epoch;
+            }
+        }
+        final int index = (int) Math.floorMod(epoch, (long) BUCKETS);
+        if (epochs[index] != epoch) {
+            requests[index] = 0;
+            retries[index] = 0;
+            epochs[index] = epoch;
+        }
+        return index;
+    }
+
+    /**
+     * ウィンドウ内の合計
+     *
+     * @param counts 分割したウィンドウごとの数
+     * @return 合計
+     */
+    private static long sum(long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+}
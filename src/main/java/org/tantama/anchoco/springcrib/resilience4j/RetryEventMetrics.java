@@ -0,0 +1,237 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import io.github.resilience4j.retry.Retry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 名前ごとのリトライの集計<br>
+ * {@link Retry}のイベントからリトライ数、リトライ後の成功数、リトライ回数を超えた失敗数を集計し、
+ * 1回ごとの実行時間(リトライを含む全ての実行)を{@link Timer}で計測する。
+ * 集計は加算のみで、文字列の組み立ては行わない
+ */
+public class RetryEventMetrics implements MeterBinder {
+
+    /** 実行時間のメトリクス名 */
+    static final String ATTEMPT_METER = "resilience.retry.attempt";
+
+    /** 集計対象の{@link Retry} */
+    private final Retry retry;
+
+    /** リトライ数(待機してもう一度実行した回数) */
+    private final LongAdder retryCount = new LongAdder();
+
+    /** リトライ後に成功した数 */
+    private final LongAdder successWithRetryCount = new LongAdder();
+
+    /** リトライ回数を超えて失敗した数 */
+    private final LongAdder exhaustedCount = new LongAdder();
+
+    /** リトライ対象でないエラーで失敗した数 */
+    private final LongAdder ignoredErrorCount = new LongAdder();
+
+    /** リトライ予算の超過でリトライせずに失敗した数 */
+    private final LongAdder budgetRejectedCount = new LongAdder();
+
+    /**
+     * リトライ予算の超過でリトライしなかったエラー(同一性で比較する)<br>
+     * {@link Retry}はリトライ対象でないエラーのイベントを発行するため、イベントの受信時に取り除き、
+     * リトライ対象でないエラーに計上しない
+     */
+    private final Set<Throwable> budgetRejectedErrors = Collections.synchronizedSet(
+            Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    /** リトライ前の待機時間の合計(ms) */
+    private final LongAdder totalRetryWaitMillis = new LongAdder();
+
+    /**
+     * 実行時間の登録先<br>
+     * 実行時間は作成時に登録先がないため、{@link #bindTo(MeterRegistry)}で登録先を追加する
+     */
+    private final CompositeMeterRegistry attemptRegistry = new CompositeMeterRegistry();
+
+    /** 1回ごとの実行時間(最大値は一定時間ごとに減衰する) */
+    private final Timer attemptTimer;
+
+    /**
+     * コンストラクタ<br>
+     * {@link Retry}のイベントの購読を開始する
+     *
+     * @param retry 集計対象の{@link Retry}
+     */
+    public RetryEventMetrics(Retry retry) {
+        this.retry = retry;
+        this.attemptTimer = Timer.builder(ATTEMPT_METER)
+                .tag("name", retry.getName())
+                .description("duration of each attempt")
+                .register(attemptRegistry);
+        retry.getEventPublisher()
+                .onRetry(event -> {
+                    retryCount.increment();
+                    totalRetryWaitMillis.add(event.getWaitInterval().toMillis());
+                })
+                .onSuccess(event -> successWithRetryCount.increment())
+                .onError(event -> exhaustedCount.increment())
+                .onIgnoredError(event -> {
+                    if (!budgetRejectedErrors.remove(event.getLastThrowable())) {
+                        ignoredErrorCount.increment();
+                    }
+                });
+    }
+
+    /**
+     * 実行時間を計測する処理の作成<br>
+     * リトライの内側で利用し、1回ごとの実行時間を計測する
+     *
+     * @param <T> 実行処理のレスポンス
+     * @param sup 実行処理
+     * @return 実行時間を計測する処理
+     */
+    public <T> Supplier<T> decorateSupplier(Supplier<T> sup) {
+        return () -> {
+            final long start = System.nanoTime();
+            try {
+                return sup.get();
+            } finally {
+                recordAttempt(System.nanoTime() - start);
+            }
+        };
+    }
+
+    /**
+     * 非同期処理の実行時間を計測する処理の作成<br>
+     * 実行処理の開始から、非同期処理の完了までを計測する
+     *
+     * @param <T> 実行処理のレスポンス
+     * @param sup 実行処理
+     * @return 実行時間を計測する処理
+     */
+    public <T> Supplier<CompletionStage<T>> decorateCompletionStage(Supplier<CompletionStage<T>> sup) {
+        return () -> {
+            final long start = System.nanoTime();
+            final CompletionStage<T> stage;
+            try {
+                stage = sup.get();
+            } catch (RuntimeException e) {
+                recordAttempt(System.nanoTime() - start);
+                throw e;
+            }
+            return stage.whenComplete((value, e) -> recordAttempt(System.nanoTime() - start));
+        };
+    }
+
+    /**
+     * 1回の実行時間を記録する
+     *
+     * @param nanos 実行時間(ns)
+     */
+    void recordAttempt(long nanos) {
+        attemptTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 実行時間の登録<br>
+     * 登録後の実行時間を{@value #ATTEMPT_METER}に記録する
+     *
+     * @param registry 登録先
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        attemptRegistry.add(registry);
+    }
+
+    /**
+     * リトライ予算の超過でリトライしなかったことを記録する<br>
+     * リトライの判定で呼び出し、続けて発行されるリトライ対象でないエラーのイベントを計上しないようにする
+     *
+     * @param error 発生したエラー。レスポンスによるリトライの場合null(イベントが発行されない)
+     */
+    void recordBudgetRejected(Throwable error) {
+        budgetRejectedCount.increment();
+        if (error != null) {
+            budgetRejectedErrors.add(error);
+        }
+    }
+
+    /**
+     * 集計対象の名前
+     *
+     * @return リトライ設定の名前
+     */
+    public String getName() {
+        return retry.getName();
+    }
+
+    /**
+     * リトライ数(起動後の累計)
+     *
+     * @return リトライ数
+     */
+    public long getRetryCount() {
+        return retryCount.sum();
+    }
+
+    /**
+     * リトライせずに成功した数(起動後の累計)<br>
+     * 成功時のイベントはリトライ後のみ発行されるため、{@link Retry#getMetrics()}の値を返す
+     *
+     * @return リトライせずに成功した数
+     */
+    public long getSuccessWithoutRetryCount() {
+        return retry.getMetrics().getNumberOfSuccessfulCallsWithoutRetryAttempt();
+    }
+
+    /**
+     * リトライ後に成功した数(起動後の累計)
+     *
+     * @return リトライ後に成功した数
+     */
+    public long getSuccessWithRetryCount() {
+        return successWithRetryCount.sum();
+    }
+
+    /**
+     * リトライ回数を超えて失敗した数(起動後の累計)
+     *
+     * @return リトライ回数を超えて失敗した数
+     */
+    public long getExhaustedCount() {
+        return exhaustedCount.sum();
+    }
+
+    /**
+     * リトライ対象でないエラーで失敗した数(起動後の累計)
+     *
+     * @return リトライ対象でないエラーで失敗した数
+     */
+    public long getIgnoredErrorCount() {
+        return ignoredErrorCount.sum();
+    }
+
+    /**
+     * リトライ予算の超過でリトライせずに失敗した数(起動後の累計)
+     *
+     * @return リトライ予算の超過でリトライせずに失敗した数
+     */
+    public long getBudgetRejectedCount() {
+        return budgetRejectedCount.sum();
+    }
+
+    /**
+     * リトライ前の待機時間の合計(起動後の累計)
+     *
+     * @return 待機時間の合計(ms)
+     */
+    public long getTotalRetryWaitMillis() {
+        return totalRetryWaitMillis.sum();
+    }
+}
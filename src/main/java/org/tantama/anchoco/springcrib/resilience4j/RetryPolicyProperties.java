@@ -0,0 +1,84 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 名前付きのリトライ設定<br>
+ * {@code retry.policies.<名前>}に呼び出し先ごとのリトライ設定を定義する。
+ * 定義していない項目は{@code retry.*}の既定のリトライ設定を引き継ぐ
+ */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "retry")
+public class RetryPolicyProperties {
+
+    /** 名前ごとのリトライ設定 */
+    private Map<String, Policy> policies = new LinkedHashMap<>();
+
+    /**
+     * 1つの名前のリトライ設定
+     */
+    @Getter
+    @Setter
+    public static class Policy {
+
+        /** 最大実行回数(リトライなしの場合1) */
+        private Integer maxAttempts;
+
+        /** リトライ時のインターバル(s) */
+        private Long waitDuration;
+
+        /** リトライごとのインターバルの倍率(1の場合は固定のインターバル) */
+        private Double multiplier;
+
+        /** インターバルの上限(s) */
+        private Long maxWaitDuration;
+
+        /** インターバルを0から算出したインターバルまでの乱数にする(full jitter) */
+        private Boolean jitter;
+
+        /**
+         * リトライ対象のエラー<br>
+         * 発生したエラーの原因(cause)も対象とする。
+         * 検査例外をRuntimeExceptionで包んで投げる場合も、包む前のエラーで指定できる
+         */
+        private List<Class<? extends Throwable>> retryExceptions = new ArrayList<>();
+
+        /**
+         * エラーでリトライを判定する処理<br>
+         * 引数なしのコンストラクタを持つ{@link Predicate}の実装クラスを指定する。
+         * リトライ対象のエラーのうち、判定がtrueのエラーのみリトライする(httpステータスなどで絞り込む場合に利用する)
+         */
+        private Class<? extends Predicate<Throwable>> exceptionPredicate;
+
+        /**
+         * レスポンスでリトライを判定する処理<br>
+         * 引数なしのコンストラクタを持つ{@link Predicate}の実装クラスを指定する。
+         * 判定がtrueの場合はリトライし、リトライ回数を超えた場合は最後のレスポンスを返す
+         */
+        private Class<? extends Predicate<Object>> resultPredicate;
+
+        /**
+         * リトライしても失敗した場合に、代替として返す最後に成功した値の許容する古さ(s)<br>
+         * 設定しない場合は代替値を返さない。引数を指定した実行でのみ利用する
+         */
+        private Long staleIfError;
+
+        /**
+         * 代替値を返すエラーの判定処理<br>
+         * 引数なしのコンストラクタを持つ{@link Predicate}の実装クラスを指定する。
+         * 設定しない場合は{@link org.tantama.anchoco.springcrib.resilience4j.ServerErrorOrTimeout}とする。
+         * サーキットブレイカーの遮断中は、判定によらず代替値を返す
+         */
+        private Class<? extends Predicate<Throwable>> staleIfErrorPredicate;
+    }
+}
@@ -0,0 +1,48 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import java.io.InterruptedIOException;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import org.springframework.web.client.HttpServerErrorException;
+
+/**
+ * 呼び出し先の障害によるエラーの判定<br>
+ * サーバーエラー(5xx)の{@link HttpServerErrorException}と、タイムアウトを対象とする。
+ * 入力誤りや接続拒否など、古い値で代替すべきでないエラーは対象としない。
+ * リトライ設定の{@code stale-if-error-predicate}の既定値とする
+ */
+public class ServerErrorOrTimeout implements Predicate<Throwable> {
+
+    /**
+     * 呼び出し先の障害によるエラーかどうか<br>
+     * 発生したエラーの原因(cause)も対象とする
+     *
+     * @param error 発生したエラー
+     * @return サーバーエラー、またはタイムアウトの場合true
+     */
+    @Override
+    public boolean test(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause() == e ? null : e.getCause()) {
+            if (isServerErrorOrTimeout(e)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 1つのエラーの判定<br>
+     * 呼び出し先固有のエラーを対象にする場合は、継承して追加する
+     *
+     * @param e エラー(原因(cause)は含まない)
+     * @return サーバーエラー、またはタイムアウトの場合true
+     */
+    protected boolean isServerErrorOrTimeout(Throwable e) {
+        // tips. SocketTimeoutExceptionはInterruptedIOExceptionの派生
+        return e instanceof HttpServerErrorException
+                || e instanceof HttpTimeoutException
+                || e instanceof InterruptedIOException
+                || e instanceof TimeoutException;
+    }
+}
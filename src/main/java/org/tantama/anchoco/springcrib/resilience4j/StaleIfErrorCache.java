@@ -0,0 +1,205 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * リトライ失敗時の代替値のキャッシュ(stale-if-error)<br>
+ * 呼び出し先と引数ごとに最後に成功した値を保持し、リトライしても失敗した場合に、
+ * 許容する古さの範囲内であればエラーの代わりにその値を返す。件数上限(LRU)を持つ<br>
+ * notice. 返却した値はキャッシュと共有しているため、呼び出し側で変更しないこと
+ */
+public class StaleIfErrorCache {
+
+    /** 件数上限 */
+    private final int maxSize;
+
+    /** 現在時刻(ns) */
+    private final LongSupplier nanoTime;
+
+    /** キャッシュ本体。アクセス順 */
+    private final LinkedHashMap<CacheKey, Entry> entries;
+
+    /** 代替値を返した数 */
+    private final LongAdder staleHitCount = new LongAdder();
+
+    /** 名前ごとの代替値を返した数 */
+    private final Map<String, LongAdder> staleHitCounts = new ConcurrentHashMap<>();
+
+    /** 代替値が無い、または古すぎたためエラーとした数 */
+    private final LongAdder staleMissCount = new LongAdder();
+
+    /** 件数上限による追い出し数 */
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * コンストラクタ
+     *
+     * @param maxSize 件数上限
+     */
+    public StaleIfErrorCache(int maxSize) {
+        this(maxSize, System::nanoTime);
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param maxSize  件数上限
+     * @param nanoTime 現在時刻(ns)
+     */
+    StaleIfErrorCache(int maxSize, LongSupplier nanoTime) {
+        this.maxSize = maxSize;
+        this.nanoTime = nanoTime;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+
+            /** serialVersionUID */
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, Entry> eldest) {
+                boolean evict = size() > StaleIfErrorCache.this.maxSize;
+                if (evict) {
+                    evictionCount.increment();
+                }
+                return evict;
+            }
+        };
+    }
+
+    /**
+     * 成功した値を登録する<br>
+     * nullは登録しない
+     *
+     * @param name  呼び出し先の名前
+     * @param key   引数
+     * @param value 成功した値
+     */
+    public void put(String name, Object key, Object value) {
+        if (value == null) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(new CacheKey(name, key), new Entry(value, nanoTime.getAsLong()));
+        }
+    }
+
+    /**
+     * 代替値を取得する<br>
+     * 許容する古さを超えた値は削除する
+     *
+     * @param <T>          値の型
+     * @param name         呼び出し先の名前
+     * @param key          引数
+     * @param maxStaleness 許容する古さ
+     * @return 代替値。無い、または古すぎる場合はempty
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Optional<T> getStale(String name, Object key, Duration maxStaleness) {
+
+        final CacheKey cacheKey = new CacheKey(name, key);
+        final Entry entry;
+        synchronized (entries) {
+            entry = entries.get(cacheKey);
+            if (entry != null && nanoTime.getAsLong() - entry.storedAt() > maxStaleness.toNanos()) {
+                entries.remove(cacheKey);
+                staleMissCount.increment();
+                return Optional.empty();
+            }
+        }
+        if (entry == null) {
+            staleMissCount.increment();
+            return Optional.empty();
+        }
+        staleHitCount.increment();
+        staleHitCounts.computeIfAbsent(name, n -> new LongAdder()).increment();
+        return Optional.of((T) entry.value());
+    }
+
+    /**
+     * 値の古さ
+     *
+     * @param name 呼び出し先の名前
+     * @param key  引数
+     * @return 成功してからの経過時間。値が無い場合はempty
+     */
+    public Optional<Duration> age(String name, Object key) {
+        synchronized (entries) {
+            Entry entry = entries.get(new CacheKey(name, key));
+            return entry == null
+                    ? Optional.empty()
+                    : Optional.of(Duration.ofNanos(nanoTime.getAsLong() - entry.storedAt()));
+        }
+    }
+
+    /**
+     * キャッシュ件数
+     *
+     * @return キャッシュ件数
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * 代替値を返した数(起動後の累計)
+     *
+     * @return 代替値を返した数
+     */
+    public long getStaleHitCount() {
+        return staleHitCount.sum();
+    }
+
+    /**
+     * 名前ごとの代替値を返した数(起動後の累計)
+     *
+     * @param name 呼び出し先の名前
+     * @return 代替値を返した数
+     */
+    public long getStaleHitCount(String name) {
+        LongAdder count = staleHitCounts.get(name);
+        return count == null ? 0 : count.sum();
+    }
+
+    /**
+     * 代替値が無い、または古すぎたためエラーとした数(起動後の累計)
+     *
+     * @return エラーとした数
+     */
+    public long getStaleMissCount() {
+        return staleMissCount.sum();
+    }
+
+    /**
+     * 件数上限による追い出し数
+     *
+     * @return 追い出し数
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * キャッシュのキー
+     *
+     * @param name 呼び出し先の名前
+     * @param key  引数
+     */
+    private record CacheKey(String name, Object key) {
+    }
+
+    /**
+     * キャッシュの登録内容
+     *
+     * @param value    成功した値
+     * @param storedAt 登録時刻(ns)
+     */
+    private record Entry(Object value, long storedAt) {
+    }
+}
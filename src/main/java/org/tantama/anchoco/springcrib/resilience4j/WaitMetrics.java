@@ -0,0 +1,88 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 実行枠の空き待ちの集計<br>
+ * バルクヘッドやレートリミッターで、呼び出し元が実行を許可されるまで待った時間と、拒否された数を集計する
+ */
+public class WaitMetrics {
+
+    /** 実行を許可した数 */
+    private final LongAdder permittedCount = new LongAdder();
+
+    /** 拒否した数 */
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /** 待ち時間の合計(ns) */
+    private final LongAdder totalWaitNanos = new LongAdder();
+
+    /** 待ち時間の最大(ns) */
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * 実行を許可した呼び出しの待ち時間を記録する
+     *
+     * @param waitNanos 待ち時間(ns)
+     */
+    void recordPermitted(long waitNanos) {
+        permittedCount.increment();
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulate(waitNanos);
+    }
+
+    /**
+     * 拒否した呼び出しを記録する
+     */
+    void recordRejected() {
+        rejectedCount.increment();
+    }
+
+    /**
+     * 実行を許可した数(起動後の累計)
+     *
+     * @return 実行を許可した数
+     */
+    public long getPermittedCount() {
+        return permittedCount.sum();
+    }
+
+    /**
+     * 拒否した数(起動後の累計)
+     *
+     * @return 拒否した数
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * 待ち時間の合計(起動後の累計)
+     *
+     * @return 待ち時間の合計(ns)
+     */
+    public long getTotalWaitNanos() {
+        return totalWaitNanos.sum();
+    }
+
+    /**
+     * 待ち時間の最大(起動後)
+     *
+     * @return 待ち時間の最大(ns)
+     */
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    /**
+     * 待ち時間の平均
+     *
+     * @return 待ち時間の平均(ms)。実行を許可した呼び出しが無い場合0
+     */
+    public double getAverageWaitMillis() {
+        final long count = getPermittedCount();
+        return count == 0 ? 0 : (double) getTotalWaitNanos() / count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,455 @@
+package org.tantama.anchoco.springcrib.univapay;
+
+import com.univapay.sdk.models.common.ChargeId;
+import com.univapay.sdk.models.common.StoreId;
+import com.univapay.sdk.models.response.charge.Charge;
+import com.univapay.sdk.types.ChargeStatus;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.LongFunction;
+import java.util.function.LongSupplier;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 課金状態のポーリングの共有<br>
+ * 未確定(pending)の課金を1か所で管理し、1つの周期処理でまとめて課金状態を確認する。
+ * 課金ごとにポーリングの処理を持たないため、未確定の課金が多い場合もスレッドは増えず、
+ * 同時に確認する数も上限までとする<br>
+ * 確認の間隔は課金の経過時間に応じて伸ばす(経過時間 * 割合。最短と最長の間)。
+ * 作成直後の課金は短い間隔で確認し、確定まで時間がかかる課金ほど問い合わせを減らす<br>
+ * webhookで課金状態の通知を受ける場合は、通知を受けた課金を即時に確認する。
+ * ポーリングは通知が届かない場合の代替として、最初の確認を遅らせて行う<br>
+ * 同じ課金の確認待ちはまとめて1つの確認で行うが、待つ時間の上限は呼び出しごとに持つ。
+ * 上限を過ぎた呼び出しのみ失敗させ、全ての呼び出しが上限を過ぎた時点で確認をやめる
+ */
+@Slf4j
+public class ChargeStatusPoller {
+
+    /** 課金状態の取得処理 */
+    private final BiFunction<StoreId, ChargeId, CompletableFuture<Charge>> fetcher;
+
+    /** 指定時間(ms)待ってから実行する{@link Executor}の取得処理 */
+    private final LongFunction<Executor> delayed;
+
+    /** 確認の間隔の最短(ns)。周期処理の間隔 */
+    private final long minIntervalNanos;
+
+    /** 確認の間隔の最長(ns) */
+    private final long maxIntervalNanos;
+
+    /** 経過時間に対する確認の間隔の割合 */
+    private final double ageRatio;
+
+    /** 同時に確認する数の上限 */
+    private final int maxInFlight;
+
+    /** 最初の確認までの時間(ns)。webhookの通知を待つ時間 */
+    private final long firstPollDelayNanos;
+
+    /** 現在時刻(ns) */
+    private final LongSupplier nanoTime;
+
+    /** 課金IDごとの確認待ち */
+    private final Map<UUID, Watch> watches = new ConcurrentHashMap<>();
+
+    /** 確認中の数 */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /** 周期処理を予約済みかどうか */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /** 課金状態を確認した数 */
+    private final LongAdder pollCount = new LongAdder();
+
+    /** 同じ課金の確認待ちをまとめた数 */
+    private final LongAdder coalescedCount = new LongAdder();
+
+    /** webhookの通知で確認した数 */
+    private final LongAdder notifiedCount = new LongAdder();
+
+    /**
+     * コンストラクタ
+     *
+     * @param fetcher        課金状態の取得処理
+     * @param delayed        指定時間(ms)待ってから実行する{@link Executor}の取得処理
+     * @param minInterval    確認の間隔の最短
+     * @param maxInterval    確認の間隔の最長
+     * @param ageRatio       経過時間に対する確認の間隔の割合
+     * @param maxInFlight    同時に確認する数の上限
+     * @param firstPollDelay 最初の確認までの時間。webhookを利用しない場合は0
+     */
+    public ChargeStatusPoller(BiFunction<StoreId, ChargeId, CompletableFuture<Charge>> fetcher,
+            LongFunction<Executor> delayed, Duration minInterval, Duration maxInterval, double ageRatio,
+            int maxInFlight, Duration firstPollDelay) {
+        this(fetcher, delayed, minInterval, maxInterval, ageRatio, maxInFlight, firstPollDelay, System::nanoTime);
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param fetcher        課金状態の取得処理
+     * @param delayed        指定時間(ms)待ってから実行する{@link Executor}の取得処理
+     * @param minInterval    確認の間隔の最短
+     * @param maxInterval    確認の間隔の最長
+     * @param ageRatio       経過時間に対する確認の間隔の割合
+     * @param maxInFlight    同時に確認する数の上限
+     * @param firstPollDelay 最初の確認までの時間。webhookを利用しない場合は0
+     * @param nanoTime       現在時刻(ns)
+     */
+    ChargeStatusPoller(BiFunction<StoreId, ChargeId, CompletableFuture<Charge>> fetcher,
+            LongFunction<Executor> delayed, Duration minInterval, Duration maxInterval, double ageRatio,
+            int maxInFlight, Duration firstPollDelay, LongSupplier nanoTime) {
+        this.fetcher = fetcher;
+        this.delayed = delayed;
+        this.minIntervalNanos = Math.max(1, minInterval.toNanos());
+        this.maxIntervalNanos = Math.max(this.minIntervalNanos, maxInterval.toNanos());
+        this.ageRatio = ageRatio;
+        this.maxInFlight = maxInFlight;
+        this.firstPollDelayNanos = firstPollDelay.toNanos();
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * 課金状態が未確定でなくなるまで待つ<br>
+     * 同じ課金を既に待っている場合は、その確認待ちにまとめる。
+     * 待つ時間の上限はまとめた確認待ちによらず、この呼び出しの{@code timeout}とする
+     *
+     * @param storeId  店舗ID
+     * @param chargeId 課金ID
+     * @param timeout  待つ時間の上限
+     * @return 未確定でなくなった課金。上限を過ぎた場合は{@link TimeoutException}で失敗する
+     */
+    public CompletableFuture<Charge> await(StoreId storeId, ChargeId chargeId, Duration timeout) {
+
+        final long now = nanoTime.getAsLong();
+        // notice. 呼び出し元で完了させても、他の確認待ちに影響しないように呼び出しごとに返却値を作成する
+        final Waiter waiter = new Waiter(new CompletableFuture<>(), now + timeout.toNanos());
+        while (true) {
+            final Watch created = new Watch(storeId, chargeId, now, now + firstPollDelayNanos);
+            created.join(waiter);
+            final Watch watch = watches.putIfAbsent(chargeId.toUUID(), created);
+            if (watch == null) {
+                schedule();
+                return waiter.future();
+            }
+            if (watch.join(waiter)) {
+                coalescedCount.increment();
+                return waiter.future();
+            }
+            // 完了済みの確認待ちは作り直す
+            watches.remove(chargeId.toUUID(), watch);
+        }
+    }
+
+    /**
+     * webhookで課金状態の通知を受けた課金を即時に確認する<br>
+     * 通知の内容は使わずに課金を取得し直すため、偽の通知で確認待ちが完了することはない
+     *
+     * @param chargeId 課金ID
+     * @return 確認待ちの課金の場合true
+     */
+    public boolean notify(ChargeId chargeId) {
+        final Watch watch = watches.get(chargeId.toUUID());
+        if (watch == null) {
+            return false;
+        }
+        notifiedCount.increment();
+        // 確認中の場合は、確認の完了後の周期処理で確認し直す
+        watch.renotified.set(true);
+        poll(watch);
+        return true;
+    }
+
+    /**
+     * 周期処理の予約<br>
+     * 確認待ちがあり、まだ予約していない場合のみ予約する
+     */
+    private void schedule() {
+        if (!watches.isEmpty() && scheduled.compareAndSet(false, true)) {
+            CompletableFuture.runAsync(this::tick, delayed.apply(TimeUnit.NANOSECONDS.toMillis(minIntervalNanos)));
+        }
+    }
+
+    /**
+     * 周期処理<br>
+     * 確認時刻を過ぎた課金を、確認時刻の古い順に同時に確認する数の上限まで確認する
+     */
+    void tick() {
+        scheduled.set(false);
+        try {
+            final long now = nanoTime.getAsLong();
+            List<Watch> due = new ArrayList<>();
+            for (Watch watch : watches.values()) {
+                if (!keepWatching(watch, now)) {
+                    continue;
+                }
+                if (!watch.polling.get() && now - watch.nextPollAt >= 0) {
+                    due.add(watch);
+                }
+            }
+            due.sort(Comparator.comparingLong(watch -> watch.nextPollAt - now));
+            for (Watch watch : due) {
+                if (inFlight.get() >= maxInFlight) {
+                    break;
+                }
+                poll(watch);
+            }
+        } catch (RuntimeException e) {
+            log.error("charge status polling failed.", e);
+        } finally {
+            schedule();
+        }
+    }
+
+    /**
+     * 1つの課金の確認
+     *
+     * @param watch 確認待ち
+     * @return 確認を開始した場合true。既に確認中の場合false
+     */
+    private boolean poll(Watch watch) {
+
+        if (!watch.polling.compareAndSet(false, true)) {
+            return false;
+        }
+        // 取得の開始前に受けた通知は、この確認に含まれる
+        watch.renotified.set(false);
+        inFlight.incrementAndGet();
+        pollCount.increment();
+
+        final CompletableFuture<Charge> fetched;
+        try {
+            fetched = fetcher.apply(watch.storeId, watch.chargeId);
+        } catch (RuntimeException e) {
+            done(watch, null, e);
+            return true;
+        }
+        fetched.whenComplete((charge, e) -> done(watch, charge, e));
+        return true;
+    }
+
+    /**
+     * 確認結果の反映<br>
+     * 確定した場合は確認待ちを完了し、未確定の場合は経過時間に応じて次の確認時刻を決める。
+     * 取得に失敗した場合は、期限まで確認を続ける
+     *
+     * @param watch  確認待ち
+     * @param charge 取得した課金
+     * @param error  取得時のエラー
+     */
+    private void done(Watch watch, Charge charge, Throwable error) {
+        inFlight.decrementAndGet();
+        if (error == null && charge.getStatus() != ChargeStatus.PENDING) {
+            watches.remove(watch.chargeId.toUUID(), watch);
+            watch.complete(charge);
+            return;
+        }
+        if (error != null) {
+            log.debug("charge status polling failed. charge id : {}, {}", watch.chargeId, error);
+        }
+        final long now = nanoTime.getAsLong();
+        watch.nextPollAt = now + interval(now - watch.startedAt);
+        watch.polling.set(false);
+        // notice. 確認中フラグを戻した後に判定し、確認中に受けたwebhookの通知を取りこぼさない
+        if (watch.renotified.compareAndSet(true, false)) {
+            // 確認中にwebhookの通知を受けた場合は、次の周期処理で確認し直す
+            watch.nextPollAt = now;
+        }
+    }
+
+    /**
+     * 期限切れの呼び出しを失敗させる<br>
+     * 全ての呼び出しが期限切れの場合は、確認待ちをやめる
+     *
+     * @param watch 確認待ち
+     * @param now   現在時刻(ns)
+     * @return 確認を続ける場合true
+     */
+    private boolean keepWatching(Watch watch, long now) {
+        if (watch.expire(now)) {
+            return true;
+        }
+        watches.remove(watch.chargeId.toUUID(), watch);
+        return false;
+    }
+
+    /**
+     * 経過時間に応じた確認の間隔
+     *
+     * @param ageNanos 課金の経過時間(ns)
+     * @return 確認の間隔(ns)
+     */
+    long interval(long ageNanos) {
+        return Math.min(maxIntervalNanos, Math.max(minIntervalNanos, (long) (ageNanos * ageRatio)));
+    }
+
+    /**
+     * 確認待ちの課金の数
+     *
+     * @return 確認待ちの数
+     */
+    public int getPendingCount() {
+        return watches.size();
+    }
+
+    /**
+     * 課金状態を確認した数(起動後の累計)
+     *
+     * @return 確認した数
+     */
+    public long getPollCount() {
+        return pollCount.sum();
+    }
+
+    /**
+     * 同じ課金の確認待ちをまとめた数(起動後の累計)
+     *
+     * @return まとめた数
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    /**
+     * webhookの通知で確認した数(起動後の累計)
+     *
+     * @return 通知で確認した数
+     */
+    public long getNotifiedCount() {
+        return notifiedCount.sum();
+    }
+
+    /**
+     * 1つの課金の確認待ち
+     */
+    private static class Watch {
+
+        /** 店舗ID */
+        private final StoreId storeId;
+
+        /** 課金ID */
+        private final ChargeId chargeId;
+
+        /** 確認待ちの開始時刻(ns) */
+        private final long startedAt;
+
+        /** 待っている呼び出し。完了、期限切れの操作はこの確認待ちで同期する */
+        private final List<Waiter> waiters = new ArrayList<>();
+
+        /** 完了したかどうか。完了後は呼び出しを追加しない */
+        private boolean closed;
+
+        /** 次の確認時刻(ns) */
+        private volatile long nextPollAt;
+
+        /** 確認中かどうか */
+        private final AtomicBoolean polling = new AtomicBoolean();
+
+        /** 確認中にwebhookの通知を受けたかどうか */
+        private final AtomicBoolean renotified = new AtomicBoolean();
+
+        /**
+         * コンストラクタ
+         *
+         * @param storeId    店舗ID
+         * @param chargeId   課金ID
+         * @param startedAt  確認待ちの開始時刻(ns)
+         * @param nextPollAt 最初の確認時刻(ns)
+         */
+        Watch(StoreId storeId, ChargeId chargeId, long startedAt, long nextPollAt) {
+            this.storeId = storeId;
+            this.chargeId = chargeId;
+            this.startedAt = startedAt;
+            this.nextPollAt = nextPollAt;
+        }
+
+        /**
+         * 呼び出しの追加
+         *
+         * @param waiter 呼び出し
+         * @return 追加した場合true。完了済みの場合false
+         */
+        synchronized boolean join(Waiter waiter) {
+            if (closed) {
+                return false;
+            }
+            waiters.add(waiter);
+            return true;
+        }
+
+        /**
+         * 確定した課金で全ての呼び出しを完了する
+         *
+         * @param charge 確定した課金
+         */
+        void complete(Charge charge) {
+            for (Waiter waiter : close()) {
+                waiter.future().complete(charge);
+            }
+        }
+
+        /**
+         * 期限切れの呼び出しを{@link TimeoutException}で失敗させる
+         *
+         * @param now 現在時刻(ns)
+         * @return 期限内の呼び出しが残っている場合true
+         */
+        boolean expire(long now) {
+            List<Waiter> expired = new ArrayList<>();
+            final boolean remaining;
+            synchronized (this) {
+                for (Iterator<Waiter> it = waiters.iterator(); it.hasNext();) {
+                    Waiter waiter = it.next();
+                    if (now - waiter.deadline() >= 0) {
+                        expired.add(waiter);
+                        it.remove();
+                    }
+                }
+                remaining = !waiters.isEmpty() && !closed;
+                if (!remaining) {
+                    closed = true;
+                }
+            }
+            for (Waiter waiter : expired) {
+                waiter.future().completeExceptionally(
+                        new TimeoutException("charge id : " + chargeId + " の課金状態が確定しない"));
+            }
+            return remaining;
+        }
+
+        /**
+         * 完了済みにし、待っている呼び出しを取り出す
+         *
+         * @return 待っていた呼び出し
+         */
+        private synchronized List<Waiter> close() {
+            closed = true;
+            List<Waiter> closing = new ArrayList<>(waiters);
+            waiters.clear();
+            return closing;
+        }
+    }
+
+    /**
+     * 1つの呼び出しの確認待ち
+     *
+     * @param future   確認結果
+     * @param deadline 期限(ns)
+     */
+    private record Waiter(CompletableFuture<Charge> future, long deadline) {
+    }
+}
@@ -0,0 +1,78 @@
+package org.tantama.anchoco.springcrib.univapay;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 実行中の処理の重複排除<br>
+ * 同じキー(冪等キー)の処理が実行中の場合は新たに実行せず、実行中の処理の結果を共有する。
+ * 二重送信やリトライが同時に発生しても、同じ課金や返金を並行して作成しないようにする<br>
+ * notice. 重複を排除するのはこのプロセス内の実行中の処理のみ。
+ * 完了後の再実行や他のプロセスからの実行は、送信先の冪等キーで重複を防ぐ
+ *
+ * @param <T> 処理結果の型
+ */
+public class InFlightRequests<T> {
+
+    /** キーごとの実行中の処理 */
+    private final Map<String, CompletableFuture<T>> requests = new ConcurrentHashMap<>();
+
+    /** 実行中の処理にまとめた数 */
+    private final LongAdder collapsedCount = new LongAdder();
+
+    /**
+     * 処理の実行<br>
+     * 同じキーの処理が実行中の場合は、その処理の結果を返す
+     *
+     * @param key     キー(冪等キー)
+     * @param request 処理(処理の開始時に例外が発生した場合は、その例外で失敗する)
+     * @return 処理結果
+     */
+    public CompletableFuture<T> submit(String key, Supplier<? extends CompletionStage<T>> request) {
+
+        final CompletableFuture<T> created = new CompletableFuture<>();
+        final CompletableFuture<T> running = requests.putIfAbsent(key, created);
+        if (running != null) {
+            collapsedCount.increment();
+            // notice. 呼び出し元で完了させても、他の呼び出し元に影響しないように複製を返す
+            return running.copy();
+        }
+
+        try {
+            request.get().whenComplete((value, e) -> {
+                requests.remove(key, created);
+                if (e == null) {
+                    created.complete(value);
+                } else {
+                    created.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            requests.remove(key, created);
+            created.completeExceptionally(e);
+        }
+        return created.copy();
+    }
+
+    /**
+     * 実行中の処理の数
+     *
+     * @return 実行中の処理の数
+     */
+    public int size() {
+        return requests.size();
+    }
+
+    /**
+     * 実行中の処理にまとめた数(起動後の累計)
+     *
+     * @return まとめた数
+     */
+    public long getCollapsedCount() {
+        return collapsedCount.sum();
+    }
+}
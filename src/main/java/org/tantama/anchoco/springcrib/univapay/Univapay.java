@@ -3,6 +3,7 @@ package org.tantama.anchoco.springcrib.univapay;
 import com.univapay.sdk.UnivapaySDK;
 import com.univapay.sdk.models.common.CallMethod;
 import com.univapay.sdk.models.common.ChargeId;
+import com.univapay.sdk.models.common.IdempotencyKey;
 import com.univapay.sdk.models.common.OnlinePayment;
 import com.univapay.sdk.models.common.StoreId;
 import com.univapay.sdk.models.common.TransactionTokenId;
@@ -19,17 +20,33 @@ import com.univapay.sdk.types.ProcessingMode;
 import com.univapay.sdk.types.RefundReason;
 import com.univapay.sdk.types.TransactionTokenType;
 import com.univapay.sdk.types.brand.OnlineBrand;
+import com.univapay.sdk.utils.UnivapayCallback;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Currency;
 import java.util.Locale;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 import org.tantama.anchoco.springcrib.helper.JsonHelper;
+import org.tantama.anchoco.springcrib.resilience4j.ResilienceRetry;
+import org.tantama.anchoco.springcrib.univapay.UnivapayJournalEntry.Operation;
 
 /**
  * Univapayからwechatpayを利用する処理
@@ -58,12 +75,85 @@ public class Univapay {
     /** MetadataMapの店舗名 */
     private static final String SHOP_NAME_KEY = "shop_name";
 
+    /** 冪等キーの操作 : トランザクショントークンの作成 */
+    private static final String TOKEN_OPERATION = "transaction-token";
+
+    /** 冪等キーの操作 : 課金の作成 */
+    private static final String CHARGE_OPERATION = "charge";
+
+    /** 冪等キーの操作 : 返金の作成 */
+    private static final String REFUND_OPERATION = "refund";
+
     /**
      * 通貨単位<br>
      * 日本円でのみ取り扱う
      */
     private static final String CURRENCY = Currency.getInstance(Locale.JAPAN).getCurrencyCode();
 
+    /** 非同期の課金で、課金状態を確認する間隔の最短(ms) */
+    @Value("${univapay.polling-interval-ms:500}")
+    private long pollingIntervalMs = 500;
+
+    /** 非同期の課金で、課金状態を確認する間隔の最長(ms) */
+    @Value("${univapay.polling-max-interval-ms:5000}")
+    private long pollingMaxIntervalMs = 5000;
+
+    /** 非同期の課金で、課金の経過時間に対する確認の間隔の割合 */
+    @Value("${univapay.polling-age-ratio:0.2}")
+    private double pollingAgeRatio = 0.2;
+
+    /** 非同期の課金で、同時に課金状態を確認する数の上限 */
+    @Value("${univapay.polling-max-in-flight:10}")
+    private int pollingMaxInFlight = 10;
+
+    /** 非同期の課金で、課金状態の未確定解決を待つ上限(秒) */
+    @Value("${univapay.polling-timeout-second:60}")
+    private long pollingTimeoutSeconds = 60;
+
+    /**
+     * webhookで課金状態の通知を受けるかどうか<br>
+     * 受ける場合、ポーリングは通知が届かない場合の代替として{@code univapay.webhook.fallback-second}後から行う
+     */
+    @Value("${univapay.webhook.enabled:false}")
+    private boolean webhookEnabled;
+
+    /** webhookの通知が届かない場合に、ポーリングを始めるまでの時間(秒) */
+    @Value("${univapay.webhook.fallback-second:10}")
+    private long webhookFallbackSeconds = 10;
+
+    /**
+     * 課金状態のポーリングの共有<br>
+     * 設定値の注入後に作成するため、最初の非同期の課金で作成する
+     */
+    private volatile ChargeStatusPoller poller;
+
+    /**
+     * リトライ処理<br>
+     * 冪等キーを指定した課金、返金の作成をリトライする。
+     * また、非同期の課金のポーリングで、待機用スレッド({@link ResilienceRetry#getScheduler()})を共有する。
+     * 設定されていない場合はリトライせず、{@link CompletableFuture#delayedExecutor(long, TimeUnit)}で待機する
+     */
+    @Autowired(required = false)
+    private ResilienceRetry retry;
+
+    /** リトライ設定の名前 */
+    @Value("${univapay.retry-policy:univapay}")
+    private String retryPolicy = "univapay";
+
+    /** 冪等キーごとの実行中の課金 */
+    private final InFlightRequests<Charge> chargesInFlight = new InFlightRequests<>();
+
+    /** 冪等キーごとの実行中の返金 */
+    private final InFlightRequests<Refund> refundsInFlight = new InFlightRequests<>();
+
+    /**
+     * 決済操作の記録<br>
+     * 課金、返金の開始をUnivapayへの送信前に記録し、再起動時に結果が不明な操作を再開する。
+     * {@code univapay.journal.enabled}がtrueでない場合は作成されないため、記録しない
+     */
+    @Autowired(required = false)
+    private UnivapayJournal journal;
+
     /**
      * コンストラクタ
      *
@@ -91,7 +181,9 @@ public class Univapay {
 
     /**
      * 課金を行う<br>
-     * メタデータとして注文番号を設定する
+     * メタデータとして注文番号を設定する。
+     * 注文番号から決まる冪等キーを指定するため、リトライや二重送信でも課金は1つのみ作成する。
+     * 同じ注文番号の課金が実行中の場合は、その結果を返す
      *
      * @param openid       user識別子のopenid
      * @param chargeAmount 課金金額
@@ -103,29 +195,68 @@ public class Univapay {
      * @throws RequestTimeOutException    ポーリング中のタイムアウト
      */
     public Charge charge(String openid, BigDecimal chargeAmount, String orderNo) {
+        final String key = idempotencyKey(CHARGE_OPERATION, orderNo);
+        return await(chargesInFlight.submit(key,
+                () -> CompletableFuture.completedFuture(createCharge(openid, chargeAmount, orderNo, key))));
+    }
+
+    /**
+     * 課金の作成と、課金状態の未確定解決までの待機
+     *
+     * @param openid       user識別子のopenid
+     * @param chargeAmount 課金金額
+     * @param orderNo      注文番号
+     * @param key          課金の冪等キー
+     * @return 課金結果
+     */
+    private Charge createCharge(String openid, BigDecimal chargeAmount, String orderNo, String key) {
         log.debug("charge start.");
 
         OnlinePayment opay = new OnlinePayment(OnlineBrand.WE_CHAT);
         opay.withUserIdentifier(openid).withCallMethod(CallMethod.SDK);
 
         try {
-            TransactionTokenWithData transactionToken = univapay.createTransactionToken(opay, TransactionTokenType.ONE_TIME)
-                    .build()
-                    .dispatch();
-            TransactionTokenId transactionId = transactionToken.getId();
-            log.debug("transaction id is {}", transactionId);
-            MetadataMap metadata = new MetadataMap();
-            metadata.put(ORDER_NO_KEY, orderNo);
-            metadata.put(SHOP_NAME_KEY, shopName);
-            Charge charge = univapay.createCharge(transactionId, chargeAmount.toBigInteger(), CURRENCY)
-                    .withMetadata(metadata)
-                    .build()
-                    .dispatch();
+            writeJournal(UnivapayJournalEntry.chargeIntent(key, orderNo, chargeAmount));
+
+            Charge charge;
+            try {
+                // tips. トランザクショントークンも冪等キーを指定し、リトライ時に同じトークンで課金する
+                final IdempotencyKey tokenKey = new IdempotencyKey(idempotencyKey(TOKEN_OPERATION, orderNo));
+                TransactionTokenWithData transactionToken = dispatch("create transaction token",
+                        () -> univapay.createTransactionToken(opay, TransactionTokenType.ONE_TIME)
+                                .withIdempotencyKey(tokenKey)
+                                .build()
+                                .dispatch());
+                TransactionTokenId transactionId = transactionToken.getId();
+                log.debug("transaction id is {}", transactionId);
+                MetadataMap metadata = new MetadataMap();
+                metadata.put(ORDER_NO_KEY, orderNo);
+                metadata.put(SHOP_NAME_KEY, shopName);
+                charge = dispatch("charge", () -> univapay
+                        .createCharge(transactionId, chargeAmount.toBigInteger(), CURRENCY)
+                        .withMetadata(metadata)
+                        .withIdempotencyKey(new IdempotencyKey(key))
+                        .build()
+                        .dispatch());
+            } catch (RuntimeException e) {
+                journalFailure(Operation.CHARGE, key, e);
+                throw e;
+            }
 
             log.debug("charge id is {}", charge.getId());
+            try {
+                writeJournal(UnivapayJournalEntry.created(key, charge.getId().toUUID().toString(),
+                        charge.getStoreId().toUUID().toString()));
+            } catch (RuntimeException e) {
+                // notice. 課金は作成済みのため決済エラーにせず、完了まで待つ。記録がない課金は再起動時に結果不明として残る
+                log.error("univapay journal write failed. key : {}, charge id : {}, {}", key, charge.getId(),
+                        e.toString());
+            }
 
-            // 課金状態の未確定解決までポーリング
-            Charge polling = univapay.chargeCompletionMonitor(charge.getStoreId(), charge.getId()).await();
+            // 課金状態の未確定解決まで、共有のポーリング(webhookの通知を含む)で待つ
+            // notice. タイムアウトした場合は結果を記録せず、再起動時に課金状態を確認し直す
+            Charge polling = awaitCompletion(charge.getStoreId(), charge.getId());
+            appendJournal(UnivapayJournalEntry.outcome(Operation.CHARGE, key, polling.getStatus().name(), null));
 
             if (polling.getStatus() != ChargeStatus.AWAITING) {
                 // AWAITINGでない場合を想定していないため、エラーにする
@@ -134,11 +265,6 @@ public class Univapay {
             }
 
             return polling;
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        } catch (UnivapayException e) {
-            log.error("charge faild.  {} ", e.toString());
-            throw new RuntimeException(e);
         } catch (InterruptedException | TimeoutException e) {
             throw new RuntimeException(e);
         } finally {
@@ -147,6 +273,410 @@ public class Univapay {
         }
     }
 
+    /**
+     * 非同期で課金を行う<br>
+     * {@link #charge(String, BigDecimal, String)}と同じ処理を、スレッドを止めずに行う。
+     * トランザクショントークンの作成、課金の作成はSDKの非同期実行で順に行い、
+     * 課金状態の未確定解決は、全ての課金で共有のポーリング({@link ChargeStatusPoller})で待つ。
+     * リトライ設定のバルクヘッド、レートリミッターの許可待ちは、{@link ResilienceRetry#executeAsync(String, Supplier)}の
+     * 許可待ち用のスレッドで行うため、呼び出し元のスレッドでは待たない。
+     * 待機中はスレッドを占有しないため、同時に処理できる課金の数がスレッド数に制限されない<br>
+     * notice. 返却値の後続処理はSDKの通信スレッドで実行されるため、ブロックする処理は別のスレッドで行うこと
+     *
+     * @param openid       user識別子のopenid
+     * @param chargeAmount 課金金額
+     * @param orderNo      注文番号
+     * @return 課金結果。以下のエラーで失敗する
+     *         <ul>
+     *         <li>{@link UncheckedIOException} http接続時のIOエラー</li>
+     *         <li>{@link RuntimeException} 課金失敗、またはポーリング結果でawait(処理待ち)にならない場合</li>
+     *         <li>{@link TimeoutException} ポーリング中のタイムアウト</li>
+     *         </ul>
+     */
+    public CompletableFuture<Charge> chargeAsync(String openid, BigDecimal chargeAmount, String orderNo) {
+        final String key = idempotencyKey(CHARGE_OPERATION, orderNo);
+        return chargesInFlight.submit(key, () -> createChargeAsync(openid, chargeAmount, orderNo, key));
+    }
+
+    /**
+     * 非同期の課金の作成と、課金状態の未確定解決までの待機
+     *
+     * @param openid       user識別子のopenid
+     * @param chargeAmount 課金金額
+     * @param orderNo      注文番号
+     * @param key          課金の冪等キー
+     * @return 課金結果
+     */
+    private CompletableFuture<Charge> createChargeAsync(String openid, BigDecimal chargeAmount, String orderNo,
+            String key) {
+        log.debug("charge async start.");
+
+        OnlinePayment opay = new OnlinePayment(OnlineBrand.WE_CHAT);
+        opay.withUserIdentifier(openid).withCallMethod(CallMethod.SDK);
+
+        MetadataMap metadata = new MetadataMap();
+        metadata.put(ORDER_NO_KEY, orderNo);
+        metadata.put(SHOP_NAME_KEY, shopName);
+
+        final IdempotencyKey tokenKey = new IdempotencyKey(idempotencyKey(TOKEN_OPERATION, orderNo));
+
+        return appendJournal(UnivapayJournalEntry.chargeIntent(key, orderNo, chargeAmount))
+                .thenCompose(written -> this.<TransactionTokenWithData>dispatchAsync(callback -> univapay
+                        .createTransactionToken(opay, TransactionTokenType.ONE_TIME)
+                        .withIdempotencyKey(tokenKey)
+                        .build()
+                        .dispatch(callback)))
+                .thenCompose(transactionToken -> {
+                    log.debug("transaction id is {}", transactionToken.getId());
+                    return this.<Charge>dispatchAsync(callback -> univapay
+                            .createCharge(transactionToken.getId(), chargeAmount.toBigInteger(), CURRENCY)
+                            .withMetadata(metadata)
+                            .withIdempotencyKey(new IdempotencyKey(key))
+                            .build()
+                            .dispatch(callback));
+                })
+                .whenComplete((charge, e) -> {
+                    if (e != null) {
+                        journalFailure(Operation.CHARGE, key, e);
+                    }
+                })
+                .thenCompose(charge -> {
+                    log.debug("charge id is {}", charge.getId());
+                    // notice. 記録の失敗(ログ出力済み)で作成済みの課金を決済エラーにせず、完了まで待つ
+                    return appendJournal(UnivapayJournalEntry.created(key, charge.getId().toUUID().toString(),
+                            charge.getStoreId().toUUID().toString()))
+                            .handle((written, e) -> charge);
+                })
+                .thenCompose(charge -> {
+                    // 課金状態の未確定解決まで、共有のポーリングで待つ
+                    return getChargePoller().await(charge.getStoreId(), charge.getId(),
+                            Duration.ofSeconds(pollingTimeoutSeconds))
+                            .thenApply(polling -> {
+                                appendJournal(UnivapayJournalEntry.outcome(Operation.CHARGE, key,
+                                        polling.getStatus().name(), null));
+                                return polling;
+                            });
+                })
+                .thenApply(polling -> {
+                    if (polling.getStatus() != ChargeStatus.AWAITING) {
+                        // AWAITINGでない場合を想定していないため、エラーにする
+                        throw new RuntimeException("order no : " + orderNo + " の課金結果ステータスが不正 : " + polling.getStatus());
+                    }
+                    return polling;
+                })
+                .whenComplete((charge, e) -> {
+                    if (e != null) {
+                        log.error("charge async faild. order no : {}, {}", orderNo, e.toString());
+                    }
+                    log.debug("charge async finished.");
+                });
+    }
+
+    /**
+     * 課金状態のポーリングの共有<br>
+     * 確認待ちの数などの参照用
+     *
+     * @return 課金状態のポーリング
+     */
+    public ChargeStatusPoller getChargePoller() {
+        ChargeStatusPoller current = poller;
+        if (current == null) {
+            synchronized (this) {
+                current = poller;
+                if (current == null) {
+                    current = new ChargeStatusPoller(this::getChargeAsync, this::delayed,
+                            Duration.ofMillis(pollingIntervalMs), Duration.ofMillis(pollingMaxIntervalMs),
+                            pollingAgeRatio, pollingMaxInFlight,
+                            webhookEnabled ? Duration.ofSeconds(webhookFallbackSeconds) : Duration.ZERO);
+                    poller = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 課金状態が未確定でなくなるまで待つ<br>
+     * 呼び出し元のスレッドで待つが、ポーリングは共有の{@link ChargeStatusPoller}で行う
+     *
+     * @param storeId  店舗ID
+     * @param chargeId 課金ID
+     * @return 未確定でなくなった課金
+     * @throws InterruptedException 待機中の割り込み
+     * @throws TimeoutException     ポーリング中のタイムアウト
+     */
+    private Charge awaitCompletion(StoreId storeId, ChargeId chargeId) throws InterruptedException, TimeoutException {
+        try {
+            return getChargePoller().await(storeId, chargeId, Duration.ofSeconds(pollingTimeoutSeconds)).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException timeout) {
+                throw timeout;
+            }
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * webhookで課金状態の通知を受けた課金を即時に確認する<br>
+     * 確認待ちの課金のみ、課金を取得し直して確認待ちを完了する
+     *
+     * @param chargeId 課金ID
+     * @return 確認待ちの課金の場合true
+     */
+    public boolean notifyChargeStatus(ChargeId chargeId) {
+        return getChargePoller().notify(chargeId);
+    }
+
+    /**
+     * 非同期で課金を取得する
+     *
+     * @param storeId  店舗ID
+     * @param chargeId 課金ID
+     * @return 課金
+     */
+    private CompletableFuture<Charge> getChargeAsync(StoreId storeId, ChargeId chargeId) {
+        return Univapay.<Charge>toFuture(callback -> univapay.getCharge(storeId, chargeId)
+                .build()
+                .dispatch(callback));
+    }
+
+    /**
+     * 指定時間待ってから実行する{@link Executor}
+     *
+     * @param delayMs 待つ時間(ms)
+     * @return 待機用の{@link Executor}
+     */
+    private Executor delayed(long delayMs) {
+        if (retry == null) {
+            return CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS);
+        }
+        return command -> retry.getScheduler().schedule(command, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 再起動時に、結果が不明な決済操作を再開する<br>
+     * <ul>
+     * <li>返金 : 同じ冪等キーで返金し直す(作成済みの場合は作成済みの返金が返る)</li>
+     * <li>課金(作成済み) : 課金状態の未確定解決まで確認し、結果を記録する</li>
+     * <li>課金(作成前に停止) : 利用者の操作が必要なため再開せず、照合対象としてログに出力する。
+     * 結果が不明な操作として残し、{@link #reconcile(String, String)}で照合結果を記録するまで起動ごとに出力する</li>
+     * </ul>
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInDoubt() {
+        if (journal == null) {
+            return;
+        }
+        for (UnivapayJournalEntry entry : journal.getInDoubt()) {
+            if (entry.getOperation() == Operation.REFUND) {
+                try {
+                    refunds(new ChargeId(UUID.fromString(entry.getChargeId())),
+                            new StoreId(UUID.fromString(entry.getStoreId())), entry.getAmount(), entry.getOrderNo(),
+                            RefundReason.valueOf(entry.getReason()), entry.getMessage());
+                    log.info("in-doubt refund resumed. order no : {}", entry.getOrderNo());
+                } catch (RuntimeException e) {
+                    log.error("in-doubt refund failed. order no : {}, {}", entry.getOrderNo(), e.toString());
+                }
+            } else if (entry.getChargeId() != null) {
+                final String key = entry.getKey();
+                getChargePoller().await(new StoreId(UUID.fromString(entry.getStoreId())),
+                        new ChargeId(UUID.fromString(entry.getChargeId())), Duration.ofSeconds(pollingTimeoutSeconds))
+                        .whenComplete((charge, e) -> {
+                            if (e != null) {
+                                log.error("in-doubt charge is still pending. order no : {}, {}", entry.getOrderNo(),
+                                        e.toString());
+                                return;
+                            }
+                            log.info("in-doubt charge resumed. order no : {}, status {}", entry.getOrderNo(),
+                                    charge.getStatus());
+                            appendJournal(UnivapayJournalEntry.outcome(Operation.CHARGE, key,
+                                    charge.getStatus().name(), null));
+                        });
+            } else {
+                // notice. 作成されたかわからないため、照合するまで結果が不明な操作として残す
+                log.warn("charge may have been created before shutdown. reconcile order no : {}, idempotency key : {}",
+                        entry.getOrderNo(), entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * 課金の作成前に停止した課金の照合結果を記録する<br>
+     * Univapayの管理画面などで注文番号の課金を照合した後に呼び出し、結果が不明な操作から外す
+     *
+     * @param key    冪等キー(再起動時のログに出力した値)
+     * @param result 照合結果(課金がある場合はその課金ステータス、ない場合は{@link UnivapayJournalEntry#FAILED})
+     */
+    public void reconcile(String key, String result) {
+        if (journal == null) {
+            throw new IllegalStateException("univapay journal is not enabled.");
+        }
+        journal.write(UnivapayJournalEntry.reconciled(key, result));
+    }
+
+    /**
+     * 決済操作を記録し、書き込み(fsync)の完了まで待つ
+     *
+     * @param entry 記録
+     */
+    private void writeJournal(UnivapayJournalEntry entry) {
+        if (journal != null) {
+            journal.write(entry);
+        }
+    }
+
+    /**
+     * 決済操作を記録する<br>
+     * 書き込みの失敗はログのみ出力する
+     *
+     * @param entry 記録
+     * @return 書き込み(fsync)の完了
+     */
+    private CompletableFuture<Void> appendJournal(UnivapayJournalEntry entry) {
+        if (journal == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return journal.append(entry).whenComplete((written, e) -> {
+            if (e != null) {
+                log.error("univapay journal append failed. key : {}, {}", entry.getKey(), e.toString());
+            }
+        });
+    }
+
+    /**
+     * 作成の失敗を記録する<br>
+     * 一時的でないUnivapayのエラー(4xx、カードの拒否など、作成されていないことが確定)の場合のみ記録し、
+     * 429, 5xx, IOエラーなど作成されたかわからない場合は、結果が不明な操作として残す
+     *
+     * @param operation 操作
+     * @param key       冪等キー
+     * @param error     エラー
+     */
+    private void journalFailure(Operation operation, String key, Throwable error) {
+        if (new UnivapayRetryableError().test(error)) {
+            return;
+        }
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof UnivapayException) {
+                appendJournal(UnivapayJournalEntry.outcome(operation, key, UnivapayJournalEntry.FAILED,
+                        cause.toString()));
+                return;
+            }
+        }
+    }
+
+    /**
+     * SDKの非同期実行をリトライ設定に基づいて行う<br>
+     * バルクヘッド、レートリミッターの許可待ちは許可待ち用のスレッドで行い、呼び出し元のスレッドを止めない。
+     * 冪等キーを指定した作成処理のみに利用すること
+     *
+     * @param <T>      レスポンスの型
+     * @param dispatch コールバックを指定した非同期実行
+     * @return レスポンス
+     */
+    private <T> CompletableFuture<T> dispatchAsync(Consumer<UnivapayCallback<T>> dispatch) {
+        if (retry == null) {
+            return toFuture(dispatch);
+        }
+        return retry.<T>executeAsync(retryPolicy, () -> toFuture(dispatch)).toCompletableFuture();
+    }
+
+    /**
+     * SDKの同期実行をリトライ設定に基づいて行う<br>
+     * 冪等キーを指定した作成処理のみに利用すること。
+     * IOエラーは{@link UncheckedIOException}、Univapayのエラーは{@link RuntimeException}で包む
+     *
+     * @param <T>       レスポンスの型
+     * @param operation 処理名(ログ出力用)
+     * @param dispatch  同期実行
+     * @return レスポンス
+     */
+    private <T> T dispatch(String operation, Callable<T> dispatch) {
+        Supplier<T> call = () -> {
+            try {
+                return dispatch.call();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (UnivapayException e) {
+                log.error("{} faild.  {} ", operation, e.toString());
+                throw new RuntimeException(e);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        };
+        return retry == null ? call.get() : retry.excuteRetry(retryPolicy, call);
+    }
+
+    /**
+     * 処理結果を待つ<br>
+     * 失敗した場合は、処理時のエラーをそのまま投げる
+     *
+     * @param <T>    処理結果の型
+     * @param future 処理結果
+     * @return 処理結果
+     */
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * 冪等キー<br>
+     * 操作、店名、注文番号などから決まる値とし、同じ注文の再送やリトライでは同じキーにする<br>
+     * notice. 同じ注文番号で課金をやり直す場合は、Univapayの冪等キーの有効期間内は前回の結果が返るため、注文番号を変えること
+     *
+     * @param operation 操作
+     * @param parts     注文番号など
+     * @return 冪等キー
+     */
+    String idempotencyKey(String operation, String... parts) {
+        StringBuilder source = new StringBuilder(operation).append('\n').append(shopName);
+        for (String part : parts) {
+            source.append('\n').append(part);
+        }
+        return UUID.nameUUIDFromBytes(source.toString().getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * SDKの非同期実行を{@link CompletableFuture}にする<br>
+     * 失敗時は同期実行と同様に、IOエラーは{@link UncheckedIOException}、
+     * Univapayのエラーは{@link RuntimeException}で包む
+     *
+     * @param <T>      レスポンスの型
+     * @param dispatch コールバックを指定した非同期実行
+     * @return レスポンス
+     */
+    private static <T> CompletableFuture<T> toFuture(Consumer<UnivapayCallback<T>> dispatch) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        dispatch.accept(new UnivapayCallback<T>() {
+
+            @Override
+            public void getResponse(T response) {
+                future.complete(response);
+            }
+
+            @Override
+            public void getFailure(Throwable error) {
+                future.completeExceptionally(error instanceof IOException
+                        ? new UncheckedIOException((IOException) error)
+                        : new RuntimeException(error));
+            }
+        });
+        return future;
+    }
+
     /**
      * イシュアトークンの取得
      * 
@@ -185,7 +715,8 @@ public class Univapay {
     }
 
     /**
-     * 返金額に対して全額返金を行う
+     * 返金額に対して全額返金を行う<br>
+     * 注文番号、課金ID、返金額から決まる冪等キーを指定するため、リトライや二重送信でも返金は1つのみ作成する
      *
      * @param chargeId 課金ID
      * @param storeId  店舗ID
@@ -197,29 +728,51 @@ public class Univapay {
      */
     public Refund refunds(ChargeId chargeId, StoreId storeId, BigDecimal amount,
             String orderNo, RefundReason reason, String message) {
+        final String key = idempotencyKey(REFUND_OPERATION, orderNo, chargeId.toString(), amount.toPlainString());
+        return await(refundsInFlight.submit(key, () -> CompletableFuture.completedFuture(
+                createRefund(chargeId, storeId, amount, orderNo, reason, message, key))));
+    }
+
+    /**
+     * 返金の作成
+     *
+     * @param chargeId 課金ID
+     * @param storeId  店舗ID
+     * @param amount   課金キャンセル額
+     * @param orderNo  注文No
+     * @param reason   返金理由
+     * @param message  返金を行う理由の詳細内容
+     * @param key      返金の冪等キー
+     * @return 返金結果
+     */
+    private Refund createRefund(ChargeId chargeId, StoreId storeId, BigDecimal amount,
+            String orderNo, RefundReason reason, String message, String key) {
 
         log.debug("refunds start.");
 
         try {
+            writeJournal(UnivapayJournalEntry.refundIntent(key, orderNo, amount, chargeId.toUUID().toString(),
+                    storeId.toUUID().toString(), reason.name(), message));
 
             MetadataMap metadata = new MetadataMap();
             metadata.put(ORDER_NO_KEY, orderNo);
             metadata.put(SHOP_NAME_KEY, shopName);
 
-            Refund ref = univapay.createRefund(storeId, chargeId, amount.toBigInteger(), CURRENCY, reason)
+            Refund ref = dispatch("refunds", () -> univapay
+                    .createRefund(storeId, chargeId, amount.toBigInteger(), CURRENCY, reason)
                     .withMetadata(metadata)
                     .withMessage(message)
+                    .withIdempotencyKey(new IdempotencyKey(key))
                     .build()
-                    .dispatch();
+                    .dispatch());
 
             log.debug("Refund id is {}", ref.getId());
+            appendJournal(UnivapayJournalEntry.outcome(Operation.REFUND, key, String.valueOf(ref.getStatus()), null));
 
             return ref;
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        } catch (UnivapayException e) {
-            log.error("refunds faild.  {} ", e.toString());
-            throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            journalFailure(Operation.REFUND, key, e);
+            throw e;
         } finally {
             log.debug("refunds finished.");
         }
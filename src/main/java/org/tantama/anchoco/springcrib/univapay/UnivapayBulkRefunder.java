@@ -0,0 +1,155 @@
+package org.tantama.anchoco.springcrib.univapay;
+
+import com.univapay.sdk.models.response.refund.Refund;
+import com.univapay.sdk.types.RefundReason;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Univapayへの一括返金<br>
+ * イベントの中止などで大量の課金を返金するため、{@link Univapay#refunds}を同時実行数を制限して並列に実行し、
+ * 1件ごとの結果を完了した順に通知する。
+ * 1件の失敗で全体を中断せず、最後に件数、処理速度、失敗した結果を集計する。一時的なエラーが続いた返金は、作成された可能性があるため結果不明として失敗と分けて集計する<br>
+ * notice. 返金はリトライ設定({@code univapay})のバルクヘッド、レートリミッターの内側で実行するため、
+ * 同時実行数はバルクヘッドの同時実行数以下にすること(超えた分は空き待ちのタイムアウトで失敗する)
+ */
+@Slf4j
+@Component
+public class UnivapayBulkRefunder {
+
+    /** Univapayへの接続 */
+    private final Univapay univapay;
+
+    /** 一括返金ごとの同時実行数 */
+    private final int concurrency;
+
+    /**
+     * コンストラクタ
+     *
+     * @param univapay    Univapayへの接続
+     * @param concurrency 一括返金ごとの同時実行数
+     */
+    public UnivapayBulkRefunder(Univapay univapay,
+            @Value("${univapay.bulk-refund.concurrency:8}") int concurrency) {
+        this.univapay = univapay;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * 一括返金<br>
+     * 1件ごとの結果は、呼び出し元のスレッドで完了した順に通知する(通知先の処理は並列に呼び出されない)
+     *
+     * @param requests 返金内容
+     * @param reason   返金理由
+     * @param message  返金を行う理由の詳細内容
+     * @param onResult 1件ごとの結果の通知先
+     * @return 集計
+     */
+    public UnivapayRefundSummary refundAll(List<UnivapayRefundRequest> requests, RefundReason reason, String message,
+            Consumer<UnivapayRefundResult> onResult) {
+
+        final long start = System.nanoTime();
+        if (requests.isEmpty()) {
+            return new UnivapayRefundSummary(0, 0, List.of(), List.of(), 0);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, requests.size()));
+        CompletionService<UnivapayRefundResult> completion = new ExecutorCompletionService<>(executor);
+        try {
+            for (int i = 0; i < requests.size(); i++) {
+                final int index = i;
+                completion.submit(() -> refund(index, requests.get(index), reason, message));
+            }
+
+            int succeeded = 0;
+            List<UnivapayRefundResult> failures = new ArrayList<>();
+            List<UnivapayRefundResult> inDoubt = new ArrayList<>();
+            for (int i = 0; i < requests.size(); i++) {
+                UnivapayRefundResult result = take(completion);
+                if (result.isSuccess()) {
+                    succeeded++;
+                } else if (result.isInDoubt()) {
+                    inDoubt.add(result);
+                } else {
+                    failures.add(result);
+                }
+                onResult.accept(result);
+            }
+            failures.sort(Comparator.comparingInt(UnivapayRefundResult::getIndex));
+            inDoubt.sort(Comparator.comparingInt(UnivapayRefundResult::getIndex));
+
+            UnivapayRefundSummary summary = new UnivapayRefundSummary(requests.size(), succeeded, failures, inDoubt,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            log.info("bulk refunds finished. total {}, succeeded {}, failed {}, unknown {}, {} ms ({} refunds/s)",
+                    summary.getTotal(), summary.getSucceeded(), summary.getFailed(), summary.getUnknown(),
+                    summary.getElapsedMillis(),
+                    String.format("%.1f", summary.getThroughput()));
+            return summary;
+        } finally {
+            // 通知先のエラーや割り込みで中断した場合は、未実行の返金を行わない
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 1件の返金<br>
+     * エラーは結果に格納し、投げない
+     *
+     * @param index   返金依頼リスト上の位置
+     * @param request 返金内容
+     * @param reason  返金理由
+     * @param message 返金を行う理由の詳細内容
+     * @return 結果
+     */
+    private UnivapayRefundResult refund(int index, UnivapayRefundRequest request, RefundReason reason, String message) {
+        final long start = System.nanoTime();
+        try {
+            Refund refund = univapay.refunds(request.getChargeId(), request.getStoreId(), request.getAmount(),
+                    request.getOrderNo(), reason, message);
+            return new UnivapayRefundResult(index, request, refund, null, elapsedMillis(start));
+        } catch (RuntimeException e) {
+            log.warn("refund failed. order no : {}, charge id : {}, {}", request.getOrderNo(), request.getChargeId(),
+                    e.toString());
+            return new UnivapayRefundResult(index, request, null, e, elapsedMillis(start));
+        }
+    }
+
+    /**
+     * 次に完了した結果を取得する
+     *
+     * @param completion 実行中の返金
+     * @return 結果
+     */
+    private static UnivapayRefundResult take(CompletionService<UnivapayRefundResult> completion) {
+        try {
+            return completion.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("bulk refunds interrupted.", e);
+        } catch (ExecutionException e) {
+            // 返金のエラーは結果に格納するため、ここに来るのは想定外のエラーのみ
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 経過時間
+     *
+     * @param start 開始時刻(ns)
+     * @return 経過時間(ms)
+     */
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,468 @@
+package org.tantama.anchoco.springcrib.univapay;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.tantama.anchoco.springcrib.helper.JsonHelper;
+import org.tantama.anchoco.springcrib.univapay.UnivapayJournalEntry.Type;
+
+/**
+ * Univapayの決済操作の記録(追記のみのjournal)<br>
+ * 課金、返金の開始と結果をローカルファイルに追記し、処理中にJVMが停止しても、
+ * 再起動後に結果が不明な操作のみを再開できるようにする(Univapay全体の照合を不要にする)。
+ * <ul>
+ * <li>1行1記録とし、行頭にCRC32を付ける。書き込み途中で停止した行や壊れた行は読み込み時に読み飛ばす</li>
+ * <li>書き込みは専用のスレッドでまとめて行い(group commit)、まとめた単位で1回だけfsyncする。
+ * 同時に記録する数が多いほど、1記録あたりのfsyncの待ち時間が短くなる</li>
+ * <li>起動時に結果が不明な操作のみを残してファイルを書き直すため、ファイルは肥大化しない</li>
+ * <li>書き込みに失敗した場合は、最後に書き込みが完了した位置までファイルを切り詰める。
+ * 切り詰めやfsyncに失敗した場合は、ファイルの内容が保証できないため以降の記録を全て失敗にする</li>
+ * </ul>
+ * {@code univapay.journal.enabled}がtrueの場合のみ利用し、{@code univapay.journal.dir}に保存先ディレクトリを指定する。
+ * 再起動後も残る(コンテナの再作成で消えない)ディレクトリを指定すること<br>
+ * tips. {@code univapay.journal.sync}をfalseにするとfsyncを行わない。
+ * OSのページキャッシュへの書き込みで完了とするため、JVMの停止には耐えるが、OSの停止(電源断)では失われる
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "univapay.journal.enabled", havingValue = "true")
+public class UnivapayJournal implements AutoCloseable {
+
+    /** 記録ファイル名 */
+    private static final String FILE_NAME = "univapay.journal";
+
+    /** 1回の書き込みにまとめる記録の上限 */
+    private static final int MAX_BATCH = 1024;
+
+    /** CRC32の桁数(16進数) */
+    private static final int CRC_LENGTH = 8;
+
+    /** 書き込みの終了を表す記録 */
+    private static final Pending CLOSE = new Pending(new byte[0], null);
+
+    /** 保存先ディレクトリ */
+    private final Path directory;
+
+    /** 書き込みごとにfsyncするかどうか */
+    private final boolean sync;
+
+    /** 書き込み待ちの記録 */
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+
+    /** 書き込みスレッド */
+    private final ExecutorService writer;
+
+    /** 起動時に読み込んだ、結果が不明な操作(冪等キーごと) */
+    private final Map<String, UnivapayJournalEntry> inDoubt = new LinkedHashMap<>();
+
+    /** 記録した数 */
+    private final LongAdder appendCount = new LongAdder();
+
+    /** 書き込み(fsync)の回数 */
+    private final LongAdder commitCount = new LongAdder();
+
+    /** 記録ファイル */
+    private FileChannel channel;
+
+    /** 書き込みが完了した位置(byte)。書き込みスレッドのみが参照する */
+    private long committed;
+
+    /**
+     * 書き込みの失敗<br>
+     * ファイルの内容が保証できない失敗の場合に設定し、以降の記録を全て失敗にする
+     */
+    private volatile IOException failure;
+
+    /** 終了済みかどうか */
+    private volatile boolean closed;
+
+    /**
+     * コンストラクタ
+     *
+     * @param directory 保存先ディレクトリ
+     * @param sync      書き込みごとにfsyncするかどうか
+     */
+    public UnivapayJournal(@Value("${univapay.journal.dir}") Path directory,
+            @Value("${univapay.journal.sync:true}") boolean sync) {
+        this.directory = directory;
+        this.sync = sync;
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "univapay-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 初期処理<br>
+     * 記録ファイルを読み込んで結果が不明な操作を取り出し、それのみを残してファイルを書き直してから追記を開始する
+     */
+    @PostConstruct
+    public void open() {
+
+        final Path file = directory.resolve(FILE_NAME);
+        try {
+            Files.createDirectories(directory);
+            if (Files.exists(file)) {
+                inDoubt.putAll(replay(Files.readAllBytes(file)));
+                compact(file);
+            }
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            committed = channel.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("univapay journal opened. {} in-doubt operations.", inDoubt.size());
+        writer.execute(this::writeLoop);
+    }
+
+    /**
+     * 記録を追記する<br>
+     * 書き込みスレッドでまとめて書き込むため、呼び出し元は待たない
+     *
+     * @param entry 記録
+     * @return 書き込み(fsync)の完了。書き込みに失敗して記録できない状態の場合は{@link UncheckedIOException}で失敗する
+     */
+    public CompletableFuture<Void> append(UnivapayJournalEntry entry) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IllegalStateException("univapay journal closed."));
+        }
+        if (failure != null) {
+            return CompletableFuture.failedFuture(new UncheckedIOException("univapay journal failed.", failure));
+        }
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        queue.add(new Pending(encode(entry), written));
+        appendCount.increment();
+        return written;
+    }
+
+    /**
+     * 記録を追記し、書き込み(fsync)の完了まで待つ<br>
+     * Univapayへの送信前の記録など、記録が残っていることを前提に処理を進める場合に利用する
+     *
+     * @param entry 記録
+     */
+    public void write(UnivapayJournalEntry entry) {
+        try {
+            append(entry).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+    }
+
+    /**
+     * 起動時に読み込んだ、結果が不明な操作<br>
+     * 課金の作成を記録済みの場合は、課金ID、店舗IDを含む
+     *
+     * @return 結果が不明な操作。記録した順
+     */
+    public List<UnivapayJournalEntry> getInDoubt() {
+        return List.copyOf(inDoubt.values());
+    }
+
+    /**
+     * 書き込みに失敗して、記録できない状態かどうか<br>
+     * 記録できない状態の場合は、再起動して記録ファイルを読み込み直すまで記録を全て失敗にする
+     *
+     * @return 記録できない状態の場合true
+     */
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    /**
+     * 記録した数(起動後の累計)
+     *
+     * @return 記録した数
+     */
+    public long getAppendCount() {
+        return appendCount.sum();
+    }
+
+    /**
+     * 書き込み(fsync)の回数(起動後の累計)<br>
+     * 記録した数より少ないほど、まとめて書き込めている
+     *
+     * @return 書き込みの回数
+     */
+    public long getCommitCount() {
+        return commitCount.sum();
+    }
+
+    /**
+     * 終了処理<br>
+     * 書き込み待ちの記録を書き込んでから、記録ファイルを閉じる
+     */
+    @Override
+    @PreDestroy
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.add(CLOSE);
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("univapay journal writer did not stop.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 終了と同時に追記された記録は書き込まれないため、失敗にする
+        for (Pending pending = queue.poll(); pending != null; pending = queue.poll()) {
+            if (pending != CLOSE) {
+                pending.written().completeExceptionally(new IllegalStateException("univapay journal closed."));
+            }
+        }
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 書き込みスレッドの処理<br>
+     * 書き込み待ちの記録をまとめて書き込み、1回だけfsyncする
+     */
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (true) {
+            batch.clear();
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            final boolean close = batch.remove(CLOSE);
+            if (!batch.isEmpty()) {
+                commit(batch);
+            }
+            if (close) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 記録をまとめて書き込む<br>
+     * 書き込みに失敗した場合は、書き込み途中の内容を残さないよう、書き込みが完了した位置まで切り詰める
+     *
+     * @param batch 記録
+     */
+    private void commit(List<Pending> batch) {
+
+        if (failure != null) {
+            UncheckedIOException error = new UncheckedIOException("univapay journal failed.", failure);
+            batch.forEach(pending -> pending.written().completeExceptionally(error));
+            return;
+        }
+
+        int size = 0;
+        for (Pending pending : batch) {
+            size += pending.line().length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (Pending pending : batch) {
+            buffer.put(pending.line());
+        }
+        buffer.flip();
+
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            log.error("univapay journal write failed. {}", e.toString());
+            rollback(e);
+            UncheckedIOException error = new UncheckedIOException(e);
+            batch.forEach(pending -> pending.written().completeExceptionally(error));
+            return;
+        }
+        try {
+            if (sync) {
+                // notice. ファイルのメタデータ(更新日時など)は不要なため、内容のみを同期する
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            // notice. fsyncの失敗後はページキャッシュの内容が破棄されている場合があり、
+            // 再度fsyncが成功しても書き込みは保証されないため、以降の記録を全て失敗にする
+            log.error("univapay journal sync failed. journal is disabled until restart. {}", e.toString());
+            failure = e;
+            UncheckedIOException error = new UncheckedIOException(e);
+            batch.forEach(pending -> pending.written().completeExceptionally(error));
+            return;
+        }
+        committed += size;
+        commitCount.increment();
+        batch.forEach(pending -> pending.written().complete(null));
+    }
+
+    /**
+     * 書き込みが完了した位置まで記録ファイルを切り詰める<br>
+     * 切り詰めに失敗した場合は、書き込み途中の内容が残っている可能性があるため、以降の記録を全て失敗にする
+     *
+     * @param cause 書き込み時のエラー
+     */
+    private void rollback(IOException cause) {
+        try {
+            channel.truncate(committed);
+            if (sync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            log.error("univapay journal truncate failed. journal is disabled until restart. {}", e.toString());
+            e.addSuppressed(cause);
+            failure = e;
+        }
+    }
+
+    /**
+     * 結果が不明な操作のみを残して記録ファイルを書き直す<br>
+     * 一時ファイルに書き込んでから置き換えるため、書き直し途中で停止しても元のファイルが残る
+     *
+     * @param file 記録ファイル
+     * @throws IOException 書き込み時のエラー
+     */
+    private void compact(Path file) throws IOException {
+        Path temp = Files.createTempFile(directory, FILE_NAME, ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            for (UnivapayJournalEntry entry : inDoubt.values()) {
+                ByteBuffer buffer = ByteBuffer.wrap(encode(entry));
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+            out.force(false);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 記録の読み込み<br>
+     * 冪等キーごとに記録をまとめ、結果が記録されていない操作を返す。
+     * 改行で終わっていない最終行(書き込み途中)と、CRC32が一致しない行は読み飛ばす
+     *
+     * @param content 記録ファイルの内容
+     * @return 結果が不明な操作(冪等キーごと)。記録した順
+     */
+    static Map<String, UnivapayJournalEntry> replay(byte[] content) {
+
+        Map<String, UnivapayJournalEntry> operations = new LinkedHashMap<>();
+        int start = 0;
+        int skipped = 0;
+        for (int end = 0; end < content.length; end++) {
+            if (content[end] != '\n') {
+                continue;
+            }
+            UnivapayJournalEntry entry = decode(content, start, end);
+            start = end + 1;
+            if (entry == null) {
+                skipped++;
+                continue;
+            }
+            if (entry.getType() == Type.OUTCOME) {
+                operations.remove(entry.getKey());
+            } else if (entry.getType() == Type.CREATED && operations.containsKey(entry.getKey())) {
+                UnivapayJournalEntry intent = operations.get(entry.getKey());
+                intent.setChargeId(entry.getChargeId());
+                intent.setStoreId(entry.getStoreId());
+            } else {
+                operations.putIfAbsent(entry.getKey(), entry);
+            }
+        }
+        if (start < content.length) {
+            log.warn("univapay journal ends with a partial line. {} bytes are ignored.", content.length - start);
+        }
+        if (skipped > 0) {
+            log.warn("univapay journal has {} corrupted lines.", skipped);
+        }
+        return operations;
+    }
+
+    /**
+     * 記録の変換(1行)
+     *
+     * @param entry 記録
+     * @return CRC32、記録(json)、改行の1行
+     */
+    static byte[] encode(UnivapayJournalEntry entry) {
+        byte[] json = JsonHelper.toJson(entry).getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(json);
+        byte[] prefix = String.format("%08x ", crc.getValue()).getBytes(StandardCharsets.US_ASCII);
+
+        byte[] line = new byte[prefix.length + json.length + 1];
+        System.arraycopy(prefix, 0, line, 0, prefix.length);
+        System.arraycopy(json, 0, line, prefix.length, json.length);
+        line[line.length - 1] = '\n';
+        return line;
+    }
+
+    /**
+     * 1行の記録の読み込み
+     *
+     * @param content 記録ファイルの内容
+     * @param start   行の開始位置
+     * @param end     行の終了位置(改行の位置)
+     * @return 記録。壊れている場合null
+     */
+    private static UnivapayJournalEntry decode(byte[] content, int start, int end) {
+        final int jsonStart = start + CRC_LENGTH + 1;
+        if (jsonStart > end || content[jsonStart - 1] != ' ') {
+            return null;
+        }
+        try {
+            long expected = Long.parseLong(new String(content, start, CRC_LENGTH, StandardCharsets.US_ASCII), 16);
+            CRC32 crc = new CRC32();
+            crc.update(content, jsonStart, end - jsonStart);
+            if (crc.getValue() != expected) {
+                return null;
+            }
+            return JsonHelper.toDto(new String(content, jsonStart, end - jsonStart, StandardCharsets.UTF_8),
+                    UnivapayJournalEntry.class);
+        } catch (NumberFormatException | UncheckedIOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 書き込み待ちの記録
+     *
+     * @param line    書き込む行
+     * @param written 書き込みの完了
+     */
+    private record Pending(byte[] line, CompletableFuture<Void> written) {
+    }
+}
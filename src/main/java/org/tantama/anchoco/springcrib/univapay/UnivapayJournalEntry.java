@@ -0,0 +1,181 @@
+package org.tantama.anchoco.springcrib.univapay;
+
+import java.math.BigDecimal;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 決済操作の記録の1行<br>
+ * 冪等キーごとに、操作の開始(INTENT)、課金の作成(CREATED)、結果(OUTCOME)を記録する。
+ * 結果が記録されていない冪等キーは、処理中に停止した(結果が不明な)操作とする
+ */
+@Getter
+@Setter
+public class UnivapayJournalEntry {
+
+    /** 記録の種類 */
+    public enum Type {
+
+        /** 操作の開始。Univapayへの送信前に記録する */
+        INTENT,
+
+        /** 課金の作成。課金IDがわかり、課金状態の確認待ちになった */
+        CREATED,
+
+        /** 操作の結果 */
+        OUTCOME
+    }
+
+    /** 操作 */
+    public enum Operation {
+
+        /** 課金 */
+        CHARGE,
+
+        /** 返金 */
+        REFUND
+    }
+
+    /** 結果 : 作成の失敗 */
+    public static final String FAILED = "failed";
+
+    /** 結果 : 課金の作成前に停止した課金を、Univapayの管理画面などで照合した */
+    public static final String RECONCILED = "reconciled";
+
+    /** 記録の種類 */
+    private Type type;
+
+    /** 操作 */
+    private Operation operation;
+
+    /** 冪等キー */
+    private String key;
+
+    /** 注文番号 */
+    private String orderNo;
+
+    /** 金額 */
+    private BigDecimal amount;
+
+    /** 課金ID(文字列) */
+    private String chargeId;
+
+    /** 店舗ID(文字列) */
+    private String storeId;
+
+    /** 返金理由 */
+    private String reason;
+
+    /** 返金を行う理由の詳細内容。照合結果の記録では照合結果 */
+    private String message;
+
+    /** 結果(課金ステータス、返金ステータス、または{@link #FAILED}、{@link #RECONCILED}) */
+    private String status;
+
+    /** 失敗時のエラー */
+    private String error;
+
+    /** 記録日時(epoch ms) */
+    private long at;
+
+    /**
+     * 課金の開始の記録
+     *
+     * @param key     冪等キー
+     * @param orderNo 注文番号
+     * @param amount  課金金額
+     * @return 記録
+     */
+    public static UnivapayJournalEntry chargeIntent(String key, String orderNo, BigDecimal amount) {
+        UnivapayJournalEntry entry = of(Type.INTENT, Operation.CHARGE, key);
+        entry.setOrderNo(orderNo);
+        entry.setAmount(amount);
+        return entry;
+    }
+
+    /**
+     * 返金の開始の記録<br>
+     * 再起動後に同じ内容で返金し直せるよう、返金内容を全て記録する
+     *
+     * @param key      冪等キー
+     * @param orderNo  注文番号
+     * @param amount   返金額
+     * @param chargeId 課金ID
+     * @param storeId  店舗ID
+     * @param reason   返金理由
+     * @param message  返金を行う理由の詳細内容
+     * @return 記録
+     */
+    public static UnivapayJournalEntry refundIntent(String key, String orderNo, BigDecimal amount, String chargeId,
+            String storeId, String reason, String message) {
+        UnivapayJournalEntry entry = of(Type.INTENT, Operation.REFUND, key);
+        entry.setOrderNo(orderNo);
+        entry.setAmount(amount);
+        entry.setChargeId(chargeId);
+        entry.setStoreId(storeId);
+        entry.setReason(reason);
+        entry.setMessage(message);
+        return entry;
+    }
+
+    /**
+     * 課金の作成の記録
+     *
+     * @param key      冪等キー
+     * @param chargeId 課金ID
+     * @param storeId  店舗ID
+     * @return 記録
+     */
+    public static UnivapayJournalEntry created(String key, String chargeId, String storeId) {
+        UnivapayJournalEntry entry = of(Type.CREATED, Operation.CHARGE, key);
+        entry.setChargeId(chargeId);
+        entry.setStoreId(storeId);
+        return entry;
+    }
+
+    /**
+     * 結果の記録
+     *
+     * @param operation 操作
+     * @param key       冪等キー
+     * @param status    結果
+     * @param error     失敗時のエラー。成功した場合null
+     * @return 記録
+     */
+    public static UnivapayJournalEntry outcome(Operation operation, String key, String status, String error) {
+        UnivapayJournalEntry entry = of(Type.OUTCOME, operation, key);
+        entry.setStatus(status);
+        entry.setError(error);
+        return entry;
+    }
+
+    /**
+     * 課金の作成前に停止した課金の照合結果の記録
+     *
+     * @param key    冪等キー
+     * @param result 照合結果(課金ステータス、または{@link #FAILED})
+     * @return 記録
+     */
+    public static UnivapayJournalEntry reconciled(String key, String result) {
+        UnivapayJournalEntry entry = outcome(Operation.CHARGE, key, RECONCILED, null);
+        entry.setMessage(result);
+        return entry;
+    }
+
+    /**
+     * 記録の作成
+     *
+     * @param type      記録の種類
+     * @param operation 操作
+     * @param key       冪等キー
+     * @return 記録
+     */
+    private static UnivapayJournalEntry of(Type type, Operation operation, String key) {
+        UnivapayJournalEntry entry = new UnivapayJournalEntry();
+        entry.setType(type);
+        entry.setOperation(operation);
+        entry.setKey(key);
+        entry.setAt(System.currentTimeMillis());
+        return entry;
+    }
+}
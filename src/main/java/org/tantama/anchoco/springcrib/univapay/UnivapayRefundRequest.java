@@ -0,0 +1,27 @@
+package org.tantama.anchoco.springcrib.univapay;
+
+import com.univapay.sdk.models.common.ChargeId;
+import com.univapay.sdk.models.common.StoreId;
+import java.math.BigDecimal;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 一括返金の1件ごとの返金内容
+ */
+@Getter
+@AllArgsConstructor
+public class UnivapayRefundRequest {
+
+    /** 課金ID */
+    private final ChargeId chargeId;
+
+    /** 店舗ID */
+    private final StoreId storeId;
+
+    /** 返金額 */
+    private final BigDecimal amount;
+
+    /** 注文番号 */
+    private final String orderNo;
+}
@@ -0,0 +1,51 @@
+package org.tantama.anchoco.springcrib.univapay;
+
+import com.univapay.sdk.models.response.refund.Refund;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 一括返金の1件ごとの結果
+ */
+@Getter
+@AllArgsConstructor
+public class UnivapayRefundResult {
+
+    /** 返金が作成された可能性があるエラーの判定 */
+    private static final UnivapayRetryableError IN_DOUBT = new UnivapayRetryableError();
+
+    /** 返金依頼リスト上の位置 */
+    private final int index;
+
+    /** 返金内容 */
+    private final UnivapayRefundRequest request;
+
+    /** 返金結果。失敗した場合null */
+    private final Refund refund;
+
+    /** 失敗時のエラー。成功した場合null */
+    private final RuntimeException error;
+
+    /** 返金の実行時間(ms)。リトライを含む */
+    private final long elapsedMillis;
+
+    /**
+     * 成功判定
+     *
+     * @return 成功した場合true
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * 結果不明の判定<br>
+     * 一時的なエラー(429, 5xx, 通信エラー)がリトライ後も続いた場合は、返金が作成されている可能性があるため失敗と区別する。
+     * 同じ内容で返金し直すと、冪等キーにより作成済みの返金が返る
+     *
+     * @return 結果不明の場合true
+     */
+    public boolean isInDoubt() {
+        return error != null && IN_DOUBT.test(error);
+    }
+}
@@ -0,0 +1,55 @@
+package org.tantama.anchoco.springcrib.univapay;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 一括返金の集計
+ */
+@Getter
+@AllArgsConstructor
+public class UnivapayRefundSummary {
+
+    /** 返金依頼の件数 */
+    private final int total;
+
+    /** 成功した件数 */
+    private final int succeeded;
+
+    /** 失敗した結果。返金依頼リスト上の位置の順 */
+    private final List<UnivapayRefundResult> failures;
+
+    /** 結果不明(返金が作成された可能性がある)の結果。返金依頼リスト上の位置の順 */
+    private final List<UnivapayRefundResult> inDoubt;
+
+    /** 一括返金の全体の実行時間(ms) */
+    private final long elapsedMillis;
+
+    /**
+     * 失敗した件数
+     *
+     * @return 失敗した件数
+     */
+    public int getFailed() {
+        return failures.size();
+    }
+
+    /**
+     * 結果不明の件数
+     *
+     * @return 結果不明の件数
+     */
+    public int getUnknown() {
+        return inDoubt.size();
+    }
+
+    /**
+     * 1秒あたりの処理件数
+     *
+     * @return 1秒あたりの処理件数。実行時間が0の場合は全件数
+     */
+    public double getThroughput() {
+        return elapsedMillis == 0 ? total : total * 1000d / elapsedMillis;
+    }
+}
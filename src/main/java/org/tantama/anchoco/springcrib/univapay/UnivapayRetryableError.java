@@ -0,0 +1,37 @@
+package org.tantama.anchoco.springcrib.univapay;
+
+import com.univapay.sdk.models.errors.UnivapayException;
+import java.io.IOException;
+import java.util.function.Predicate;
+import org.springframework.http.HttpStatus;
+
+/**
+ * 一時的なUnivapayのエラーの判定<br>
+ * 流量制限(429)とサーバーエラー(5xx)の{@link UnivapayException}、通信エラー(タイムアウトを含む)を対象とする。
+ * カードの拒否や入力誤りなど、繰り返しても成功しないエラーは対象としない。
+ * リトライ設定の{@code exception-predicate}、サーキットブレイカー設定の{@code record-exception-predicate}に指定する
+ */
+public class UnivapayRetryableError implements Predicate<Throwable> {
+
+    /**
+     * 一時的なエラーかどうか<br>
+     * 発生したエラーの原因(cause)も対象とする
+     *
+     * @param error 発生したエラー
+     * @return 一時的なエラーの場合true
+     */
+    @Override
+    public boolean test(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause() == e ? null : e.getCause()) {
+            if (e instanceof UnivapayException univapay) {
+                final int statusCode = univapay.getHttpStatusCode();
+                return statusCode == HttpStatus.TOO_MANY_REQUESTS.value()
+                        || statusCode / 100 == 5;
+            }
+            if (e instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
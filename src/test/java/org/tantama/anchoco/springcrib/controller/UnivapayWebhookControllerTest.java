@@ -0,0 +1,315 @@
+package org.tantama.anchoco.springcrib.controller;
+
+import com.univapay.sdk.models.response.charge.Charge;
+import com.univapay.sdk.types.ChargeStatus;
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.verify.VerificationTimes;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.tantama.anchoco.springcrib.univapay.Univapay;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * {@link UnivapayWebhookController}のテスト
+ */
+@DisplayName("Univapayのwebhookの受信")
+class UnivapayWebhookControllerTest {
+
+    /** mock server */
+    private static ClientAndServer mockServer;
+
+    /** mock server のport */
+    private static final int MOCK_SWERVER_PORT = 6181;
+
+    /** mock server のbase path */
+    private static final String MOCK_END_POINT = "http://localhost:" + MOCK_SWERVER_PORT;
+
+    /** webhookの認証トークン */
+    private static final String TOKEN = "webhook-token";
+
+    /** 通信タイムアウト秒 */
+    private final int timeout = 3;
+
+    /** Univapayへの接続 */
+    private Univapay univapay;
+
+    /** テスト対象の呼び出し */
+    private MockMvc mockMvc;
+
+    /** 店舗ID */
+    private UUID storeId;
+
+    /** 課金ID */
+    private UUID chargeId;
+
+    /**
+     * テストクラス初期処理
+     */
+    @BeforeAll
+    public static void beforeClass() {
+        mockServer = ClientAndServer.startClientAndServer(MOCK_SWERVER_PORT);
+    }
+
+    /**
+     * テストクラス終了処理
+     */
+    @AfterAll
+    public static void afterClass() {
+        mockServer.stop();
+    }
+
+    /**
+     * 初期処理<br>
+     * webhookの通知が届かない場合のポーリングは、テスト中に行わないよう十分に遅らせる
+     */
+    @BeforeEach
+    public void init() {
+        final int strLen = 64;
+        univapay = new Univapay(true, MOCK_END_POINT, timeout, "店舗名称",
+                RandomStringUtils.randomAlphanumeric(strLen), RandomStringUtils.randomAlphanumeric(strLen));
+        ReflectionTestUtils.setField(univapay, "webhookEnabled", true);
+        ReflectionTestUtils.setField(univapay, "webhookFallbackSeconds", 60L);
+        mockMvc = MockMvcBuilders.standaloneSetup(new UnivapayWebhookController(univapay, TOKEN)).build();
+
+        storeId = UUID.randomUUID();
+        chargeId = UUID.randomUUID();
+        mockServer.reset();
+    }
+
+    /**
+     * {@link UnivapayWebhookController#receive(String, String)}のテスト<br>
+     * 課金状態の通知を受けた場合、ポーリングを待たずに確認待ちの課金を完了する
+     *
+     * @throws Exception 処理時例外
+     */
+    @Test
+    @DisplayName("課金状態の通知")
+    void testReceive() throws Exception {
+
+        CompletableFuture<Charge> future = startCharge();
+
+        mockMvc.perform(post(UnivapayWebhookController.PATH)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + TOKEN)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(webhookJson(chargeId)))
+                .andExpect(status().isOk());
+
+        assertEquals(ChargeStatus.AWAITING, future.get(timeout, TimeUnit.SECONDS).getStatus());
+        mockServer.verify(pollingRequest(), VerificationTimes.exactly(1));
+    }
+
+    /**
+     * {@link UnivapayWebhookController#receive(String, String)}のテスト<br>
+     * 通知の課金状態は使わず、取得し直した課金が未確定の場合は確認待ちを続ける
+     *
+     * @throws Exception 処理時例外
+     */
+    @Test
+    @DisplayName("課金状態の通知:取得し直した課金が未確定")
+    void testReceiveRefetchPending() throws Exception {
+
+        CompletableFuture<Charge> future = startCharge();
+        // 通知は確定(awaiting)でも、Univapayから取得した課金は未確定
+        mockServer.reset();
+        mockServer.when(pollingRequest())
+                .respond(response(chargeJson(UUID.randomUUID(), "pending"))
+                        .withStatusCode(HttpStatus.OK.value()));
+
+        mockMvc.perform(post(UnivapayWebhookController.PATH)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + TOKEN)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(webhookJson(chargeId)))
+                .andExpect(status().isOk());
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+        while (univapay.getChargePoller().getPollCount() == 0
+                || mockServer.retrieveRecordedRequests(pollingRequest()).length == 0) {
+            if (System.nanoTime() - deadline > 0) {
+                fail("課金を取得し直さない");
+            }
+            Thread.sleep(10);
+        }
+        // 取得結果の反映を待つ
+        Thread.sleep(100);
+
+        assertFalse(future.isDone());
+        assertEquals(1, univapay.getChargePoller().getPendingCount());
+    }
+
+    /**
+     * {@link UnivapayWebhookController#receive(String, String)}のテスト<br>
+     * 認証トークンが一致しない場合は401を返し、課金を確認しない
+     *
+     * @throws Exception 処理時例外
+     */
+    @Test
+    @DisplayName("課金状態の通知:認証エラー")
+    void testReceiveUnauthorized() throws Exception {
+
+        CompletableFuture<Charge> future = startCharge();
+
+        mockMvc.perform(post(UnivapayWebhookController.PATH)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer invalid-token")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(webhookJson(chargeId)))
+                .andExpect(status().isUnauthorized());
+
+        assertFalse(future.isDone());
+        mockServer.verify(pollingRequest(), VerificationTimes.never());
+    }
+
+    /**
+     * {@link UnivapayWebhookController#receive(String, String)}のテスト<br>
+     * 確認待ちでない課金の通知は、課金を確認せずに200を返す
+     *
+     * @throws Exception 処理時例外
+     */
+    @Test
+    @DisplayName("課金状態の通知:確認待ちでない課金")
+    void testReceiveUnknownCharge() throws Exception {
+
+        mockMvc.perform(post(UnivapayWebhookController.PATH)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + TOKEN)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(webhookJson(UUID.randomUUID())))
+                .andExpect(status().isOk());
+
+        mockServer.verify(request().withMethod("GET"), VerificationTimes.never());
+    }
+
+    /**
+     * {@link UnivapayWebhookController#receive(String, String)}のテスト<br>
+     * 通知内容が不正な場合は400を返す
+     *
+     * @throws Exception 処理時例外
+     */
+    @Test
+    @DisplayName("課金状態の通知:通知内容が不正")
+    void testReceiveInvalidBody() throws Exception {
+
+        mockMvc.perform(post(UnivapayWebhookController.PATH)
+                .header(HttpHeaders.AUTHORIZATION, TOKEN)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"event\": \"charge_finished\", \"data\": {\"id\": \"not-uuid\"}}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * 非同期の課金を開始し、課金状態の確認待ちになるまで待つ
+     *
+     * @return 課金結果
+     * @throws InterruptedException 待機中の割り込み
+     */
+    private CompletableFuture<Charge> startCharge() throws InterruptedException {
+
+        final UUID tokenId = UUID.randomUUID();
+        final String tokenJson = """
+                 {
+                  "id": "%s",
+                  "payment_type": "card",
+                  "mode": "test",
+                  "type": "one_time",
+                  "created_on": "2022-06-27T03:27:40.928378Z"
+                }
+                                """.formatted(tokenId.toString());
+
+        mockServer.when(request()
+                .withMethod("POST")
+                .withPath("/tokens"))
+                .respond(response(tokenJson)
+                        .withStatusCode(HttpStatus.OK.value()));
+        mockServer.when(request()
+                .withMethod("POST")
+                .withPath("/charges"))
+                .respond(response(chargeJson(tokenId, "pending"))
+                        .withStatusCode(HttpStatus.OK.value()));
+        mockServer.when(pollingRequest())
+                .respond(response(chargeJson(tokenId, "awaiting"))
+                        .withStatusCode(HttpStatus.OK.value()));
+
+        CompletableFuture<Charge> future = univapay.chargeAsync("open-id", BigDecimal.valueOf(100), "order-no");
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+        while (univapay.getChargePoller().getPendingCount() == 0) {
+            if (System.nanoTime() - deadline > 0) {
+                fail("課金状態の確認待ちにならない");
+            }
+            Thread.sleep(10);
+        }
+        return future;
+    }
+
+    /**
+     * 課金状態の確認のリクエスト
+     *
+     * @return path is /stores/{store_id}/charges/{charge_id}
+     */
+    private HttpRequest pollingRequest() {
+        return request()
+                .withMethod("GET")
+                .withPath("/stores/" + storeId + "/charges/" + chargeId);
+    }
+
+    /**
+     * 課金のレスポンス
+     *
+     * @param tokenId トランザクショントークンID
+     * @param status  課金状態
+     * @return 課金のレスポンス(json)
+     */
+    private String chargeJson(UUID tokenId, String status) {
+        return """
+                {
+                  "id": "%s",
+                  "store_id": "%s",
+                  "transaction_token_id": "%s",
+                  "requested_amount": 100,
+                  "requested_currency": "JPY",
+                  "requested_amount_formatted": 100,
+                  "status": "%s",
+                  "error": null,
+                  "mode": "test",
+                  "created_on": "2022-06-27T03:27:40.928378Z"
+                }
+                """.formatted(chargeId, storeId, tokenId, status);
+    }
+
+    /**
+     * webhookの通知内容
+     *
+     * @param id 課金ID
+     * @return 通知内容(json)
+     */
+    private String webhookJson(UUID id) {
+        return """
+                {
+                  "event": "charge_finished",
+                  "data": {
+                    "id": "%s",
+                    "store_id": "%s",
+                    "status": "awaiting"
+                  }
+                }
+                """.formatted(id, storeId);
+    }
+}
@@ -1,5 +1,6 @@
 package org.tantama.anchoco.springcrib.http;
 
+import java.io.UncheckedIOException;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
@@ -7,9 +8,19 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.mockserver.client.MockServerClient;
 import org.mockserver.integration.ClientAndServer;
+import org.mockserver.matchers.Times;
+import org.mockserver.verify.VerificationTimes;
 import org.springframework.http.HttpStatus;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.tantama.anchoco.springcrib.helper.JsonHelper;
+import org.tantama.anchoco.springcrib.resilience4j.BulkheadProperties;
+import org.tantama.anchoco.springcrib.resilience4j.CircuitBreakerProperties;
+import org.tantama.anchoco.springcrib.resilience4j.RateLimiterProperties;
+import org.tantama.anchoco.springcrib.resilience4j.ResilienceBulkhead;
+import org.tantama.anchoco.springcrib.resilience4j.ResilienceCircuitBreaker;
+import org.tantama.anchoco.springcrib.resilience4j.ResilienceRateLimiter;
+import org.tantama.anchoco.springcrib.resilience4j.ResilienceRetry;
+import org.tantama.anchoco.springcrib.resilience4j.RetryPolicyProperties;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -105,6 +116,138 @@ class HttpConnectionTest {
         assertEquals(response.getResultCode(), actualResponse.getResultCode());
     }
 
+    /**
+     * {@link HttpConnection#postJson(String, Object, Class)}のテスト<br>
+     * 流量制限などのレスポンスの場合、Retry-Afterの時間を待ってリトライする
+     */
+    @Test
+    @SuppressWarnings("resource")
+    @DisplayName("Retry-Afterに従ったリトライ")
+    void testPostJsonRetryAfter() {
+
+        ResilienceRetry retry = createRetry();
+        target = new HttpConnection(timeout, retry);
+        ReflectionTestUtils.setField(target, "readTimeout", timeout);
+
+        TestHttpResponseDto response = new TestHttpResponseDto();
+        response.setResultCode("01");
+
+        org.mockserver.model.HttpRequest request = org.mockserver.model.HttpRequest.request()
+                .withMethod("POST")
+                .withPath("/hogehoge");
+        MockServerClient client = new MockServerClient(MOCK_SERVER_HOST, MOCK_SWERVER_PORT);
+        // 1回目はメンテナンス中(1秒後に再送)、2回目は正常
+        client.when(request, Times.once())
+                .respond(org.mockserver.model.HttpResponse.response()
+                        .withStatusCode(HttpStatus.SERVICE_UNAVAILABLE.value())
+                        .withHeader("Retry-After", "1"));
+        client.when(request)
+                .respond(org.mockserver.model.HttpResponse.response(JsonHelper.toJson(response))
+                        .withStatusCode(HttpStatus.OK.value()));
+
+        final String url = "http://" + MOCK_SERVER_HOST + ":" + MOCK_SWERVER_PORT + "/hogehoge";
+        TestHttpResponseDto actualResponse = target.postJson(url, new TestHttpRequestDto(), TestHttpResponseDto.class);
+
+        assertEquals(response.getResultCode(), actualResponse.getResultCode());
+        mockServer.verify(request, VerificationTimes.exactly(2));
+        retry.destroy();
+    }
+
+    /**
+     * {@link HttpConnection#postJson(String, Object, Class)}のテスト<br>
+     * Retry-Afterがインターバルの上限より長い場合、拒否されることが確実なためリトライしない
+     */
+    @Test
+    @SuppressWarnings("resource")
+    @DisplayName("Retry-Afterが長い場合はリトライしない")
+    void testPostJsonRetryAfterTooLong() {
+
+        ResilienceRetry retry = createRetry();
+        target = new HttpConnection(timeout, retry);
+        ReflectionTestUtils.setField(target, "readTimeout", timeout);
+
+        org.mockserver.model.HttpRequest request = org.mockserver.model.HttpRequest.request()
+                .withMethod("POST")
+                .withPath("/hogehoge");
+        new MockServerClient(MOCK_SERVER_HOST, MOCK_SWERVER_PORT)
+                .when(request)
+                .respond(org.mockserver.model.HttpResponse.response("{}")
+                        .withStatusCode(HttpStatus.TOO_MANY_REQUESTS.value())
+                        .withHeader("Retry-After", "60"));
+
+        final String url = "http://" + MOCK_SERVER_HOST + ":" + MOCK_SWERVER_PORT + "/hogehoge";
+        assertNotNull(target.postJson(url, new TestHttpRequestDto(), TestHttpResponseDto.class));
+
+        mockServer.verify(request, VerificationTimes.exactly(1));
+        retry.destroy();
+    }
+
+    /**
+     * {@link HttpConnection#postJson(String, Object, Class)}のテスト<br>
+     * 冪等キーがない場合、Retry-Afterのない一時的なエラーは接続先で処理済みの可能性があるためリトライしない
+     */
+    @Test
+    @SuppressWarnings("resource")
+    @DisplayName("冪等キーのないpostはリトライしない")
+    void testPostJsonNoIdempotencyKey() {
+
+        ResilienceRetry retry = createRetry();
+        target = new HttpConnection(timeout, retry);
+        ReflectionTestUtils.setField(target, "readTimeout", timeout);
+
+        org.mockserver.model.HttpRequest request = org.mockserver.model.HttpRequest.request()
+                .withMethod("POST")
+                .withPath("/hogehoge");
+        new MockServerClient(MOCK_SERVER_HOST, MOCK_SWERVER_PORT)
+                .when(request)
+                .respond(org.mockserver.model.HttpResponse.response("{}")
+                        .withStatusCode(HttpStatus.BAD_GATEWAY.value()));
+
+        final String url = "http://" + MOCK_SERVER_HOST + ":" + MOCK_SWERVER_PORT + "/hogehoge";
+        assertNotNull(target.postJson(url, new TestHttpRequestDto(), TestHttpResponseDto.class));
+
+        mockServer.verify(request, VerificationTimes.exactly(1));
+        retry.destroy();
+    }
+
+    /**
+     * {@link HttpConnection#postJson(String, Object, Class, String)}のテスト<br>
+     * 冪等キーを指定した場合、ヘッダーで送信し、一時的なエラーのレスポンスでリトライする
+     */
+    @Test
+    @SuppressWarnings("resource")
+    @DisplayName("冪等キーを指定したpostのリトライ")
+    void testPostJsonIdempotencyKey() {
+
+        ResilienceRetry retry = createRetry();
+        target = new HttpConnection(timeout, retry);
+        ReflectionTestUtils.setField(target, "readTimeout", timeout);
+
+        TestHttpResponseDto response = new TestHttpResponseDto();
+        response.setResultCode("01");
+
+        org.mockserver.model.HttpRequest request = org.mockserver.model.HttpRequest.request()
+                .withMethod("POST")
+                .withPath("/hogehoge")
+                .withHeader(HttpConnection.IDEMPOTENCY_KEY, "order-1");
+        MockServerClient client = new MockServerClient(MOCK_SERVER_HOST, MOCK_SWERVER_PORT);
+        // 1回目は中継サーバーのエラー(Retry-Afterなし)、2回目は正常
+        client.when(request, Times.once())
+                .respond(org.mockserver.model.HttpResponse.response()
+                        .withStatusCode(HttpStatus.BAD_GATEWAY.value()));
+        client.when(request)
+                .respond(org.mockserver.model.HttpResponse.response(JsonHelper.toJson(response))
+                        .withStatusCode(HttpStatus.OK.value()));
+
+        final String url = "http://" + MOCK_SERVER_HOST + ":" + MOCK_SWERVER_PORT + "/hogehoge";
+        TestHttpResponseDto actualResponse = target.postJson(url, new TestHttpRequestDto(), TestHttpResponseDto.class,
+                "order-1");
+
+        assertEquals(response.getResultCode(), actualResponse.getResultCode());
+        mockServer.verify(request, VerificationTimes.exactly(2));
+        retry.destroy();
+    }
+
     /**
      * {@link HttpConnection#postJson(java.net.URI, Object, Class)}のテスト
      */
@@ -115,4 +258,37 @@ class HttpConnectionTest {
         fail("Not yet implemented");
     }
 
+    /**
+     * httpステータスでリトライする設定の作成<br>
+     * 3回まで実行、インターバルの上限は5秒。冪等キーのないpostはRetry-Afterを持つ429, 503のみリトライする
+     *
+     * @return リトライ処理
+     */
+    private static ResilienceRetry createRetry() {
+
+        RetryPolicyProperties.Policy policy = new RetryPolicyProperties.Policy();
+        policy.setMaxAttempts(3);
+        policy.setWaitDuration(1L);
+        policy.setMaxWaitDuration(5L);
+        policy.setResultPredicate(RetryableHttpStatus.class);
+
+        RetryPolicyProperties.Policy post = new RetryPolicyProperties.Policy();
+        post.setMaxAttempts(3);
+        post.setWaitDuration(1L);
+        post.setMaxWaitDuration(5L);
+        post.getRetryExceptions().add(UncheckedIOException.class);
+        post.setExceptionPredicate(ConnectFailure.class);
+        post.setResultPredicate(RetryAfterHttpStatus.class);
+
+        RetryPolicyProperties properties = new RetryPolicyProperties();
+        properties.getPolicies().put("http", policy);
+        properties.getPolicies().put("http-post", post);
+
+        ResilienceRetry retry = new ResilienceRetry(properties,
+                new ResilienceCircuitBreaker(new CircuitBreakerProperties()),
+                new ResilienceBulkhead(new BulkheadProperties()),
+                new ResilienceRateLimiter(new RateLimiterProperties()));
+        retry.init();
+        return retry;
+    }
 }
@@ -0,0 +1,182 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import com.kintone.client.model.record.Record;
+import com.kintone.client.model.record.RecordForUpdate;
+import com.kintone.client.model.record.SingleLineTextFieldValue;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.tantama.anchoco.springcrib.kintone.KintoneParallelReader.PartitionKey;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link Kintone}と関連部品の処理性能の計測<br>
+ * キントーンのスタブ({@link KintoneStubServer})に応答の遅延を設定し、読み込み/書き込みの件数/秒を出力する。
+ * 時間がかかるため通常のテストでは実行しない
+ *
+ * <pre>
+ * 実行方法 : mvn test -Dtest=KintoneBenchmarkTest -Dkintone.benchmark=true
+ * 設定     : -Dkintone.benchmark.records=件数(既定10000) -Dkintone.benchmark.latency-ms=応答の遅延(既定20)
+ * </pre>
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "kintone.benchmark", matches = "true")
+@DisplayName("キントーン操作の処理性能")
+class KintoneBenchmarkTest {
+
+    /** mock server のport */
+    private static final int MOCK_SERVER_PORT = 1082;
+
+    /** アプリID */
+    private static final long APP_ID = KintoneTest.APP_ID;
+
+    /** レコード数 */
+    private static final int RECORDS = Integer.getInteger("kintone.benchmark.records", 10_000);
+
+    /** 応答の遅延(ms) */
+    private static final long LATENCY_MS = Long.getLong("kintone.benchmark.latency-ms", 20);
+
+    /** 1件ずつ取得する件数 */
+    private static final int SINGLE_READS = 200;
+
+    /** キントーンのスタブ */
+    private static KintoneStubServer stub;
+
+    /** キントーン操作 */
+    private static Kintone kintone;
+
+    /** リクエストの実行制御 */
+    private static KintoneRequestScheduler scheduler;
+
+    /**
+     * テストクラス初期処理<br>
+     * スタブを起動してテストデータを作成する
+     */
+    @BeforeAll
+    public static void beforeClass() {
+        stub = new KintoneStubServer(MOCK_SERVER_PORT);
+        stub.defineApp(APP_ID, KintoneTest.FIELD_TYPES);
+        for (int i = 0; i < RECORDS; i++) {
+            stub.addRecord(APP_ID, Map.of("会社名", "会社" + i, "郵便番号", String.format("%03d-%04d", i % 1000, i)));
+        }
+        stub.setLatency(Duration.ofMillis(LATENCY_MS));
+
+        kintone = KintoneTest.create(stub);
+        scheduler = (KintoneRequestScheduler) ReflectionTestUtils.getField(kintone, "scheduler");
+        log.info("kintone benchmark : {} records, latency {} ms", RECORDS, LATENCY_MS);
+    }
+
+    /**
+     * テストクラス終了処理
+     */
+    @AfterAll
+    public static void afterClass() {
+        stub.close();
+    }
+
+    /**
+     * {@link Kintone#getRecord(long, long)}の計測<br>
+     * キャッシュ無し(初回)とキャッシュ有り(2回目、リビジョンの確認のみ)
+     */
+    @Test
+    @DisplayName("1件ずつの取得")
+    void benchmarkGetRecord() {
+
+        kintone.getRecordCache().invalidateAll();
+        measure("getRecord (miss)", SINGLE_READS, () -> LongStream.rangeClosed(1, SINGLE_READS)
+                .forEach(id -> kintone.getRecord(APP_ID, id)));
+        measure("getRecord (revalidate)", SINGLE_READS, () -> LongStream.rangeClosed(1, SINGLE_READS)
+                .forEach(id -> kintone.getRecord(APP_ID, id)));
+    }
+
+    /**
+     * {@link KintoneParallelReader#fetch(long, List, String, PartitionKey, boolean)}の計測
+     */
+    @Test
+    @DisplayName("並列取得")
+    void benchmarkParallelRead() {
+
+        KintoneParallelReader reader = new KintoneParallelReader(kintone, scheduler);
+        ReflectionTestUtils.setField(reader, "concurrency", 4);
+        ReflectionTestUtils.setField(reader, "partitions", 8);
+        ReflectionTestUtils.setField(reader, "bufferPages", 16);
+
+        List<String> fields = KintoneRecordMapper.of(KintonePojo.class).fieldCodes();
+        measure("parallel fetch (unordered)", RECORDS, () -> {
+            try (Stream<Record> records = reader.fetch(APP_ID, fields, "", PartitionKey.ID, false)) {
+                assertEquals(RECORDS, records.count());
+            }
+        });
+        measure("parallel fetch (ordered)", RECORDS, () -> {
+            try (Stream<Record> records = reader.fetch(APP_ID, fields, "", PartitionKey.ID, true)) {
+                assertEquals(RECORDS, records.count());
+            }
+        });
+    }
+
+    /**
+     * {@link KintoneBulkWriter#updateAll(long, List)}と{@link Kintone#updateRecords(List)}の計測
+     */
+    @Test
+    @DisplayName("一括更新")
+    void benchmarkWrite() {
+
+        KintoneBulkWriter writer = new KintoneBulkWriter(kintone, scheduler, 4);
+        try {
+            List<RecordForUpdate> updates = new ArrayList<>();
+            for (long id = 1; id <= RECORDS; id++) {
+                updates.add(new RecordForUpdate(id, new Record().putField("会社名", new SingleLineTextFieldValue("更新" + id))));
+            }
+            measure("bulk writer updateAll", RECORDS, () ->
+                    assertTrue(writer.updateAll(APP_ID, updates).stream().allMatch(KintoneBulkResult::isSuccess)));
+        } finally {
+            writer.destroy();
+        }
+
+        List<KintonePojo> dtos = new ArrayList<>();
+        for (int id = 1; id <= SINGLE_READS; id++) {
+            KintonePojo dto = new KintonePojo();
+            dto.setRecordId(id);
+            dto.setCompanyName("更新" + id);
+            dtos.add(dto);
+        }
+        measure("Kintone updateRecords", SINGLE_READS, () -> {
+            try {
+                kintone.updateRecords(dtos);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * 処理時間を計測して件数/秒を出力する
+     *
+     * @param name    計測名
+     * @param records 処理件数
+     * @param task    処理
+     */
+    private static void measure(String name, int records, Runnable task) {
+
+        final long requests = stub.requestCount();
+        final long start = System.nanoTime();
+        task.run();
+        final long elapsed = System.nanoTime() - start;
+
+        log.info("{} : {} records in {} ms ({} records/s, {} requests)", name, records, elapsed / 1_000_000,
+                String.format("%.1f", records * 1e9 / elapsed), stub.requestCount() - requests);
+    }
+}
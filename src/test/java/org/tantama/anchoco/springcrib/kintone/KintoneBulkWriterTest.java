@@ -0,0 +1,206 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import com.kintone.client.exception.KintoneApiRuntimeException;
+import com.kintone.client.model.record.Record;
+import com.kintone.client.model.record.RecordForUpdate;
+import com.kintone.client.model.record.SingleLineTextFieldValue;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link KintoneBulkWriter}のテストクラス
+ */
+@DisplayName("キントーン一括更新")
+class KintoneBulkWriterTest {
+
+    /** mock server のport */
+    private static final int MOCK_SERVER_PORT = 1084;
+
+    /** アプリID */
+    private static final long APP_ID = KintoneTest.APP_ID;
+
+    /**
+     * 更新件数<br>
+     * 更新21リクエスト + 追加2リクエストで、bulk requestが2回(20リクエスト、3リクエスト)になる件数
+     */
+    private static final int UPDATES = 2100;
+
+    /** 追加件数 */
+    private static final int ADDS = 150;
+
+    /** キントーンのスタブ */
+    private static KintoneStubServer stub;
+
+    /** テスト対象 */
+    private KintoneBulkWriter target;
+
+    /**
+     * テストクラス初期処理
+     */
+    @BeforeAll
+    public static void beforeClass() {
+        stub = new KintoneStubServer(MOCK_SERVER_PORT);
+    }
+
+    /**
+     * テストクラス終了処理
+     */
+    @AfterAll
+    public static void afterClass() {
+        stub.close();
+    }
+
+    /**
+     * テスト初期設定
+     */
+    @BeforeEach
+    public void beforeMethod() {
+        stub.reset();
+        stub.defineApp(APP_ID, KintoneTest.FIELD_TYPES);
+        for (int i = 1; i <= UPDATES; i++) {
+            stub.addRecord(APP_ID, Map.of("会社名", "会社" + i));
+        }
+        target = new KintoneBulkWriter(KintoneTest.create(stub), new KintoneRequestScheduler(10, 10_000, 0.1), 2);
+    }
+
+    /**
+     * テスト終了処理
+     */
+    @AfterEach
+    public void afterMethod() {
+        target.destroy();
+    }
+
+    /**
+     * {@link KintoneBulkWriter#writeAll(long, List, List)}のテスト<br>
+     * 結果は更新内容、追加内容の順に並び、レコードID、リビジョンが入力の位置に対応する
+     */
+    @Test
+    @DisplayName("一括更新と一括追加")
+    void testWriteAll() {
+
+        List<KintoneBulkResult> results = target.writeAll(APP_ID, updates(), adds());
+
+        assertAll("results", () -> {
+            assertEquals(UPDATES + ADDS, results.size(), "size");
+            assertEquals(2, stub.requestCount("POST", "bulkRequest.json"), "bulk requests");
+            for (int i = 0; i < results.size(); i++) {
+                KintoneBulkResult result = results.get(i);
+                assertEquals(i, result.getIndex(), "index");
+                assertTrue(result.isSuccess(), "success");
+                if (i < UPDATES) {
+                    assertEquals(i + 1L, result.getRecordId(), "updated id");
+                    assertEquals(2L, result.getRevision(), "updated revision");
+                    assertEquals("更新" + (i + 1), stub.getRecord(APP_ID, i + 1L).get("会社名"), "updated value");
+                } else {
+                    assertEquals(1L, result.getRevision(), "added revision");
+                    assertEquals("追加" + (i - UPDATES),
+                            stub.getRecord(APP_ID, result.getRecordId()).get("会社名"), "added value");
+                }
+            }
+        });
+    }
+
+    /**
+     * {@link KintoneBulkWriter#writeAll(long, List, List)}のテスト<br>
+     * 失敗したbulk requestに含まれるレコードのみ失敗になり、他のbulk requestの結果は成功のまま返却する
+     */
+    @Test
+    @DisplayName("一括更新と一括追加:bulk requestの失敗")
+    void testWriteAllFailedBulk() {
+
+        // 2回目のbulk request(更新21リクエスト目と追加2リクエスト)のみ失敗させる
+        stub.failWhen("POST", "bulkRequest.json", params -> params.path("requests").size() < 20, 500);
+
+        List<KintoneBulkResult> results = target.writeAll(APP_ID, updates(), adds());
+
+        assertAll("results", () -> {
+            assertEquals(UPDATES + ADDS, results.size(), "size");
+            assertEquals(UPDATES, stub.size(APP_ID), "not added");
+            for (int i = 0; i < results.size(); i++) {
+                KintoneBulkResult result = results.get(i);
+                assertEquals(i, result.getIndex(), "index");
+                if (i < 2000) {
+                    assertTrue(result.isSuccess(), "success " + i);
+                    continue;
+                }
+                assertFalse(result.isSuccess(), "failure " + i);
+                assertInstanceOf(KintoneApiRuntimeException.class, result.getError(), "error");
+                assertNull(result.getRevision(), "revision");
+                if (i < UPDATES) {
+                    assertEquals(i + 1L, result.getRecordId(), "failed update id");
+                    assertEquals("会社" + (i + 1), stub.getRecord(APP_ID, i + 1L).get("会社名"), "not updated");
+                } else {
+                    assertNull(result.getRecordId(), "failed add id");
+                }
+            }
+        });
+    }
+
+    /**
+     * {@link KintoneBulkWriter#chunk(List, int)}のテスト<br>
+     * 指定件数ごとに分割され、端数は最後にまとめられる
+     */
+    @Test
+    @DisplayName("リストの分割")
+    void testChunk() {
+
+        List<Integer> list = IntStream.range(0, 250).boxed().toList();
+
+        List<List<Integer>> chunks = KintoneBulkWriter.chunk(list, KintoneBulkWriter.MAX_RECORDS_PER_REQUEST);
+
+        assertAll("chunk", () -> {
+            assertEquals(3, chunks.size(), "chunk count");
+            assertEquals(100, chunks.get(0).size(), "first");
+            assertEquals(100, chunks.get(1).size(), "second");
+            assertEquals(50, chunks.get(2).size(), "last");
+            assertEquals(200, chunks.get(2).get(0), "last head");
+        });
+    }
+
+    /**
+     * {@link KintoneBulkWriter#chunk(List, int)}のテスト<br>
+     * 空のリストは分割されない
+     */
+    @Test
+    @DisplayName("リストの分割:空")
+    void testChunkEmpty() {
+        assertTrue(KintoneBulkWriter.chunk(List.of(), KintoneBulkWriter.MAX_RECORDS_PER_REQUEST).isEmpty());
+    }
+
+    /**
+     * 更新内容の作成
+     *
+     * @return レコードID 1から{@link #UPDATES}までの更新内容
+     */
+    private static List<RecordForUpdate> updates() {
+        return IntStream.rangeClosed(1, UPDATES)
+                .mapToObj(id -> new RecordForUpdate((long) id,
+                        new Record().putField("会社名", new SingleLineTextFieldValue("更新" + id))))
+                .toList();
+    }
+
+    /**
+     * 追加内容の作成
+     *
+     * @return {@link #ADDS}件の追加内容
+     */
+    private static List<Record> adds() {
+        return IntStream.range(0, ADDS)
+                .mapToObj(i -> new Record().putField("会社名", new SingleLineTextFieldValue("追加" + i)))
+                .toList();
+    }
+}
@@ -0,0 +1,161 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import com.kintone.client.exception.KintoneApiRuntimeException;
+import com.kintone.client.model.record.Record;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * {@link KintoneDeltaSync}のテストクラス
+ */
+@DisplayName("キントーンの差分同期")
+class KintoneDeltaSyncTest {
+
+    /** mock server のport */
+    private static final int MOCK_SERVER_PORT = 1085;
+
+    /** アプリID */
+    private static final long APP_ID = KintoneTest.APP_ID;
+
+    /** テストデータの更新日時の基準 */
+    private static final Instant BASE = Instant.parse("2022-06-27T00:00:00Z");
+
+    /** 取得フィールド */
+    private static final List<String> FIELDS = List.of("会社名");
+
+    /** キントーンのスタブ */
+    private static KintoneStubServer stub;
+
+    /** 取得済み位置の保存先ディレクトリ */
+    @TempDir
+    Path directory;
+
+    /** キントーン操作 */
+    private Kintone kintone;
+
+    /**
+     * テストクラス初期処理
+     */
+    @BeforeAll
+    public static void beforeClass() {
+        stub = new KintoneStubServer(MOCK_SERVER_PORT);
+    }
+
+    /**
+     * テストクラス終了処理
+     */
+    @AfterAll
+    public static void afterClass() {
+        stub.close();
+    }
+
+    /**
+     * テスト初期設定
+     */
+    @BeforeEach
+    public void beforeMethod() {
+        stub.reset();
+        stub.defineApp(APP_ID, KintoneTest.FIELD_TYPES);
+        kintone = KintoneTest.create(stub);
+    }
+
+    /**
+     * {@link KintoneDeltaSync#sync(long, List, java.util.function.Consumer)}のテスト<br>
+     * 取得済み位置を最後に受け渡したレコードの更新日時まで進め、再起動後はその位置から再開する
+     * (同時刻のレコードは再取得する)
+     */
+    @Test
+    @DisplayName("差分同期と再開")
+    void testSync() {
+
+        for (int i = 0; i < 3; i++) {
+            addRecord(i);
+        }
+
+        List<Record> first = new ArrayList<>();
+        assertEquals(3, create().sync(APP_ID, FIELDS, first::add), "first");
+        assertEquals(Optional.of(BASE.plusSeconds(120)), new KintoneWatermarkStore(directory).load(APP_ID),
+                "watermark");
+
+        addRecord(3);
+
+        // 再起動後
+        List<Record> second = new ArrayList<>();
+        final long count = create().sync(APP_ID, FIELDS, second::add);
+        assertAll("resumed", () -> {
+            assertEquals(2, count, "count");
+            assertEquals(List.of(3L, 4L), second.stream().map(Record::getId).toList(), "records");
+            assertEquals(Optional.of(BASE.plusSeconds(180)), new KintoneWatermarkStore(directory).load(APP_ID),
+                    "watermark");
+        });
+    }
+
+    /**
+     * {@link KintoneDeltaSync#sync(long, List, java.util.function.Consumer)}のテスト<br>
+     * 途中のページで失敗した場合、取得済み位置は受け渡し済みのページの末尾に残り、次の同期はそこから再開する
+     */
+    @Test
+    @DisplayName("差分同期:途中で失敗")
+    void testSyncFailure() {
+
+        // カーソルの1回の取得件数(500)で3ページになる件数
+        final int records = 1200;
+        for (int i = 0; i < records; i++) {
+            addRecord(i);
+        }
+        AtomicInteger pages = new AtomicInteger();
+        stub.failWhen("GET", "records/cursor.json", params -> pages.incrementAndGet() == 2, 500);
+
+        List<Record> first = new ArrayList<>();
+        assertThrows(KintoneApiRuntimeException.class, () -> create().sync(APP_ID, FIELDS, first::add));
+        assertAll("failed", () -> {
+            assertEquals(500, first.size(), "first page");
+            assertEquals(Optional.of(BASE.plusSeconds(499 * 60L)), new KintoneWatermarkStore(directory).load(APP_ID),
+                    "watermark");
+        });
+
+        List<Record> resumed = new ArrayList<>();
+        create().sync(APP_ID, FIELDS, resumed::add);
+        assertAll("resumed", () -> {
+            assertEquals(records - 499, resumed.size(), "count");
+            assertEquals(500L, resumed.get(0).getId(), "first record");
+            assertEquals(Optional.of(BASE.plusSeconds((records - 1) * 60L)),
+                    new KintoneWatermarkStore(directory).load(APP_ID), "watermark");
+        });
+    }
+
+    /**
+     * テスト対象の作成<br>
+     * 取得済み位置は保存先ディレクトリから読み込む(再起動と同じ状態)
+     *
+     * @return テスト対象
+     */
+    private KintoneDeltaSync create() {
+        return new KintoneDeltaSync(kintone, new KintoneWatermarkStore(directory),
+                new KintoneRequestScheduler(10, 10_000, 0.1));
+    }
+
+    /**
+     * テストデータのレコードの追加<br>
+     * 更新日時は1件ごとに1分ずつ進める
+     *
+     * @param index 追加する順番(0から)
+     */
+    private static void addRecord(int index) {
+        stub.addRecord(APP_ID, Map.of("会社名", "会社" + index, "更新日時", BASE.plusSeconds(index * 60L).toString()));
+    }
+}
@@ -0,0 +1,119 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.tantama.anchoco.springcrib.kintone.KintoneExporter.Format;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * {@link KintoneExporter}のテストクラス
+ */
+@DisplayName("キントーンのアプリのファイル出力")
+class KintoneExporterTest {
+
+    /** 出力先ディレクトリ */
+    @TempDir
+    Path directory;
+
+    /** レコードとDtoの変換 */
+    private static final KintoneRecordMapper<KintonePojo> MAPPER = KintoneRecordMapper.of(KintonePojo.class);
+
+    /**
+     * {@link KintoneExporter#write(Stream, KintoneRecordMapper, Path, Format, boolean, java.util.function.LongConsumer)}のテスト<br>
+     * 1行1レコードのjsonで出力する
+     */
+    @Test
+    @DisplayName("NDJSONの出力")
+    void testWriteNdjson() throws IOException {
+
+        Path file = directory.resolve("app-46.ndjson");
+        List<Long> progress = new ArrayList<>();
+        final long count = KintoneExporter.write(testData(), MAPPER, file, Format.NDJSON, false, progress::add);
+
+        assertAll("ndjson", () -> {
+            assertEquals(2, count, "count");
+            assertEquals(List.of(2L), progress, "progress");
+            assertEquals(List.of(
+                    "{\"レコード番号\":3,\"会社名\":\"ほげ,\\\"株\\\"\",\"郵便番号\":\"100-0001\",\"更新日時\":\"2022-06-27T03:27:40Z\"}",
+                    "{\"レコード番号\":1,\"会社名\":\"ふが\",\"郵便番号\":null,\"更新日時\":null}"),
+                    Files.readAllLines(file, StandardCharsets.UTF_8), "lines");
+            assertEquals(List.of("app-46.ndjson"), fileNames(), "temporary file is removed");
+        });
+    }
+
+    /**
+     * {@link KintoneExporter#write(Stream, KintoneRecordMapper, Path, Format, boolean, java.util.function.LongConsumer)}のテスト<br>
+     * 先頭行をフィールドコードとしたcsvをgzip圧縮して出力する
+     */
+    @Test
+    @DisplayName("CSVのgzip出力")
+    void testWriteCsvGzip() throws IOException {
+
+        Path file = directory.resolve("app-46.csv.gz");
+        KintoneExporter.write(testData(), MAPPER, file, Format.CSV, true, count -> { });
+
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            assertEquals("レコード番号,会社名,郵便番号,更新日時\r\n"
+                    + "3,\"ほげ,\"\"株\"\"\",100-0001,2022-06-27T03:27:40Z\r\n"
+                    + "1,ふが,,\r\n", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * {@link KintoneExporter#escapeCsv(String)}のテスト<br>
+     * カンマ、ダブルクォート、改行を含む場合のみダブルクォートで囲む
+     */
+    @Test
+    @DisplayName("CSVのエスケープ")
+    void testEscapeCsv() {
+        assertAll("escape", () -> {
+            assertEquals("hoge", KintoneExporter.escapeCsv("hoge"));
+            assertEquals("\"ho,ge\"", KintoneExporter.escapeCsv("ho,ge"));
+            assertEquals("\"ho\"\"ge\"", KintoneExporter.escapeCsv("ho\"ge"));
+            assertEquals("\"ho\r\nge\"", KintoneExporter.escapeCsv("ho\r\nge"));
+        });
+    }
+
+    /**
+     * テストデータの作成
+     *
+     * @return テストデータ
+     */
+    private static Stream<KintonePojo> testData() {
+
+        KintonePojo first = new KintonePojo();
+        first.setRecordId(3);
+        first.setCompanyName("ほげ,\"株\"");
+        first.setZipCode("100-0001");
+        first.setUpdateDatetime(ZonedDateTime.parse("2022-06-27T03:27:40Z"));
+
+        KintonePojo second = new KintonePojo();
+        second.setRecordId(1);
+        second.setCompanyName("ふが");
+        return Stream.of(first, second);
+    }
+
+    /**
+     * 出力先ディレクトリのファイル名
+     *
+     * @return ファイル名
+     * @throws IOException 読み込みに失敗した場合
+     */
+    private List<String> fileNames() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString()).toList();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * {@link KintoneMeterBinder}のテストクラス
+ */
+@DisplayName("キントーン操作のメトリクスの登録")
+class KintoneMeterBinderTest {
+
+    /** レコードキャッシュ */
+    private KintoneRecordCache cache;
+
+    /** リクエストの実行制御 */
+    private KintoneRequestScheduler scheduler;
+
+    /** 登録先 */
+    private MeterRegistry registry;
+
+    /**
+     * 初期処理
+     */
+    @BeforeEach
+    public void init() {
+        cache = Mockito.mock(KintoneRecordCache.class);
+        Kintone kintone = Mockito.mock(Kintone.class);
+        Mockito.when(kintone.getRecordCache()).thenReturn(cache);
+
+        scheduler = new KintoneRequestScheduler(10, 100, 0);
+        scheduler.execute(46, KintoneRequestScheduler.Priority.INTERACTIVE, () -> null);
+
+        registry = new SimpleMeterRegistry();
+        new KintoneMeterBinder(kintone, scheduler).bindTo(registry);
+    }
+
+    /**
+     * {@link KintoneMeterBinder#bindTo(MeterRegistry)}のテスト<br>
+     * 登録したメトリクスから、参照時のレコードキャッシュの集計を取得できる
+     */
+    @Test
+    @DisplayName("レコードキャッシュの集計の登録")
+    void testBindCache() {
+
+        Mockito.when(cache.getHitCount()).thenReturn(7L);
+        Mockito.when(cache.getRevalidatedCount()).thenReturn(2L);
+        Mockito.when(cache.getMissCount()).thenReturn(3L);
+        Mockito.when(cache.getEvictionCount()).thenReturn(1L);
+        Mockito.when(cache.size()).thenReturn(5);
+
+        assertAll("cache", () -> {
+            assertEquals(7, gets("hit"), "hit");
+            assertEquals(2, gets("revalidated"), "revalidated");
+            assertEquals(3, gets("miss"), "miss");
+            assertEquals(1, registry.get("kintone.cache.evictions").functionCounter().count(), "evictions");
+            assertEquals(5, registry.get("kintone.cache.size").gauge().value(), "size");
+        });
+    }
+
+    /**
+     * {@link KintoneMeterBinder#bindTo(MeterRegistry)}のテスト<br>
+     * 実行枠の空き待ちと、アプリ単位の残りリクエスト数を取得できる。登録後に初めてリクエストしたアプリも登録される
+     */
+    @Test
+    @DisplayName("リクエストの実行制御の集計の登録")
+    void testBindScheduler() {
+
+        scheduler.execute(46, KintoneRequestScheduler.Priority.INTERACTIVE, () -> null);
+        scheduler.execute(47, KintoneRequestScheduler.Priority.BATCH, () -> null);
+
+        assertAll("scheduler", () -> {
+            assertEquals(3, registry.get("kintone.scheduler.wait").functionTimer().count(), "acquired");
+            assertEquals(0, registry.get("kintone.scheduler.rejected").functionCounter().count(), "rejected");
+            assertEquals(98, remaining(46), "registered before bind");
+            assertEquals(99, remaining(47), "registered after bind");
+        });
+    }
+
+    /**
+     * アプリの残りリクエスト数
+     *
+     * @param appId アプリID
+     * @return 残りリクエスト数
+     */
+    private double remaining(long appId) {
+        return registry.get("kintone.scheduler.quota.remaining").tag("app", String.valueOf(appId)).gauge().value();
+    }
+
+    /**
+     * レコードキャッシュの取得結果ごとの累計値
+     *
+     * @param result 取得結果
+     * @return 累計値
+     */
+    private double gets(String result) {
+        return registry.get("kintone.cache.gets").tag("result", result).functionCounter().count();
+    }
+}
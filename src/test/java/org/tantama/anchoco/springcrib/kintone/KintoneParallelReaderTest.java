@@ -0,0 +1,217 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import com.kintone.client.exception.KintoneApiRuntimeException;
+import com.kintone.client.model.record.Record;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.tantama.anchoco.springcrib.kintone.KintoneParallelReader.PartitionKey;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link KintoneParallelReader}のテストクラス
+ */
+@DisplayName("キントーン並列取得")
+class KintoneParallelReaderTest {
+
+    /** mock server のport */
+    private static final int MOCK_SERVER_PORT = 1083;
+
+    /** アプリID */
+    private static final long APP_ID = KintoneTest.APP_ID;
+
+    /** レコード数 */
+    private static final int RECORDS = 4000;
+
+    /** 取得フィールド */
+    private static final List<String> FIELDS = List.of("会社名");
+
+    /** 取得スレッド名の接頭辞 */
+    private static final String THREAD_PREFIX = "kintone-parallel-reader-";
+
+    /** キントーンのスタブ */
+    private static KintoneStubServer stub;
+
+    /** テスト対象 */
+    private KintoneParallelReader target;
+
+    /**
+     * テストクラス初期処理
+     */
+    @BeforeAll
+    public static void beforeClass() {
+        stub = new KintoneStubServer(MOCK_SERVER_PORT);
+    }
+
+    /**
+     * テストクラス終了処理
+     */
+    @AfterAll
+    public static void afterClass() {
+        stub.close();
+    }
+
+    /**
+     * テスト初期設定<br>
+     * 4分割(1分割1000件、500件ずつ2ページ)を2スレッドで取得する。読み出し待ちのページは分割ごとに1ページ
+     */
+    @BeforeEach
+    public void beforeMethod() {
+        stub.reset();
+        stub.defineApp(APP_ID, KintoneTest.FIELD_TYPES);
+        for (int i = 1; i <= RECORDS; i++) {
+            stub.addRecord(APP_ID, Map.of("会社名", "会社" + i));
+        }
+
+        target = new KintoneParallelReader(KintoneTest.create(stub), new KintoneRequestScheduler(10, 10_000, 0.1));
+        ReflectionTestUtils.setField(target, "concurrency", 2);
+        ReflectionTestUtils.setField(target, "partitions", 4);
+        ReflectionTestUtils.setField(target, "bufferPages", 4);
+    }
+
+    /**
+     * {@link KintoneParallelReader#fetch(long, List, String, PartitionKey, boolean)}のテスト<br>
+     * 順序を保証する場合、全件をキーの昇順に返却する
+     */
+    @Test
+    @DisplayName("並列取得:順序を保証する")
+    void testFetchOrdered() {
+
+        try (Stream<Record> records = target.fetch(APP_ID, FIELDS, "", PartitionKey.ID, true)) {
+            List<Long> ids = records.map(Record::getId).toList();
+
+            assertAll("ordered", () -> {
+                assertEquals(RECORDS, ids.size(), "count");
+                for (int i = 0; i < ids.size(); i++) {
+                    assertEquals(i + 1L, ids.get(i), "order");
+                }
+            });
+        }
+    }
+
+    /**
+     * {@link KintoneParallelReader#fetch(long, List, String, PartitionKey, boolean)}のテスト<br>
+     * 順序を保証しない場合も、全件を重複なく返却する。絞り込み条件は分割ごとの取得に引き継ぐ
+     */
+    @Test
+    @DisplayName("並列取得:順序を保証しない")
+    void testFetchUnordered() {
+
+        try (Stream<Record> records = target.fetch(APP_ID, FIELDS, "", PartitionKey.ID, false)) {
+            Set<Long> ids = records.map(Record::getId).collect(Collectors.toSet());
+            assertEquals(RECORDS, ids.size());
+        }
+        try (Stream<Record> records = target.fetch(APP_ID, FIELDS, "$id <= 1500", PartitionKey.ID, false)) {
+            assertEquals(1500, records.count(), "condition");
+        }
+    }
+
+    /**
+     * {@link KintoneParallelReader#fetch(long, List, String, PartitionKey, boolean)}のテスト<br>
+     * 読み出し途中でcloseした場合、取得を中断して取得スレッドを終了する
+     *
+     * @throws InterruptedException 割り込み時
+     */
+    @Test
+    @DisplayName("並列取得:途中でclose")
+    void testFetchEarlyClose() throws InterruptedException {
+
+        try (Stream<Record> records = target.fetch(APP_ID, FIELDS, "", PartitionKey.ID, true)) {
+            Iterator<Record> iterator = records.iterator();
+            for (int i = 1; i <= 10; i++) {
+                assertEquals(i, iterator.next().getId());
+            }
+        }
+
+        // 後続の分割は読み出し待ちで止まるため、全ページは取得しない
+        // (全件の取得は、最小値/最大値の2回 + 4分割 x (2ページ + 終端の確認))
+        final long requested = stub.requestCount("GET", "records.json");
+        for (int i = 0; i < 50 && readerThreadAlive(); i++) {
+            Thread.sleep(100);
+        }
+        assertAll("closed",
+            () -> assertTrue(!readerThreadAlive(), "thread"),
+            () -> assertTrue(requested < 2 + 4 * 3, "requests : " + requested));
+    }
+
+    /**
+     * {@link KintoneParallelReader#fetch(long, List, String, PartitionKey, boolean)}のテスト<br>
+     * 取得に失敗した分割がある場合、その分割の読み出し時にエラーを投げる
+     */
+    @Test
+    @DisplayName("並列取得:分割の取得失敗")
+    void testFetchFailedPartition() {
+
+        // 3番目の分割($id 2001~3000)のみ失敗させる
+        stub.failWhen("GET", "records.json", params -> params.path("query").asText().contains("<= 3000"), 500);
+
+        try (Stream<Record> records = target.fetch(APP_ID, FIELDS, "", PartitionKey.ID, true)) {
+            Iterator<Record> iterator = records.iterator();
+            for (int i = 1; i <= 2000; i++) {
+                assertEquals(i, iterator.next().getId());
+            }
+            assertThrows(KintoneApiRuntimeException.class, iterator::hasNext);
+        }
+        try (Stream<Record> records = target.fetch(APP_ID, FIELDS, "", PartitionKey.ID, false)) {
+            assertThrows(KintoneApiRuntimeException.class, records::count, "unordered");
+        }
+    }
+
+    /**
+     * {@link KintoneParallelReader#split(long, long, int)}のテスト<br>
+     * 範囲は重複も欠落もなく、昇順に分割される
+     */
+    @Test
+    @DisplayName("範囲の分割")
+    void testSplit() {
+
+        List<long[]> ranges = KintoneParallelReader.split(1, 10, 3);
+
+        assertAll("split", () -> {
+            assertEquals(3, ranges.size(), "partition count");
+            assertArrayEquals(new long[] {1, 4 }, ranges.get(0), "first");
+            assertArrayEquals(new long[] {5, 8 }, ranges.get(1), "second");
+            assertArrayEquals(new long[] {9, 10 }, ranges.get(2), "last");
+        });
+    }
+
+    /**
+     * {@link KintoneParallelReader#split(long, long, int)}のテスト<br>
+     * 範囲の件数が分割数より少ない場合、件数分に分割される
+     */
+    @Test
+    @DisplayName("範囲の分割:分割数より件数が少ない")
+    void testSplitSmallRange() {
+
+        List<long[]> ranges = KintoneParallelReader.split(5, 6, 8);
+
+        assertAll("split", () -> {
+            assertEquals(2, ranges.size(), "partition count");
+            assertArrayEquals(new long[] {5, 5 }, ranges.get(0), "first");
+            assertArrayEquals(new long[] {6, 6 }, ranges.get(1), "last");
+        });
+    }
+
+    /**
+     * 取得スレッドが残っているか
+     *
+     * @return 残っている場合true
+     */
+    private static boolean readerThreadAlive() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(thread -> thread.getName().startsWith(THREAD_PREFIX));
+    }
+}
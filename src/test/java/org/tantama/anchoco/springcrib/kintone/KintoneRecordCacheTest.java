@@ -0,0 +1,128 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import com.kintone.client.model.record.Record;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * {@link KintoneRecordCache}のテストクラス
+ */
+@DisplayName("キントーンのレコードキャッシュ")
+class KintoneRecordCacheTest {
+
+    /** テスト対象 */
+    private KintoneRecordCache target;
+
+    /** 現在時刻(ns) */
+    private final AtomicLong now = new AtomicLong();
+
+    /** レコード全体の取得回数 */
+    private final AtomicInteger loadCount = new AtomicInteger();
+
+    /** キントーン上のリビジョン */
+    private final AtomicLong revision = new AtomicLong(1);
+
+    /** 有効期間 */
+    private static final Duration TTL = Duration.ofSeconds(60);
+
+    /**
+     * 初期処理
+     */
+    @BeforeEach
+    public void init() {
+        target = new KintoneRecordCache(2, TTL, (appId, recordId) -> {
+            loadCount.incrementAndGet();
+            Record record = Mockito.mock(Record.class);
+            Mockito.when(record.getRevision()).thenReturn(revision.get());
+            return record;
+        }, (appId, recordId) -> revision.get(), now::get);
+    }
+
+    /**
+     * {@link KintoneRecordCache#get(long, long)}のテスト<br>
+     * 有効期間内は再取得しない
+     */
+    @Test
+    @DisplayName("有効期間内のヒット")
+    void testGetHit() {
+
+        Record first = target.get(46, 1);
+        Record second = target.get(46, 1);
+
+        assertAll("hit", () -> {
+            assertEquals(first, second, "same record");
+            assertEquals(1, loadCount.get(), "load count");
+            assertEquals(1, target.getHitCount(), "hit");
+            assertEquals(1, target.getMissCount(), "miss");
+        });
+    }
+
+    /**
+     * {@link KintoneRecordCache#get(long, long)}のテスト<br>
+     * 有効期間切れでもリビジョンが同じであれば再取得しない。変わっていれば再取得する
+     */
+    @Test
+    @DisplayName("有効期間切れの再検証")
+    void testGetRevalidate() {
+
+        target.get(46, 1);
+        now.addAndGet(TTL.toNanos());
+        target.get(46, 1);
+
+        assertAll("revalidated", () -> {
+            assertEquals(1, loadCount.get(), "load count");
+            assertEquals(1, target.getRevalidatedCount(), "revalidated");
+        });
+
+        revision.incrementAndGet();
+        now.addAndGet(TTL.toNanos());
+        target.get(46, 1);
+
+        assertEquals(2, loadCount.get(), "reload when revision changed");
+    }
+
+    /**
+     * {@link KintoneRecordCache#invalidate(long, long)}のテスト<br>
+     * 無効化したレコードは再取得する
+     */
+    @Test
+    @DisplayName("無効化")
+    void testInvalidate() {
+
+        target.get(46, 1);
+        target.invalidate(46, 1);
+        target.get(46, 1);
+
+        assertEquals(2, loadCount.get());
+    }
+
+    /**
+     * {@link KintoneRecordCache#get(long, long)}のテスト<br>
+     * 件数上限を超えた場合、最も参照されていないレコードを追い出す
+     */
+    @Test
+    @DisplayName("件数上限")
+    void testEviction() {
+
+        target.get(46, 1);
+        target.get(46, 2);
+        // 1を参照し、2を最も古くする
+        target.get(46, 1);
+        target.get(46, 3);
+
+        assertAll("eviction", () -> {
+            assertEquals(2, target.size(), "size");
+            assertEquals(1, target.getEvictionCount(), "eviction");
+        });
+
+        target.get(46, 1);
+        assertEquals(3, loadCount.get(), "record 1 is still cached");
+    }
+}
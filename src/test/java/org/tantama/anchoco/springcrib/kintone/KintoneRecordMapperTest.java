@@ -0,0 +1,104 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import com.kintone.client.model.record.FieldType;
+import com.kintone.client.model.record.Record;
+import com.kintone.client.model.record.RecordNumberFieldValue;
+import com.kintone.client.model.record.SingleLineTextFieldValue;
+import com.kintone.client.model.record.UpdatedTimeFieldValue;
+import java.time.ZonedDateTime;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * {@link KintoneRecordMapper}のテストクラス
+ */
+@DisplayName("キントーンのレコードとDtoの変換")
+class KintoneRecordMapperTest {
+
+    /** テスト対象 */
+    private final KintoneRecordMapper<KintonePojo> target = KintoneRecordMapper.of(KintonePojo.class);
+
+    /**
+     * {@link KintoneRecordMapper#fieldCodes()}のテスト<br>
+     * Dtoのフィールドの定義順になる
+     */
+    @Test
+    @DisplayName("取得フィールド")
+    void testFieldCodes() {
+        assertEquals(List.of("レコード番号", "会社名", "郵便番号", "更新日時"), target.fieldCodes());
+    }
+
+    /**
+     * {@link KintoneRecordMapper#toDto(Record)}のテスト<br>
+     * フィールドコードに対応するDtoのフィールドに設定される
+     */
+    @Test
+    @DisplayName("Dtoへの変換")
+    void testToDto() {
+
+        final ZonedDateTime updated = ZonedDateTime.parse("2022-06-27T03:27:40Z");
+        Record record = new Record()
+                .putField("レコード番号", new RecordNumberFieldValue("32"))
+                .putField("会社名", new SingleLineTextFieldValue("会社"))
+                .putField("郵便番号", new SingleLineTextFieldValue("100-0001"))
+                .putField("更新日時", new UpdatedTimeFieldValue(updated));
+
+        KintonePojo dto = target.toDto(record);
+
+        assertAll("dto", () -> {
+            assertEquals(32, dto.getRecordId(), "record id");
+            assertEquals("会社", dto.getCompanyName(), "company name");
+            assertEquals("100-0001", dto.getZipCode(), "zip code");
+            assertEquals(updated, dto.getUpdateDatetime(), "update datetime");
+        });
+    }
+
+    /**
+     * {@link KintoneRecordMapper#toRecord(Object)}のテスト<br>
+     * キントーン側で自動設定されるフィールドは含まれない
+     */
+    @Test
+    @DisplayName("更新用レコードへの変換")
+    void testToRecord() {
+
+        KintonePojo dto = new KintonePojo();
+        dto.setRecordId(32);
+        dto.setCompanyName("会社");
+        dto.setZipCode("100-0001");
+        dto.setUpdateDatetime(ZonedDateTime.now());
+
+        Record record = target.toRecord(dto);
+
+        assertAll("record", () -> {
+            assertEquals(2, record.getFieldCodes(true).size(), "field count");
+            assertEquals("会社", record.getSingleLineTextFieldValue("会社名"), "company name");
+            assertEquals("100-0001", record.getSingleLineTextFieldValue("郵便番号"), "zip code");
+            assertNull(record.getFieldValue("更新日時"), "update datetime");
+        });
+    }
+
+    /**
+     * {@link KintoneRecordMapper#of(Class)}のテスト<br>
+     * フィールド形式とDtoの型が合わない場合はエラーになる
+     */
+    @Test
+    @DisplayName("フィールド形式とDtoの型の不一致")
+    void testOfInvalidType() {
+        assertThrows(IllegalStateException.class, () -> KintoneRecordMapper.of(InvalidPojo.class));
+    }
+
+    /**
+     * フィールド形式とDtoの型が合わないDto
+     */
+    static class InvalidPojo {
+
+        /** 更新日時を文字列で受け取ろうとする */
+        @KintoneField(code = "更新日時", type = FieldType.UPDATED_TIME)
+        private String updateDatetime;
+    }
+}
@@ -0,0 +1,123 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.tantama.anchoco.springcrib.kintone.KintoneRequestScheduler.Priority;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * {@link KintoneRequestScheduler}のテストクラス
+ */
+@DisplayName("キントーンへのリクエストの実行制御")
+class KintoneRequestSchedulerTest {
+
+    /** テスト対象 */
+    private KintoneRequestScheduler target;
+
+    /** 現在時刻(ns) */
+    private final AtomicLong now = new AtomicLong();
+
+    /** 現在日時(epoch ms)。日本時間の2022-06-27 23:00 */
+    private final AtomicLong currentTimeMillis = new AtomicLong(
+            Instant.parse("2022-06-27T14:00:00Z").toEpochMilli());
+
+    /** 1日あたりのリクエスト数の上限 */
+    private static final long DAILY_LIMIT = 10;
+
+    /**
+     * 初期処理
+     */
+    @BeforeEach
+    public void init() {
+        // 1日あたり10リクエスト、うち2リクエストを対話的なリクエストのために残す
+        target = new KintoneRequestScheduler(2, DAILY_LIMIT, 0.2, now::get, currentTimeMillis::get);
+    }
+
+    /**
+     * {@link KintoneRequestScheduler#execute(long, Priority, java.util.function.Supplier)}のテスト<br>
+     * リクエストを実行し、残りリクエスト数を消費する
+     */
+    @Test
+    @DisplayName("リクエストの実行")
+    void testExecute() {
+
+        assertAll("execute", () -> {
+            assertEquals("hoge", target.execute(46, Priority.INTERACTIVE, () -> "hoge"), "result");
+            assertEquals(DAILY_LIMIT - 1, target.getRemainingQuota(46), "remaining");
+            assertEquals(DAILY_LIMIT, target.getRemainingQuota(47), "other app");
+            assertEquals(0, target.getRunning(), "running");
+        });
+    }
+
+    /**
+     * {@link KintoneRequestScheduler#execute(long, Priority, java.util.function.Supplier)}のテスト<br>
+     * 一括処理は予約分を残して拒否され、対話的なリクエストは上限まで実行できる
+     */
+    @Test
+    @DisplayName("1日あたりのリクエスト数の上限")
+    void testExecuteQuotaExceeded() {
+
+        for (int i = 0; i < 8; i++) {
+            target.execute(46, Priority.BATCH, () -> null);
+        }
+        assertThrows(KintoneQuotaExceededException.class, () -> target.execute(46, Priority.BATCH, () -> null));
+
+        target.execute(46, Priority.INTERACTIVE, () -> null);
+        target.execute(46, Priority.INTERACTIVE, () -> null);
+        assertThrows(KintoneQuotaExceededException.class, () -> target.execute(46, Priority.INTERACTIVE, () -> null));
+
+        assertEquals(2, target.getRejectedCount());
+    }
+
+    /**
+     * {@link KintoneRequestScheduler#getRemainingQuota(long)}のテスト<br>
+     * 残りリクエスト数は日中は回復せず、日本時間の0時に上限値に戻る
+     */
+    @Test
+    @DisplayName("残りリクエスト数の回復")
+    void testReset() {
+
+        for (int i = 0; i < 5; i++) {
+            target.execute(46, Priority.INTERACTIVE, () -> null);
+        }
+        currentTimeMillis.addAndGet(Duration.ofMinutes(59).toMillis());
+        assertEquals(DAILY_LIMIT - 5, target.getRemainingQuota(46), "not refilled before midnight");
+
+        // 日本時間の翌日0時(UTCでは同じ日の15時)
+        currentTimeMillis.addAndGet(Duration.ofMinutes(1).toMillis());
+        assertEquals(DAILY_LIMIT, target.getRemainingQuota(46), "reset at midnight");
+
+        for (int i = 0; i < 10; i++) {
+            target.execute(46, Priority.INTERACTIVE, () -> null);
+        }
+        currentTimeMillis.addAndGet(Duration.ofHours(23).toMillis());
+        assertThrows(KintoneQuotaExceededException.class, () -> target.execute(46, Priority.INTERACTIVE, () -> null),
+                "not refilled within the day");
+    }
+
+    /**
+     * {@link KintoneRequestScheduler#addAppListener(java.util.function.LongConsumer)}のテスト<br>
+     * 初めてリクエストしたアプリを1回だけ通知する。登録前にリクエストしたアプリは登録時に通知する
+     */
+    @Test
+    @DisplayName("初めてリクエストしたアプリの通知")
+    void testAppListener() {
+
+        target.execute(46, Priority.INTERACTIVE, () -> null);
+        List<Long> notified = new ArrayList<>();
+        target.addAppListener(notified::add);
+        target.execute(46, Priority.INTERACTIVE, () -> null);
+        target.execute(47, Priority.BATCH, () -> null);
+        target.execute(47, Priority.BATCH, () -> null);
+
+        assertEquals(List.of(46L, 47L), notified);
+    }
+}
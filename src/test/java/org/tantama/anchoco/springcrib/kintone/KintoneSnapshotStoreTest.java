@@ -0,0 +1,258 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link KintoneSnapshotStore}のテストクラス
+ */
+@DisplayName("キントーンのアプリのスナップショット")
+class KintoneSnapshotStoreTest {
+
+    /** mock server のport */
+    private static final int MOCK_SERVER_PORT = 1086;
+
+    /** アプリID */
+    private static final long APP_ID = KintoneTest.APP_ID;
+
+    /** テストデータの更新日時の基準 */
+    private static final Instant BASE = Instant.parse("2022-06-27T00:00:00Z");
+
+    /** キントーンのスタブ */
+    private static KintoneStubServer stub;
+
+    /** 保存先ディレクトリ */
+    @TempDir
+    Path directory;
+
+    /**
+     * テストクラス初期処理
+     */
+    @BeforeAll
+    public static void beforeClass() {
+        stub = new KintoneStubServer(MOCK_SERVER_PORT);
+    }
+
+    /**
+     * テストクラス終了処理
+     */
+    @AfterAll
+    public static void afterClass() {
+        stub.close();
+    }
+
+    /**
+     * {@link KintoneSnapshotStore#get(long)}のテスト<br>
+     * 未作成の場合はemptyになる
+     */
+    @Test
+    @DisplayName("未作成")
+    void testGetEmpty() {
+        assertTrue(new KintoneSnapshotStore(directory, null, null).get(46).isEmpty());
+    }
+
+    /**
+     * {@link KintoneSnapshotStore#write(long, java.util.Collection)}のテスト<br>
+     * 保存した内容は別インスタンス(再起動後)でもレコード番号の昇順で参照できる
+     */
+    @Test
+    @DisplayName("保存と参照")
+    void testWriteAndGet() {
+
+        new KintoneSnapshotStore(directory, null, null).write(46, List.of(
+                pojo(3, "株式会社ほげ", "100-0001", "2022-06-27T03:27:40Z"),
+                pojo(1, "ふが商店", null, null),
+                pojo(2, null, "530-0001", "2022-06-28T00:00:00Z")));
+
+        KintoneSnapshot snapshot = new KintoneSnapshotStore(directory, null, null).get(46).orElseThrow();
+        List<KintonePojo> all = snapshot.query(row -> true).toList();
+
+        assertAll("snapshot", () -> {
+            assertEquals(3, snapshot.size(), "size");
+            assertEquals(List.of(1, 2, 3), all.stream().map(KintonePojo::getRecordId).toList(), "order");
+            assertEquals("株式会社ほげ", all.get(2).getCompanyName(), "company name");
+            assertEquals("100-0001", all.get(2).getZipCode(), "zip code");
+            assertEquals(ZonedDateTime.parse("2022-06-27T03:27:40Z"), all.get(2).getUpdateDatetime(), "update datetime");
+            assertNull(all.get(0).getZipCode(), "null string");
+            assertNull(all.get(0).getUpdateDatetime(), "null datetime");
+            assertNull(all.get(1).getCompanyName(), "null company name");
+        });
+    }
+
+    /**
+     * {@link KintoneSnapshot#query(java.util.function.Predicate, java.util.function.Function)}のテスト<br>
+     * 絞り込みと射影、レコード番号での検索
+     */
+    @Test
+    @DisplayName("絞り込みと射影")
+    void testQuery() {
+
+        KintoneSnapshot snapshot = new KintoneSnapshotStore(directory, null, null).write(46, List.of(
+                pojo(1, "ほげ", "100-0001", "2022-06-27T00:00:00Z"),
+                pojo(2, "ふが", "530-0001", "2022-06-28T00:00:00Z"),
+                pojo(5, "ぴよ", "100-0005", "2022-06-29T00:00:00Z")));
+
+        final long since = ZonedDateTime.parse("2022-06-28T00:00:00Z").toInstant().toEpochMilli();
+
+        assertAll("query", () -> {
+            assertEquals(List.of("ふが", "ぴよ"), snapshot.query(row -> row.getUpdateEpochMilli() >= since,
+                    KintoneSnapshot.Row::getCompanyName).toList(), "filter by datetime");
+            assertEquals(List.of(1, 5), snapshot.query(row -> row.getZipCode().startsWith("100"))
+                    .map(KintonePojo::getRecordId).toList(), "filter by string");
+            assertEquals("ぴよ", snapshot.find(5).orElseThrow().getCompanyName(), "find");
+            assertTrue(snapshot.find(3).isEmpty(), "not found");
+        });
+    }
+
+    /**
+     * {@link KintoneSnapshotStore#merge(long, java.util.Collection)}のテスト<br>
+     * 変更されたレコードは置き換え、新しいレコードは追加する
+     */
+    @Test
+    @DisplayName("差分の反映")
+    void testMerge() {
+
+        KintoneSnapshotStore store = new KintoneSnapshotStore(directory, null, null);
+        KintoneSnapshot before = store.write(46, List.of(pojo(1, "ほげ", null, null), pojo(2, "ふが", null, null)));
+        store.merge(46, List.of(pojo(2, "ふがふが", null, null), pojo(3, "ぴよ", null, null)));
+
+        KintoneSnapshot after = store.get(46).orElseThrow();
+        assertAll("merge", () -> {
+            assertEquals(List.of("ほげ", "ふがふが", "ぴよ"),
+                    after.query(row -> true, KintoneSnapshot.Row::getCompanyName).toList(), "merged");
+            assertEquals("ふが", before.find(2).orElseThrow().getCompanyName(), "opened snapshot is not changed");
+        });
+    }
+
+    /**
+     * {@link KintoneSnapshotStore#merge(long, java.util.Collection)}のテスト<br>
+     * 変更はレコード番号の順に並べてスナップショットの行の間に反映し、同じレコードの変更は後の変更を優先する
+     */
+    @Test
+    @DisplayName("差分の反映:順不同の変更")
+    void testMergeUnsorted() {
+
+        KintoneSnapshotStore store = new KintoneSnapshotStore(directory, null, null);
+        store.write(47, List.of(pojo(2, "に", null, null), pojo(4, "よん", null, null), pojo(6, "ろく", null, null)));
+        store.merge(47, List.of(pojo(7, "なな", null, null), pojo(4, "よんよん", null, null),
+                pojo(1, "いち", null, null), pojo(4, "よんよんよん", null, null)));
+
+        KintoneSnapshot after = store.get(47).orElseThrow();
+        assertAll("merge", () -> {
+            assertEquals(List.of(1, 2, 4, 6, 7),
+                    after.query(row -> true, KintoneSnapshot.Row::getRecordId).toList(), "record ids");
+            assertEquals(List.of("いち", "に", "よんよんよん", "ろく", "なな"),
+                    after.query(row -> true, KintoneSnapshot.Row::getCompanyName).toList(), "merged");
+        });
+    }
+
+    /**
+     * {@link KintoneSnapshotStore#write(long, java.util.Collection)}のテスト<br>
+     * 文字列の位置の置き換え単位(1024行)を超える件数も、全件の文字列を参照できる
+     */
+    @Test
+    @DisplayName("保存と参照:複数回に分けて書き込む件数")
+    void testWriteLarge() {
+
+        final int records = 2500;
+        List<KintonePojo> pojos = new ArrayList<>();
+        IntStream.rangeClosed(1, records).forEach(i -> pojos.add(pojo(i, i % 3 == 0 ? null : "会社" + i,
+                "100-" + i, null)));
+
+        KintoneSnapshot snapshot = new KintoneSnapshotStore(directory, null, null).write(46, pojos);
+
+        assertAll("snapshot", () -> {
+            assertEquals(records, snapshot.size(), "size");
+            assertEquals("会社1", snapshot.find(1).orElseThrow().getCompanyName(), "first");
+            assertEquals("会社2500", snapshot.find(records).orElseThrow().getCompanyName(), "last");
+            assertNull(snapshot.find(1500).orElseThrow().getCompanyName(), "null");
+            assertEquals("100-2048", snapshot.find(2048).orElseThrow().getZipCode(), "second chunk");
+        });
+    }
+
+    /**
+     * {@link KintoneSnapshotStore#refreshAll(long)}、{@link KintoneSnapshotStore#refreshDelta(long)}のテスト<br>
+     * 反映済みの位置はスナップショット用に保存し、他の差分同期の取得済み位置を変更しない。
+     * 全件取得では、取得前の更新日時の最大値に置き換える
+     */
+    @Test
+    @DisplayName("全件取得と差分の反映")
+    void testRefresh() {
+
+        stub.reset();
+        stub.defineApp(APP_ID, KintoneTest.FIELD_TYPES);
+        for (int i = 0; i < 3; i++) {
+            addRecord(i);
+        }
+
+        Kintone kintone = KintoneTest.create(stub);
+        KintoneRequestScheduler scheduler = new KintoneRequestScheduler(10, 10_000, 0.1);
+        KintoneParallelReader reader = new KintoneParallelReader(kintone, scheduler);
+        ReflectionTestUtils.setField(reader, "concurrency", 2);
+        ReflectionTestUtils.setField(reader, "partitions", 2);
+        ReflectionTestUtils.setField(reader, "bufferPages", 4);
+        KintoneWatermarkStore shared = new KintoneWatermarkStore(directory.resolve("delta-sync"));
+        KintoneSnapshotStore store = new KintoneSnapshotStore(directory, reader,
+                new KintoneDeltaSync(kintone, shared, scheduler));
+        KintoneWatermarkStore own = new KintoneWatermarkStore(directory.resolve("watermark"));
+
+        KintoneSnapshot all = store.refreshAll(APP_ID);
+        assertAll("refresh all", () -> {
+            assertEquals(3, all.size(), "size");
+            assertEquals(Optional.of(BASE.plusSeconds(120)), own.load(APP_ID), "watermark");
+        });
+
+        addRecord(3);
+        KintoneSnapshot delta = store.refreshDelta(APP_ID);
+        assertAll("refresh delta", () -> {
+            assertEquals(4, delta.size(), "size");
+            assertEquals("会社3", delta.find(4).orElseThrow().getCompanyName(), "added");
+            assertEquals(Optional.of(BASE.plusSeconds(180)), own.load(APP_ID), "watermark");
+            assertTrue(shared.load(APP_ID).isEmpty(), "shared watermark");
+        });
+    }
+
+    /**
+     * テストデータのレコードの追加<br>
+     * 更新日時は1件ごとに1分ずつ進める
+     *
+     * @param index 追加する順番(0から)
+     */
+    private static void addRecord(int index) {
+        stub.addRecord(APP_ID, Map.of("会社名", "会社" + index, "更新日時", BASE.plusSeconds(index * 60L).toString()));
+    }
+
+    /**
+     * テストデータの作成
+     *
+     * @param recordId       レコード番号
+     * @param companyName    会社名
+     * @param zipCode        郵便番号
+     * @param updateDatetime 更新日時
+     * @return テストデータ
+     */
+    private static KintonePojo pojo(int recordId, String companyName, String zipCode, String updateDatetime) {
+        KintonePojo pojo = new KintonePojo();
+        pojo.setRecordId(recordId);
+        pojo.setCompanyName(companyName);
+        pojo.setZipCode(zipCode);
+        pojo.setUpdateDatetime(updateDatetime == null ? null : ZonedDateTime.parse(updateDatetime));
+        return pojo;
+    }
+}
@@ -0,0 +1,927 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+
+/**
+ * キントーンのREST APIのスタブ(mock server)<br>
+ * レコード、カーソル、bulk requestのAPIをメモリ上のアプリで再現し、オフラインで{@link Kintone}を動かせるようにする。
+ * 応答の遅延と、1リクエストあたりの件数の上限を設定できる
+ *
+ * <pre>
+ * 対応しているクエリ : 条件のand結合(=, !=, &gt;, &gt;=, &lt;, &lt;=, in, not in, like)、order by、limit、offset
+ * 対応していないクエリ : or結合、関数(NOW()など)
+ * </pre>
+ */
+class KintoneStubServer implements AutoCloseable {
+
+    /** 取得件数の上限(kintoneの上限) */
+    static final int DEFAULT_MAX_RECORDS_PER_GET = 500;
+
+    /** 更新/追加件数の上限(kintoneの上限) */
+    static final int DEFAULT_MAX_RECORDS_PER_WRITE = 100;
+
+    /** bulk requestにまとめられるリクエスト数の上限(kintoneの上限) */
+    static final int DEFAULT_MAX_REQUESTS_PER_BULK = 20;
+
+    /** limit省略時の取得件数 */
+    private static final int DEFAULT_LIMIT = 100;
+
+    /** 不正なリクエストのステータスコード */
+    private static final int BAD_REQUEST = 400;
+
+    /** 存在しないレコードのステータスコード */
+    private static final int NOT_FOUND = 404;
+
+    /** リビジョン不一致のステータスコード */
+    private static final int CONFLICT = 409;
+
+    /** 数値として比較するフィールド形式 */
+    private static final Set<String> NUMERIC_TYPES = Set.of("__ID__", "__REVISION__", "RECORD_NUMBER", "NUMBER");
+
+    /** 日時として比較するフィールド形式 */
+    private static final Set<String> DATETIME_TYPES = Set.of("UPDATED_TIME", "CREATED_TIME", "DATETIME");
+
+    /** クエリの分解(条件、order by、limit、offset) */
+    private static final Pattern QUERY = Pattern.compile(
+            "(?is)^(.*?)\\s*(?:order\\s+by\\s+(.+?))?\\s*(?:limit\\s+(\\d+))?\\s*(?:offset\\s+(\\d+))?$");
+
+    /** 条件の分解(フィールドコード、演算子、値) */
+    private static final Pattern CONDITION = Pattern.compile(
+            "(?is)^(\\S+?)\\s*(not\\s+in|in|not\\s+like|like|>=|<=|!=|=|>|<)\\s*(.+)$");
+
+    /** 値の分解(クォートした文字列または数値) */
+    private static final Pattern VALUE = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"|([^,\\s()]+)");
+
+    /** json変換 */
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /** mock server */
+    private final ClientAndServer mockServer;
+
+    /** アプリ */
+    private final Map<Long, App> apps = new HashMap<>();
+
+    /** カーソル */
+    private final Map<String, Cursor> cursors = new HashMap<>();
+
+    /** API単位のリクエスト数 */
+    private final Map<String, LongAdder> requestCounts = new ConcurrentHashMap<>();
+
+    /** 失敗させるリクエストの条件 */
+    private final List<Failure> failures = new CopyOnWriteArrayList<>();
+
+    /** 応答の遅延(ms) */
+    private volatile long latencyMillis;
+
+    /** 取得件数の上限 */
+    private volatile int maxRecordsPerGet = DEFAULT_MAX_RECORDS_PER_GET;
+
+    /** 更新/追加件数の上限 */
+    private volatile int maxRecordsPerWrite = DEFAULT_MAX_RECORDS_PER_WRITE;
+
+    /** bulk requestにまとめられるリクエスト数の上限 */
+    private volatile int maxRequestsPerBulk = DEFAULT_MAX_REQUESTS_PER_BULK;
+
+    /**
+     * コンストラクタ<br>
+     * mock serverを起動する
+     *
+     * @param port mock serverのport
+     */
+    @SuppressWarnings("resource")
+    KintoneStubServer(int port) {
+        mockServer = ClientAndServer.startClientAndServer(port);
+        mockServer.when(HttpRequest.request().withPath("/k/.*")).respond(this::handle);
+    }
+
+    /**
+     * キントーンのURL
+     *
+     * @return URL
+     */
+    String url() {
+        return "http://localhost:" + mockServer.getLocalPort();
+    }
+
+    /**
+     * 応答の遅延の設定
+     *
+     * @param latency 遅延
+     */
+    void setLatency(Duration latency) {
+        this.latencyMillis = latency.toMillis();
+    }
+
+    /**
+     * 件数の上限の設定
+     *
+     * @param perGet  取得件数の上限
+     * @param perWrite 更新/追加件数の上限
+     * @param perBulk bulk requestにまとめられるリクエスト数の上限
+     */
+    void setLimits(int perGet, int perWrite, int perBulk) {
+        this.maxRecordsPerGet = perGet;
+        this.maxRecordsPerWrite = perWrite;
+        this.maxRequestsPerBulk = perBulk;
+    }
+
+    /**
+     * 失敗させるリクエストの設定<br>
+     * 条件に一致したリクエストは処理せず、指定したステータスコードのエラーを返す({@link #reset()}で解除する)
+     *
+     * @param method HTTPメソッド
+     * @param api    API(e.g. records.json)
+     * @param params リクエストパラメータの条件
+     * @param status ステータスコード
+     */
+    void failWhen(String method, String api, Predicate<JsonNode> params, int status) {
+        failures.add(new Failure(method + " " + api, params, status));
+    }
+
+    /**
+     * アプリの作成<br>
+     * レコードID、リビジョンのフィールド($id, $revision)は自動で追加する
+     *
+     * @param appId      アプリID
+     * @param fieldTypes フィールドコードとフィールド形式(e.g. SINGLE_LINE_TEXT)
+     */
+    synchronized void defineApp(long appId, Map<String, String> fieldTypes) {
+        apps.put(appId, new App(fieldTypes));
+    }
+
+    /**
+     * テストデータのレコードの追加
+     *
+     * @param appId  アプリID
+     * @param values フィールドコードと値(文字列で指定する)
+     * @return レコードID
+     */
+    synchronized long addRecord(long appId, Map<String, String> values) {
+        ObjectNode record = JsonNodeFactory.instance.objectNode();
+        values.forEach((code, value) -> record.putObject(code).put("value", value));
+        return app(appId).add(record, new ArrayDeque<>());
+    }
+
+    /**
+     * レコードの値の取得(検証用)
+     *
+     * @param appId    アプリID
+     * @param recordId レコードID
+     * @return フィールドコードと値。存在しない場合null
+     */
+    synchronized Map<String, String> getRecord(long appId, long recordId) {
+        Map<String, ObjectNode> record = app(appId).records.get(recordId);
+        if (record == null) {
+            return null;
+        }
+        Map<String, String> values = new LinkedHashMap<>();
+        record.forEach((code, field) -> values.put(code, field.get("value").asText()));
+        return values;
+    }
+
+    /**
+     * アプリのレコード数
+     *
+     * @param appId アプリID
+     * @return レコード数
+     */
+    synchronized int size(long appId) {
+        return app(appId).records.size();
+    }
+
+    /**
+     * APIのリクエスト数<br>
+     * bulk requestに含まれるリクエストは計上しない
+     *
+     * @param method HTTPメソッド
+     * @param api    API(e.g. records.json)
+     * @return リクエスト数
+     */
+    long requestCount(String method, String api) {
+        LongAdder count = requestCounts.get(method + " " + api);
+        return count == null ? 0 : count.sum();
+    }
+
+    /**
+     * 全APIのリクエスト数
+     *
+     * @return リクエスト数
+     */
+    long requestCount() {
+        return requestCounts.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    /**
+     * アプリ、カーソル、リクエスト数、設定を初期化する
+     */
+    synchronized void reset() {
+        apps.clear();
+        cursors.clear();
+        requestCounts.clear();
+        failures.clear();
+        latencyMillis = 0;
+        setLimits(DEFAULT_MAX_RECORDS_PER_GET, DEFAULT_MAX_RECORDS_PER_WRITE, DEFAULT_MAX_REQUESTS_PER_BULK);
+    }
+
+    @Override
+    public void close() {
+        mockServer.stop();
+    }
+
+    /**
+     * リクエストの処理
+     *
+     * @param request リクエスト
+     * @return レスポンス
+     */
+    private HttpResponse handle(HttpRequest request) {
+
+        // kintoneのクライアントはGETのリクエストボディをPOSTで送り、メソッドをヘッダで指定する
+        String override = request.getFirstHeader("X-HTTP-Method-Override");
+        final String method = (override == null || override.isEmpty() ? request.getMethod().getValue() : override)
+                .toUpperCase(Locale.ROOT);
+        final String api = request.getPath().getValue().replaceFirst("^/k/(guest/\\d+/)?v1/", "");
+        requestCounts.computeIfAbsent(method + " " + api, key -> new LongAdder()).increment();
+
+        HttpResponse response;
+        try {
+            JsonNode params = params(request);
+            for (Failure failure : failures) {
+                if (failure.api().equals(method + " " + api) && failure.params().test(params)) {
+                    throw new StubException(failure.status(), "GAIA_STUB", "injected failure.");
+                }
+            }
+            JsonNode result;
+            synchronized (this) {
+                result = dispatch(method, api, params, new ArrayDeque<>());
+            }
+            response = HttpResponse.response()
+                    .withStatusCode(200)
+                    .withBody(objectMapper.writeValueAsString(result), StandardCharsets.UTF_8);
+        } catch (StubException e) {
+            response = error(e.status, e.code, e.getMessage());
+        } catch (JsonProcessingException | RuntimeException e) {
+            response = error(BAD_REQUEST, "CB_IJ01", e.toString());
+        }
+        return response
+                .withHeader("Content-Type", "application/json; charset=utf-8")
+                .withDelay(TimeUnit.MILLISECONDS, latencyMillis);
+    }
+
+    /**
+     * リクエストパラメータの取得<br>
+     * リクエストボディが無い場合はクエリ文字列から取得する
+     *
+     * @param request リクエスト
+     * @return パラメータ
+     * @throws JsonProcessingException jsonの解析に失敗した場合
+     */
+    private JsonNode params(HttpRequest request) throws JsonProcessingException {
+        String body = request.getBodyAsString();
+        if (body != null && !body.isBlank()) {
+            return objectMapper.readTree(body);
+        }
+        ObjectNode params = JsonNodeFactory.instance.objectNode();
+        request.getQueryStringParameterList().forEach(parameter ->
+                params.put(parameter.getName().getValue(), parameter.getValues().get(0).getValue()));
+        return params;
+    }
+
+    /**
+     * エラーレスポンス
+     *
+     * @param status  ステータスコード
+     * @param code    エラーコード
+     * @param message メッセージ
+     * @return レスポンス
+     */
+    private HttpResponse error(int status, String code, String message) {
+        ObjectNode body = JsonNodeFactory.instance.objectNode()
+                .put("code", code)
+                .put("id", UUID.randomUUID().toString())
+                .put("message", message);
+        return HttpResponse.response().withStatusCode(status).withBody(body.toString(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * APIの振り分け
+     *
+     * @param method HTTPメソッド
+     * @param api    API
+     * @param params パラメータ
+     * @param undo   失敗時の取り消し処理(bulk requestで利用する)
+     * @return レスポンスボディ
+     */
+    private JsonNode dispatch(String method, String api, JsonNode params, Deque<Runnable> undo) {
+
+        ObjectNode result = JsonNodeFactory.instance.objectNode();
+        switch (method + " " + api) {
+            case "GET record.json" -> {
+                App app = app(params.path("app").asLong());
+                result.set("record", app.toJson(app.find(params.path("id").asLong()), List.of()));
+            }
+            case "PUT record.json" -> result.put("revision", revisionOf(update(params, params, undo)));
+            case "POST record.json" -> {
+                App app = app(params.path("app").asLong());
+                final long id = app.add((ObjectNode) params.path("record"), undo);
+                result.put("id", String.valueOf(id)).put("revision", "1");
+            }
+            case "GET records.json" -> {
+                App app = app(params.path("app").asLong());
+                Query query = new Query(app, params.path("query").asText(""));
+                if (query.limit != null && query.limit > maxRecordsPerGet) {
+                    throw new StubException(BAD_REQUEST, "CB_VA01", "limit must be less than or equal to " + maxRecordsPerGet);
+                }
+                ArrayNode records = result.putArray("records");
+                query.execute(query.limit == null ? DEFAULT_LIMIT : query.limit)
+                        .forEach(record -> records.add(app.toJson(record, fields(params))));
+                result.putNull("totalCount");
+            }
+            case "PUT records.json" -> {
+                checkWriteLimit(params.path("records"));
+                ArrayNode records = result.putArray("records");
+                for (JsonNode target : params.path("records")) {
+                    Map<String, ObjectNode> record = update(params, target, undo);
+                    records.addObject().put("id", record.get("$id").get("value").asText()).put("revision", revisionOf(record));
+                }
+            }
+            case "POST records.json" -> {
+                checkWriteLimit(params.path("records"));
+                App app = app(params.path("app").asLong());
+                ArrayNode ids = result.putArray("ids");
+                ArrayNode revisions = result.putArray("revisions");
+                for (JsonNode record : params.path("records")) {
+                    ids.add(String.valueOf(app.add((ObjectNode) record, undo)));
+                    revisions.add("1");
+                }
+            }
+            case "POST records/cursor.json" -> {
+                App app = app(params.path("app").asLong());
+                final int size = params.path("size").asInt(DEFAULT_LIMIT);
+                if (size > maxRecordsPerGet) {
+                    throw new StubException(BAD_REQUEST, "CB_VA01", "size must be less than or equal to " + maxRecordsPerGet);
+                }
+                Query query = new Query(app, params.path("query").asText(""));
+                if (query.limit != null || query.offset != 0) {
+                    throw new StubException(BAD_REQUEST, "GAIA_CU01", "limit and offset can not be used with cursor.");
+                }
+                List<ObjectNode> records = query.execute(Integer.MAX_VALUE).stream().map(record -> app.toJson(record, fields(params))).toList();
+                final String id = UUID.randomUUID().toString();
+                cursors.put(id, new Cursor(records.iterator(), size));
+                result.put("id", id).put("totalCount", String.valueOf(records.size()));
+            }
+            case "GET records/cursor.json" -> {
+                final String id = params.path("id").asText();
+                Cursor cursor = cursors.get(id);
+                if (cursor == null) {
+                    throw new StubException(NOT_FOUND, "GAIA_CN01", "cursor not found. " + id);
+                }
+                ArrayNode records = result.putArray("records");
+                for (int i = 0; i < cursor.size() && cursor.records().hasNext(); i++) {
+                    records.add(cursor.records().next());
+                }
+                result.put("next", cursor.records().hasNext());
+                if (!cursor.records().hasNext()) {
+                    cursors.remove(id);
+                }
+            }
+            case "DELETE records/cursor.json" -> cursors.remove(params.path("id").asText());
+            case "POST bulkRequest.json" -> result.set("results", bulk(params.path("requests")));
+            default -> throw new StubException(NOT_FOUND, "CB_NO01", "unsupported api. " + method + " " + api);
+        }
+        return result;
+    }
+
+    /**
+     * bulk requestの実行<br>
+     * いずれかのリクエストが失敗した場合は、実行済みのリクエストを取り消す
+     *
+     * @param requests リクエスト
+     * @return リクエストごとのレスポンスボディ
+     */
+    private ArrayNode bulk(JsonNode requests) {
+
+        if (requests.size() > maxRequestsPerBulk) {
+            throw new StubException(BAD_REQUEST, "CB_VA01", "requests must be less than or equal to " + maxRequestsPerBulk);
+        }
+        Deque<Runnable> undo = new ArrayDeque<>();
+        ArrayNode results = JsonNodeFactory.instance.arrayNode();
+        try {
+            for (JsonNode request : requests) {
+                final String api = request.path("api").asText().replaceFirst("^/k/(guest/\\d+/)?v1/", "");
+                results.add(dispatch(request.path("method").asText().toUpperCase(Locale.ROOT), api, request.path("payload"), undo));
+            }
+        } catch (RuntimeException e) {
+            undo.forEach(Runnable::run);
+            throw e;
+        }
+        return results;
+    }
+
+    /**
+     * レコードの更新
+     *
+     * @param params パラメータ(アプリID)
+     * @param target 更新内容(id or updateKey, record, revision)
+     * @param undo   失敗時の取り消し処理
+     * @return 更新後のレコード
+     */
+    private Map<String, ObjectNode> update(JsonNode params, JsonNode target, Deque<Runnable> undo) {
+
+        App app = app(params.path("app").asLong());
+        Map<String, ObjectNode> record = target.has("updateKey")
+                ? app.findByKey(target.path("updateKey").path("field").asText(), target.path("updateKey").path("value").asText())
+                : app.find(target.path("id").asLong());
+        final long current = Long.parseLong(revisionOf(record));
+        final long expected = target.path("revision").asLong(-1);
+        if (expected != -1 && expected != current) {
+            throw new StubException(CONFLICT, "GAIA_CO02", "revision mismatch. expected " + expected + " but " + current);
+        }
+        app.update(record, (ObjectNode) target.path("record"), undo);
+        return record;
+    }
+
+    /**
+     * レコードのリビジョン
+     *
+     * @param record レコード
+     * @return リビジョン
+     */
+    private static String revisionOf(Map<String, ObjectNode> record) {
+        return record.get("$revision").get("value").asText();
+    }
+
+    /**
+     * 更新/追加件数の上限の検査
+     *
+     * @param records 更新/追加内容
+     */
+    private void checkWriteLimit(JsonNode records) {
+        if (records.size() > maxRecordsPerWrite) {
+            throw new StubException(BAD_REQUEST, "CB_VA01", "records must be less than or equal to " + maxRecordsPerWrite);
+        }
+    }
+
+    /**
+     * 取得フィールドの指定
+     *
+     * @param params パラメータ
+     * @return フィールドコード。指定が無い場合は空
+     */
+    private static List<String> fields(JsonNode params) {
+        List<String> fields = new ArrayList<>();
+        params.path("fields").forEach(field -> fields.add(field.asText()));
+        return fields;
+    }
+
+    /**
+     * アプリの取得
+     *
+     * @param appId アプリID
+     * @return アプリ
+     */
+    private App app(long appId) {
+        App app = apps.get(appId);
+        if (app == null) {
+            throw new StubException(NOT_FOUND, "GAIA_AP01", "app not found. " + appId);
+        }
+        return app;
+    }
+
+    /**
+     * メモリ上のアプリ
+     */
+    private static final class App {
+
+        /** フィールドコードとフィールド形式 */
+        private final Map<String, String> fieldTypes = new LinkedHashMap<>();
+
+        /** レコードIDとレコード */
+        private final TreeMap<Long, Map<String, ObjectNode>> records = new TreeMap<>();
+
+        /** 次のレコードID */
+        private long nextId = 1;
+
+        /**
+         * コンストラクタ
+         *
+         * @param fieldTypes フィールドコードとフィールド形式
+         */
+        App(Map<String, String> fieldTypes) {
+            this.fieldTypes.put("$id", "__ID__");
+            this.fieldTypes.put("$revision", "__REVISION__");
+            this.fieldTypes.putAll(fieldTypes);
+        }
+
+        /**
+         * レコードの追加
+         *
+         * @param values 追加内容
+         * @param undo   失敗時の取り消し処理
+         * @return レコードID
+         */
+        long add(ObjectNode values, Deque<Runnable> undo) {
+
+            final long id = nextId++;
+            final String now = Instant.now().truncatedTo(ChronoUnit.SECONDS).toString();
+            Map<String, ObjectNode> record = new LinkedHashMap<>();
+            fieldTypes.forEach((code, type) -> {
+                String value = switch (type) {
+                    case "__ID__", "RECORD_NUMBER" -> String.valueOf(id);
+                    case "__REVISION__" -> "1";
+                    case "UPDATED_TIME", "CREATED_TIME" -> now;
+                    default -> null;
+                };
+                record.put(code, field(type, value));
+            });
+            values.fields().forEachRemaining(entry -> record.put(entry.getKey(), field(type(entry.getKey()), entry.getValue())));
+            records.put(id, record);
+            undo.push(() -> records.remove(id));
+            return id;
+        }
+
+        /**
+         * レコードの更新
+         *
+         * @param record 更新するレコード
+         * @param values 更新内容
+         * @param undo   失敗時の取り消し処理
+         */
+        void update(Map<String, ObjectNode> record, ObjectNode values, Deque<Runnable> undo) {
+
+            Map<String, ObjectNode> before = new LinkedHashMap<>(record);
+            undo.push(() -> {
+                record.clear();
+                record.putAll(before);
+            });
+
+            final long revision = record.get("$revision").get("value").asLong() + 1;
+            values.fields().forEachRemaining(entry -> record.put(entry.getKey(), field(type(entry.getKey()), entry.getValue())));
+            record.put("$revision", field("__REVISION__", String.valueOf(revision)));
+            final String now = Instant.now().truncatedTo(ChronoUnit.SECONDS).toString();
+            fieldTypes.forEach((code, type) -> {
+                if ("UPDATED_TIME".equals(type)) {
+                    record.put(code, field(type, now));
+                }
+            });
+        }
+
+        /**
+         * レコードIDで検索する
+         *
+         * @param id レコードID
+         * @return レコード
+         */
+        Map<String, ObjectNode> find(long id) {
+            Map<String, ObjectNode> record = records.get(id);
+            if (record == null) {
+                throw new StubException(NOT_FOUND, "GAIA_RE01", "record not found. " + id);
+            }
+            return record;
+        }
+
+        /**
+         * 重複禁止フィールドで検索する
+         *
+         * @param field フィールドコード
+         * @param value 値
+         * @return レコード
+         */
+        Map<String, ObjectNode> findByKey(String field, String value) {
+            return records.values().stream()
+                    .filter(record -> record.containsKey(field) && value.equals(record.get(field).get("value").asText()))
+                    .findFirst()
+                    .orElseThrow(() -> new StubException(NOT_FOUND, "GAIA_RE01", "record not found. " + field + " : " + value));
+        }
+
+        /**
+         * フィールド形式
+         *
+         * @param code フィールドコード
+         * @return フィールド形式
+         */
+        String type(String code) {
+            String type = fieldTypes.get(code);
+            if (type == null) {
+                throw new StubException(BAD_REQUEST, "CB_VA01", "field not found. " + code);
+            }
+            return type;
+        }
+
+        /**
+         * レスポンスのレコード
+         *
+         * @param record レコード
+         * @param fields 取得フィールド。空の場合は全フィールド
+         * @return レスポンスのレコード
+         */
+        ObjectNode toJson(Map<String, ObjectNode> record, List<String> fields) {
+            ObjectNode json = JsonNodeFactory.instance.objectNode();
+            record.forEach((code, field) -> {
+                if (fields.isEmpty() || fields.contains(code)) {
+                    json.set(code, field.deepCopy());
+                }
+            });
+            return json;
+        }
+
+        /**
+         * フィールドの作成
+         *
+         * @param type  フィールド形式
+         * @param value 値
+         * @return フィールド
+         */
+        private static ObjectNode field(String type, String value) {
+            ObjectNode field = JsonNodeFactory.instance.objectNode().put("type", type);
+            return value == null ? field.putNull("value") : field.put("value", value);
+        }
+
+        /**
+         * フィールドの作成
+         *
+         * @param type  フィールド形式
+         * @param value リクエストのフィールド({"value": ...})
+         * @return フィールド
+         */
+        private static ObjectNode field(String type, JsonNode value) {
+            ObjectNode field = JsonNodeFactory.instance.objectNode().put("type", type);
+            field.set("value", value.path("value").isMissingNode() ? JsonNodeFactory.instance.nullNode() : value.get("value"));
+            return field;
+        }
+    }
+
+    /**
+     * クエリ
+     */
+    private static final class Query {
+
+        /** アプリ */
+        private final App app;
+
+        /** 条件 */
+        private final List<Predicate<Map<String, ObjectNode>>> conditions = new ArrayList<>();
+
+        /** 並び順 */
+        private Comparator<Map<String, ObjectNode>> order;
+
+        /** 取得件数。指定が無い場合null */
+        private final Integer limit;
+
+        /** 取得開始位置 */
+        private final int offset;
+
+        /**
+         * コンストラクタ<br>
+         * クエリを解析する
+         *
+         * @param app   アプリ
+         * @param query クエリ
+         */
+        Query(App app, String query) {
+
+            this.app = app;
+            Matcher matcher = QUERY.matcher(query.trim());
+            if (!matcher.matches()) {
+                throw new StubException(BAD_REQUEST, "GAIA_IQ11", "invalid query. " + query);
+            }
+            parseWhere(matcher.group(1));
+            parseOrder(matcher.group(2));
+            this.limit = matcher.group(3) == null ? null : Integer.valueOf(matcher.group(3));
+            this.offset = matcher.group(4) == null ? 0 : Integer.parseInt(matcher.group(4));
+        }
+
+        /**
+         * クエリの実行
+         *
+         * @param maxSize 取得件数
+         * @return 条件に一致したレコード
+         */
+        List<Map<String, ObjectNode>> execute(int maxSize) {
+            return app.records.values().stream()
+                    .filter(record -> conditions.stream().allMatch(condition -> condition.test(record)))
+                    .sorted(order)
+                    .skip(offset)
+                    .limit(maxSize)
+                    .toList();
+        }
+
+        /**
+         * 条件の解析
+         *
+         * @param where 条件
+         */
+        private void parseWhere(String where) {
+            if (where.isBlank()) {
+                return;
+            }
+            for (String term : where.split("(?i)\\s+and\\s+")) {
+                if (term.matches("(?is).*\\s+or\\s+.*")) {
+                    throw new StubException(BAD_REQUEST, "GAIA_IQ11", "or is not supported. " + where);
+                }
+                conditions.add(parseCondition(stripParentheses(term.trim())));
+            }
+        }
+
+        /**
+         * 条件を囲む括弧を取り除く
+         *
+         * @param term 条件
+         * @return 括弧を取り除いた条件
+         */
+        private static String stripParentheses(String term) {
+            String stripped = term;
+            while (stripped.startsWith("(") && count(stripped, '(') > count(stripped, ')')) {
+                stripped = stripped.substring(1).trim();
+            }
+            while (stripped.endsWith(")") && count(stripped, ')') > count(stripped, '(')) {
+                stripped = stripped.substring(0, stripped.length() - 1).trim();
+            }
+            return stripped;
+        }
+
+        /**
+         * 文字の出現数
+         *
+         * @param value 文字列
+         * @param c     文字
+         * @return 出現数
+         */
+        private static long count(String value, char c) {
+            return value.chars().filter(ch -> ch == c).count();
+        }
+
+        /**
+         * 1条件の解析
+         *
+         * @param term 条件
+         * @return 条件
+         */
+        private Predicate<Map<String, ObjectNode>> parseCondition(String term) {
+
+            Matcher matcher = CONDITION.matcher(term);
+            if (!matcher.matches()) {
+                throw new StubException(BAD_REQUEST, "GAIA_IQ11", "invalid condition. " + term);
+            }
+            final String code = matcher.group(1);
+            final String operator = matcher.group(2).toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+            final String type = app.type(code);
+            final List<String> values = values(matcher.group(3));
+            final Comparator<String> comparator = comparator(type);
+
+            return record -> {
+                JsonNode node = record.containsKey(code) ? record.get(code).get("value") : null;
+                final String actual = node == null || node.isNull() ? null : node.asText();
+                return switch (operator) {
+                    case "in" -> values.contains(actual);
+                    case "not in" -> !values.contains(actual);
+                    case "like" -> actual != null && actual.contains(values.get(0));
+                    case "not like" -> actual == null || !actual.contains(values.get(0));
+                    case "=" -> actual != null && comparator.compare(actual, values.get(0)) == 0;
+                    case "!=" -> actual == null || comparator.compare(actual, values.get(0)) != 0;
+                    case ">" -> actual != null && comparator.compare(actual, values.get(0)) > 0;
+                    case ">=" -> actual != null && comparator.compare(actual, values.get(0)) >= 0;
+                    case "<" -> actual != null && comparator.compare(actual, values.get(0)) < 0;
+                    default -> actual != null && comparator.compare(actual, values.get(0)) <= 0;
+                };
+            };
+        }
+
+        /**
+         * 並び順の解析<br>
+         * 指定が無い場合はレコードIDの降順(kintoneの既定)
+         *
+         * @param orderBy 並び順
+         */
+        private void parseOrder(String orderBy) {
+
+            order = null;
+            final String target = orderBy == null ? "$id desc" : orderBy;
+            for (String part : target.split(",")) {
+                String[] tokens = part.trim().split("\\s+");
+                final String code = tokens[0];
+                Comparator<String> comparator = comparator(app.type(code));
+                Comparator<Map<String, ObjectNode>> field = Comparator.comparing(
+                        record -> record.containsKey(code) ? record.get(code).get("value").asText(null) : null,
+                        Comparator.nullsFirst(comparator));
+                if (tokens.length > 1 && "desc".equalsIgnoreCase(tokens[1])) {
+                    field = field.reversed();
+                }
+                order = order == null ? field : order.thenComparing(field);
+            }
+        }
+
+        /**
+         * 値の解析
+         *
+         * @param value 値(リストの場合は括弧で囲まれている)
+         * @return 値
+         */
+        private static List<String> values(String value) {
+            List<String> values = new ArrayList<>();
+            Matcher matcher = VALUE.matcher(value);
+            while (matcher.find()) {
+                values.add(matcher.group(1) != null
+                        ? matcher.group(1).replace("\\\"", "\"").replace("\\\\", "\\")
+                        : matcher.group(2));
+            }
+            return values;
+        }
+
+        /**
+         * フィールド形式に応じた比較
+         *
+         * @param type フィールド形式
+         * @return 比較
+         */
+        private static Comparator<String> comparator(String type) {
+            if (NUMERIC_TYPES.contains(type)) {
+                return Comparator.comparing(BigDecimal::new);
+            }
+            if (DATETIME_TYPES.contains(type)) {
+                return Comparator.comparing(Instant::parse);
+            }
+            return Comparator.naturalOrder();
+        }
+    }
+
+    /**
+     * カーソル
+     *
+     * @param records 未取得のレコード
+     * @param size    1回の取得件数
+     */
+    private record Cursor(Iterator<ObjectNode> records, int size) {
+    }
+
+    /**
+     * 失敗させるリクエストの条件
+     *
+     * @param api    HTTPメソッドとAPI
+     * @param params リクエストパラメータの条件
+     * @param status ステータスコード
+     */
+    private record Failure(String api, Predicate<JsonNode> params, int status) {
+    }
+
+    /**
+     * スタブが返却するエラー
+     */
+    private static final class StubException extends RuntimeException {
+
+        /** serialVersionUID */
+        private static final long serialVersionUID = 1L;
+
+        /** ステータスコード */
+        private final int status;
+
+        /** エラーコード */
+        private final String code;
+
+        /**
+         * コンストラクタ
+         *
+         * @param status  ステータスコード
+         * @param code    エラーコード
+         * @param message メッセージ
+         */
+        StubException(int status, String code, String message) {
+            super(message);
+            this.status = status;
+            this.code = code;
+        }
+    }
+}
@@ -1,26 +1,159 @@
 package org.tantama.anchoco.springcrib.kintone;
 
-import static org.junit.jupiter.api.Assertions.*;
-
-import org.junit.jupiter.api.Disabled;
+import com.kintone.client.model.record.Record;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 /**
- * {@link Kintone}のテストクラス
+ * {@link Kintone}のテストクラス<br>
+ * キントーンのスタブ({@link KintoneStubServer})に接続して実行する
  */
-@Disabled("キントーン操作のみなので処理がないためテスト不要")
 @DisplayName("サイボウズ キントーン操作")
 class KintoneTest {
 
-	@Test
-	void testGetRecord() {
-		fail("まだ実装されていません");
-	}
+    /** mock server のport */
+    static final int MOCK_SERVER_PORT = 1081;
+
+    /** アプリID({@link Kintone}の固定値) */
+    static final long APP_ID = 46;
+
+    /** アプリのフィールド({@link KintonePojo}のフィールド) */
+    static final Map<String, String> FIELD_TYPES = Map.of(
+            "レコード番号", "RECORD_NUMBER",
+            "会社名", "SINGLE_LINE_TEXT",
+            "郵便番号", "SINGLE_LINE_TEXT",
+            "更新日時", "UPDATED_TIME");
+
+    /** キントーンのスタブ */
+    private static KintoneStubServer stub;
+
+    /** テスト対象 */
+    private Kintone target;
+
+    /**
+     * テストクラス初期処理
+     */
+    @BeforeAll
+    public static void beforeClass() {
+        stub = new KintoneStubServer(MOCK_SERVER_PORT);
+    }
+
+    /**
+     * テストクラス終了処理
+     */
+    @AfterAll
+    public static void afterClass() {
+        stub.close();
+    }
+
+    /**
+     * テスト初期設定
+     */
+    @BeforeEach
+    public void beforeMethod() {
+        stub.reset();
+        stub.defineApp(APP_ID, FIELD_TYPES);
+        target = create(stub);
+    }
+
+    /**
+     * スタブに接続するテスト対象の作成
+     *
+     * @param stub キントーンのスタブ
+     * @return テスト対象
+     */
+    static Kintone create(KintoneStubServer stub) {
+        Kintone kintone = new Kintone(new KintoneRequestScheduler(10, 10_000, 0.1));
+        ReflectionTestUtils.setField(kintone, "url", stub.url());
+        ReflectionTestUtils.setField(kintone, "cacheMaxSize", 1000);
+        ReflectionTestUtils.setField(kintone, "cacheTtlSeconds", 60L);
+        kintone.init();
+        return kintone;
+    }
+
+    /**
+     * {@link Kintone#getRecord()}のテスト<br>
+     * 取得したレコードがDtoに変換される
+     *
+     * @throws IOException kintoneへの接続エラー
+     */
+    @Test
+    @DisplayName("レコードの取得")
+    void testGetRecord() throws IOException {
+
+        stub.addRecord(APP_ID, Map.of("会社名", "ほげ", "郵便番号", "100-0001"));
+        stub.addRecord(APP_ID, Map.of("会社名", "ふが", "郵便番号", "530-0001"));
+
+        List<KintonePojo> records = target.getRecord();
+
+        assertAll("records", () -> {
+            assertEquals(2, records.size(), "size");
+            // 既定の並び順はレコードIDの降順
+            assertEquals(2, records.get(0).getRecordId(), "record id");
+            assertEquals("ふが", records.get(0).getCompanyName(), "company name");
+            assertEquals("530-0001", records.get(0).getZipCode(), "zip code");
+        });
+    }
+
+    /**
+     * {@link Kintone#getRecord(long, long)}のテスト<br>
+     * 2回目以降はリビジョンの確認のみでキャッシュから返却する
+     */
+    @Test
+    @DisplayName("レコードIDを指定した取得")
+    void testGetRecordById() {
+
+        final long id = stub.addRecord(APP_ID, Map.of("会社名", "ほげ"));
+
+        Record first = target.getRecord(APP_ID, id);
+        Record second = target.getRecord(APP_ID, id);
+
+        assertAll("record", () -> {
+            assertEquals("ほげ", first.getSingleLineTextFieldValue("会社名"), "company name");
+            assertSame(first, second, "cached");
+            assertEquals(1, stub.requestCount("GET", "record.json"), "fetched once");
+        });
+    }
+
+    /**
+     * {@link Kintone#updateRecords(List)}のテスト<br>
+     * Dtoの内容で更新され、更新できないフィールド(更新日時など)は送信しない
+     *
+     * @throws IOException kintoneへの接続エラー
+     */
+    @Test
+    @DisplayName("レコードの更新")
+    void testUpdateRecords() throws IOException {
+
+        final long first = stub.addRecord(APP_ID, Map.of("会社名", "ほげ"));
+        final long second = stub.addRecord(APP_ID, Map.of("会社名", "ふが"));
+
+        KintonePojo dto1 = new KintonePojo();
+        dto1.setRecordId((int) first);
+        dto1.setCompanyName("ほげほげ");
+        KintonePojo dto2 = new KintonePojo();
+        dto2.setRecordId((int) second);
+        dto2.setCompanyName("ふがふが");
+        dto2.setZipCode("530-0001");
 
-	@Test
-	void testUpdateRecords() {
-		fail("まだ実装されていません");
-	}
+        target.updateRecords(List.of(dto1, dto2));
 
+        assertAll("updated", () -> {
+            assertEquals("ほげほげ", stub.getRecord(APP_ID, first).get("会社名"), "first");
+            // 単一の更新と複数の更新の両方で更新される
+            assertEquals("3", stub.getRecord(APP_ID, first).get("$revision"), "first revision");
+            assertEquals("ふがふが", stub.getRecord(APP_ID, second).get("会社名"), "second");
+            assertEquals("530-0001", stub.getRecord(APP_ID, second).get("郵便番号"), "second zip code");
+        });
+    }
 }
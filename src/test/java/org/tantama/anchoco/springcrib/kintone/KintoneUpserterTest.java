@@ -0,0 +1,160 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import com.kintone.client.KintoneClient;
+import com.kintone.client.api.record.GetRecordsResponseBody;
+import com.kintone.client.model.record.NumberFieldValue;
+import com.kintone.client.model.record.Record;
+import com.kintone.client.model.record.RecordForUpdate;
+import com.kintone.client.model.record.SingleLineTextFieldValue;
+import java.math.BigDecimal;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * {@link KintoneUpserter}のテストクラス
+ */
+@DisplayName("updateKeyをキーとしたキントーンへの一括upsert")
+class KintoneUpserterTest {
+
+    /** キーとするフィールド */
+    private static final String KEY = "会社コード";
+
+    /** テスト対象 */
+    private KintoneUpserter target;
+
+    /** 一括更新のmock */
+    private KintoneBulkWriter bulkWriter;
+
+    /** リクエストの実行制御のmock */
+    private KintoneRequestScheduler scheduler;
+
+    /**
+     * 初期処理
+     */
+    @BeforeEach
+    public void init() {
+        Kintone kintone = Mockito.mock(Kintone.class);
+        Mockito.when(kintone.createClient()).thenReturn(Mockito.mock(KintoneClient.class));
+        bulkWriter = Mockito.mock(KintoneBulkWriter.class);
+        scheduler = Mockito.mock(KintoneRequestScheduler.class);
+        target = new KintoneUpserter(kintone, bulkWriter, scheduler);
+    }
+
+    /**
+     * {@link KintoneUpserter#upsert(long, String, List)}のテスト<br>
+     * 存在するキーは更新、存在しないキーは追加として1回で送信し、結果は元の順序で返却する
+     */
+    @Test
+    @DisplayName("更新と追加の振り分け")
+    @SuppressWarnings("unchecked")
+    void testUpsert() {
+
+        // キントーンにはB001のみ存在する
+        GetRecordsResponseBody found = Mockito.mock(GetRecordsResponseBody.class);
+        Mockito.when(found.getRecords()).thenReturn(List.of(record("B001", "ほげ")));
+        Mockito.when(scheduler.execute(Mockito.anyLong(), Mockito.any(), Mockito.any())).thenReturn(found);
+        Mockito.when(bulkWriter.writeAll(Mockito.anyLong(), Mockito.anyList(), Mockito.anyList())).thenReturn(List.of(
+                new KintoneBulkResult(0, 2L, 5L, null),
+                new KintoneBulkResult(1, 10L, 1L, null),
+                new KintoneBulkResult(2, 11L, 1L, null)));
+
+        List<KintoneBulkResult> results = target.upsert(46, KEY,
+                List.of(record("A001", "ふが"), record("B001", "ほげほげ"), record("C001", "ぴよ")));
+
+        ArgumentCaptor<List<RecordForUpdate>> updates = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<List<Record>> adds = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(bulkWriter).writeAll(Mockito.eq(46L), updates.capture(), adds.capture());
+        // 存在確認は1回のみ
+        Mockito.verify(scheduler, Mockito.times(1)).execute(Mockito.anyLong(), Mockito.any(), Mockito.any());
+
+        assertAll("upsert", () -> {
+            assertEquals(1, updates.getValue().size(), "updates");
+            RecordForUpdate update = updates.getValue().get(0);
+            assertEquals("B001", update.getUpdateKey().getValue(), "update key");
+            assertFalse(update.getRecord().getFieldCodes(true).contains(KEY), "key field is not updated");
+            assertEquals(List.of("A001", "C001"),
+                    adds.getValue().stream().map(record -> record.getSingleLineTextFieldValue(KEY)).toList(), "adds");
+            assertEquals(List.of(10L, 2L, 11L), results.stream().map(KintoneBulkResult::getRecordId).toList(), "result order");
+            assertEquals(List.of(0, 1, 2), results.stream().map(KintoneBulkResult::getIndex).toList(), "result index");
+        });
+    }
+
+    /**
+     * {@link KintoneUpserter#upsert(long, String, List)}のテスト<br>
+     * キーが重複している場合はエラー
+     */
+    @Test
+    @DisplayName("キーの重複")
+    void testUpsertDuplicateKey() {
+        List<Record> records = List.of(record("A001", "ほげ"), record("A001", "ふが"));
+        assertThrows(IllegalArgumentException.class, () -> target.upsert(46, KEY, records));
+    }
+
+    /**
+     * {@link KintoneUpserter#inQuery(String, List)}のテスト<br>
+     * キーのダブルクォートとバックスラッシュはエスケープする
+     */
+    @Test
+    @DisplayName("存在確認のクエリ")
+    void testInQuery() {
+        assertEquals("会社コード in (\"A001\", \"A\\\"0\\\\2\") limit 2", KintoneUpserter.inQuery(KEY, List.of("A001", "A\"0\\2")));
+    }
+
+    /**
+     * {@link KintoneUpserter#keyOf(Record, String)}のテスト<br>
+     * 数値のキーは指数表記にしない
+     */
+    @Test
+    @DisplayName("数値のキー")
+    void testKeyOfNumber() {
+        Record record = new Record().putField(KEY, new NumberFieldValue(new BigDecimal("1E+3")));
+        assertEquals("1000", KintoneUpserter.keyOf(record, KEY));
+    }
+
+    /**
+     * {@link KintoneUpserter#keyOf(Record, String)}のテスト<br>
+     * 数値のキーは小数部の末尾の0を除き、同じ値であれば同じキーになる
+     */
+    @Test
+    @DisplayName("数値のキー:末尾の0")
+    void testKeyOfNumberScale() {
+        assertAll("scale", () -> {
+            assertEquals("1000", KintoneUpserter.keyOf(numberKey("1000.00"), KEY), "integer");
+            assertEquals("12.5", KintoneUpserter.keyOf(numberKey("12.50"), KEY), "decimal");
+            assertEquals("0", KintoneUpserter.keyOf(numberKey("0.000"), KEY), "zero");
+        });
+        assertThrows(IllegalArgumentException.class,
+            () -> target.upsert(46, KEY, List.of(numberKey("1"), numberKey("1.0"))), "duplicate");
+    }
+
+    /**
+     * 数値のキーのみのテストデータの作成
+     *
+     * @param key キー
+     * @return テストデータ
+     */
+    private static Record numberKey(String key) {
+        return new Record().putField(KEY, new NumberFieldValue(new BigDecimal(key)));
+    }
+
+    /**
+     * テストデータの作成
+     *
+     * @param key         キー
+     * @param companyName 会社名
+     * @return テストデータ
+     */
+    private static Record record(String key, String companyName) {
+        return new Record()
+                .putField(KEY, new SingleLineTextFieldValue(key))
+                .putField("会社名", new SingleLineTextFieldValue(companyName));
+    }
+}
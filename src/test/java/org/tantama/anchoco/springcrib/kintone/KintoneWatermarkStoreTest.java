@@ -0,0 +1,52 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Optional;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link KintoneWatermarkStore}のテストクラス
+ */
+@DisplayName("差分同期の取得済み位置の保存")
+class KintoneWatermarkStoreTest {
+
+    /** 保存先ディレクトリ */
+    @TempDir
+    Path directory;
+
+    /**
+     * {@link KintoneWatermarkStore#load(long)}のテスト<br>
+     * 未同期の場合はemptyになる
+     */
+    @Test
+    @DisplayName("未同期")
+    void testLoadEmpty() {
+        assertTrue(new KintoneWatermarkStore(directory).load(46).isEmpty());
+    }
+
+    /**
+     * {@link KintoneWatermarkStore#save(long, Instant)}のテスト<br>
+     * 保存した値は別インスタンス(再起動後)でも読み込める。上書きした場合は最後の値になる
+     */
+    @Test
+    @DisplayName("保存と読み込み")
+    void testSaveAndLoad() {
+
+        final Instant first = Instant.parse("2022-06-27T03:27:40Z");
+        final Instant second = Instant.parse("2022-06-28T00:00:00Z");
+
+        KintoneWatermarkStore store = new KintoneWatermarkStore(directory);
+        store.save(46, first);
+        store.save(46, second);
+        store.save(47, first);
+
+        KintoneWatermarkStore restarted = new KintoneWatermarkStore(directory);
+        assertEquals(Optional.of(second), restarted.load(46));
+        assertEquals(Optional.of(first), restarted.load(47));
+    }
+}
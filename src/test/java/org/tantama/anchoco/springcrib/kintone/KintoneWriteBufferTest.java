@@ -0,0 +1,173 @@
+package org.tantama.anchoco.springcrib.kintone;
+
+import com.kintone.client.model.record.Record;
+import com.kintone.client.model.record.RecordForUpdate;
+import com.kintone.client.model.record.SingleLineTextFieldValue;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * {@link KintoneWriteBuffer}のテストクラス
+ */
+@DisplayName("キントーン更新の書き込みバッファ")
+class KintoneWriteBufferTest {
+
+    /** テスト対象 */
+    private KintoneWriteBuffer target;
+
+    /** 一括更新のmock */
+    private KintoneBulkWriter bulkWriter;
+
+    /** 定期書き込みの間隔(テスト中に動作しないよう長くする) */
+    private static final long FLUSH_INTERVAL_MS = 600_000;
+
+    /** 1レコードあたりの書き込みの最大試行回数 */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * 初期処理
+     */
+    @BeforeEach
+    public void init() {
+        bulkWriter = Mockito.mock(KintoneBulkWriter.class);
+        Mockito.when(bulkWriter.updateAll(Mockito.anyLong(), Mockito.anyList())).thenReturn(List.of());
+        target = new KintoneWriteBuffer(bulkWriter, 100, FLUSH_INTERVAL_MS, MAX_ATTEMPTS);
+    }
+
+    /**
+     * 終了処理
+     */
+    @AfterEach
+    public void destroy() {
+        target.close();
+    }
+
+    /**
+     * {@link KintoneWriteBuffer#flush()}のテスト<br>
+     * 同じレコードへの更新は1件にまとめられ、同じフィールドは後の更新が優先される
+     */
+    @Test
+    @DisplayName("同じレコードへの更新をまとめる")
+    @SuppressWarnings("unchecked")
+    void testFlushCoalesce() {
+
+        final long appId = 46;
+        target.update(appId, 1, new Record().putField("会社名", new SingleLineTextFieldValue("before")));
+        target.update(appId, 1, new Record().putField("郵便番号", new SingleLineTextFieldValue("100-0001")));
+        target.update(appId, 1, new Record().putField("会社名", new SingleLineTextFieldValue("after")));
+        target.update(appId, 2, new Record().putField("会社名", new SingleLineTextFieldValue("other")));
+
+        target.flush();
+
+        ArgumentCaptor<List<RecordForUpdate>> captor = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(bulkWriter, Mockito.times(1)).updateAll(Mockito.eq(appId), captor.capture());
+
+        List<RecordForUpdate> records = captor.getValue();
+        Record first = records.stream().filter(record -> record.getId() == 1).findFirst().orElseThrow().getRecord();
+        assertAll("coalesce", () -> {
+            assertEquals(2, records.size(), "record count");
+            assertEquals("after", first.getSingleLineTextFieldValue("会社名"), "company name");
+            assertEquals("100-0001", first.getSingleLineTextFieldValue("郵便番号"), "zip code");
+        });
+    }
+
+    /**
+     * {@link KintoneWriteBuffer#flush()}のテスト<br>
+     * 書き込み後はバッファが空になり、再度書き込みは行われない
+     */
+    @Test
+    @DisplayName("書き込み後のバッファは空")
+    void testFlushTwice() {
+
+        target.update(46, 1, new Record().putField("会社名", new SingleLineTextFieldValue("name")));
+
+        target.flush();
+        target.flush();
+
+        Mockito.verify(bulkWriter, Mockito.times(1)).updateAll(Mockito.anyLong(), Mockito.anyList());
+    }
+
+    /**
+     * {@link KintoneWriteBuffer#flush()}のテスト<br>
+     * 書き込みに失敗したレコードはバッファに戻り、次の書き込みで再送される。
+     * 書き込み中に追加された同じレコードへの更新は、失敗した更新内容より優先してまとめられる
+     */
+    @Test
+    @DisplayName("書き込みに失敗したレコードの再送")
+    @SuppressWarnings("unchecked")
+    void testFlushFailure() {
+
+        final long appId = 46;
+        final RuntimeException error = new IllegalStateException("bulk request failed");
+        List<List<RecordForUpdate>> written = new ArrayList<>();
+        Mockito.when(bulkWriter.updateAll(Mockito.anyLong(), Mockito.anyList())).thenAnswer(invocation -> {
+            List<RecordForUpdate> records = List.copyOf(invocation.getArgument(1));
+            written.add(records);
+            if (written.size() > 1) {
+                return List.of(new KintoneBulkResult(0, 1L, 3L, null));
+            }
+            // 書き込み中に同じレコードへの更新が追加される
+            target.update(appId, 1, new Record().putField("会社名", new SingleLineTextFieldValue("newer")));
+            return List.of(new KintoneBulkResult(0, 1L, null, error), new KintoneBulkResult(1, 2L, 2L, null));
+        });
+
+        target.update(appId, 1, new Record()
+                .putField("会社名", new SingleLineTextFieldValue("failed"))
+                .putField("郵便番号", new SingleLineTextFieldValue("100-0001")));
+        target.update(appId, 2, new Record().putField("会社名", new SingleLineTextFieldValue("other")));
+
+        List<KintoneBulkResult> first = target.flush();
+        assertAll("failed", () -> {
+            assertFalse(first.get(0).isSuccess(), "surfaced");
+            assertEquals(1, target.getPendingCount(), "requeued");
+        });
+
+        target.flush();
+        Record retried = written.get(1).get(0).getRecord();
+        assertAll("retried", () -> {
+            assertEquals(1, written.get(1).size(), "only failed record");
+            assertEquals(1L, written.get(1).get(0).getId(), "record id");
+            assertEquals("newer", retried.getSingleLineTextFieldValue("会社名"), "newer value");
+            assertEquals("100-0001", retried.getSingleLineTextFieldValue("郵便番号"), "failed value");
+            assertEquals(0, target.getPendingCount(), "empty");
+        });
+    }
+
+    /**
+     * {@link KintoneWriteBuffer#flush()}のテスト<br>
+     * 最大試行回数まで失敗したレコードは破棄される。一括更新自体のエラーは呼び出し元に投げ、更新内容はバッファに戻る
+     */
+    @Test
+    @DisplayName("書き込みに失敗し続けるレコードの破棄")
+    void testFlushGiveUp() {
+
+        final RuntimeException error = new IllegalStateException("bulk request failed");
+        Mockito.when(bulkWriter.updateAll(Mockito.anyLong(), Mockito.anyList()))
+                .thenThrow(error)
+                .thenReturn(List.of(new KintoneBulkResult(0, 1L, null, error)));
+
+        target.update(46, 1, new Record().putField("会社名", new SingleLineTextFieldValue("name")));
+
+        assertSame(error, assertThrows(IllegalStateException.class, target::flush), "thrown");
+        assertEquals(1, target.getPendingCount(), "requeued");
+
+        for (int i = 1; i < MAX_ATTEMPTS; i++) {
+            target.flush();
+        }
+        target.flush();
+
+        assertEquals(0, target.getPendingCount(), "dropped");
+        Mockito.verify(bulkWriter, Mockito.times(MAX_ATTEMPTS)).updateAll(Mockito.anyLong(), Mockito.anyList());
+    }
+}
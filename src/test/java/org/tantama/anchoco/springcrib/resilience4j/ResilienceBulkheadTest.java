@@ -0,0 +1,149 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.tantama.anchoco.springcrib.resilience4j.BulkheadProperties.Instance;
+import org.tantama.anchoco.springcrib.resilience4j.BulkheadProperties.ThreadPoolInstance;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * {@link ResilienceBulkhead}のテストクラス
+ */
+@DisplayName("呼び出し先ごとのバルクヘッド")
+class ResilienceBulkheadTest {
+
+    /** テスト対象 */
+    private ResilienceBulkhead target;
+
+    /** 実行中の処理を止めておくための待機 */
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    /** 実行中の処理が開始したことの待機 */
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    /**
+     * 初期処理
+     */
+    @BeforeEach
+    public void init() {
+
+        Instance instance = new Instance();
+        instance.setMaxConcurrentCalls(1);
+        instance.setMaxWaitMs(0);
+
+        ThreadPoolInstance threadPool = new ThreadPoolInstance();
+        threadPool.setCoreThreadPoolSize(1);
+        threadPool.setMaxThreadPoolSize(1);
+        threadPool.setQueueCapacity(1);
+
+        BulkheadProperties properties = new BulkheadProperties();
+        properties.getInstances().put("test", instance);
+        properties.getThreadPoolInstances().put("test", threadPool);
+        target = new ResilienceBulkhead(properties);
+    }
+
+    /**
+     * 終了処理
+     */
+    @AfterEach
+    public void destroy() {
+        release.countDown();
+        target.destroy();
+    }
+
+    /**
+     * {@link ResilienceBulkhead#decorateSupplier(String, Supplier)}のテスト<br>
+     * 同時実行数の上限を超えた場合は拒否し、使用率と拒否した数を集計する
+     *
+     * @throws InterruptedException 待機の割り込み
+     */
+    @Test
+    @DisplayName("同時実行数の制限")
+    void testDecorateSupplier() throws InterruptedException {
+
+        Supplier<String> call = target.decorateSupplier("test", this::block);
+        CompletableFuture<String> running = CompletableFuture.supplyAsync(call);
+        started.await();
+
+        assertThrows(BulkheadFullException.class, call::get);
+        assertEquals(1.0, target.getSaturation("test"));
+
+        release.countDown();
+        assertEquals("hoge", running.join());
+        assertEquals(0.0, target.getSaturation("test"));
+
+        WaitMetrics metrics = target.getWaitMetrics("test");
+        assertEquals(1, metrics.getPermittedCount());
+        assertEquals(1, metrics.getRejectedCount());
+    }
+
+    /**
+     * {@link ResilienceBulkhead#isolate(String, Supplier)}のテスト<br>
+     * 専用のスレッドで実行し、実行待ちの上限を超えた場合は拒否する
+     *
+     * @throws InterruptedException 待機の割り込み
+     */
+    @Test
+    @DisplayName("専用のスレッドでの実行")
+    void testIsolate() throws InterruptedException {
+
+        Supplier<CompletableFuture<String>> call = () -> target.isolate("test", this::block).get().toCompletableFuture();
+
+        CompletableFuture<String> running = call.get();
+        started.await();
+        CompletableFuture<String> queued = call.get();
+        CompletableFuture<String> rejected = call.get();
+
+        CompletionException actual = assertThrows(CompletionException.class, rejected::join);
+        assertInstanceOf(BulkheadFullException.class, actual.getCause());
+        assertEquals(1.0, target.getThreadPoolSaturation("test"));
+
+        release.countDown();
+        assertEquals("hoge", running.join());
+        assertEquals("hoge", queued.join());
+
+        WaitMetrics metrics = target.getThreadPoolWaitMetrics("test");
+        assertEquals(2, metrics.getPermittedCount());
+        assertEquals(1, metrics.getRejectedCount());
+    }
+
+    /**
+     * {@link ResilienceBulkhead#decorateSupplier(String, Supplier)}のテスト<br>
+     * 定義していない名前の場合は、実行処理をそのまま返す
+     */
+    @Test
+    @DisplayName("定義していないバルクヘッド")
+    void testUndefined() {
+
+        Supplier<String> sup = () -> "hoge";
+
+        assertSame(sup, target.decorateSupplier("undefined", sup));
+        assertThrows(IllegalArgumentException.class, () -> target.bulkhead("undefined"));
+        assertThrows(IllegalArgumentException.class, () -> target.isolate("undefined", sup));
+    }
+
+    /**
+     * 解放されるまで止まる処理
+     *
+     * @return レスポンス
+     */
+    private String block() {
+        started.countDown();
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "hoge";
+    }
+}
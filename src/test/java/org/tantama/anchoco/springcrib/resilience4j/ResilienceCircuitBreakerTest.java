@@ -0,0 +1,186 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker.State;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker.StateTransition;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.tantama.anchoco.springcrib.resilience4j.CircuitBreakerProperties.Instance;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link ResilienceCircuitBreaker}のテストクラス
+ */
+@DisplayName("呼び出し先ごとのサーキットブレイカー")
+class ResilienceCircuitBreakerTest {
+
+    /** テスト対象 */
+    private ResilienceCircuitBreaker target;
+
+    /** 失敗とみなすエラー */
+    private static final Supplier<String> FAILURE = () -> {
+        throw new RuntimeException(new UncheckedIOException(new IOException("timeout")));
+    };
+
+    /**
+     * 初期処理
+     */
+    @BeforeEach
+    public void init() {
+
+        Instance instance = new Instance();
+        instance.setSlidingWindowSize(4);
+        instance.setMinimumNumberOfCalls(4);
+        instance.setFailureRateThreshold(50);
+        instance.setWaitDurationInOpenState(1);
+        instance.setPermittedNumberOfCallsInHalfOpenState(2);
+        instance.getRecordExceptions().add(UncheckedIOException.class);
+
+        Instance status = new Instance();
+        status.setSlidingWindowSize(4);
+        status.setMinimumNumberOfCalls(4);
+        status.setFailureRateThreshold(50);
+        status.getRecordExceptions().add(HttpStatusCodeException.class);
+        status.setRecordExceptionPredicate(Unavailable.class);
+
+        CircuitBreakerProperties properties = new CircuitBreakerProperties();
+        properties.getInstances().put("test", instance);
+        properties.getInstances().put("status", status);
+        target = new ResilienceCircuitBreaker(properties);
+    }
+
+    /**
+     * {@link ResilienceCircuitBreaker#circuitBreaker(String)}のテスト<br>
+     * 失敗率が閾値を超えた場合は遮断し、呼び出さずに即時に失敗する
+     */
+    @Test
+    @DisplayName("失敗率による遮断")
+    void testOpen() {
+
+        CircuitBreaker breaker = target.circuitBreaker("test");
+        Supplier<String> call = CircuitBreaker.decorateSupplier(breaker, FAILURE);
+
+        for (int i = 0; i < 2; i++) {
+            assertThrows(RuntimeException.class, call::get);
+            CircuitBreaker.decorateSupplier(breaker, () -> "hoge").get();
+        }
+
+        assertEquals(State.OPEN, breaker.getState());
+        assertThrows(CallNotPermittedException.class, CircuitBreaker.decorateSupplier(breaker, () -> "hoge")::get);
+        assertEquals(1, target.getTransitionCount("test", StateTransition.CLOSED_TO_OPEN));
+        assertEquals(2, breaker.getMetrics().getNumberOfFailedCalls());
+        assertEquals(1, breaker.getMetrics().getNumberOfNotPermittedCalls());
+    }
+
+    /**
+     * {@link ResilienceCircuitBreaker#circuitBreaker(String)}のテスト<br>
+     * 失敗とみなすエラーでない場合は、失敗率に含めない
+     */
+    @Test
+    @DisplayName("失敗とみなさないエラー")
+    void testIgnoredError() {
+
+        CircuitBreaker breaker = target.circuitBreaker("test");
+        Supplier<String> call = CircuitBreaker.decorateSupplier(breaker, () -> {
+            throw new IllegalArgumentException("bad request");
+        });
+
+        for (int i = 0; i < 4; i++) {
+            assertThrows(IllegalArgumentException.class, call::get);
+        }
+
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getMetrics().getNumberOfFailedCalls());
+    }
+
+    /**
+     * {@link ResilienceCircuitBreaker#circuitBreaker(String)}のテスト<br>
+     * 失敗とみなすエラーのうち、判定がtrueのエラーのみ失敗率に含める
+     */
+    @Test
+    @DisplayName("失敗とみなすエラーの判定")
+    void testRecordExceptionPredicate() {
+
+        CircuitBreaker breaker = target.circuitBreaker("status");
+        Supplier<String> serverError = CircuitBreaker.decorateSupplier(breaker, () -> {
+            throw new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR);
+        });
+        for (int i = 0; i < 4; i++) {
+            assertThrows(HttpServerErrorException.class, serverError::get);
+        }
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getMetrics().getNumberOfFailedCalls());
+
+        Supplier<String> unavailable = CircuitBreaker.decorateSupplier(breaker, () -> {
+            throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+        });
+        // 直近4回のうち2回の失敗で遮断する(失敗とみなさないエラーは成功として集計する)
+        for (int i = 0; i < 2; i++) {
+            assertThrows(HttpServerErrorException.class, unavailable::get);
+        }
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getMetrics().getNumberOfFailedCalls());
+    }
+
+    /**
+     * {@link ResilienceCircuitBreaker#circuitBreaker(String)}のテスト<br>
+     * 遮断の時間経過後は試行の呼び出しを許可し、成功した場合は復旧する
+     *
+     * @throws InterruptedException 待機の割り込み
+     */
+    @Test
+    @DisplayName("試行による復旧")
+    void testHalfOpenToClosed() throws InterruptedException {
+
+        CircuitBreaker breaker = target.circuitBreaker("test");
+        Supplier<String> call = CircuitBreaker.decorateSupplier(breaker, FAILURE);
+        for (int i = 0; i < 4; i++) {
+            assertThrows(RuntimeException.class, call::get);
+        }
+        assertEquals(State.OPEN, breaker.getState());
+
+        Thread.sleep(1100);
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals("hoge", CircuitBreaker.decorateSupplier(breaker, () -> "hoge").get());
+        }
+
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(1, target.getTransitionCount("test", StateTransition.OPEN_TO_HALF_OPEN));
+        assertEquals(1, target.getTransitionCount("test", StateTransition.HALF_OPEN_TO_CLOSED));
+    }
+
+    /**
+     * {@link ResilienceCircuitBreaker#find(String)}のテスト<br>
+     * 定義していない名前の場合はempty
+     */
+    @Test
+    @DisplayName("定義していないサーキットブレイカー")
+    void testFindUndefined() {
+        assertTrue(target.find("undefined").isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> target.circuitBreaker("undefined"));
+    }
+
+    /**
+     * テスト用の失敗とみなすエラーの判定<br>
+     * 503の場合に失敗とみなす
+     */
+    static class Unavailable implements Predicate<Throwable> {
+
+        @Override
+        public boolean test(Throwable error) {
+            return error instanceof HttpStatusCodeException e && e.getStatusCode().value() == 503;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpServerErrorException;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * {@link ResilienceMeterBinder}のテストクラス
+ */
+@DisplayName("リトライなどのメトリクスの登録")
+class ResilienceMeterBinderTest {
+
+    /** リトライ処理 */
+    private ResilienceRetry retry;
+
+    /** 登録先 */
+    private MeterRegistry registry;
+
+    /**
+     * 初期処理
+     */
+    @BeforeEach
+    public void init() {
+        retry = new ResilienceRetry();
+        ReflectionTestUtils.setField(retry, "maxAttempts", 2);
+        ReflectionTestUtils.setField(retry, "retryInterval", 0L);
+        retry.init();
+
+        registry = new SimpleMeterRegistry();
+        new ResilienceMeterBinder(retry, new ResilienceCircuitBreaker(new CircuitBreakerProperties()),
+                new ResilienceBulkhead(new BulkheadProperties()), new ResilienceRateLimiter(new RateLimiterProperties()))
+                .bindTo(registry);
+    }
+
+    /**
+     * 終了処理
+     */
+    @AfterEach
+    public void destroy() {
+        retry.destroy();
+    }
+
+    /**
+     * {@link ResilienceMeterBinder#bindTo(MeterRegistry)}のテスト<br>
+     * 登録したメトリクスから、参照時のリトライの集計を取得できる
+     */
+    @Test
+    @DisplayName("リトライの集計の登録")
+    void testBindTo() {
+
+        retry.excuteRetry(() -> "ok");
+        assertThrows(HttpServerErrorException.class, () -> retry.excuteRetry(() -> {
+            throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+        }));
+
+        assertEquals(1, count("resilience.retry.retries"));
+        assertEquals(1, count("resilience.retry.success.without.retry"));
+        assertEquals(1, count("resilience.retry.exhausted"));
+        assertEquals(3, registry.get("resilience.retry.attempt").tag("name", ResilienceRetry.DEFAULT_POLICY)
+                .timer().count());
+        assertNotNull(registry.get("resilience.retry.budget.available").gauge());
+        // resilience4jの標準のメトリクス
+        assertNotNull(registry.get("resilience4j.retry.calls").tag("name", ResilienceRetry.DEFAULT_POLICY).meter());
+    }
+
+    /**
+     * 既定のリトライ設定の累計値
+     *
+     * @param meter メトリクス名
+     * @return 累計値
+     */
+    private double count(String meter) {
+        return registry.get(meter).tag("name", ResilienceRetry.DEFAULT_POLICY).functionCounter().count();
+    }
+}
@@ -0,0 +1,95 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import io.github.resilience4j.ratelimiter.RequestNotPermitted;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.tantama.anchoco.springcrib.resilience4j.RateLimiterProperties.Instance;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * {@link ResilienceRateLimiter}のテストクラス
+ */
+@DisplayName("呼び出し先ごとのレートリミッター")
+class ResilienceRateLimiterTest {
+
+    /** テスト対象 */
+    private ResilienceRateLimiter target;
+
+    /**
+     * 初期処理
+     */
+    @BeforeEach
+    public void init() {
+
+        // 60秒あたり2回、待たずに拒否する
+        Instance instance = new Instance();
+        instance.setLimitForPeriod(2);
+        instance.setLimitRefreshPeriodMs(60_000);
+        instance.setTimeoutMs(0);
+
+        RateLimiterProperties properties = new RateLimiterProperties();
+        properties.getInstances().put("test", instance);
+        target = new ResilienceRateLimiter(properties);
+    }
+
+    /**
+     * {@link ResilienceRateLimiter#decorateSupplier(String, Supplier)}のテスト<br>
+     * 期間あたりの上限を超えた場合は拒否し、拒否した数を集計する
+     */
+    @Test
+    @DisplayName("呼び出し頻度の制限")
+    void testDecorateSupplier() {
+
+        Supplier<String> call = target.decorateSupplier("test", () -> "hoge");
+
+        assertEquals("hoge", call.get());
+        assertEquals("hoge", call.get());
+        assertThrows(RequestNotPermitted.class, call::get);
+
+        WaitMetrics metrics = target.getWaitMetrics("test");
+        assertEquals(2, metrics.getPermittedCount());
+        assertEquals(1, metrics.getRejectedCount());
+    }
+
+    /**
+     * {@link ResilienceRateLimiter#decorateCompletionStage(String, Supplier)}のテスト<br>
+     * 非同期処理の場合、上限を超えた呼び出しは失敗する
+     */
+    @Test
+    @DisplayName("非同期の呼び出し頻度の制限")
+    void testDecorateCompletionStage() {
+
+        Supplier<CompletionStage<String>> call = target.decorateCompletionStage("test",
+                () -> CompletableFuture.completedFuture("hoge"));
+
+        assertEquals("hoge", call.get().toCompletableFuture().join());
+        assertEquals("hoge", call.get().toCompletableFuture().join());
+        CompletionException actual = assertThrows(CompletionException.class,
+                () -> call.get().toCompletableFuture().join());
+        assertInstanceOf(RequestNotPermitted.class, actual.getCause());
+
+        assertEquals(1, target.getWaitMetrics("test").getRejectedCount());
+    }
+
+    /**
+     * {@link ResilienceRateLimiter#decorateSupplier(String, Supplier)}のテスト<br>
+     * 定義していない名前の場合は、実行処理をそのまま返す
+     */
+    @Test
+    @DisplayName("定義していないレートリミッター")
+    void testUndefined() {
+
+        Supplier<String> sup = () -> "hoge";
+
+        assertSame(sup, target.decorateSupplier("undefined", sup));
+        assertThrows(IllegalArgumentException.class, () -> target.rateLimiter("undefined"));
+    }
+}
@@ -1,6 +1,17 @@
 package org.tantama.anchoco.springcrib.resilience4j;
 
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.core.IntervalFunction;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.DisplayName;
@@ -10,8 +21,15 @@ import org.springframework.http.HttpStatus;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.tantama.anchoco.springcrib.resilience4j.RetryPolicyProperties.Policy;
+import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 /**
@@ -39,6 +57,14 @@ class ResilienceRetryTest {
         target.init();
     }
 
+    /**
+     * 終了処理
+     */
+    @AfterEach
+    public void afterMethod() {
+        target.destroy();
+    }
+
     /**
      * {@link ResilienceRetry#init()}のテストクラス
      */
@@ -137,4 +163,500 @@ class ResilienceRetryTest {
         assertThrows(HttpClientErrorException.class, () -> target.excuteRetry(sup));
     }
 
+    /**
+     * {@link ResilienceRetry#executeAsync(Supplier)}のテスト<br>
+     * リトライまでの待機中は呼び出し元に戻り、待機後のリトライで正常終了する
+     */
+    @Test
+    @DisplayName("非同期のリトライを行う正常動作")
+    void testExecuteAsyncOneRetry() {
+
+        final Exception retryError = new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR);
+
+        TestSupplier mockClass = Mockito.mock(TestSupplier.class);
+        Mockito
+                .doThrow(retryError)
+                .doReturn("hoge")
+                .when(mockClass).testSupplier();
+
+        Supplier<CompletionStage<String>> sup = () -> CompletableFuture.supplyAsync(mockClass::testSupplier);
+
+        CompletableFuture<String> actual = target.executeAsync(sup).toCompletableFuture();
+
+        // 待機中(1s)は完了していない
+        assertFalse(actual.isDone());
+        assertEquals("hoge", actual.join());
+        Mockito.verify(mockClass, Mockito.times(MAX_ATTEMPTS)).testSupplier();
+    }
+
+    /**
+     * {@link ResilienceRetry#executeAsync(Supplier)}のテスト<br>
+     * 規定の回数の規定のエラーを超えた場合、その発生したエラーで失敗する
+     */
+    @Test
+    @DisplayName("非同期の規定回数のリトライを超えるエラー")
+    void testExecuteAsyncOverRetry() {
+
+        final Exception retryError = new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR);
+
+        Supplier<CompletionStage<String>> sup = () -> CompletableFuture.failedFuture(retryError);
+
+        CompletionException actual = assertThrows(CompletionException.class,
+                () -> target.executeAsync(sup).toCompletableFuture().join());
+        assertInstanceOf(HttpServerErrorException.class, actual.getCause());
+    }
+
+    /**
+     * {@link ResilienceRetry#backoff(Duration, double, Duration, boolean)}のテスト<br>
+     * インターバルはリトライごとに倍率をかけ、上限で止まる
+     */
+    @Test
+    @DisplayName("指数バックオフ")
+    void testBackoff() {
+
+        IntervalFunction backoff = ResilienceRetry.backoff(Duration.ofSeconds(1), 2, Duration.ofSeconds(5), false);
+
+        assertEquals(1000L, backoff.apply(1));
+        assertEquals(2000L, backoff.apply(2));
+        assertEquals(4000L, backoff.apply(3));
+        assertEquals(5000L, backoff.apply(4));
+    }
+
+    /**
+     * {@link ResilienceRetry#backoff(Duration, double, Duration, boolean)}のテスト<br>
+     * full jitterの場合、インターバルは0から算出したインターバルまでの範囲になる
+     */
+    @Test
+    @DisplayName("指数バックオフのfull jitter")
+    void testBackoffJitter() {
+
+        IntervalFunction backoff = ResilienceRetry.backoff(Duration.ofSeconds(1), 2, Duration.ofSeconds(5), true);
+
+        for (int i = 0; i < 1000; i++) {
+            final long interval = backoff.apply(3);
+            assertTrue(0 <= interval && interval <= 4000, "interval " + interval);
+        }
+    }
+
+    /**
+     * {@link ResilienceRetry#excuteRetry(String, Supplier)}のテスト<br>
+     * 名前付きのリトライ設定では、設定したエラーが原因(cause)の場合もリトライし、メトリクスは名前ごとに集計する
+     */
+    @Test
+    @DisplayName("名前付きのリトライ設定のリトライ対象のエラー")
+    void testExcuteRetryNamedPolicy() {
+
+        target.destroy();
+        target = createNamed();
+
+        final Exception retryError = new RuntimeException(new UncheckedIOException(new IOException("timeout")));
+
+        TestSupplier mockClass = Mockito.mock(TestSupplier.class);
+        Mockito
+                .doThrow(retryError)
+                .doThrow(retryError)
+                .doReturn("hoge")
+                .when(mockClass).testSupplier();
+
+        assertEquals("hoge", target.excuteRetry("io", () -> mockClass.testSupplier()));
+        Mockito.verify(mockClass, Mockito.times(3)).testSupplier();
+        assertEquals(1, target.retry("io").getMetrics().getNumberOfSuccessfulCallsWithRetryAttempt());
+        assertEquals(0, target.retry(ResilienceRetry.DEFAULT_POLICY).getMetrics().getNumberOfSuccessfulCallsWithRetryAttempt());
+    }
+
+    /**
+     * {@link ResilienceRetry#excuteRetry(String, Supplier)}のテスト<br>
+     * 名前付きのリトライ設定ごとにリトライ対象のエラーは異なり、既定のリトライ対象のエラーは引き継がない
+     */
+    @Test
+    @DisplayName("名前付きのリトライ設定のリトライ対象でないエラー")
+    void testExcuteRetryNamedPolicyNoRetryError() {
+
+        target.destroy();
+        target = createNamed();
+
+        final Exception noRetryError = new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR);
+
+        TestSupplier mockClass = Mockito.mock(TestSupplier.class);
+        Mockito
+                .doThrow(noRetryError)
+                .doReturn("hoge")
+                .when(mockClass).testSupplier();
+
+        assertThrows(HttpServerErrorException.class, () -> target.excuteRetry("io", () -> mockClass.testSupplier()));
+        Mockito.verify(mockClass, Mockito.times(1)).testSupplier();
+    }
+
+    /**
+     * {@link ResilienceRetry#excuteRetry(String, Supplier)}のテスト<br>
+     * リトライ対象のエラーのうち、エラーの判定がtrueのエラーのみリトライする
+     */
+    @Test
+    @DisplayName("エラーの判定によるリトライ")
+    void testExcuteRetryExceptionPredicate() {
+
+        target.destroy();
+        target = createNamed();
+
+        TestSupplier mockClass = Mockito.mock(TestSupplier.class);
+        Mockito.doThrow(new HttpClientErrorException(HttpStatus.BAD_REQUEST)).when(mockClass).testSupplier();
+
+        assertThrows(HttpClientErrorException.class, () -> target.excuteRetry("status", () -> mockClass.testSupplier()));
+        Mockito.verify(mockClass, Mockito.times(1)).testSupplier();
+
+        Mockito.reset(mockClass);
+        Mockito
+                .doThrow(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE))
+                .doReturn("hoge")
+                .when(mockClass).testSupplier();
+
+        assertEquals("hoge", target.excuteRetry("status", () -> mockClass.testSupplier()));
+        Mockito.verify(mockClass, Mockito.times(2)).testSupplier();
+    }
+
+    /**
+     * {@link ResilienceRetry#excuteRetry(String, Supplier)}のテスト<br>
+     * レスポンスの判定でリトライし、リトライ回数を超えた場合は最後のレスポンスを返す
+     */
+    @Test
+    @DisplayName("レスポンスによるリトライ")
+    void testExcuteRetryResultPredicate() {
+
+        target.destroy();
+        target = createNamed();
+
+        TestSupplier mockClass = Mockito.mock(TestSupplier.class);
+        Mockito
+                .doReturn(RetryableResult.RETRY)
+                .doReturn("hoge")
+                .when(mockClass).testSupplier();
+
+        assertEquals("hoge", target.excuteRetry("result", () -> mockClass.testSupplier()));
+
+        Mockito.reset(mockClass);
+        Mockito.doReturn(RetryableResult.RETRY).when(mockClass).testSupplier();
+
+        assertEquals(RetryableResult.RETRY, target.excuteRetry("result", () -> mockClass.testSupplier()));
+        Mockito.verify(mockClass, Mockito.times(3)).testSupplier();
+    }
+
+    /**
+     * {@link ResilienceRetry#excuteRetry(String, Supplier)}のテスト<br>
+     * サーキットブレイカーが遮断中の場合、呼び出さず、リトライもせずに即時に失敗する
+     */
+    @Test
+    @DisplayName("サーキットブレイカーの遮断中")
+    void testExcuteRetryCircuitOpen() {
+
+        target.destroy();
+        target = createNamed();
+
+        final Exception retryError = new UncheckedIOException(new IOException("timeout"));
+
+        TestSupplier mockClass = Mockito.mock(TestSupplier.class);
+        Mockito.doThrow(retryError).when(mockClass).testSupplier();
+
+        // 3回実行 * 2回呼び出しで遮断する
+        for (int i = 0; i < 2; i++) {
+            assertThrows(UncheckedIOException.class, () -> target.excuteRetry("io", () -> mockClass.testSupplier()));
+        }
+        Mockito.reset(mockClass);
+
+        assertThrows(CallNotPermittedException.class, () -> target.excuteRetry("io", () -> mockClass.testSupplier()));
+        Mockito.verify(mockClass, Mockito.never()).testSupplier();
+        assertEquals(1, target.retry("io").getMetrics().getNumberOfFailedCallsWithoutRetryAttempt());
+    }
+
+    /**
+     * {@link ResilienceRetry#excuteRetry(String, Object, Supplier)}のテスト<br>
+     * タイムアウトでリトライしても失敗した場合、同じ引数で最後に成功した値を返す
+     */
+    @Test
+    @DisplayName("リトライ失敗時の代替値")
+    void testExcuteRetryStaleIfError() {
+
+        target.destroy();
+        target = createNamed();
+
+        final Exception retryError = new UncheckedIOException(new SocketTimeoutException("timeout"));
+
+        TestSupplier mockClass = Mockito.mock(TestSupplier.class);
+        Mockito
+                .doReturn("hoge")
+                .doThrow(retryError)
+                .when(mockClass).testSupplier();
+
+        assertEquals("hoge", target.excuteRetry("stale", 1, () -> mockClass.testSupplier()));
+        // リトライしても失敗するが、最後に成功した値を返す
+        assertEquals("hoge", target.excuteRetry("stale", 1, () -> mockClass.testSupplier()));
+        // 引数が異なる場合は代替値が無いためエラー
+        assertThrows(UncheckedIOException.class, () -> target.excuteRetry("stale", 2, () -> mockClass.testSupplier()));
+
+        assertEquals(1, target.getFallbackCache().getStaleHitCount("stale"));
+        assertEquals(1, target.getFallbackCache().getStaleMissCount());
+    }
+
+    /**
+     * {@link ResilienceRetry#excuteRetry(String, Object, Supplier)}のテスト<br>
+     * サーバーエラー、タイムアウトでないエラーの場合は、リトライ対象のエラーでも代替値を返さない
+     */
+    @Test
+    @DisplayName("代替値を返さないエラー")
+    void testExcuteRetryStaleIfErrorNoRetryError() {
+
+        target.destroy();
+        target = createNamed();
+
+        TestSupplier mockClass = Mockito.mock(TestSupplier.class);
+        Mockito
+                .doReturn("hoge")
+                .doThrow(new IllegalStateException("bad request"))
+                .when(mockClass).testSupplier();
+
+        assertEquals("hoge", target.excuteRetry("stale", 1, () -> mockClass.testSupplier()));
+        assertThrows(IllegalStateException.class, () -> target.excuteRetry("stale", 1, () -> mockClass.testSupplier()));
+
+        Mockito.reset(mockClass);
+        Mockito.doThrow(new UncheckedIOException(new IOException("connection refused"))).when(mockClass).testSupplier();
+        assertThrows(UncheckedIOException.class, () -> target.excuteRetry("stale", 1, () -> mockClass.testSupplier()));
+        // リトライ対象のエラーのためリトライはする
+        Mockito.verify(mockClass, Mockito.times(3)).testSupplier();
+
+        assertEquals(0, target.getFallbackCache().getStaleHitCount());
+    }
+
+    /**
+     * {@link ResilienceRetry#excuteRetry(String, Object, Supplier)}のテスト<br>
+     * サーキットブレイカーの遮断中は、エラーの判定によらず代替値を返す
+     */
+    @Test
+    @DisplayName("サーキットブレイカーの遮断中の代替値")
+    void testExcuteRetryStaleIfErrorCircuitOpen() {
+
+        target.destroy();
+        target = createNamed();
+
+        TestSupplier mockClass = Mockito.mock(TestSupplier.class);
+        Mockito.doReturn("hoge").when(mockClass).testSupplier();
+        assertEquals("hoge", target.excuteRetry("io", 1, () -> mockClass.testSupplier()));
+
+        // 代替値を返さないエラー(接続拒否)で遮断する
+        Mockito.reset(mockClass);
+        Mockito.doThrow(new UncheckedIOException(new IOException("connection refused"))).when(mockClass).testSupplier();
+        assertThrows(UncheckedIOException.class, () -> target.excuteRetry("io", 1, () -> mockClass.testSupplier()));
+        while (target.retry("io").getMetrics().getNumberOfFailedCallsWithoutRetryAttempt() == 0) {
+            assertThrows(RuntimeException.class, () -> target.excuteRetry("io", 2, () -> mockClass.testSupplier()));
+        }
+
+        assertEquals("hoge", target.excuteRetry("io", 1, () -> mockClass.testSupplier()));
+        assertEquals(1, target.getFallbackCache().getStaleHitCount("io"));
+    }
+
+    /**
+     * {@link ResilienceRetry#executeAsync(String, Supplier)}のテスト<br>
+     * バルクヘッドの空き待ちは許可待ち用のスレッドで行い、呼び出し元へはすぐに戻る。空きができた後に実行する
+     */
+    @Test
+    @DisplayName("非同期の実行枠の空き待ち")
+    void testExecuteAsyncBulkheadWait() {
+
+        target = createNamed();
+
+        // 実行枠(1)を使い切る
+        CompletableFuture<String> running = new CompletableFuture<>();
+        CompletableFuture<String> first = target.executeAsync("bulkhead", () -> running).toCompletableFuture();
+
+        CompletableFuture<String> thread = new CompletableFuture<>();
+        final long start = System.nanoTime();
+        CompletableFuture<String> second = target.executeAsync("bulkhead", () -> {
+            thread.complete(Thread.currentThread().getName());
+            return CompletableFuture.completedFuture("fuga");
+        }).toCompletableFuture();
+
+        // 空き待ち(最大1s)の間も呼び出し元は止まらない
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofMillis(500)) < 0, "returned");
+        assertFalse(second.isDone(), "waiting");
+
+        running.complete("hoge");
+        assertEquals("hoge", first.join());
+        assertEquals("fuga", second.join());
+        assertEquals("resilience-permit", thread.join());
+    }
+
+    /**
+     * {@link ResilienceRetry#excuteRetry(String, Supplier)}のテスト<br>
+     * リトライ予算を超えている場合はリトライせずに発生したエラーを投げ、リトライ対象でないエラーとは分けて集計する
+     */
+    @Test
+    @DisplayName("リトライ予算の超過")
+    void testExcuteRetryBudgetExhausted() {
+
+        target.destroy();
+        target = createNamed(0);
+
+        final Exception retryError = new UncheckedIOException(new IOException("timeout"));
+
+        TestSupplier mockClass = Mockito.mock(TestSupplier.class);
+        Mockito.doThrow(retryError).when(mockClass).testSupplier();
+
+        assertThrows(UncheckedIOException.class, () -> target.excuteRetry("io", () -> mockClass.testSupplier()));
+        Mockito.verify(mockClass, Mockito.times(1)).testSupplier();
+        RetryEventMetrics metrics = target.getEventMetrics("io");
+        assertAll("budget", () -> {
+            assertEquals(1, target.getBudget().getRejectedCount(), "rejected");
+            assertEquals(0, target.getBudget().getRetries(), "retries");
+            assertEquals(1, metrics.getBudgetRejectedCount(), "budget rejected calls");
+            assertEquals(0, metrics.getIgnoredErrorCount(), "ignored");
+        });
+    }
+
+    /**
+     * {@link ResilienceRetry#excuteRetry(String, Supplier)}, {@link ResilienceRetry#executeAsync(String, Supplier)}のテスト<br>
+     * リトライ予算は実際にリトライする場合のみ確保し、最後の実行の失敗では予算超過に計上しない
+     */
+    @Test
+    @DisplayName("最後の実行の失敗とリトライ予算")
+    void testExcuteRetryBudgetLastAttempt() {
+
+        target.destroy();
+        // 予算はちょうど1回の呼び出しのリトライ分(2回)
+        target = createNamed(2);
+
+        final Exception retryError = new UncheckedIOException(new IOException("timeout"));
+
+        TestSupplier mockClass = Mockito.mock(TestSupplier.class);
+        Mockito.doThrow(retryError).when(mockClass).testSupplier();
+
+        assertThrows(UncheckedIOException.class, () -> target.excuteRetry("io", () -> mockClass.testSupplier()));
+        Mockito.verify(mockClass, Mockito.times(3)).testSupplier();
+        RetryEventMetrics metrics = target.getEventMetrics("io");
+        assertAll("budget", () -> {
+            assertEquals(2, target.getBudget().getRetries(), "retries");
+            assertEquals(0, target.getBudget().getRejectedCount(), "rejected");
+            assertEquals(1, metrics.getExhaustedCount(), "exhausted");
+            assertEquals(0, metrics.getIgnoredErrorCount(), "ignored");
+        });
+
+        // 予算を使い切った後の非同期の呼び出しは、1回目の失敗で終わる
+        CompletionException actual = assertThrows(CompletionException.class,
+                () -> target.executeAsync("io", () -> CompletableFuture.<String>failedFuture(retryError))
+                        .toCompletableFuture().join());
+        assertSame(retryError, actual.getCause());
+        assertAll("exhausted budget", () -> {
+            assertEquals(2, target.getBudget().getRetries(), "retries");
+            assertEquals(1, target.getBudget().getRejectedCount(), "rejected");
+            assertEquals(1, metrics.getBudgetRejectedCount(), "budget rejected calls");
+            assertEquals(0, metrics.getIgnoredErrorCount(), "ignored");
+        });
+    }
+
+    /**
+     * {@link ResilienceRetry#retry(String)}のテスト<br>
+     * 定義していない名前の場合エラー
+     */
+    @Test
+    @DisplayName("定義していないリトライ設定")
+    void testRetryUndefined() {
+        assertThrows(IllegalArgumentException.class, () -> target.excuteRetry("undefined", () -> "hoge"));
+    }
+
+    /**
+     * 名前付きのリトライ設定を持つテスト対象の作成
+     *
+     * @return テスト対象
+     */
+    private static ResilienceRetry createNamed() {
+        return createNamed(10);
+    }
+
+    /**
+     * 名前付きのリトライ設定を持つテスト対象の作成
+     *
+     * @param budgetMinRetries リトライ予算のウィンドウあたりのリトライ数(リクエスト数の割合による追加なし)
+     * @return テスト対象
+     */
+    private static ResilienceRetry createNamed(int budgetMinRetries) {
+
+        Policy io = new Policy();
+        io.setMaxAttempts(3);
+        io.setWaitDuration(0L);
+        io.getRetryExceptions().add(UncheckedIOException.class);
+        io.setStaleIfError(60L);
+
+        Policy result = new Policy();
+        result.setMaxAttempts(3);
+        result.setWaitDuration(0L);
+        result.setResultPredicate(RetryableResult.class);
+
+        Policy status = new Policy();
+        status.setMaxAttempts(3);
+        status.setWaitDuration(0L);
+        status.getRetryExceptions().add(HttpStatusCodeException.class);
+        status.setExceptionPredicate(ServerError.class);
+
+        Policy stale = new Policy();
+        stale.setMaxAttempts(3);
+        stale.setWaitDuration(0L);
+        stale.getRetryExceptions().add(UncheckedIOException.class);
+        stale.setStaleIfError(60L);
+
+        Policy limited = new Policy();
+        limited.setMaxAttempts(1);
+
+        RetryPolicyProperties properties = new RetryPolicyProperties();
+        properties.getPolicies().put("io", io);
+        properties.getPolicies().put("bulkhead", limited);
+        properties.getPolicies().put("stale", stale);
+        properties.getPolicies().put("result", result);
+        properties.getPolicies().put("status", status);
+
+        CircuitBreakerProperties.Instance instance = new CircuitBreakerProperties.Instance();
+        instance.setSlidingWindowSize(6);
+        instance.setMinimumNumberOfCalls(6);
+        instance.setWaitDurationInOpenState(60);
+        CircuitBreakerProperties breakers = new CircuitBreakerProperties();
+        breakers.getInstances().put("io", instance);
+
+        BulkheadProperties.Instance bulkhead = new BulkheadProperties.Instance();
+        bulkhead.setMaxConcurrentCalls(1);
+        bulkhead.setMaxWaitMs(1000);
+        BulkheadProperties bulkheads = new BulkheadProperties();
+        bulkheads.getInstances().put("bulkhead", bulkhead);
+
+        ResilienceRetry retry = new ResilienceRetry(properties, new ResilienceCircuitBreaker(breakers),
+                new ResilienceBulkhead(bulkheads), new ResilienceRateLimiter(new RateLimiterProperties()));
+        ReflectionTestUtils.setField(retry, "maxAttempts", MAX_ATTEMPTS);
+        ReflectionTestUtils.setField(retry, "retryInterval", RETRY_INTERVAL);
+        ReflectionTestUtils.setField(retry, "budgetMinRetries", budgetMinRetries);
+        ReflectionTestUtils.setField(retry, "budgetRatio", 0d);
+        retry.init();
+        return retry;
+    }
+
+    /**
+     * テスト用のレスポンスの判定<br>
+     * レスポンスが{@link #RETRY}の場合にリトライする
+     */
+    static class RetryableResult implements Predicate<Object> {
+
+        /** リトライするレスポンス */
+        static final String RETRY = "retry";
+
+        @Override
+        public boolean test(Object result) {
+            return RETRY.equals(result);
+        }
+    }
+
+    /**
+     * テスト用のエラーの判定<br>
+     * サーバーエラー(5xx)の場合にリトライする
+     */
+    static class ServerError implements Predicate<Throwable> {
+
+        @Override
+        public boolean test(Throwable error) {
+            return error instanceof HttpStatusCodeException e && e.getStatusCode().is5xxServerError();
+        }
+    }
 }
@@ -0,0 +1,69 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * {@link RetryAfter}のテストクラス
+ */
+@DisplayName("Retry-Afterヘッダの解析")
+class RetryAfterTest {
+
+    /** 現在時刻 */
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2023-03-01T00:00:00Z"), ZoneOffset.UTC);
+
+    /**
+     * {@link RetryAfter#parse(String, Clock)}のテスト<br>
+     * 秒数と日時の両方の形式を解析する
+     */
+    @Test
+    @DisplayName("秒数と日時の解析")
+    void testParse() {
+
+        assertEquals(Optional.of(Duration.ofSeconds(120)), RetryAfter.parse("120", CLOCK));
+        assertEquals(Optional.of(Duration.ofSeconds(90)), RetryAfter.parse("Wed, 01 Mar 2023 00:01:30 GMT", CLOCK));
+        // 過去の日時は待たない
+        assertEquals(Optional.of(Duration.ZERO), RetryAfter.parse("Tue, 28 Feb 2023 23:59:00 GMT", CLOCK));
+    }
+
+    /**
+     * {@link RetryAfter#parse(String, Clock)}のテスト<br>
+     * 解析できない値はemptyとする
+     */
+    @Test
+    @DisplayName("解析できない値")
+    void testParseInvalid() {
+
+        assertEquals(Optional.empty(), RetryAfter.parse("", CLOCK));
+        assertEquals(Optional.empty(), RetryAfter.parse("-1", CLOCK));
+        assertEquals(Optional.empty(), RetryAfter.parse("tomorrow", CLOCK));
+        assertEquals(Optional.empty(), RetryAfter.parse("99999999999999999999", CLOCK));
+    }
+
+    /**
+     * {@link RetryAfter#of(Object)}のテスト<br>
+     * エラーのレスポンスヘッダから取得する
+     */
+    @Test
+    @DisplayName("エラーからの取得")
+    void testOfError() {
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HttpHeaders.RETRY_AFTER, "3");
+        HttpServerErrorException error = HttpServerErrorException.create(HttpStatus.SERVICE_UNAVAILABLE,
+                "maintenance", headers, null, null);
+
+        assertEquals(Optional.of(Duration.ofSeconds(3)), RetryAfter.of(new RuntimeException(error)));
+        assertEquals(Optional.empty(), RetryAfter.of(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE)));
+        assertEquals(Optional.empty(), RetryAfter.of("hoge"));
+    }
+}
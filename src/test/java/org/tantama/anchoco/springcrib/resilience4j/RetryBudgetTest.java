@@ -0,0 +1,103 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link RetryBudget}のテストクラス
+ */
+@DisplayName("プロセス全体のリトライ予算")
+class RetryBudgetTest {
+
+    /** テスト対象 */
+    private RetryBudget target;
+
+    /** 現在時刻(ns) */
+    private final AtomicLong now = new AtomicLong();
+
+    /**
+     * 初期処理
+     */
+    @BeforeEach
+    public void init() {
+        // 10秒間でリクエスト数の10%まで、最低2回
+        target = new RetryBudget(0.1, 2, Duration.ofSeconds(10), now::get);
+    }
+
+    /**
+     * {@link RetryBudget#tryAcquireRetry()}のテスト<br>
+     * リクエストが少ない場合も最低保証の回数まではリトライできる
+     */
+    @Test
+    @DisplayName("最低保証のリトライ")
+    void testTryAcquireRetryMinRetries() {
+
+        assertTrue(target.tryAcquireRetry());
+        assertTrue(target.tryAcquireRetry());
+
+        assertAll("budget", () -> {
+            assertFalse(target.tryAcquireRetry(), "exhausted");
+            assertEquals(2, target.getRetries(), "retries");
+            assertEquals(0, target.getAvailableRetries(), "available");
+            assertEquals(1, target.getRejectedCount(), "rejected");
+        });
+    }
+
+    /**
+     * {@link RetryBudget#tryAcquireRetry()}のテスト<br>
+     * リトライ数はリクエスト数の割合までに制限される
+     */
+    @Test
+    @DisplayName("リクエスト数に対する割合の制限")
+    void testTryAcquireRetryRatio() {
+
+        for (int i = 0; i < 50; i++) {
+            target.recordRequest();
+        }
+        int retried = 0;
+        for (int i = 0; i < 10; i++) {
+            if (target.tryAcquireRetry()) {
+                retried++;
+            }
+        }
+
+        final int actual = retried;
+        assertAll("budget", () -> {
+            assertEquals(5, actual, "retried");
+            assertEquals(50, target.getRequests(), "requests");
+            assertEquals(5, target.getRetries(), "retries");
+            assertEquals(5, target.getRejectedCount(), "rejected");
+        });
+    }
+
+    /**
+     * {@link RetryBudget#getRetries()}のテスト<br>
+     * ウィンドウから外れたリクエストとリトライは計上しない
+     */
+    @Test
+    @DisplayName("スライディングウィンドウ")
+    void testSlidingWindow() {
+
+        target.recordRequest();
+        target.tryAcquireRetry();
+        now.addAndGet(Duration.ofSeconds(5).toNanos());
+        target.recordRequest();
+        target.tryAcquireRetry();
+
+        assertEquals(2, target.getRetries(), "in window");
+
+        now.addAndGet(Duration.ofSeconds(6).toNanos());
+        assertAll("slided", () -> {
+            assertEquals(1, target.getRequests(), "requests");
+            assertEquals(1, target.getRetries(), "retries");
+            assertTrue(target.tryAcquireRetry(), "retry");
+        });
+    }
+}
@@ -0,0 +1,138 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MockClock;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * {@link RetryEventMetrics}のテストクラス
+ */
+@DisplayName("名前ごとのリトライの集計")
+class RetryEventMetricsTest {
+
+    /** 集計対象の{@link Retry} */
+    private Retry retry;
+
+    /** テスト対象 */
+    private RetryEventMetrics target;
+
+    /** 実行時間の登録先の時刻 */
+    private MockClock clock;
+
+    /** 実行時間の登録先 */
+    private MeterRegistry registry;
+
+    /**
+     * 初期処理
+     */
+    @BeforeEach
+    public void init() {
+        retry = Retry.of("test", RetryConfig.custom()
+                .maxAttempts(3)
+                .waitDuration(Duration.ofMillis(10))
+                .retryOnException(IllegalStateException.class::isInstance)
+                .build());
+        target = new RetryEventMetrics(retry);
+        clock = new MockClock();
+        registry = new SimpleMeterRegistry(SimpleConfig.DEFAULT, clock);
+        target.bindTo(registry);
+    }
+
+    /**
+     * {@link RetryEventMetrics#RetryEventMetrics(Retry)}のテスト<br>
+     * リトライのイベントから、成功、失敗の種類ごとに集計する
+     */
+    @Test
+    @DisplayName("イベントの集計")
+    void testEvents() {
+
+        final AtomicInteger count = new AtomicInteger();
+
+        retry.executeSupplier(target.decorateSupplier(() -> "ok"));
+        retry.executeSupplier(target.decorateSupplier(() -> {
+            if (count.incrementAndGet() < 2) {
+                throw new IllegalStateException("retry");
+            }
+            return "ok";
+        }));
+        assertThrows(IllegalStateException.class, () -> retry.executeSupplier(target.decorateSupplier(() -> {
+            throw new IllegalStateException("retry");
+        })));
+        assertThrows(IllegalArgumentException.class, () -> retry.executeSupplier(target.decorateSupplier(() -> {
+            throw new IllegalArgumentException("no retry");
+        })));
+
+        assertEquals("test", target.getName());
+        assertEquals(3, target.getRetryCount());
+        assertEquals(1, target.getSuccessWithoutRetryCount());
+        assertEquals(1, target.getSuccessWithRetryCount());
+        assertEquals(1, target.getExhaustedCount());
+        assertEquals(1, target.getIgnoredErrorCount());
+        assertEquals(30, target.getTotalRetryWaitMillis());
+        // 1 + 2 + 3 + 1回
+        assertEquals(7, attempts().count());
+    }
+
+    /**
+     * {@link RetryEventMetrics#decorateCompletionStage(java.util.function.Supplier)}のテスト<br>
+     * 非同期処理の完了までの時間を計測する
+     */
+    @Test
+    @DisplayName("非同期処理の実行時間")
+    void testDecorateCompletionStage() {
+
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        target.decorateCompletionStage(() -> future).get();
+        assertEquals(0, attempts().count());
+
+        future.complete("ok");
+        assertEquals(1, attempts().count());
+    }
+
+    /**
+     * {@link RetryEventMetrics#recordAttempt(long)}のテスト<br>
+     * 実行時間の合計、最大、平均を集計し、最大は一定時間の経過で減衰する
+     */
+    @Test
+    @DisplayName("実行時間の集計")
+    void testRecordAttempt() {
+
+        target.recordAttempt(Duration.ofMillis(10).toNanos());
+        target.recordAttempt(Duration.ofMillis(30).toNanos());
+
+        Timer attempts = attempts();
+        assertAll("attempts", () -> {
+            assertEquals(2, attempts.count(), "count");
+            assertEquals(40, attempts.totalTime(TimeUnit.MILLISECONDS), 0.001, "total");
+            assertEquals(30, attempts.max(TimeUnit.MILLISECONDS), 0.001, "max");
+            assertEquals(20, attempts.mean(TimeUnit.MILLISECONDS), 0.001, "mean");
+        });
+
+        // 最大値の保持期間(既定は2分)を過ぎた後は、起動直後の遅い実行を最大値として残さない
+        clock.add(Duration.ofMinutes(3));
+        assertEquals(0, attempts.max(TimeUnit.MILLISECONDS), 0.001, "decayed max");
+    }
+
+    /**
+     * 実行時間の取得
+     *
+     * @return 実行時間
+     */
+    private Timer attempts() {
+        return registry.get(RetryEventMetrics.ATTEMPT_METER).tag("name", "test").timer();
+    }
+}
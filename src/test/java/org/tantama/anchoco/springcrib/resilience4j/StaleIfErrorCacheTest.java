@@ -0,0 +1,90 @@
+package org.tantama.anchoco.springcrib.resilience4j;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * {@link StaleIfErrorCache}のテストクラス
+ */
+@DisplayName("リトライ失敗時の代替値のキャッシュ")
+class StaleIfErrorCacheTest {
+
+    /** テスト対象 */
+    private StaleIfErrorCache target;
+
+    /** 現在時刻(ns) */
+    private final AtomicLong now = new AtomicLong();
+
+    /** 許容する古さ */
+    private static final Duration MAX_STALENESS = Duration.ofSeconds(60);
+
+    /**
+     * 初期処理
+     */
+    @BeforeEach
+    public void init() {
+        target = new StaleIfErrorCache(2, now::get);
+    }
+
+    /**
+     * {@link StaleIfErrorCache#getStale(String, Object, Duration)}のテスト<br>
+     * 許容する古さの範囲内であれば、呼び出し先と引数ごとの最後に成功した値を返す
+     */
+    @Test
+    @DisplayName("許容する古さの範囲内の代替値")
+    void testGetStale() {
+
+        target.put("kintone", 1L, "first");
+        target.put("kintone", 1L, "second");
+        target.put("univapay", 1L, "other");
+        now.addAndGet(Duration.ofSeconds(60).toNanos());
+
+        assertEquals(Optional.of("second"), target.getStale("kintone", 1L, MAX_STALENESS));
+        assertEquals(Optional.empty(), target.getStale("kintone", 2L, MAX_STALENESS));
+        assertEquals(1, target.getStaleHitCount());
+        assertEquals(1, target.getStaleHitCount("kintone"));
+        assertEquals(0, target.getStaleHitCount("univapay"));
+        assertEquals(1, target.getStaleMissCount());
+    }
+
+    /**
+     * {@link StaleIfErrorCache#getStale(String, Object, Duration)}のテスト<br>
+     * 許容する古さを超えた値は返さずに削除する
+     */
+    @Test
+    @DisplayName("許容する古さを超えた値")
+    void testGetStaleExpired() {
+
+        target.put("kintone", 1L, "first");
+        now.addAndGet(Duration.ofSeconds(61).toNanos());
+
+        assertEquals(Optional.empty(), target.getStale("kintone", 1L, MAX_STALENESS));
+        assertEquals(0, target.size());
+        assertEquals(0, target.getStaleHitCount());
+        assertEquals(1, target.getStaleMissCount());
+    }
+
+    /**
+     * {@link StaleIfErrorCache#put(String, Object, Object)}のテスト<br>
+     * 件数上限を超えた場合、最も参照されていない値を追い出す
+     */
+    @Test
+    @DisplayName("件数上限による追い出し")
+    void testEviction() {
+
+        target.put("kintone", 1L, "one");
+        target.put("kintone", 2L, "two");
+        target.getStale("kintone", 1L, MAX_STALENESS);
+        target.put("kintone", 3L, "three");
+
+        assertEquals(2, target.size());
+        assertEquals(1, target.getEvictionCount());
+        assertEquals(Optional.empty(), target.age("kintone", 2L));
+        assertEquals(Optional.of(Duration.ZERO), target.age("kintone", 1L));
+    }
+}
@@ -0,0 +1,277 @@
+package org.tantama.anchoco.springcrib.univapay;
+
+import com.univapay.sdk.models.common.ChargeId;
+import com.univapay.sdk.models.common.StoreId;
+import com.univapay.sdk.models.response.charge.Charge;
+import com.univapay.sdk.types.ChargeStatus;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link ChargeStatusPoller}のテスト
+ */
+@DisplayName("課金状態のポーリングの共有")
+class ChargeStatusPollerTest {
+
+    /** テスト対象 */
+    private ChargeStatusPoller target;
+
+    /** 現在時刻(ns) */
+    private final AtomicLong now = new AtomicLong();
+
+    /** 課金IDごとの課金状態 */
+    private final Map<UUID, ChargeStatus> statuses = new ConcurrentHashMap<>();
+
+    /** 課金IDごとの取得回数 */
+    private final Map<UUID, Integer> fetches = new ConcurrentHashMap<>();
+
+    /** 予約された周期処理。テストでは実行せず、{@link ChargeStatusPoller#tick()}を直接呼び出す */
+    private final List<Runnable> scheduled = new ArrayList<>();
+
+    /** 店舗ID */
+    private final StoreId storeId = new StoreId(UUID.randomUUID());
+
+    /**
+     * 初期処理
+     */
+    @BeforeEach
+    public void init() {
+        target = new ChargeStatusPoller(this::fetch, delayMs -> scheduled::add,
+                Duration.ofMillis(500), Duration.ofSeconds(5), 0.2, 2, Duration.ZERO, now::get);
+    }
+
+    /**
+     * {@link ChargeStatusPoller#await(StoreId, ChargeId, Duration)}のテスト<br>
+     * 同じ課金の確認待ちは1つにまとめ、確定した時点で全ての確認待ちを完了する
+     *
+     * @throws Exception 処理時例外
+     */
+    @Test
+    @DisplayName("同じ課金の確認待ちをまとめる")
+    void testAwaitCoalesce() throws Exception {
+
+        final ChargeId chargeId = new ChargeId(UUID.randomUUID());
+        CompletableFuture<Charge> first = target.await(storeId, chargeId, Duration.ofSeconds(60));
+        CompletableFuture<Charge> second = target.await(storeId, chargeId, Duration.ofSeconds(60));
+
+        assertEquals(1, target.getPendingCount());
+        assertEquals(1, target.getCoalescedCount());
+        assertEquals(1, scheduled.size());
+
+        advanceAndTick(Duration.ofMillis(500));
+        assertFalse(first.isDone());
+
+        statuses.put(chargeId.toUUID(), ChargeStatus.AWAITING);
+        advanceAndTick(Duration.ofMillis(500));
+
+        assertEquals(ChargeStatus.AWAITING, first.get().getStatus());
+        assertEquals(ChargeStatus.AWAITING, second.get().getStatus());
+        assertEquals(2, fetches.get(chargeId.toUUID()));
+        assertEquals(0, target.getPendingCount());
+    }
+
+    /**
+     * {@link ChargeStatusPoller#tick()}のテスト<br>
+     * 課金の経過時間が長いほど、確認の間隔を伸ばす
+     */
+    @Test
+    @DisplayName("経過時間に応じた確認の間隔")
+    void testTickBackoff() {
+
+        final ChargeId chargeId = new ChargeId(UUID.randomUUID());
+        target.await(storeId, chargeId, Duration.ofSeconds(120));
+
+        // 60秒間、500msごとに周期処理を行う
+        for (int i = 0; i < 120; i++) {
+            advanceAndTick(Duration.ofMillis(500));
+        }
+
+        // 固定の間隔の場合は120回
+        final int count = fetches.get(chargeId.toUUID());
+        assertTrue(count < 40, "fetch count : " + count);
+        assertEquals(count, target.getPollCount());
+    }
+
+    /**
+     * {@link ChargeStatusPoller#interval(long)}のテスト<br>
+     * 確認の間隔は経過時間 * 割合とし、最短と最長の間にする
+     */
+    @Test
+    @DisplayName("確認の間隔")
+    void testInterval() {
+        assertEquals(Duration.ofMillis(500).toNanos(), target.interval(Duration.ofSeconds(1).toNanos()));
+        assertEquals(Duration.ofSeconds(2).toNanos(), target.interval(Duration.ofSeconds(10).toNanos()));
+        assertEquals(Duration.ofSeconds(5).toNanos(), target.interval(Duration.ofSeconds(60).toNanos()));
+    }
+
+    /**
+     * {@link ChargeStatusPoller#tick()}のテスト<br>
+     * 期限までに確定しない場合は、{@link TimeoutException}で失敗する
+     */
+    @Test
+    @DisplayName("確認待ちのタイムアウト")
+    void testTickTimeout() {
+
+        CompletableFuture<Charge> future = target.await(storeId, new ChargeId(UUID.randomUUID()), Duration.ofSeconds(1));
+
+        advanceAndTick(Duration.ofMillis(500));
+        advanceAndTick(Duration.ofMillis(500));
+
+        ExecutionException exception = assertThrows(ExecutionException.class, future::get);
+        assertInstanceOf(TimeoutException.class, exception.getCause());
+        assertEquals(0, target.getPendingCount());
+    }
+
+    /**
+     * {@link ChargeStatusPoller#tick()}のテスト<br>
+     * まとめた確認待ちでも、待つ時間の上限は呼び出しごとに判定する
+     */
+    @Test
+    @DisplayName("呼び出しごとのタイムアウト")
+    void testTickTimeoutPerWaiter() {
+
+        final ChargeId chargeId = new ChargeId(UUID.randomUUID());
+        CompletableFuture<Charge> longer = target.await(storeId, chargeId, Duration.ofSeconds(60));
+        CompletableFuture<Charge> shorter = target.await(storeId, chargeId, Duration.ofSeconds(1));
+
+        advanceAndTick(Duration.ofMillis(500));
+        advanceAndTick(Duration.ofMillis(500));
+
+        // 短い上限の呼び出しのみ失敗し、確認は続ける
+        ExecutionException exception = assertThrows(ExecutionException.class, shorter::get);
+        assertInstanceOf(TimeoutException.class, exception.getCause());
+        assertFalse(longer.isDone());
+        assertEquals(1, target.getPendingCount());
+
+        statuses.put(chargeId.toUUID(), ChargeStatus.AWAITING);
+        advanceAndTick(Duration.ofSeconds(1));
+        assertEquals(ChargeStatus.AWAITING, longer.join().getStatus());
+        assertEquals(0, target.getPendingCount());
+    }
+
+    /**
+     * {@link ChargeStatusPoller#notify(ChargeId)}のテスト<br>
+     * 確認中に通知を受けた場合は、確認の完了後の周期処理で確認し直す
+     */
+    @Test
+    @DisplayName("確認中のwebhookの通知")
+    void testNotifyWhilePolling() {
+
+        final ChargeId chargeId = new ChargeId(UUID.randomUUID());
+        List<CompletableFuture<Charge>> fetching = new ArrayList<>();
+        target = new ChargeStatusPoller((store, charge) -> {
+            CompletableFuture<Charge> fetched = new CompletableFuture<>();
+            fetching.add(fetched);
+            return fetched;
+        }, delayMs -> scheduled::add, Duration.ofMillis(500), Duration.ofSeconds(5), 0.2, 2, Duration.ZERO, now::get);
+
+        CompletableFuture<Charge> future = target.await(storeId, chargeId, Duration.ofSeconds(60));
+        advanceAndTick(Duration.ofMillis(500));
+        assertEquals(1, fetching.size());
+
+        // 確認中の通知
+        assertTrue(target.notify(chargeId));
+        assertEquals(1, fetching.size());
+
+        fetching.get(0).complete(fetch(storeId, chargeId).join());
+        // 経過時間に応じた間隔を待たず、次の周期処理で確認し直す
+        statuses.put(chargeId.toUUID(), ChargeStatus.AWAITING);
+        advanceAndTick(Duration.ofMillis(1));
+        assertEquals(2, fetching.size());
+
+        fetching.get(1).complete(fetch(storeId, chargeId).join());
+        assertEquals(ChargeStatus.AWAITING, future.join().getStatus());
+    }
+
+    /**
+     * {@link ChargeStatusPoller#tick()}のテスト<br>
+     * 取得に失敗した場合も、期限まで確認を続ける
+     */
+    @Test
+    @DisplayName("取得失敗時の確認の継続")
+    void testTickFetchFailure() {
+
+        final ChargeId chargeId = new ChargeId(UUID.randomUUID());
+        statuses.put(chargeId.toUUID(), ChargeStatus.FAILED);
+        target = new ChargeStatusPoller((store, charge) -> fetches.merge(charge.toUUID(), 1, Integer::sum) == 1
+                ? CompletableFuture.failedFuture(new IllegalStateException("connection reset"))
+                : fetch(store, charge),
+                delayMs -> scheduled::add, Duration.ofMillis(500), Duration.ofSeconds(5), 0.2, 2, Duration.ZERO, now::get);
+
+        CompletableFuture<Charge> future = target.await(storeId, chargeId, Duration.ofSeconds(60));
+        advanceAndTick(Duration.ofMillis(500));
+        assertFalse(future.isDone());
+
+        advanceAndTick(Duration.ofMillis(500));
+        assertEquals(ChargeStatus.FAILED, future.join().getStatus());
+    }
+
+    /**
+     * {@link ChargeStatusPoller#notify(ChargeId)}のテスト<br>
+     * webhookの通知を受けた課金は、最初の確認時刻を待たずに即時に確認する
+     */
+    @Test
+    @DisplayName("webhookの通知による即時の確認")
+    void testNotify() {
+
+        target = new ChargeStatusPoller(this::fetch, delayMs -> scheduled::add,
+                Duration.ofMillis(500), Duration.ofSeconds(5), 0.2, 2, Duration.ofSeconds(10), now::get);
+
+        final ChargeId chargeId = new ChargeId(UUID.randomUUID());
+        CompletableFuture<Charge> future = target.await(storeId, chargeId, Duration.ofSeconds(60));
+
+        // 最初の確認時刻(10秒後)までは確認しない
+        advanceAndTick(Duration.ofMillis(500));
+        assertFalse(fetches.containsKey(chargeId.toUUID()));
+
+        statuses.put(chargeId.toUUID(), ChargeStatus.AWAITING);
+        assertTrue(target.notify(chargeId));
+
+        assertEquals(ChargeStatus.AWAITING, future.join().getStatus());
+        assertEquals(1, fetches.get(chargeId.toUUID()));
+        assertEquals(1, target.getNotifiedCount());
+        // 確認待ちでない課金の通知は無視する
+        assertFalse(target.notify(new ChargeId(UUID.randomUUID())));
+    }
+
+    /**
+     * 時間を進めて周期処理を行う
+     *
+     * @param duration 進める時間
+     */
+    private void advanceAndTick(Duration duration) {
+        now.addAndGet(duration.toNanos());
+        target.tick();
+    }
+
+    /**
+     * 課金状態の取得
+     *
+     * @param store  店舗ID
+     * @param charge 課金ID
+     * @return 課金。課金状態を設定していない場合は未確定
+     */
+    private CompletableFuture<Charge> fetch(StoreId store, ChargeId charge) {
+        fetches.merge(charge.toUUID(), 1, Integer::sum);
+        Charge mock = Mockito.mock(Charge.class);
+        Mockito.doReturn(statuses.getOrDefault(charge.toUUID(), ChargeStatus.PENDING)).when(mock).getStatus();
+        return CompletableFuture.completedFuture(mock);
+    }
+}
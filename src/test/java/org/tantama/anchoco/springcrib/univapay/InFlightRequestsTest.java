@@ -0,0 +1,151 @@
+package org.tantama.anchoco.springcrib.univapay;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link InFlightRequests}のテスト
+ */
+@DisplayName("実行中の処理の重複排除")
+class InFlightRequestsTest {
+
+    /** テスト対象 */
+    private InFlightRequests<String> target;
+
+    /** 処理の実行回数 */
+    private final AtomicInteger started = new AtomicInteger();
+
+    /**
+     * 初期処理
+     */
+    @BeforeEach
+    public void init() {
+        target = new InFlightRequests<>();
+        started.set(0);
+    }
+
+    /**
+     * {@link InFlightRequests#submit(String, java.util.function.Supplier)}のテスト<br>
+     * 同じキーの処理が実行中の場合は新たに実行せず、同じ結果を返す
+     *
+     * @throws Exception 処理時例外
+     */
+    @Test
+    @DisplayName("実行中の重複の排除")
+    void testSubmitCollapse() throws Exception {
+
+        final CompletableFuture<String> response = new CompletableFuture<>();
+
+        CompletableFuture<String> first = target.submit("order-1", () -> start(response));
+        CompletableFuture<String> second = target.submit("order-1", () -> start(new CompletableFuture<>()));
+        CompletableFuture<String> other = target.submit("order-2", () -> start(CompletableFuture.completedFuture("other")));
+
+        assertEquals(2, started.get(), "started");
+        assertEquals(1, target.getCollapsedCount(), "collapsed");
+        assertFalse(second.isDone(), "second waits first");
+
+        response.complete("charged");
+
+        assertEquals("charged", first.get());
+        assertEquals("charged", second.get());
+        assertEquals("other", other.get());
+        assertEquals(0, target.size(), "removed after completion");
+    }
+
+    /**
+     * {@link InFlightRequests#submit(String, java.util.function.Supplier)}のテスト<br>
+     * 完了後の同じキーの処理は、新たに実行する
+     *
+     * @throws Exception 処理時例外
+     */
+    @Test
+    @DisplayName("完了後の再実行")
+    void testSubmitAfterCompletion() throws Exception {
+
+        assertEquals("1", target.submit("order-1", () -> start(CompletableFuture.completedFuture("1"))).get());
+        assertEquals("2", target.submit("order-1", () -> start(CompletableFuture.completedFuture("2"))).get());
+
+        assertEquals(2, started.get(), "started");
+        assertEquals(0, target.getCollapsedCount(), "collapsed");
+    }
+
+    /**
+     * {@link InFlightRequests#submit(String, java.util.function.Supplier)}のテスト<br>
+     * 失敗した場合、実行中の重複も同じエラーで失敗し、次の実行は新たに行う
+     *
+     * @throws Exception 処理時例外
+     */
+    @Test
+    @DisplayName("失敗の共有")
+    void testSubmitFailure() throws Exception {
+
+        final CompletableFuture<String> response = new CompletableFuture<>();
+
+        CompletableFuture<String> first = target.submit("order-1", () -> start(response));
+        CompletableFuture<String> second = target.submit("order-1", () -> start(new CompletableFuture<>()));
+
+        response.completeExceptionally(new IllegalStateException("refused"));
+
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, first::get).getCause());
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, second::get).getCause());
+        assertEquals("retry", target.submit("order-1", () -> start(CompletableFuture.completedFuture("retry"))).get());
+    }
+
+    /**
+     * {@link InFlightRequests#submit(String, java.util.function.Supplier)}のテスト<br>
+     * 処理の開始時の例外は、その例外で失敗する
+     */
+    @Test
+    @DisplayName("処理の開始時の例外")
+    void testSubmitStartFailure() {
+
+        CompletableFuture<String> result = target.submit("order-1", () -> {
+            throw new IllegalArgumentException("invalid");
+        });
+
+        assertTrue(result.isCompletedExceptionally(), "failed");
+        assertInstanceOf(IllegalArgumentException.class, assertThrows(ExecutionException.class, result::get).getCause());
+        assertEquals(0, target.size(), "removed");
+    }
+
+    /**
+     * {@link InFlightRequests#submit(String, java.util.function.Supplier)}のテスト<br>
+     * 呼び出し元で結果を完了させても、他の呼び出し元に影響しない
+     *
+     * @throws Exception 処理時例外
+     */
+    @Test
+    @DisplayName("呼び出し元ごとの結果")
+    void testSubmitIsolated() throws Exception {
+
+        final CompletableFuture<String> response = new CompletableFuture<>();
+
+        CompletableFuture<String> first = target.submit("order-1", () -> start(response));
+        CompletableFuture<String> second = target.submit("order-1", () -> start(new CompletableFuture<>()));
+
+        first.cancel(true);
+        response.complete("charged");
+
+        assertEquals("charged", second.get());
+    }
+
+    /**
+     * 処理の開始
+     *
+     * @param response 処理結果
+     * @return 処理結果
+     */
+    private CompletableFuture<String> start(CompletableFuture<String> response) {
+        started.incrementAndGet();
+        return response;
+    }
+}
@@ -0,0 +1,217 @@
+package org.tantama.anchoco.springcrib.univapay;
+
+import com.univapay.sdk.models.common.ChargeId;
+import com.univapay.sdk.models.common.StoreId;
+import com.univapay.sdk.models.response.refund.Refund;
+import com.univapay.sdk.types.RefundReason;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+
+/**
+ * {@link UnivapayBulkRefunder}のテスト
+ */
+@DisplayName("Univapayへの一括返金")
+class UnivapayBulkRefunderTest {
+
+    /** 同時実行数 */
+    private static final int CONCURRENCY = 3;
+
+    /** テスト対象 */
+    private UnivapayBulkRefunder target;
+
+    /** Univapayへの接続 */
+    private Univapay univapay;
+
+    /** 返金結果 */
+    private final Refund refund = Mockito.mock(Refund.class);
+
+    /** 実行中の返金の数 */
+    private final AtomicInteger running = new AtomicInteger();
+
+    /** 実行中の返金の数の最大 */
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    /**
+     * 初期処理
+     */
+    @BeforeEach
+    public void init() {
+        univapay = Mockito.mock(Univapay.class);
+        target = new UnivapayBulkRefunder(univapay, CONCURRENCY);
+        running.set(0);
+        maxRunning.set(0);
+    }
+
+    /**
+     * {@link UnivapayBulkRefunder#refundAll(List, RefundReason, String, java.util.function.Consumer)}のテスト<br>
+     * 同時実行数を超えずに全件を返金し、1件ごとの結果を通知する
+     */
+    @Test
+    @DisplayName("一括返金")
+    void testRefundAll() {
+
+        Mockito.when(univapay.refunds(any(), any(), any(), anyString(), any(), anyString()))
+                .thenAnswer(invocation -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(20);
+                    running.decrementAndGet();
+                    return refund;
+                });
+
+        List<UnivapayRefundRequest> requests = requests(20);
+        List<UnivapayRefundResult> results = Collections.synchronizedList(new ArrayList<>());
+
+        UnivapayRefundSummary summary = target.refundAll(requests, RefundReason.CUSTOMER_REQUEST, "イベント中止",
+                results::add);
+
+        assertAll("summary",
+            () -> assertEquals(20, summary.getTotal(), "total"),
+            () -> assertEquals(20, summary.getSucceeded(), "succeeded"),
+            () -> assertEquals(0, summary.getFailed(), "failed"),
+            () -> assertTrue(summary.getThroughput() > 0, "throughput"),
+            () -> assertEquals(20, results.size(), "streamed"),
+            () -> assertTrue(results.stream().allMatch(r -> r.getRefund() == refund), "refund"),
+            () -> assertTrue(maxRunning.get() <= CONCURRENCY, "concurrency"));
+        Mockito.verify(univapay, Mockito.times(20))
+                .refunds(any(), any(), any(), anyString(), Mockito.eq(RefundReason.CUSTOMER_REQUEST),
+                        Mockito.eq("イベント中止"));
+    }
+
+    /**
+     * {@link UnivapayBulkRefunder#refundAll(List, RefundReason, String, java.util.function.Consumer)}のテスト<br>
+     * 失敗した返金があっても中断せず、失敗した結果を集計する
+     */
+    @Test
+    @DisplayName("一括返金:一部失敗")
+    void testRefundAllPartialFailure() {
+
+        List<UnivapayRefundRequest> requests = requests(10);
+        final RuntimeException error = new RuntimeException("refund exceeds charge amount");
+        Mockito.when(univapay.refunds(any(), any(), any(), anyString(), any(), anyString()))
+                .thenAnswer(invocation -> {
+                    String orderNo = invocation.getArgument(3);
+                    if (orderNo.equals("order-3") || orderNo.equals("order-7")) {
+                        throw error;
+                    }
+                    return refund;
+                });
+
+        UnivapayRefundSummary summary = target.refundAll(requests, RefundReason.CUSTOMER_REQUEST, "イベント中止",
+                result -> { });
+
+        assertAll("summary",
+            () -> assertEquals(10, summary.getTotal(), "total"),
+            () -> assertEquals(8, summary.getSucceeded(), "succeeded"),
+            () -> assertEquals(2, summary.getFailed(), "failed"),
+            () -> assertEquals(3, summary.getFailures().get(0).getIndex(), "first failure"),
+            () -> assertEquals(7, summary.getFailures().get(1).getIndex(), "second failure"),
+            () -> assertSame(requests.get(3), summary.getFailures().get(0).getRequest(), "request"),
+            () -> assertSame(error, summary.getFailures().get(0).getError(), "error"),
+            () -> assertNull(summary.getFailures().get(0).getRefund(), "refund"),
+            () -> assertFalse(summary.getFailures().get(0).isSuccess(), "success"),
+            () -> assertEquals(0, summary.getUnknown(), "unknown"));
+    }
+
+    /**
+     * {@link UnivapayBulkRefunder#refundAll(List, RefundReason, String, java.util.function.Consumer)}のテスト<br>
+     * 一時的なエラー(通信エラー)の返金は、作成された可能性があるため失敗と分けて結果不明として集計する
+     */
+    @Test
+    @DisplayName("一括返金:結果不明")
+    void testRefundAllInDoubt() {
+
+        List<UnivapayRefundRequest> requests = requests(10);
+        final RuntimeException declined = new RuntimeException("refund exceeds charge amount");
+        final RuntimeException timeout = new UncheckedIOException(new SocketTimeoutException("read timed out"));
+        Mockito.when(univapay.refunds(any(), any(), any(), anyString(), any(), anyString()))
+                .thenAnswer(invocation -> {
+                    String orderNo = invocation.getArgument(3);
+                    if (orderNo.equals("order-2")) {
+                        throw declined;
+                    }
+                    if (orderNo.equals("order-5")) {
+                        throw timeout;
+                    }
+                    return refund;
+                });
+
+        UnivapayRefundSummary summary = target.refundAll(requests, RefundReason.CUSTOMER_REQUEST, "イベント中止",
+                result -> { });
+
+        assertAll("summary",
+            () -> assertEquals(10, summary.getTotal(), "total"),
+            () -> assertEquals(8, summary.getSucceeded(), "succeeded"),
+            () -> assertEquals(1, summary.getFailed(), "failed"),
+            () -> assertEquals(1, summary.getUnknown(), "unknown"),
+            () -> assertEquals(2, summary.getFailures().get(0).getIndex(), "failure"),
+            () -> assertFalse(summary.getFailures().get(0).isInDoubt(), "failure in doubt"),
+            () -> assertEquals(5, summary.getInDoubt().get(0).getIndex(), "in doubt"),
+            () -> assertSame(timeout, summary.getInDoubt().get(0).getError(), "error"),
+            () -> assertTrue(summary.getInDoubt().get(0).isInDoubt(), "in doubt"));
+    }
+
+    /**
+     * {@link UnivapayBulkRefunder#refundAll(List, RefundReason, String, java.util.function.Consumer)}のテスト<br>
+     * 通知先でエラーになった場合は中断し、そのエラーを投げる
+     */
+    @Test
+    @DisplayName("一括返金:通知先のエラー")
+    void testRefundAllConsumerFailure() {
+
+        Mockito.when(univapay.refunds(any(), any(), any(), anyString(), any(), anyString())).thenReturn(refund);
+
+        assertThrows(IllegalStateException.class,
+            () -> target.refundAll(requests(5), RefundReason.CUSTOMER_REQUEST, "イベント中止", result -> {
+                throw new IllegalStateException("consumer failed");
+            }));
+    }
+
+    /**
+     * {@link UnivapayBulkRefunder#refundAll(List, RefundReason, String, java.util.function.Consumer)}のテスト<br>
+     * 返金内容が無い場合は何もしない
+     */
+    @Test
+    @DisplayName("一括返金:空")
+    void testRefundAllEmpty() {
+
+        UnivapayRefundSummary summary = target.refundAll(List.of(), RefundReason.CUSTOMER_REQUEST, "イベント中止",
+                result -> { });
+
+        assertEquals(0, summary.getTotal());
+        Mockito.verifyNoInteractions(univapay);
+    }
+
+    /**
+     * 返金内容の作成
+     *
+     * @param count 件数
+     * @return 返金内容
+     */
+    private static List<UnivapayRefundRequest> requests(int count) {
+        final StoreId storeId = new StoreId(UUID.randomUUID());
+        return IntStream.range(0, count)
+                .mapToObj(i -> new UnivapayRefundRequest(new ChargeId(UUID.randomUUID()), storeId,
+                        BigDecimal.valueOf(1000), "order-" + i))
+                .toList();
+    }
+}
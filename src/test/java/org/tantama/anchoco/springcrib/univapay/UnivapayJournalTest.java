@@ -0,0 +1,253 @@
+package org.tantama.anchoco.springcrib.univapay;
+
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.tantama.anchoco.springcrib.univapay.UnivapayJournalEntry.Operation;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link UnivapayJournal}のテスト
+ */
+@DisplayName("Univapayの決済操作の記録")
+class UnivapayJournalTest {
+
+    /** 保存先ディレクトリ */
+    @TempDir
+    Path directory;
+
+    /**
+     * {@link UnivapayJournal#getInDoubt()}のテスト<br>
+     * 再起動後、結果が記録されていない操作のみを返す。課金の作成を記録済みの場合は課金IDを含む
+     */
+    @Test
+    @DisplayName("結果が不明な操作")
+    void testInDoubt() {
+
+        final String chargeId = UUID.randomUUID().toString();
+        final String storeId = UUID.randomUUID().toString();
+
+        try (UnivapayJournal journal = open()) {
+            journal.write(UnivapayJournalEntry.chargeIntent("charge-1", "order-1", BigDecimal.valueOf(1000)));
+            journal.write(UnivapayJournalEntry.created("charge-1", chargeId, storeId));
+            journal.write(UnivapayJournalEntry.outcome(Operation.CHARGE, "charge-1", "AWAITING", null));
+
+            journal.write(UnivapayJournalEntry.chargeIntent("charge-2", "order-2", BigDecimal.valueOf(2000)));
+            journal.write(UnivapayJournalEntry.created("charge-2", chargeId, storeId));
+
+            journal.write(UnivapayJournalEntry.chargeIntent("charge-3", "order-3", BigDecimal.valueOf(3000)));
+
+            journal.write(UnivapayJournalEntry.refundIntent("refund-1", "order-1", BigDecimal.valueOf(1000), chargeId,
+                    storeId, "CUSTOMER_REQUEST", "返金の理由"));
+        }
+
+        try (UnivapayJournal restarted = open()) {
+            List<UnivapayJournalEntry> inDoubt = restarted.getInDoubt();
+
+            assertAll("in doubt",
+                () -> assertEquals(3, inDoubt.size(), "size"),
+                () -> assertEquals("charge-2", inDoubt.get(0).getKey(), "created charge"),
+                () -> assertEquals(chargeId, inDoubt.get(0).getChargeId(), "charge id"),
+                () -> assertEquals(storeId, inDoubt.get(0).getStoreId(), "store id"),
+                () -> assertEquals("order-2", inDoubt.get(0).getOrderNo(), "order no"),
+                () -> assertEquals("charge-3", inDoubt.get(1).getKey(), "intent only"),
+                () -> assertNull(inDoubt.get(1).getChargeId(), "no charge id"),
+                () -> assertEquals(Operation.REFUND, inDoubt.get(2).getOperation(), "refund"),
+                () -> assertEquals("返金の理由", inDoubt.get(2).getMessage(), "message"),
+                () -> assertEquals(0, BigDecimal.valueOf(1000).compareTo(inDoubt.get(2).getAmount()), "amount"));
+        }
+    }
+
+    /**
+     * {@link UnivapayJournal#getInDoubt()}のテスト<br>
+     * 課金の作成前に停止した課金は、照合結果を記録するまで結果が不明な操作として残す
+     */
+    @Test
+    @DisplayName("照合結果の記録")
+    void testReconciled() {
+
+        try (UnivapayJournal journal = open()) {
+            journal.write(UnivapayJournalEntry.chargeIntent("charge-1", "order-1", BigDecimal.ONE));
+        }
+
+        // 照合するまでは再起動しても残る
+        try (UnivapayJournal restarted = open()) {
+            assertEquals(1, restarted.getInDoubt().size());
+            restarted.write(UnivapayJournalEntry.reconciled("charge-1", UnivapayJournalEntry.FAILED));
+        }
+
+        try (UnivapayJournal restarted = open()) {
+            assertTrue(restarted.getInDoubt().isEmpty());
+        }
+    }
+
+    /**
+     * {@link UnivapayJournal#write(UnivapayJournalEntry)}のテスト<br>
+     * 書き込みに失敗し、切り詰めもできない場合は、以降の記録を全て失敗にする
+     *
+     * @throws Exception 処理時例外
+     */
+    @Test
+    @DisplayName("書き込みの失敗")
+    void testWriteFailure() throws Exception {
+
+        try (UnivapayJournal journal = open()) {
+            journal.write(UnivapayJournalEntry.chargeIntent("charge-1", "order-1", BigDecimal.ONE));
+
+            // 記録ファイルに書き込めない状態にする
+            ((FileChannel) ReflectionTestUtils.getField(journal, "channel")).close();
+
+            assertThrows(UncheckedIOException.class,
+                () -> journal.write(UnivapayJournalEntry.chargeIntent("charge-2", "order-2", BigDecimal.ONE)));
+            assertTrue(journal.isFailed());
+            assertThrows(UncheckedIOException.class,
+                () -> journal.write(UnivapayJournalEntry.chargeIntent("charge-3", "order-3", BigDecimal.ONE)));
+        }
+
+        // 書き込みが完了した記録のみ残る
+        try (UnivapayJournal restarted = open()) {
+            assertEquals(1, restarted.getInDoubt().size());
+            assertEquals("charge-1", restarted.getInDoubt().get(0).getKey());
+        }
+    }
+
+    /**
+     * {@link UnivapayJournal#open()}のテスト<br>
+     * 書き込み途中の最終行と、CRC32が一致しない行は読み飛ばす
+     *
+     * @throws Exception 処理時例外
+     */
+    @Test
+    @DisplayName("壊れた記録の読み飛ばし")
+    void testCorrupted() throws Exception {
+
+        try (UnivapayJournal journal = open()) {
+            journal.write(UnivapayJournalEntry.chargeIntent("charge-1", "order-1", BigDecimal.ONE));
+            journal.write(UnivapayJournalEntry.chargeIntent("charge-2", "order-2", BigDecimal.ONE));
+        }
+
+        Path file = directory.resolve("univapay.journal");
+        byte[] content = Files.readAllBytes(file);
+        // 1行目の内容を書き換え、CRC32を不一致にする
+        content[20] ^= 1;
+        Files.write(file, content);
+        // 書き込み途中で停止した行
+        Files.write(file, "0000abcd {\"type\":\"INT".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (UnivapayJournal restarted = open()) {
+            List<UnivapayJournalEntry> inDoubt = restarted.getInDoubt();
+            assertEquals(1, inDoubt.size());
+            assertEquals("charge-2", inDoubt.get(0).getKey());
+
+            // 書き直し後の追記は読み込める
+            restarted.write(UnivapayJournalEntry.chargeIntent("charge-3", "order-3", BigDecimal.ONE));
+        }
+
+        try (UnivapayJournal restarted = open()) {
+            assertEquals(2, restarted.getInDoubt().size());
+        }
+    }
+
+    /**
+     * {@link UnivapayJournal#open()}のテスト<br>
+     * 起動時に結果が不明な操作のみを残してファイルを書き直す
+     *
+     * @throws Exception 処理時例外
+     */
+    @Test
+    @DisplayName("記録ファイルの書き直し")
+    void testCompact() throws Exception {
+
+        try (UnivapayJournal journal = open()) {
+            for (int i = 0; i < 100; i++) {
+                journal.write(UnivapayJournalEntry.chargeIntent("charge-" + i, "order-" + i, BigDecimal.ONE));
+                if (i != 50) {
+                    journal.write(UnivapayJournalEntry.outcome(Operation.CHARGE, "charge-" + i, "AWAITING", null));
+                }
+            }
+        }
+
+        try (UnivapayJournal restarted = open()) {
+            assertEquals(1, restarted.getInDoubt().size());
+        }
+        assertEquals(1, Files.readAllLines(directory.resolve("univapay.journal")).size());
+    }
+
+    /**
+     * {@link UnivapayJournal#append(UnivapayJournalEntry)}のテスト<br>
+     * 同時に記録した場合は、まとめて書き込む(書き込み回数が記録した数を超えない)
+     *
+     * @throws Exception 処理時例外
+     */
+    @Test
+    @DisplayName("まとめて書き込む")
+    void testGroupCommit() throws Exception {
+
+        final int count = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try (UnivapayJournal journal = open()) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                final String key = "charge-" + i;
+                futures.add(executor.submit(
+                        () -> journal.write(UnivapayJournalEntry.chargeIntent(key, key, BigDecimal.ONE))));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            assertEquals(count, journal.getAppendCount());
+            assertTrue(journal.getCommitCount() <= count, "commit count");
+        } finally {
+            executor.shutdown();
+        }
+
+        try (UnivapayJournal restarted = open()) {
+            assertEquals(count, restarted.getInDoubt().size());
+        }
+    }
+
+    /**
+     * {@link UnivapayJournal#write(UnivapayJournalEntry)}のテスト<br>
+     * 終了後の記録はエラーになる
+     */
+    @Test
+    @DisplayName("終了後の記録")
+    void testClosed() {
+
+        UnivapayJournal journal = open();
+        journal.close();
+
+        assertThrows(IllegalStateException.class,
+            () -> journal.write(UnivapayJournalEntry.chargeIntent("charge-1", "order-1", BigDecimal.ONE)));
+    }
+
+    /**
+     * 記録を開く
+     *
+     * @return 記録
+     */
+    private UnivapayJournal open() {
+        UnivapayJournal journal = new UnivapayJournal(directory, true);
+        journal.open();
+        return journal;
+    }
+}
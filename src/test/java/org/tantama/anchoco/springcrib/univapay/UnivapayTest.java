@@ -5,11 +5,14 @@ import com.univapay.sdk.models.common.RefundId;
 import com.univapay.sdk.models.common.StoreId;
 import com.univapay.sdk.models.response.charge.Charge;
 import com.univapay.sdk.models.response.refund.Refund;
+import com.univapay.sdk.types.ChargeStatus;
 import com.univapay.sdk.types.ProcessingMode;
 import com.univapay.sdk.types.RefundReason;
 import java.math.BigDecimal;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.RandomUtils;
@@ -19,9 +22,14 @@ import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.mockserver.integration.ClientAndServer;
+import org.mockserver.matchers.Times;
+import org.mockserver.verify.VerificationTimes;
 import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -443,6 +451,120 @@ class UnivapayTest {
 
     }
 
+    /**
+     * {@link Univapay#chargeAsync(String, BigDecimal, String)}のテスト<br>
+     * 課金状態が未確定の間はポーリングを続け、処理待ちになった課金オブジェクトが返却される
+     *
+     * @throws Exception 処理時例外
+     */
+    @Test
+    @DisplayName("非同期の課金")
+    void testChargeAsync() throws Exception {
+
+        ReflectionTestUtils.setField(target, "pollingIntervalMs", 10L);
+
+        final int amount = RandomUtils.nextInt();
+
+        final UUID tokenId = UUID.randomUUID();
+        final UUID storeId = UUID.randomUUID();
+        final UUID chargeId = UUID.randomUUID();
+        final String tokenJson = """
+                 {
+                  "id": "%s",
+                  "payment_type": "card",
+                  "mode": "test",
+                  "type": "one_time",
+                  "created_on": "2022-06-27T03:27:40.928378Z"
+                }
+                                """.formatted(tokenId.toString());
+
+        // create token
+        mockServer.when(request()
+                .withMethod("POST")
+                .withPath(ApiPath.tokens))
+                .respond(response(tokenJson)
+                        .withStatusCode(HttpStatus.OK.value()));
+        // charge
+        mockServer.when(request()
+                .withMethod("POST")
+                .withPath(ApiPath.charges))
+                .respond(response(chargeJson(chargeId, storeId, tokenId, amount, "pending"))
+                        .withStatusCode(HttpStatus.OK.value()));
+
+        // polling. 2回は未確定、その後処理待ち
+        final String pollingPath = ApiPath.stores + "/" + storeId.toString()
+                + ApiPath.charges + "/" + chargeId.toString();
+        mockServer.when(request()
+                .withMethod("GET")
+                .withPath(pollingPath), Times.exactly(2))
+                .respond(response(chargeJson(chargeId, storeId, tokenId, amount, "pending"))
+                        .withStatusCode(HttpStatus.OK.value()));
+        mockServer.when(request()
+                .withMethod("GET")
+                .withPath(pollingPath))
+                .respond(response(chargeJson(chargeId, storeId, tokenId, amount, "awaiting"))
+                        .withStatusCode(HttpStatus.OK.value()));
+
+        Charge chargesResult = target.chargeAsync("open-id", BigDecimal.valueOf(amount), "order-no")
+                .get(timeout, TimeUnit.SECONDS);
+        assertAll("charge", () -> {
+            assertEquals(chargeId, chargesResult.getId().toUUID(), "charge id");
+            assertEquals(ChargeStatus.AWAITING, chargesResult.getStatus(), "status");
+        });
+        mockServer.verify(request()
+                .withMethod("GET")
+                .withPath(pollingPath), VerificationTimes.exactly(3));
+    }
+
+    /**
+     * {@link Univapay#chargeAsync(String, BigDecimal, String)}のテスト<br>
+     * トランザクショントークン作成エラー時に、エラーで失敗する
+     */
+    @Test
+    @DisplayName("非同期の課金:トークン作成失敗")
+    void testChargeAsyncCreateTokenFailure() {
+
+        final int amount = RandomUtils.nextInt();
+
+        // create token error
+        mockServer.when(request()
+                .withMethod("POST")
+                .withPath(ApiPath.tokens))
+                .respond(response("{}")
+                        .withStatusCode(HttpStatus.UNAUTHORIZED.value()));
+
+        CompletableFuture<Charge> future = target.chargeAsync("open-id", BigDecimal.valueOf(amount), "order-no");
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> future.get(timeout, TimeUnit.SECONDS));
+        assertInstanceOf(RuntimeException.class, exception.getCause());
+    }
+
+    /**
+     * 課金のレスポンス
+     *
+     * @param chargeId 課金ID
+     * @param storeId  店舗ID
+     * @param tokenId  トランザクショントークンID
+     * @param amount   課金金額
+     * @param status   課金状態
+     * @return 課金のレスポンス(json)
+     */
+    private static String chargeJson(UUID chargeId, UUID storeId, UUID tokenId, int amount, String status) {
+        return """
+                {
+                  "id": "%s",
+                  "store_id": "%s",
+                  "transaction_token_id": "%s",
+                  "requested_amount": %d,
+                  "requested_currency": "JPY",
+                  "requested_amount_formatted": %d,
+                  "status": "%s",
+                  "error": null,
+                  "mode": "test",
+                  "created_on": "2022-06-27T03:27:40.928378Z"
+                }
+                """.formatted(chargeId, storeId, tokenId, amount, amount, status);
+    }
+
     /**
      * {@link Univapay#getIssuerToken(StoreId, ChargeId)}のテスト<br>
      * テストモードの場合、空が返却される。
@@ -624,6 +746,80 @@ class UnivapayTest {
 
     }
 
+    /**
+     * {@link Univapay#refunds(ChargeId, StoreId, BigDecimal, String, RefundReason, String)}のテスト<br>
+     * 注文番号、課金ID、返金額から決まる冪等キーを送信する
+     */
+    @Test
+    @DisplayName("全額返金:冪等キーの送信")
+    void testRefundsIdempotencyKey() {
+
+        final RefundId refundId = new RefundId(UUID.randomUUID());
+        final StoreId storeId = new StoreId(UUID.randomUUID());
+        final ChargeId chargeId = new ChargeId(UUID.randomUUID());
+        final int amount = RandomUtils.nextInt();
+        final String orderNo = RandomStringUtils.randomAlphanumeric(16);
+
+        final String refundsJson = """
+                {
+                  "id": "%s",
+                  "charge_id": "%s",
+                  "status": "pending",
+                  "amount": %d,
+                  "currency": "JPY",
+                  "amount_formatted": %d,
+                  "reason": "customer_request",
+                  "error": null,
+                  "mode": "test",
+                  "created_on": "2018-07-13T02:55:00.07367Z"
+                }
+                """.formatted(refundId.toString(), chargeId.toString(), amount, amount);
+
+        final String url = ApiPath.stores + "/" + storeId.toString()
+                + ApiPath.charges + "/" + chargeId.toString() + "/refunds";
+        mockServer.when(request()
+                .withMethod("POST")
+                .withPath(url))
+                .respond(response(refundsJson)
+                        .withStatusCode(HttpStatus.OK.value()));
+
+        final String key = target.idempotencyKey("refund", orderNo, chargeId.toString(),
+                BigDecimal.valueOf(amount).toPlainString());
+
+        target.refunds(chargeId, storeId, BigDecimal.valueOf(amount), orderNo, RefundReason.CUSTOMER_REQUEST, "返金の理由");
+        target.refunds(chargeId, storeId, BigDecimal.valueOf(amount), orderNo, RefundReason.CUSTOMER_REQUEST, "返金の理由");
+
+        // 再送しても同じ冪等キーを送信する
+        mockServer.verify(request()
+                .withMethod("POST")
+                .withPath(url)
+                .withHeader("Idempotency-Key", key), VerificationTimes.exactly(2));
+    }
+
+    /**
+     * {@link Univapay#idempotencyKey(String, String...)}のテスト<br>
+     * 同じ操作、注文番号からは同じキーになり、異なる場合は異なるキーになる
+     */
+    @Test
+    @DisplayName("冪等キー")
+    void testIdempotencyKey() {
+
+        final String orderNo = RandomStringUtils.randomAlphanumeric(16);
+        final Univapay other = new Univapay(true, MOCK_END_POINT, timeout, "他の店舗", jwt, secret);
+
+        assertAll("idempotency key",
+            () -> assertEquals(target.idempotencyKey("charge", orderNo), target.idempotencyKey("charge", orderNo),
+                "same order"),
+            () -> assertNotEquals(target.idempotencyKey("charge", orderNo), target.idempotencyKey("refund", orderNo),
+                "other operation"),
+            () -> assertNotEquals(target.idempotencyKey("charge", orderNo), target.idempotencyKey("charge", orderNo + "1"),
+                "other order"),
+            () -> assertNotEquals(target.idempotencyKey("charge", orderNo), other.idempotencyKey("charge", orderNo),
+                "other shop"),
+            () -> assertNotEquals(target.idempotencyKey("charge", "a", "bc"), target.idempotencyKey("charge", "ab", "c"),
+                "parts boundary"));
+    }
+
     /**
      * {@link Univapay#refunds(ChargeId, StoreId, BigDecimal, String, RefundReason, String)}のテスト<br>
      * 返金失敗時、エラーが返却される